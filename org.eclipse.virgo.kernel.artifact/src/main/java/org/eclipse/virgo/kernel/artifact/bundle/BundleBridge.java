@@ -12,8 +12,13 @@
 package org.eclipse.virgo.kernel.artifact.bundle;
 
 import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +62,13 @@ public final class BundleBridge implements ArtifactBridge {
 
     public static final String BRIDGE_TYPE = "bundle";
 
+    /**
+     * The immutable manifest dictionaries of the bundle artifacts described so far, keyed by descriptor identity.
+     * Descriptors which are equal may carry different manifest headers, so a dictionary is only shared by callers
+     * converting the same descriptor instance. Entries are discarded once their descriptor is no longer referenced.
+     */
+    private static final ManifestDictionaries MANIFEST_DICTIONARIES = new ManifestDictionaries();
+
     private final HashGenerator hashGenerator;
 
     public BundleBridge(HashGenerator hashGenerator) {
@@ -135,32 +147,50 @@ public final class BundleBridge implements ArtifactBridge {
 
             Dictionary<String, String> rawManifest = bundleManifest.toDictionary();
             Enumeration<String> keys = rawManifest.keys();
+            CaseInsensitiveMap<String> manifest = new CaseInsensitiveMap<String>();
 
             while (keys.hasMoreElements()) {
                 String key = keys.nextElement();
                 String value = rawManifest.get(key);
                 artifactDescriptorBuilder.addAttribute(new AttributeBuilder().setName(RAW_HEADER_PREFIX + key).setValue(value).build());
+                manifest.put(key, value);
             }
 
-            return artifactDescriptorBuilder.build();
+            ArtifactDescriptor artifactDescriptor = artifactDescriptorBuilder.build();
+            MANIFEST_DICTIONARIES.put(artifactDescriptor, createManifestDictionary(manifest));
+            return artifactDescriptor;
         } catch (Exception e) {
             throw new ArtifactGenerationException("Manifest ill-formed.", BRIDGE_TYPE, e);
         }
     }
 
     /**
-     * Providing the <code>artifactDescriptor</code> was created by this bridge in the first place then all its
-     * attributes from the main section of the manifest are placed in to a dictionary and returned. If not then
-     * <code>null</code> is returned.
+     * Providing the <code>artifactDescriptor</code> was created by this bridge in the first place then a case insensitive
+     * dictionary of all its attributes from the main section of the manifest is returned. If not then <code>null</code>
+     * is returned.
+     * <p/>
+     * The dictionary is built once, when the bridge generates the descriptor or when the descriptor is first converted,
+     * and is shared by all callers converting the same descriptor. It cannot be modified.
      *
      * @param artifactDescriptor to be converted
-     * @return the new dictionary or null if the provided <code>artifactDescriptor</code> was not created by this bridge
+     * @return the immutable dictionary or null if the provided <code>artifactDescriptor</code> was not created by this
+     *         bridge
      */
     public static Dictionary<String, String> convertToDictionary(ArtifactDescriptor artifactDescriptor) {
-        Map<String, String> map = convertToMap(artifactDescriptor);
-        
-        return map == null ? null : new MapToDictionaryAdapter(map);
+        if (!BRIDGE_TYPE.equals(artifactDescriptor.getType())) {
+            return null;
+        }
+
+        Dictionary<String, String> dictionary = MANIFEST_DICTIONARIES.get(artifactDescriptor);
+        if (dictionary == null) {
+            dictionary = createManifestDictionary(convertToMap(artifactDescriptor));
+            MANIFEST_DICTIONARIES.put(artifactDescriptor, dictionary);
+        }
+        return dictionary;
+    }
 
+    private static Dictionary<String, String> createManifestDictionary(Map<String, String> manifest) {
+        return new MapToDictionaryAdapter(Collections.unmodifiableMap(manifest));
     }
     
     /**
@@ -267,4 +297,72 @@ public final class BundleBridge implements ArtifactBridge {
         }
     }
 
+    /**
+     * {@link ManifestDictionaries} maps artifact descriptors, by identity, to their manifest dictionaries and holds the
+     * descriptors weakly.
+     * <p />
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * This class is thread safe.
+     * 
+     */
+    private static final class ManifestDictionaries {
+
+        private final Object monitor = new Object();
+
+        private final Map<DescriptorReference, Dictionary<String, String>> dictionaries = new HashMap<DescriptorReference, Dictionary<String, String>>();
+
+        private final ReferenceQueue<ArtifactDescriptor> referenceQueue = new ReferenceQueue<ArtifactDescriptor>();
+
+        Dictionary<String, String> get(ArtifactDescriptor artifactDescriptor) {
+            synchronized (this.monitor) {
+                expungeStaleEntries();
+                return this.dictionaries.get(new DescriptorReference(artifactDescriptor, null));
+            }
+        }
+
+        void put(ArtifactDescriptor artifactDescriptor, Dictionary<String, String> dictionary) {
+            synchronized (this.monitor) {
+                expungeStaleEntries();
+                this.dictionaries.put(new DescriptorReference(artifactDescriptor, this.referenceQueue), dictionary);
+            }
+        }
+
+        private void expungeStaleEntries() {
+            Reference<? extends ArtifactDescriptor> reference;
+            while ((reference = this.referenceQueue.poll()) != null) {
+                this.dictionaries.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * A weak reference to an artifact descriptor which is equal only to references to the same descriptor instance.
+     */
+    private static final class DescriptorReference extends WeakReference<ArtifactDescriptor> {
+
+        private final int hashCode;
+
+        DescriptorReference(ArtifactDescriptor artifactDescriptor, ReferenceQueue<ArtifactDescriptor> referenceQueue) {
+            super(artifactDescriptor, referenceQueue);
+            this.hashCode = System.identityHashCode(artifactDescriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DescriptorReference)) {
+                return false;
+            }
+            ArtifactDescriptor artifactDescriptor = get();
+            return artifactDescriptor != null && artifactDescriptor == ((DescriptorReference) obj).get();
+        }
+    }
 }
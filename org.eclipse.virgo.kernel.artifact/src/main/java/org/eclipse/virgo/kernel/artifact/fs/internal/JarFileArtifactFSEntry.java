@@ -13,18 +13,16 @@
 
 package org.eclipse.virgo.kernel.artifact.fs.internal;
 
-import java.io.BufferedInputStream;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import org.eclipse.virgo.kernel.artifact.fs.ArtifactFS;
 import org.eclipse.virgo.kernel.artifact.fs.ArtifactFSEntry;
@@ -32,10 +30,11 @@ import org.eclipse.virgo.kernel.artifact.fs.ArtifactFSEntry;
 /**
  * {@link JarFileArtifactFSEntry} is an {@link ArtifactFSEntry} implementation for JAR file entries.
  * <p/>
- * The implementation uses ZipInputStream specifically to avoid JarFile's caching behaviour, inherited from that of
- * ZipFile. See the note on caching in http://java.sun.com/developer/technicalArticles/Programming/compression/
- * JarFile's caching behaviour is unsuitable as it produces incorrect results when a JAR file is replaced with a new
- * version since the cache returns entries from the old version.
+ * Entries are looked up in a {@link JarFileIndex} built once from the JAR's central directory and their contents are
+ * read by random access using a {@link ZipFile} which is closed when the entry's input stream is closed. JarFile's
+ * caching behaviour, inherited from that of ZipFile, is avoided since it produces incorrect results when a JAR file is
+ * replaced with a new version: the index is rebuilt whenever the file's last modified time or length changes and no
+ * ZipFile is held open between calls.
  * <p/>
  * The implementation handles missing directory entries by simulating them. Although this does not faithfully reflect
  * the structure of a JAR with a missing directory entry, it is more robust for callers who may not expect, or test
@@ -95,73 +94,54 @@ final class JarFileArtifactFSEntry implements ArtifactFSEntry {
      * {@inheritDoc}
      */
     public boolean isDirectory() {
-        ZipEntry zipEntry = findZipEntry();
-        if (zipEntry != null) {
-            return zipEntry.isDirectory();
-        } else {
-            return hasChildren();
-        }
+        return getIndex().isDirectory(this.entryName);
     }
 
-    private ZipEntry findZipEntry() {
-        JarFileScanner scanner = new JarFileScanner();
-        try {
-            ZipEntry entry = scanner.getNextEntry();
-            while (entry != null) {
-                if (this.entryName.equals(entry.getName())) {
-                    return entry;
-                }
-                entry = scanner.getNextEntry();
-            }
-            return null;
-        } finally {
-            scanner.close();
-        }
-    }
-
-    // This method copes with non-existent entries.
-    private boolean hasChildren() {
-        boolean hasChildren = false;
-        if (this.entryName.endsWith("/")) {
-            JarFileScanner scanner = new JarFileScanner();
-            try {
-                ZipEntry entry = scanner.getNextEntry();
-                while (entry != null) {
-                    String name = entry.getName();
-                    if (name != null && name.startsWith(this.entryName)) {
-                        hasChildren = true;
-                        break;
-                    }
-                    entry = scanner.getNextEntry();
-                }
-            } finally {
-                scanner.close();
-            }
-        }
-        return hasChildren;
+    private JarFileIndex getIndex() {
+        return JarFileIndex.getIndex(this.file);
     }
 
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("resource")
-	public InputStream getInputStream() {
-        JarFileScanner scanner = new JarFileScanner();
-        ZipEntry entry = scanner.getNextEntry();
-        while (entry != null && !this.entryName.equals(entry.getName())) {
-            entry = scanner.getNextEntry();
+    public InputStream getInputStream() {
+        JarFileIndex index = getIndex();
+        if (!index.containsEntry(this.entryName)) {
+            throw new UnsupportedOperationException("Cannot open an input stream for a non-existent entry");
+        }
+        if (index.isDirectory(this.entryName)) {
+            throw new UnsupportedOperationException("Cannot open an input stream for a directory");
         }
 
-        if (entry == null) {
-            scanner.close();
-            throw new UnsupportedOperationException("Cannot open an input stream for a non-existent entry");
+        ZipFile zipFile = openZipFile();
+        try {
+            ZipEntry entry = zipFile.getEntry(this.entryName);
+            if (entry == null) {
+                throw new UnsupportedOperationException("Cannot open an input stream for a non-existent entry");
+            }
+            return new ZipFileEntryInputStream(zipFile, zipFile.getInputStream(entry));
+        } catch (IOException e) {
+            closeZipFile(zipFile);
+            throw new UnsupportedOperationException("Cannot open an input stream for entry '" + this.entryName + "'", e);
+        } catch (RuntimeException e) {
+            closeZipFile(zipFile);
+            throw e;
         }
+    }
 
-        if (entry.isDirectory()) {
-            scanner.close();
-            throw new UnsupportedOperationException("Cannot open an input stream for a directory");
+    private ZipFile openZipFile() {
+        try {
+            return new ZipFile(this.file);
+        } catch (IOException e) {
+            throw new UnsupportedOperationException("Cannot open JAR file '" + this.file + "'", e);
+        }
+    }
+
+    private static void closeZipFile(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException _) {
         }
-        return scanner.getZipInputStream();
     }
 
     /**
@@ -175,26 +155,14 @@ final class JarFileArtifactFSEntry implements ArtifactFSEntry {
      * {@inheritDoc}
      */
     public ArtifactFSEntry[] getChildren() {
-        if (!isDirectory()) {
+        JarFileIndex index = getIndex();
+        if (!index.isDirectory(this.entryName)) {
             throw new UnsupportedOperationException("Cannot get children of a non-directory entry");
         }
-        Set<ArtifactFSEntry> children = new HashSet<ArtifactFSEntry>();
-        if (exists()) {
-            JarFileScanner scanner = new JarFileScanner();
-            try {
-                ZipEntry entry = scanner.getNextEntry();
-                while (entry != null) {
-                    String childEntry = entry.getName();
-                    if (childEntry.length() > this.entryName.length() && childEntry.startsWith(this.entryName)) {
-                        children.add(createChildEntry(childEntry));
-                        // Ensure missing parents of this child are added.
-                        addParentDirectories(childEntry, children);
-                    }
-                    entry = scanner.getNextEntry();
-                }
-            } finally {
-                scanner.close();
-            }
+        Set<String> descendants = index.getDescendants(this.entryName);
+        List<ArtifactFSEntry> children = new ArrayList<ArtifactFSEntry>(descendants.size());
+        for (String descendant : descendants) {
+            children.add(createChildEntry(descendant));
         }
         return children.toArray(new ArtifactFSEntry[children.size()]);
     }
@@ -203,18 +171,6 @@ final class JarFileArtifactFSEntry implements ArtifactFSEntry {
         return new JarFileArtifactFSEntry(this.file, childEntryName);
     }
 
-    // Precondition: childEntry.length() > this.entryName.length() && childEntry.startsWith(this.entryName)
-    private void addParentDirectories(String childEntry, Set<ArtifactFSEntry> children) {
-        int l = this.entryName.length();
-        String childPath = childEntry.substring(l);
-        String[] childPathComponents = childPath.split("/");
-        String parentPath = this.entryName;
-        for (int parent = 0; parent < childPathComponents.length - 1; parent++) {
-            parentPath = parentPath + childPathComponents[parent]+ "/";
-            children.add(createChildEntry(parentPath));
-        }
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -226,47 +182,27 @@ final class JarFileArtifactFSEntry implements ArtifactFSEntry {
      * {@inheritDoc}
      */
     public boolean exists() {
-        if (findZipEntry() != null) {
-            return true;
-        } else {
-            return hasChildren();
-        }
+        return getIndex().exists(this.entryName);
     }
 
-    private class JarFileScanner implements Closeable {
-
-        private final ZipInputStream zipInputStream;
-
-        public JarFileScanner() {
-            InputStream is = null;
-            try {
-                is = new BufferedInputStream(new FileInputStream(file));
-            } catch (FileNotFoundException _) {
-            }
-            this.zipInputStream = is == null ? null : new ZipInputStream(is);
-        }
+    /**
+     * An {@link InputStream} for a single entry which closes the entry's {@link ZipFile} when it is closed.
+     */
+    private static final class ZipFileEntryInputStream extends FilterInputStream {
 
-        public ZipEntry getNextEntry() {
-            if (this.zipInputStream != null) {
-                try {
-                    return this.zipInputStream.getNextEntry();
-                } catch (IOException _) {
-                }
-            }
-            return null;
-        }
+        private final ZipFile zipFile;
 
-        public ZipInputStream getZipInputStream() {
-            return this.zipInputStream;
+        private ZipFileEntryInputStream(ZipFile zipFile, InputStream in) {
+            super(in);
+            this.zipFile = zipFile;
         }
 
-        public void close() {
-            if (this.zipInputStream != null) {
-                try {
-                    this.zipInputStream.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.zipFile.close();
             }
         }
     }
@@ -0,0 +1,172 @@
+/*
+ * This file is part of the Eclipse Virgo project.
+ *
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    VMware Inc. - initial contribution
+ */
+
+package org.eclipse.virgo.kernel.artifact.fs.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * {@link JarFileIndex} is an index of the entries of a JAR file built once from the JAR's central directory.
+ * <p/>
+ * Indexes are cached per file and are discarded when the file's last modified time or length changes, so that a JAR
+ * file which is replaced with a new version is re-indexed. The index records directory entries which are missing from
+ * the JAR as simulated directories.
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Thread safe
+ */
+final class JarFileIndex {
+
+    private static final int MAXIMUM_CACHED_INDEXES = 64;
+
+    private static final String DIRECTORY_SEPARATOR = "/";
+
+    private static final char DIRECTORY_SEPARATOR_CHAR = '/';
+
+    private static final JarFileIndex EMPTY_INDEX = new JarFileIndex(0, 0, Collections.<String> emptySet(), new TreeSet<String>());
+
+    private static final Map<File, JarFileIndex> CACHE = new LinkedHashMap<File, JarFileIndex>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, JarFileIndex> eldest) {
+            return size() > MAXIMUM_CACHED_INDEXES;
+        }
+    };
+
+    private final long lastModified;
+
+    private final long length;
+
+    private final Set<String> entryNames;
+
+    private final SortedSet<String> names;
+
+    private JarFileIndex(long lastModified, long length, Set<String> entryNames, SortedSet<String> names) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.entryNames = entryNames;
+        this.names = names;
+    }
+
+    /**
+     * Returns an up to date index of the given JAR file. If the file does not exist or cannot be read as a JAR file, an
+     * empty index is returned.
+     *
+     * @param file the JAR file
+     * @return the index of the file
+     */
+    static JarFileIndex getIndex(File file) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (CACHE) {
+            JarFileIndex index = CACHE.get(file);
+            if (index != null && index.lastModified == lastModified && index.length == length) {
+                return index;
+            }
+        }
+
+        JarFileIndex index = createIndex(file, lastModified, length);
+        synchronized (CACHE) {
+            if (index == EMPTY_INDEX) {
+                CACHE.remove(file);
+            } else {
+                CACHE.put(file, index);
+            }
+        }
+        return index;
+    }
+
+    private static JarFileIndex createIndex(File file, long lastModified, long length) {
+        if (!file.isFile()) {
+            return EMPTY_INDEX;
+        }
+        Set<String> entryNames = new HashSet<String>();
+        SortedSet<String> names = new TreeSet<String>();
+        try {
+            ZipFile zipFile = new ZipFile(file);
+            try {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    entryNames.add(name);
+                    names.add(name);
+                    addParentDirectories(name, names);
+                }
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException _) {
+            return EMPTY_INDEX;
+        }
+        return new JarFileIndex(lastModified, length, entryNames, names);
+    }
+
+    private static void addParentDirectories(String name, Set<String> names) {
+        int separator = name.indexOf(DIRECTORY_SEPARATOR_CHAR);
+        while (separator != -1 && separator < name.length() - 1) {
+            names.add(name.substring(0, separator + 1));
+            separator = name.indexOf(DIRECTORY_SEPARATOR_CHAR, separator + 1);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if and only if the JAR file contains an entry with the given name. Simulated
+     * directories are not considered to be entries.
+     */
+    boolean containsEntry(String entryName) {
+        return this.entryNames.contains(entryName);
+    }
+
+    /**
+     * Returns <code>true</code> if and only if the given name is an entry or a simulated directory.
+     */
+    boolean exists(String entryName) {
+        return this.names.contains(entryName) || isDirectory(entryName);
+    }
+
+    /**
+     * Returns <code>true</code> if and only if the given name denotes a directory entry or a simulated directory.
+     */
+    boolean isDirectory(String entryName) {
+        if (!entryName.endsWith(DIRECTORY_SEPARATOR)) {
+            return false;
+        }
+        return this.names.contains(entryName) || !getDescendants(entryName).isEmpty();
+    }
+
+    /**
+     * Returns the names of all the entries and simulated directories below the given directory name.
+     */
+    SortedSet<String> getDescendants(String directoryName) {
+        // The successor of the separator bounds the names which start with the directory name.
+        String upperBound = directoryName.substring(0, directoryName.length() - 1) + (char) (DIRECTORY_SEPARATOR_CHAR + 1);
+        SortedSet<String> descendants = new TreeSet<String>(this.names.subSet(directoryName, upperBound));
+        descendants.remove(directoryName);
+        return descendants;
+    }
+}
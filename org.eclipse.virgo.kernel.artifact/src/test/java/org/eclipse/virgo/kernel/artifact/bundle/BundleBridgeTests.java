@@ -13,7 +13,9 @@ package org.eclipse.virgo.kernel.artifact.bundle;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -27,6 +29,8 @@ import org.eclipse.virgo.kernel.artifact.StubHashGenerator;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.repository.ArtifactGenerationException;
 import org.eclipse.virgo.repository.Attribute;
+import org.eclipse.virgo.repository.builder.ArtifactDescriptorBuilder;
+import org.eclipse.virgo.repository.builder.AttributeBuilder;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.Constants;
@@ -150,6 +154,32 @@ public class BundleBridgeTests {
 
     }
 
+    @Test
+    public void dictionaryIsSharedAndImmutable() throws ArtifactGenerationException {
+        ArtifactDescriptor descriptor = BUNDLE_BRIDGE.generateArtifactDescriptor(new File("src/test/resources/bundle.jar"));
+
+        Dictionary<String, String> dictionary = BundleBridge.convertToDictionary(descriptor);
+        assertSame(dictionary, BundleBridge.convertToDictionary(descriptor));
+        assertEquals("exploded.bundle", dictionary.get("bundle-symbolicname"));
+
+        try {
+            dictionary.put(Constants.BUNDLE_SYMBOLICNAME, "other.bundle");
+            fail("Shared manifest dictionary was modified");
+        } catch (UnsupportedOperationException _) {
+        }
+        assertEquals("exploded.bundle", dictionary.get(Constants.BUNDLE_SYMBOLICNAME));
+    }
+
+    @Test
+    public void equalDescriptorsWithDifferentHeadersHaveTheirOwnDictionaries() {
+        ArtifactDescriptor descriptor = createDescriptor("First Bundle");
+        ArtifactDescriptor equalDescriptor = createDescriptor("Second Bundle");
+
+        assertEquals("First Bundle", BundleBridge.convertToDictionary(descriptor).get(Constants.BUNDLE_NAME));
+        assertEquals("Second Bundle", BundleBridge.convertToDictionary(equalDescriptor).get(Constants.BUNDLE_NAME));
+        assertEquals("First Bundle", BundleBridge.convertToDictionary(descriptor).get(Constants.BUNDLE_NAME));
+    }
+
     @Test
     public void webBundleWar() throws ArtifactGenerationException {
         ArtifactDescriptor descriptor = BUNDLE_BRIDGE.generateArtifactDescriptor(new File("src/test/resources/wars/test.war"));
@@ -199,4 +229,15 @@ public class BundleBridgeTests {
         }
         return artefacts;
     }
+
+    private static ArtifactDescriptor createDescriptor(String bundleName) {
+        ArtifactDescriptorBuilder artifactDescriptorBuilder = new ArtifactDescriptorBuilder();
+        artifactDescriptorBuilder.setUri(new File("src/test/resources/bundle.jar").toURI());
+        artifactDescriptorBuilder.setName("exploded.bundle");
+        artifactDescriptorBuilder.setType(BundleBridge.BRIDGE_TYPE);
+        artifactDescriptorBuilder.setVersion(Version.emptyVersion);
+        artifactDescriptorBuilder.addAttribute(new AttributeBuilder().setName(BundleBridge.RAW_HEADER_PREFIX + Constants.BUNDLE_NAME).setValue(
+            bundleName).build());
+        return artifactDescriptorBuilder.build();
+    }
 }
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.artifact.fs.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.virgo.kernel.artifact.fs.ArtifactFS;
+import org.eclipse.virgo.kernel.artifact.fs.ArtifactFSEntry;
+import org.eclipse.virgo.util.io.PathReference;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests lookup of the entries of a JAR with many entries through a single index of the JAR.
+ */
+public class JarFileArtifactFSLargeArchiveTests {
+
+    private static final int DIRECTORY_COUNT = 20;
+
+    private static final int FILES_PER_DIRECTORY = 50;
+
+    private File jar;
+
+    @Before
+    public void setUp() throws IOException {
+        PathReference directory = new PathReference("./target/large-archive");
+        directory.delete(true);
+        directory.createDirectory();
+        this.jar = new File(directory.toFile(), "large.jar");
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(this.jar));
+        try {
+            for (int d = 0; d < DIRECTORY_COUNT; d++) {
+                for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                    zipOutputStream.putNextEntry(new ZipEntry(entryName(d, f)));
+                    zipOutputStream.write(entryName(d, f).getBytes("UTF-8"));
+                    zipOutputStream.closeEntry();
+                }
+            }
+        } finally {
+            zipOutputStream.close();
+        }
+    }
+
+    private static String entryName(int directory, int file) {
+        return "dir" + directory + "/file" + file + ".txt";
+    }
+
+    @Test
+    public void everyEntryIsReadFromTheSameIndex() throws IOException {
+        JarFileIndex index = JarFileIndex.getIndex(this.jar);
+        ArtifactFS artifactFS = new JarFileArtifactFS(this.jar);
+
+        for (int d = 0; d < DIRECTORY_COUNT; d++) {
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                ArtifactFSEntry entry = artifactFS.getEntry(entryName(d, f));
+                assertTrue(entry.exists());
+                assertEquals(entryName(d, f), readFully(entry.getInputStream()));
+            }
+        }
+        assertSame(index, JarFileIndex.getIndex(this.jar));
+    }
+
+    @Test
+    public void childrenOfLargeDirectory() {
+        ArtifactFSEntry directory = new JarFileArtifactFS(this.jar).getEntry("dir0/");
+        assertTrue(directory.isDirectory());
+        assertEquals(FILES_PER_DIRECTORY, directory.getChildren().length);
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                contents.write(buffer, 0, read);
+            }
+            return contents.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentIdentity;
+import org.eclipse.virgo.util.io.PathReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.ExportedPackage;
+
+/**
+ * Stress test which deploys and undeploys hundreds of bundles from many threads at once.
+ *
+ */
+public class ConcurrentDeploymentTests extends AbstractDeployerIntegrationTest {
+
+    private static final int BUNDLE_COUNT = 200;
+
+    private static final int THREAD_COUNT = 16;
+
+    private static final int CONSUMER_COUNT = 32;
+
+    private final PathReference bundleDirectory = new PathReference("./target/concurrent-deployment");
+
+    private final List<URI> bundleUris = new ArrayList<URI>();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.bundleDirectory.delete(true);
+        this.bundleDirectory.createDirectory();
+        for (int i = 0; i < BUNDLE_COUNT; i++) {
+            this.bundleUris.add(createBundle("concurrent.bundle." + i, null).toURI());
+        }
+        this.executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        this.bundleDirectory.delete(true);
+    }
+
+    private File createBundle(String symbolicName, String importPackage) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", symbolicName);
+        attributes.putValue("Bundle-Version", "1.0.0");
+        if (importPackage != null) {
+            attributes.putValue("Import-Package", importPackage);
+        }
+
+        File bundle = new File(this.bundleDirectory.toFile(), symbolicName + ".jar");
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(bundle), manifest);
+        jarOutputStream.close();
+        return bundle;
+    }
+
+    @Test
+    public void concurrentDeployAndUndeployOfUnrelatedBundles() throws Exception {
+        List<DeploymentIdentity> deploymentIdentities = deployConcurrently(this.bundleUris);
+        undeployConcurrently(deploymentIdentities);
+
+        for (URI bundleUri : this.bundleUris) {
+            assertFalse(this.deployer.isDeployed(bundleUri));
+        }
+    }
+
+    @Test
+    public void concurrentDeployOfBundlesWithSharedRepositoryDependency() throws Exception {
+        // Package c is exported by ExporterC which the test repository provides.
+        List<URI> consumerUris = new ArrayList<URI>();
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            consumerUris.add(createBundle("concurrent.consumer." + i, "c").toURI());
+        }
+
+        List<DeploymentIdentity> deploymentIdentities = deployConcurrently(consumerUris);
+
+        Bundle exporter = getBundle("ExporterC", new Version("1.0.0"));
+        assertNotNull(exporter);
+        ExportedPackage[] exportedPackages = this.packageAdmin.getExportedPackages("c");
+        assertNotNull(exportedPackages);
+        assertEquals(1, exportedPackages.length);
+        assertEquals(exporter, exportedPackages[0].getExportingBundle());
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            Bundle consumer = getBundle("concurrent.consumer." + i, new Version("1.0.0"));
+            assertEquals(Bundle.ACTIVE, consumer.getState());
+        }
+        assertEquals(CONSUMER_COUNT, exportedPackages[0].getImportingBundles().length);
+
+        undeployConcurrently(deploymentIdentities);
+    }
+
+    private List<DeploymentIdentity> deployConcurrently(List<URI> uris) throws Exception {
+        List<Future<DeploymentIdentity>> deployments = new ArrayList<Future<DeploymentIdentity>>();
+        for (final URI bundleUri : uris) {
+            deployments.add(this.executor.submit(new Callable<DeploymentIdentity>() {
+
+                public DeploymentIdentity call() throws Exception {
+                    return ConcurrentDeploymentTests.this.deployer.deploy(bundleUri);
+                }
+            }));
+        }
+
+        Set<String> symbolicNames = new HashSet<String>();
+        List<DeploymentIdentity> deploymentIdentities = new ArrayList<DeploymentIdentity>();
+        for (Future<DeploymentIdentity> deployment : deployments) {
+            DeploymentIdentity deploymentIdentity = deployment.get();
+            deploymentIdentities.add(deploymentIdentity);
+            symbolicNames.add(deploymentIdentity.getSymbolicName());
+        }
+        assertEquals(uris.size(), symbolicNames.size());
+
+        for (URI bundleUri : uris) {
+            assertTrue(this.deployer.isDeployed(bundleUri));
+        }
+        return deploymentIdentities;
+    }
+
+    private void undeployConcurrently(List<DeploymentIdentity> deploymentIdentities) throws Exception {
+        List<Future<Void>> undeployments = new ArrayList<Future<Void>>();
+        for (final DeploymentIdentity deploymentIdentity : deploymentIdentities) {
+            undeployments.add(this.executor.submit(new Callable<Void>() {
+
+                public Void call() throws Exception {
+                    ConcurrentDeploymentTests.this.deployer.undeploy(deploymentIdentity);
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> undeployment : undeployments) {
+            undeployment.get();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core;
+
+import java.net.URI;
+
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentOptions;
+
+/**
+ * {@link AsynchronousApplicationDeployer} deploys artifacts without waiting for them to start, so that callers such as
+ * management clients can deploy many artifacts concurrently without holding a thread for each start.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Implementations of this interface must be thread safe.
+ *
+ */
+public interface AsynchronousApplicationDeployer {
+
+    /**
+     * Installs the artifact at the given location, starts it, and returns without waiting for the start to complete.
+     * Installation, including resolution, completes before this method returns. If the start fails, the artifact is
+     * stopped and uninstalled as it would be by a synchronous deployment.
+     *
+     * @param location the location of the artifact
+     * @param deploymentOptions the options for the deployment
+     * @return a {@link DeploymentHandle} for tracking the start of the artifact
+     * @throws DeploymentException if the artifact cannot be installed or its start fails before this method returns
+     */
+    DeploymentHandle deployAsynchronously(URI location, DeploymentOptions deploymentOptions) throws DeploymentException;
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentIdentity;
+
+/**
+ * {@link DeploymentHandle} tracks the progress of an artifact deployed by an {@link AsynchronousApplicationDeployer}
+ * from the point at which the artifact has been installed and resolved until its start completes.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Implementations of this interface must be thread safe.
+ *
+ */
+public interface DeploymentHandle {
+
+    /**
+     * The progress of a deployment. A deployment is done once it reaches {@link #STARTED}, {@link #FAILED}, or
+     * {@link #ABORTED} and then makes no further progress.
+     */
+    public enum Progress {
+        INSTALLED, STARTING, STARTED, FAILED, ABORTED
+    }
+
+    /**
+     * {@link ProgressListener} is notified as a deployment makes progress.
+     * <p />
+     *
+     * <strong>Concurrent Semantics</strong><br />
+     *
+     * Implementations of this interface must be thread safe as they may be notified on any thread, including threads
+     * internal to the kernel, and so must not block.
+     *
+     */
+    public interface ProgressListener {
+
+        /**
+         * Notifies the listener that the given deployment has made progress.
+         *
+         * @param deploymentHandle the handle of the deployment
+         * @param progress the progress the deployment has made
+         */
+        void progressed(DeploymentHandle deploymentHandle, Progress progress);
+    }
+
+    /**
+     * Returns the identity of the deployed artifact.
+     *
+     * @return the <code>DeploymentIdentity</code>
+     */
+    DeploymentIdentity getDeploymentIdentity();
+
+    /**
+     * Returns the progress the deployment has made so far.
+     *
+     * @return the current <code>Progress</code>
+     */
+    Progress getProgress();
+
+    /**
+     * Returns whether or not the deployment is done, that is whether it has started, failed, or been aborted.
+     *
+     * @return <code>true</code> if and only if the deployment is done
+     */
+    boolean isDone();
+
+    /**
+     * Returns the cause of the failure of the deployment.
+     *
+     * @return the cause, or <code>null</code> if the deployment has not failed or failed without a cause
+     */
+    Throwable getFailureCause();
+
+    /**
+     * Waits for the deployment to be done for at most the given time.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return <code>true</code> if the deployment is done and <code>false</code> if the time elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Adds the given listener to be notified of each subsequent change in the progress of the deployment. Progress made
+     * before the listener is added is not notified, so a caller should check {@link #getProgress()} after adding the
+     * listener.
+     *
+     * @param progressListener the listener to add
+     */
+    void addProgressListener(ProgressListener progressListener);
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ArtifactLocks} maintains a reentrant lock per key, typically an artifact location or identity. Locks are
+ * created on demand and discarded once no thread holds or is waiting for them, so the number of locks is bounded by
+ * the number of operations in progress rather than by the number of artifacts ever deployed.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class ArtifactLocks {
+
+    private final Object monitor = new Object();
+
+    private final Map<Object, CountedLock> locks = new HashMap<Object, CountedLock>();
+
+    /**
+     * Acquires the lock for the given key, blocking until it is available. The calling thread may already hold the
+     * lock. Each call must be balanced by a call to {@link #unlock(Object)}.
+     *
+     * @param key the key to lock
+     */
+    void lock(Object key) {
+        CountedLock countedLock;
+        synchronized (this.monitor) {
+            countedLock = this.locks.get(key);
+            if (countedLock == null) {
+                countedLock = new CountedLock();
+                this.locks.put(key, countedLock);
+            }
+            countedLock.users++;
+        }
+        countedLock.lock.lock();
+    }
+
+    /**
+     * Releases the lock for the given key which must be held by the calling thread.
+     *
+     * @param key the key to unlock
+     */
+    void unlock(Object key) {
+        synchronized (this.monitor) {
+            CountedLock countedLock = this.locks.get(key);
+            if (countedLock == null) {
+                throw new IllegalMonitorStateException("No lock is held for '" + key + "'");
+            }
+            countedLock.lock.unlock();
+            if (--countedLock.users == 0) {
+                this.locks.remove(key);
+            }
+        }
+    }
+
+    private static final class CountedLock {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private int users;
+    }
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.pipeline.internal.StandardPipelineStatistics;
+import org.eclipse.virgo.kernel.install.pipeline.internal.StandardPipelineStatistics.StageTimer;
+import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
+import org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal.ResolveStage;
+import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
+import org.eclipse.virgo.nano.deployer.api.core.DeployerLogEvents;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link BatchInstallPipeline} installs and resolves a batch of install graphs using the stages of the main pipeline
+ * built by {@link Plumber}, but copies the framework state into a quasi framework, resolves and commits it, and
+ * resolves the committed bundles only once for the whole batch rather than once per graph.
+ * <p />
+ * Each install graph is transformed and quasi installed in turn. A graph which fails before it is quasi installed fails
+ * on its own and the remaining graphs carry on. Once the quasi framework holds the bundles of a graph, a failure can no
+ * longer be attributed to a single graph, so a failure to quasi install, quasi resolve, or commit abandons the whole
+ * batch and the caller must install the graphs individually to discover which of them is at fault. Failures to resolve
+ * the committed bundles are diagnosed per graph.
+ * <p />
+ * The time spent in each stage is recorded in the {@link StandardPipelineStatistics} of the pipelines built by
+ * {@link Plumber}, and the breakdown of a batch is posted as a single event which identifies no artifact.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class BatchInstallPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final PipelineStage beginInstallStage;
+
+    private final PipelineStage transformationStage;
+
+    private final PipelineStage quasiInstallStage;
+
+    private final PipelineStage quasiResolveStage;
+
+    private final PipelineStage commitStage;
+
+    private final PipelineStage endInstallStage;
+
+    private final PipelineStage failInstallStage;
+
+    private final PipelineStage beginResolveStage;
+
+    private final ResolveStage resolveStage;
+
+    private final PipelineStage endResolveStage;
+
+    private final PipelineStage failResolveStage;
+
+    private final StandardPipelineStatistics statistics;
+
+    BatchInstallPipeline(PipelineStage beginInstallStage, PipelineStage transformationStage, PipelineStage quasiInstallStage,
+        PipelineStage quasiResolveStage, PipelineStage commitStage, PipelineStage endInstallStage, PipelineStage failInstallStage,
+        PipelineStage beginResolveStage, ResolveStage resolveStage, PipelineStage endResolveStage, PipelineStage failResolveStage,
+        StandardPipelineStatistics statistics) {
+        this.beginInstallStage = beginInstallStage;
+        this.transformationStage = transformationStage;
+        this.quasiInstallStage = quasiInstallStage;
+        this.quasiResolveStage = quasiResolveStage;
+        this.commitStage = commitStage;
+        this.endInstallStage = endInstallStage;
+        this.failInstallStage = failInstallStage;
+        this.beginResolveStage = beginResolveStage;
+        this.resolveStage = resolveStage;
+        this.endResolveStage = endResolveStage;
+        this.failResolveStage = failResolveStage;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Installs and resolves the given install graphs in the given install environment.
+     *
+     * @param installGraphs the install graphs to be processed
+     * @param installEnvironment the install environment shared by all the install graphs
+     * @return a list with an element for each install graph, in order, which is the exception which caused the graph to
+     *         fail or <code>null</code> if the graph was installed and resolved. A failure to satisfy the dependencies
+     *         of a graph is wrapped in a <code>DeploymentException</code>.
+     * @throws DeploymentException if the batch was abandoned, in which case every graph has either failed or been
+     *         driven through the install failure stage
+     */
+    List<DeploymentException> process(List<GraphNode<InstallArtifact>> installGraphs, InstallEnvironment installEnvironment)
+        throws DeploymentException {
+        this.statistics.beginPipeline();
+        try {
+            return doProcess(installGraphs, installEnvironment);
+        } finally {
+            this.statistics.endPipeline(null);
+        }
+    }
+
+    private List<DeploymentException> doProcess(List<GraphNode<InstallArtifact>> installGraphs, InstallEnvironment installEnvironment)
+        throws DeploymentException {
+        List<DeploymentException> failures = new ArrayList<DeploymentException>(Collections.<DeploymentException> nCopies(
+            installGraphs.size(), null));
+        List<Integer> installing = new ArrayList<Integer>();
+
+        for (int index = 0; index < installGraphs.size(); index++) {
+            GraphNode<InstallArtifact> installGraph = installGraphs.get(index);
+            try {
+                processStage(this.beginInstallStage, installGraph, installEnvironment);
+            } catch (Exception e) {
+                failures.set(index, asDeploymentException(e));
+                continue;
+            }
+            try {
+                processStage(this.transformationStage, installGraph, installEnvironment);
+            } catch (Exception e) {
+                compensate(this.failInstallStage, installGraph, installEnvironment, e);
+                failures.set(index, asDeploymentException(e));
+                continue;
+            }
+            installing.add(index);
+            try {
+                processStage(this.quasiInstallStage, installGraph, installEnvironment);
+            } catch (Exception e) {
+                throw abandon(installGraphs, installing, installEnvironment, e);
+            }
+        }
+
+        if (installing.isEmpty()) {
+            return failures;
+        }
+
+        GraphNode<InstallArtifact> firstInstallGraph = installGraphs.get(installing.get(0));
+        try {
+            processStage(this.quasiResolveStage, firstInstallGraph, installEnvironment);
+            processStage(this.commitStage, firstInstallGraph, installEnvironment);
+        } catch (Exception e) {
+            throw abandon(installGraphs, installing, installEnvironment, e);
+        }
+
+        List<Integer> resolving = new ArrayList<Integer>(installing.size());
+        for (int index : installing) {
+            GraphNode<InstallArtifact> installGraph = installGraphs.get(index);
+            try {
+                processStage(this.endInstallStage, installGraph, installEnvironment);
+                processStage(this.beginResolveStage, installGraph, installEnvironment);
+                resolving.add(index);
+            } catch (Exception e) {
+                failures.set(index, asDeploymentException(e));
+            }
+        }
+
+        List<GraphNode<InstallArtifact>> resolvingGraphs = new ArrayList<GraphNode<InstallArtifact>>(resolving.size());
+        for (int index : resolving) {
+            resolvingGraphs.add(installGraphs.get(index));
+        }
+        List<UnableToSatisfyBundleDependenciesException> resolutionFailures;
+        StageTimer timer = this.statistics.startTimer();
+        try {
+            resolutionFailures = this.resolveStage.process(resolvingGraphs, installEnvironment);
+        } finally {
+            this.statistics.record(this.resolveStage, timer);
+        }
+
+        for (int i = 0; i < resolving.size(); i++) {
+            int index = resolving.get(i);
+            GraphNode<InstallArtifact> installGraph = installGraphs.get(index);
+            UnableToSatisfyBundleDependenciesException resolutionFailure = resolutionFailures.get(i);
+            if (resolutionFailure != null) {
+                compensate(this.failResolveStage, installGraph, installEnvironment, resolutionFailure);
+                failures.set(index, asDeploymentException(resolutionFailure));
+            } else {
+                try {
+                    processStage(this.endResolveStage, installGraph, installEnvironment);
+                } catch (Exception e) {
+                    failures.set(index, asDeploymentException(e));
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    private DeploymentException abandon(List<GraphNode<InstallArtifact>> installGraphs, List<Integer> installing,
+        InstallEnvironment installEnvironment, Exception e) {
+        for (int index : installing) {
+            compensate(this.failInstallStage, installGraphs.get(index), installEnvironment, e);
+        }
+        return new DeploymentException("Batch install abandoned", e);
+    }
+
+    private void compensate(PipelineStage compensation, GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment, Exception e) {
+        try {
+            if (!(e instanceof DeploymentException) || !((DeploymentException) e).isDiagnosed()) {
+                installEnvironment.getInstallLog().logFailure(DeployerLogEvents.INSTALL_FAILURE, e);
+            } else {
+                installEnvironment.getInstallLog().logFailure(DeployerLogEvents.INSTALL_FAILURE, null);
+            }
+            processStage(compensation, installGraph, installEnvironment);
+        } catch (Exception ex) {
+            this.logger.warn(String.format("exception thrown while compensating for '%s'", e.getMessage()), ex);
+        }
+    }
+
+    private void processStage(PipelineStage stage, GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment)
+        throws DeploymentException, UnableToSatisfyBundleDependenciesException {
+        StageTimer timer = this.statistics.startTimer();
+        try {
+            stage.process(installGraph, installEnvironment);
+        } finally {
+            this.statistics.record(stage, timer);
+        }
+    }
+
+    private static DeploymentException asDeploymentException(Exception e) {
+        if (e instanceof DeploymentException) {
+            return (DeploymentException) e;
+        }
+        if (e instanceof UnableToSatisfyBundleDependenciesException) {
+            return new DeploymentException("Dependency satisfaction failed", e);
+        }
+        return new DeploymentException(e.getMessage(), e);
+    }
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.virgo.kernel.deployer.model.GCRoots;
+import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentity;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.GraphNode.DirectedAcyclicGraphVisitor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * {@link InstallArtifactNodeIndex} indexes the nodes of install graphs by artifact type and name so that a node which
+ * may be shared can be found without walking the graphs of every GC root.
+ * <p />
+ * Nodes are added to the index as graphs are added to the runtime artifact model and as plans acquire children. Nodes
+ * are held weakly and, since a node may be removed from its parents at any time, a node is only returned if it is still
+ * reachable from a GC root. The version and scope name of a candidate are matched when it is looked up rather than
+ * when it is indexed, as both may change while the artifact is installed.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+public final class InstallArtifactNodeIndex {
+
+    private final Object monitor = new Object();
+
+    private final Map<IndexKey, List<WeakReference<GraphNode<InstallArtifact>>>> nodes = new HashMap<IndexKey, List<WeakReference<GraphNode<InstallArtifact>>>>();
+
+    private final GCRoots gcRoots;
+
+    public InstallArtifactNodeIndex(@NonNull GCRoots gcRoots) {
+        this.gcRoots = gcRoots;
+    }
+
+    /**
+     * Adds the given node, but not its descendants, to the index.
+     *
+     * @param node the node to add
+     */
+    public void add(@NonNull GraphNode<InstallArtifact> node) {
+        InstallArtifact installArtifact = node.getValue();
+        IndexKey key = new IndexKey(installArtifact.getType(), installArtifact.getName());
+        synchronized (this.monitor) {
+            List<WeakReference<GraphNode<InstallArtifact>>> candidates = this.nodes.get(key);
+            if (candidates == null) {
+                candidates = new ArrayList<WeakReference<GraphNode<InstallArtifact>>>(1);
+                this.nodes.put(key, candidates);
+            }
+            Iterator<WeakReference<GraphNode<InstallArtifact>>> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                GraphNode<InstallArtifact> candidate = iterator.next().get();
+                if (candidate == node) {
+                    return;
+                }
+                if (candidate == null) {
+                    iterator.remove();
+                }
+            }
+            candidates.add(new WeakReference<GraphNode<InstallArtifact>>(node));
+        }
+    }
+
+    /**
+     * Adds the given node and all its descendants to the index.
+     *
+     * @param installGraph the graph to add
+     */
+    public void addGraph(@NonNull GraphNode<InstallArtifact> installGraph) {
+        installGraph.visit(new DirectedAcyclicGraphVisitor<InstallArtifact>() {
+
+            public boolean visit(GraphNode<InstallArtifact> node) {
+                add(node);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns a node reachable from a GC root whose install artifact has the given identity or <code>null</code> if
+     * there is no such node.
+     */
+    public GraphNode<InstallArtifact> findSharedNode(ArtifactIdentity artifactIdentity) {
+        return findSharedNode(artifactIdentity.getType(), artifactIdentity.getName(),
+            VersionRange.createExactRange(artifactIdentity.getVersion()), artifactIdentity.getScopeName());
+    }
+
+    /**
+     * Returns a node reachable from a GC root whose install artifact has the given type, name, and scope name and a
+     * version in the given version range or <code>null</code> if there is no such node.
+     */
+    public GraphNode<InstallArtifact> findSharedNode(String type, String name, VersionRange versionRange, String scopeName) {
+        List<GraphNode<InstallArtifact>> candidates = getCandidates(new IndexKey(type, name));
+        for (GraphNode<InstallArtifact> candidate : candidates) {
+            InstallArtifact installArtifact = candidate.getValue();
+            if ((scopeName == null ? installArtifact.getScopeName() == null : scopeName.equals(installArtifact.getScopeName()))
+                && versionRange.includes(installArtifact.getVersion()) && isReachable(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private List<GraphNode<InstallArtifact>> getCandidates(IndexKey key) {
+        List<GraphNode<InstallArtifact>> candidates = new ArrayList<GraphNode<InstallArtifact>>();
+        synchronized (this.monitor) {
+            List<WeakReference<GraphNode<InstallArtifact>>> references = this.nodes.get(key);
+            if (references != null) {
+                Iterator<WeakReference<GraphNode<InstallArtifact>>> iterator = references.iterator();
+                while (iterator.hasNext()) {
+                    GraphNode<InstallArtifact> candidate = iterator.next().get();
+                    if (candidate == null) {
+                        iterator.remove();
+                    } else {
+                        candidates.add(candidate);
+                    }
+                }
+                if (references.isEmpty()) {
+                    this.nodes.remove(key);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private boolean isReachable(GraphNode<InstallArtifact> node) {
+        List<GraphNode<InstallArtifact>> pending = new ArrayList<GraphNode<InstallArtifact>>();
+        Set<GraphNode<InstallArtifact>> seen = new HashSet<GraphNode<InstallArtifact>>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            GraphNode<InstallArtifact> current = pending.remove(pending.size() - 1);
+            if (seen.add(current)) {
+                if (this.gcRoots.isGCRoot(current.getValue())) {
+                    return true;
+                }
+                pending.addAll(current.getParents());
+            }
+        }
+        return false;
+    }
+
+    private static final class IndexKey {
+
+        private final String type;
+
+        private final String name;
+
+        private IndexKey(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + this.name.hashCode();
+            result = prime * result + this.type.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) obj;
+            return this.name.equals(other.name) && this.type.equals(other.type);
+        }
+    }
+}
@@ -14,10 +14,22 @@ package org.eclipse.virgo.kernel.deployer.core.internal;
 
 import java.io.File;
 import java.net.URI;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.eclipse.virgo.nano.core.KernelException;
 import org.eclipse.virgo.nano.deployer.api.core.ApplicationDeployer;
@@ -27,11 +39,14 @@ import org.eclipse.virgo.nano.deployer.api.core.DeployerLogEvents;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentIdentity;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentOptions;
+import org.eclipse.virgo.kernel.deployer.core.AsynchronousApplicationDeployer;
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle;
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle.Progress;
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle.ProgressListener;
 import org.eclipse.virgo.kernel.deployer.core.internal.event.DeploymentListener;
 import org.eclipse.virgo.kernel.deployer.model.DuplicateDeploymentIdentityException;
 import org.eclipse.virgo.kernel.deployer.model.DuplicateFileNameException;
 import org.eclipse.virgo.kernel.deployer.model.DuplicateLocationException;
-import org.eclipse.virgo.kernel.deployer.model.GCRoots;
 import org.eclipse.virgo.kernel.deployer.model.RuntimeArtifactModel;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentity;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentityDeterminer;
@@ -46,14 +61,12 @@ import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependencies
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyDependenciesException;
 import org.eclipse.virgo.nano.serviceability.NonNull;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
-import org.eclipse.virgo.repository.Repository;
-import org.eclipse.virgo.repository.WatchableRepository;
 import org.eclipse.virgo.util.common.GraphNode;
 import org.eclipse.virgo.util.io.PathReference;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
 import org.osgi.framework.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link PipelinedApplicationDeployer} is an implementation of {@link ApplicationDeployer} which creates a
@@ -63,16 +76,34 @@ import org.osgi.framework.Version;
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
- * This class is thread safe.
+ * This class is thread safe. Operations are serialised per artifact location and per artifact identity rather than
+ * globally. Bundles have no children, so operations on unrelated bundles proceed in parallel. Plans, pars, and other
+ * artifacts whose install graphs may share nodes with other graphs are processed exclusively. A bundle whose commit
+ * would install other bundles, such as dependencies from a repository, or which depends on a bundle being deployed
+ * concurrently is rolled back before it is committed and deployed again exclusively.
+ * <p />
+ * An artifact whose asynchronous start fails is stopped and uninstalled on a thread owned by the deployer, rather than
+ * on the thread which signals the failure, as stopping and uninstalling takes the deployment locks. The thread is
+ * stopped by {@link #destroy()}.
  * 
  */
-final class PipelinedApplicationDeployer implements ApplicationDeployer, ApplicationRecoverer {
+final class PipelinedApplicationDeployer implements ApplicationDeployer, ApplicationRecoverer, AsynchronousApplicationDeployer {
     
     private static final String BUNDLE_TYPE = "bundle";
     
+    private static final long CLEANUP_THREAD_KEEP_ALIVE_SECONDS = 60;
+    
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
     private final EventLogger eventLogger;
     
-    private final Object monitor = new Object();
+    private final Object modelMonitor = new Object();
+    
+    private final ReadWriteLock graphLock = new ReentrantReadWriteLock();
+    
+    private final ArtifactLocks artifactLocks = new ArtifactLocks();
+    
+    private final SharedDeployments sharedDeployments = new SharedDeployments();
     
     private final InstallEnvironmentFactory installEnvironmentFactory;
     
@@ -84,20 +115,27 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     
     private final DeploymentListener deploymentListener;
     
-    private final Map<DeploymentIdentity, DeploymentOptions> deploymentOptionsMap = new HashMap<DeploymentIdentity, DeploymentOptions>();
+    private final Map<DeploymentIdentity, DeploymentOptions> deploymentOptionsMap = new ConcurrentHashMap<DeploymentIdentity, DeploymentOptions>();
     
     private final Pipeline pipeline;
     
+    private final BatchInstallPipeline batchInstallPipeline;
+    
     private final DeployUriNormaliser deployUriNormaliser;
     
     private final int deployerConfiguredTimeoutInSeconds;
     
-    private final BundleContext bundleContext;
+    private final InstallArtifactNodeIndex nodeIndex;
+    
+    private final WatchedRepositoryRefresher watchedRepositoryRefresher;
+    
+    private final ThreadPoolExecutor failedStartCleanupExecutor;
     
     public PipelinedApplicationDeployer(@NonNull Pipeline pipeline, @NonNull InstallArtifactGraphInclosure installArtifactGraphInclosure,
                                         @NonNull ArtifactIdentityDeterminer artifactIdentityDeterminer, @NonNull InstallEnvironmentFactory installEnvironmentFactory,
                                         @NonNull RuntimeArtifactModel ram, @NonNull DeploymentListener deploymentListener, @NonNull EventLogger eventLogger,
-                                        @NonNull DeployUriNormaliser normaliser, @NonNull DeployerConfiguration deployerConfiguration, @NonNull BundleContext bundleContext) {
+                                        @NonNull DeployUriNormaliser normaliser, @NonNull DeployerConfiguration deployerConfiguration, @NonNull BundleContext bundleContext,
+                                        @NonNull InstallArtifactNodeIndex nodeIndex, @NonNull BatchInstallPipeline batchInstallPipeline) {
         this.eventLogger = eventLogger;
         this.installArtifactGraphInclosure = installArtifactGraphInclosure;
         this.artifactIdentityDeterminer = artifactIdentityDeterminer;
@@ -105,18 +143,29 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
         this.ram = ram;
         this.deploymentListener = deploymentListener;
         this.deployUriNormaliser = normaliser;
-        this.bundleContext = bundleContext;
+        this.nodeIndex = nodeIndex;
+        this.watchedRepositoryRefresher = new WatchedRepositoryRefresher(bundleContext, eventLogger);
         this.pipeline = pipeline;
+        this.batchInstallPipeline = batchInstallPipeline;
         this.deployerConfiguredTimeoutInSeconds = deployerConfiguration.getDeploymentTimeoutSeconds();
+        this.failedStartCleanupExecutor = new ThreadPoolExecutor(1, 1, CLEANUP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new CleanupThreadFactory());
+        this.failedStartCleanupExecutor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Stops the thread which cleans up after failed asynchronous starts. Cleanups which have already been requested are
+     * still performed.
+     */
+    public void destroy() {
+        this.failedStartCleanupExecutor.shutdown();
     }
     
     /**
      * {@inheritDoc}
      */
     public DeploymentIdentity deploy(URI location) throws DeploymentException {
-        synchronized (this.monitor) {
-            return deploy(location, new DeploymentOptions());
-        }
+        return deploy(location, new DeploymentOptions());
     }
     
     private URI normaliseDeploymentUri(URI uri) throws DeploymentException {
@@ -144,7 +193,17 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     }
     
     private DeploymentIdentity doInstall(URI normalisedUri, DeploymentOptions deploymentOptions) throws DeploymentException {
-        synchronized (this.monitor) {
+        try {
+            return doInstall(normalisedUri, deploymentOptions, false);
+        } catch (ExclusiveDeploymentRequiredException _) {
+            return doInstall(normalisedUri, deploymentOptions, true);
+        }
+    }
+    
+    private DeploymentIdentity doInstall(URI normalisedUri, DeploymentOptions deploymentOptions, boolean exclusive) throws DeploymentException {
+        ArtifactIdentity artifactIdentity = determineIdentity(normalisedUri);
+        DeploymentLock lock = lockLocation(normalisedUri, artifactIdentity.getType(), getDeploymentIdentity(artifactIdentity), exclusive);
+        try {
             InstallArtifact existingArtifact = this.ram.get(normalisedUri);
             
             if (existingArtifact != null) {
@@ -157,7 +216,6 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
             GraphNode<InstallArtifact> installNode;
             boolean shared = false;
             try {
-                ArtifactIdentity artifactIdentity = determineIdentity(normalisedUri);
                 installNode = findSharedNode(artifactIdentity);
                 if (installNode == null) {
                     installNode = this.installArtifactGraphInclosure.constructGraphNode(artifactIdentity, new File(normalisedUri), null, null);
@@ -182,7 +240,8 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
             if (!shared) {
                 this.deploymentOptionsMap.put(deploymentIdentity, deploymentOptions);
                 try {
-                    driveInstallPipeline(normalisedUri, installNode);
+                    driveInstallPipeline(normalisedUri, installNode, lock);
+                    this.nodeIndex.addGraph(installNode);
                 } catch (DeploymentException de) {
                     removeFromModel(deploymentIdentity);
                     destroyInstallGraph(installNode);
@@ -195,6 +254,8 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
             }
             
             return deploymentIdentity;
+        } finally {
+            lock.release();
         }
     }
     
@@ -212,8 +273,7 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     }
     
     private GraphNode<InstallArtifact> findSharedNode(ArtifactIdentity artifactIdentity) {
-        GCRoots gcRoots = (GCRoots) this.ram;
-        return ExistingNodeLocator.findSharedNode(gcRoots, artifactIdentity);
+        return this.nodeIndex.findSharedNode(artifactIdentity);
     }
     
     private void destroyInstallGraph(GraphNode<InstallArtifact> installGraph) throws DeploymentException {
@@ -221,7 +281,9 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     }
     
     private void removeFromModel(DeploymentIdentity deploymentIdentity) throws DeploymentException {
-        this.ram.delete(deploymentIdentity);
+        synchronized (this.modelMonitor) {
+            this.ram.delete(deploymentIdentity);
+        }
     }
     
     private DeploymentIdentity refreshExistingArtifact(URI normalisedLocation, InstallArtifact existingArtifact) throws DeploymentException {
@@ -246,27 +308,66 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     public DeploymentIdentity deploy(URI location, DeploymentOptions deploymentOptions) throws DeploymentException {
         URI normalisedLocation = normaliseDeploymentUri(location);
         
-        InstallArtifact installedArtifact;
-        DeploymentIdentity deploymentIdentity;
+        DeploymentIdentity deploymentIdentity = install(location, deploymentOptions);
+        startInstalledArtifact(normalisedLocation, deploymentOptions);
         
-        synchronized (this.monitor) {
-            deploymentIdentity = install(location, deploymentOptions);
-            installedArtifact = this.ram.get(normalisedLocation);
-        }
+        return deploymentIdentity;
+    }
+    
+    private void startInstalledArtifact(URI normalisedLocation, DeploymentOptions deploymentOptions) throws DeploymentException {
+        InstallArtifact installedArtifact = getInstalledArtifact(normalisedLocation);
         
         try {
             start(installedArtifact, deploymentOptions.getSynchronous());
         } catch (DeploymentException de) {
-            synchronized (this.monitor) {
-                stopArtifact(installedArtifact);
-                uninstallArtifact(installedArtifact);
-            }
+            stopAndUninstallFailedArtifact(normalisedLocation, installedArtifact);
             throw de;
         }
         
         this.deploymentListener.deployed(normalisedLocation, deploymentOptions);
+    }
+    
+    private InstallArtifact getInstalledArtifact(URI normalisedLocation) throws DeploymentException {
+        InstallArtifact installedArtifact = this.ram.get(normalisedLocation);
+        if (installedArtifact == null) {
+            throw new DeploymentException("Artifact at URI '" + normalisedLocation + "' was undeployed before it could be started");
+        }
+        return installedArtifact;
+    }
+    
+    private void stopAndUninstallFailedArtifact(URI normalisedLocation, InstallArtifact installedArtifact) throws DeploymentException {
+        DeploymentLock lock = lockLocation(normalisedLocation, installedArtifact.getType(), getDeploymentIdentity(installedArtifact));
+        try {
+            stopArtifact(installedArtifact);
+            uninstallArtifact(installedArtifact);
+        } finally {
+            lock.release();
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public DeploymentHandle deployAsynchronously(URI location, DeploymentOptions deploymentOptions) throws DeploymentException {
+        URI normalisedLocation = normaliseDeploymentUri(location);
         
-        return deploymentIdentity;
+        DeploymentIdentity deploymentIdentity = install(location, deploymentOptions);
+        InstallArtifact installedArtifact = getInstalledArtifact(normalisedLocation);
+        
+        StandardDeploymentHandle deploymentHandle = new StandardDeploymentHandle(deploymentIdentity);
+        AsynchronousStartListener startListener = new AsynchronousStartListener(normalisedLocation, installedArtifact, deploymentOptions);
+        deploymentHandle.addProgressListener(startListener);
+        deploymentHandle.starting();
+        try {
+            installedArtifact.start(deploymentHandle);
+        } catch (DeploymentException de) {
+            // Clean up on this thread so the artifact has gone when the exception is thrown. The listener then does nothing.
+            startListener.stopAndUninstall();
+            deploymentHandle.signalFailure(de);
+            throw de;
+        }
+        
+        return deploymentHandle;
     }
     
     private DeploymentIdentity refreshArtifact(URI location, InstallArtifact installArtifact) throws DeploymentException {
@@ -299,8 +400,12 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     private DeploymentIdentity addGraphToModel(URI location, GraphNode<InstallArtifact> installGraph) throws DuplicateFileNameException,
     DuplicateLocationException, DuplicateDeploymentIdentityException, DeploymentException {
         InstallArtifact installArtifact = installGraph.getValue();
-        ((AbstractInstallArtifact) installArtifact).setTopLevelDeployed();
-        return this.ram.add(location, installArtifact);
+        synchronized (this.modelMonitor) {
+            ((AbstractInstallArtifact) installArtifact).setTopLevelDeployed();
+            DeploymentIdentity deploymentIdentity = this.ram.add(location, installArtifact);
+            this.nodeIndex.addGraph(installGraph);
+            return deploymentIdentity;
+        }
     }
     
     /**
@@ -308,34 +413,55 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
      */
     public void recoverDeployment(URI uri, DeploymentOptions options) throws DeploymentException {
         
-        GraphNode<InstallArtifact> installNode = null;
-        boolean shared = false;
         File artifact = new File(uri);
-        if (options.getRecoverable() && (!options.getDeployerOwned() || artifact.exists())) {
-            ArtifactIdentity artifactIdentity = determineIdentity(artifact, null);
-            installNode = findSharedNode(artifactIdentity);
+        if (!options.getRecoverable() || (options.getDeployerOwned() && !artifact.exists())) {
+            // Remove the URI from the recovery log.
+            this.deploymentListener.undeployed(uri);
+            return;
+        }
+        
+        try {
+            recoverDeployment(uri, artifact, options, false);
+        } catch (ExclusiveDeploymentRequiredException _) {
+            recoverDeployment(uri, artifact, options, true);
+        }
+    }
+    
+    private void recoverDeployment(URI uri, File artifact, DeploymentOptions options, boolean exclusive) throws DeploymentException {
+        ArtifactIdentity artifactIdentity = determineIdentity(artifact, null);
+        DeploymentLock lock = lockLocation(uri, artifactIdentity.getType(), getDeploymentIdentity(artifactIdentity), exclusive);
+        try {
+            boolean shared = false;
+            GraphNode<InstallArtifact> installNode = findSharedNode(artifactIdentity);
             if (installNode == null) {
                 installNode = this.installArtifactGraphInclosure.recoverInstallGraph(artifactIdentity, artifact);
             } else {
                 shared = true;
             }
-        }
-        
-        if (installNode == null) {
-            // Remove the URI from the recovery log.
-            this.deploymentListener.undeployed(uri);
-        } else {
-            if (!shared) {
-                driveInstallPipeline(uri, installNode);
-                
-                start(installNode.getValue(), options.getSynchronous());
-            }
             
-            try {
-                addGraphToModel(uri, installNode);
-            } catch (KernelException e) {
-                throw new DeploymentException(e.getMessage(), e);
+            if (installNode == null) {
+                // Remove the URI from the recovery log.
+                this.deploymentListener.undeployed(uri);
+            } else {
+                if (!shared) {
+                    try {
+                        driveInstallPipeline(uri, installNode, lock);
+                    } catch (ExclusiveDeploymentRequiredException edre) {
+                        destroyInstallGraph(installNode);
+                        throw edre;
+                    }
+                    
+                    start(installNode.getValue(), options.getSynchronous());
+                }
+                
+                try {
+                    addGraphToModel(uri, installNode);
+                } catch (KernelException e) {
+                    throw new DeploymentException(e.getMessage(), e);
+                }
             }
+        } finally {
+            lock.release();
         }
     }
     
@@ -350,16 +476,21 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
         return artifactIdentity;
     }
     
-    private void driveInstallPipeline(URI uri, GraphNode<InstallArtifact> installGraph) throws DeploymentException {
+    private void driveInstallPipeline(URI uri, GraphNode<InstallArtifact> installGraph, DeploymentLock lock) throws DeploymentException {
         
         refreshWatchedRepositories();
-        InstallEnvironment installEnvironment = this.installEnvironmentFactory.createInstallEnvironment(installGraph.getValue());
+        InstallEnvironment installEnvironment = lock.share(this.installEnvironmentFactory.createInstallEnvironment(installGraph.getValue()));
         
         try {
             this.pipeline.process(installGraph, installEnvironment);
         } catch (UnableToSatisfyBundleDependenciesException utsbde) {
             logDependencySatisfactionException(uri, utsbde);
             throw new DeploymentException("Dependency satisfaction failed", utsbde);
+        } catch (DeploymentException de) {
+            if (lock.isExclusiveRequired()) {
+                throw new ExclusiveDeploymentRequiredException(de);
+            }
+            throw de;
         } finally {
             installEnvironment.destroy();
         }
@@ -392,20 +523,16 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
      * {@inheritDoc}
      */
     public DeploymentIdentity[] getDeploymentIdentities() {
-        synchronized (this.monitor) {
-            return this.ram.getDeploymentIdentities();
-        }
+        return this.ram.getDeploymentIdentities();
     }
     
     /**
      * {@inheritDoc}
      */
     public DeploymentIdentity getDeploymentIdentity(URI location) {
-        synchronized (this.monitor) {
-            InstallArtifact installArtifact = this.ram.get(location);
-            if (installArtifact != null) {
-                return getDeploymentIdentity(installArtifact);
-            }
+        InstallArtifact installArtifact = this.ram.get(location);
+        if (installArtifact != null) {
+            return getDeploymentIdentity(installArtifact);
         }
         return null;
     }
@@ -414,6 +541,10 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
         return new StandardDeploymentIdentity(installArtifact.getType(), installArtifact.getName(), installArtifact.getVersion().toString());
     }
     
+    private DeploymentIdentity getDeploymentIdentity(ArtifactIdentity artifactIdentity) {
+        return new StandardDeploymentIdentity(artifactIdentity.getType(), artifactIdentity.getName(), artifactIdentity.getVersion().toString());
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -429,9 +560,7 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
             this.eventLogger.log(DeployerLogEvents.UNSUPPORTED_URI_SCHEME, location.toString(), location.getScheme());
             return false;
         }
-        synchronized (this.monitor) {
-            return this.ram.get(normalisedLocation) != null;
-        }
+        return this.ram.get(normalisedLocation) != null;
     }
     
     /**
@@ -445,38 +574,46 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
             throw new DeploymentException("PipelinedApplicationDeployer.refresh does not support '" + location.getScheme() + "' scheme URIs");
         }
         
-        DeploymentIdentity deploymentIdentity;
-        synchronized (this.monitor) {
-            InstallArtifact installArtifact = this.ram.get(normalisedLocation);
-            if (installArtifact == null) {
-                this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_URI_NOT_FOUND, location.toString());
-                throw new DeploymentException("Refresh not possible as no application is deployed from URI " + location);
-            } else {
-                DeploymentIdentity originalDeploymentIdentity = getDeploymentIdentity(installArtifact);
-                deploymentIdentity = originalDeploymentIdentity;
-                try {
-                    // Attempt to refresh the artifact and escalate to redeploy if this fails.
-                    if (refreshInternal(symbolicName, installArtifact)) {
-                        this.deploymentListener.refreshed(normalisedLocation);
-                    } else {
-                        DeploymentOptions deploymentOptions = this.deploymentOptionsMap.get(deploymentIdentity);
-                        if (deploymentOptions == null) {
-                            deploymentOptions = DeploymentOptions.DEFAULT_DEPLOYMENT_OPTIONS;
-                        }
-                        deploymentIdentity = redeploy(originalDeploymentIdentity, normalisedLocation, deploymentOptions);
+        InstallArtifact installArtifact = this.ram.get(normalisedLocation);
+        if (installArtifact == null) {
+            this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_URI_NOT_FOUND, location.toString());
+            throw new DeploymentException("Refresh not possible as no application is deployed from URI " + location);
+        }
+        
+        DeploymentIdentity originalDeploymentIdentity = getDeploymentIdentity(installArtifact);
+        DeploymentIdentity deploymentIdentity = originalDeploymentIdentity;
+        try {
+            // Attempt to refresh the artifact and escalate to redeploy if this fails.
+            DeploymentOptions redeploymentOptions = null;
+            DeploymentLock lock = lockLocation(normalisedLocation, installArtifact.getType(), originalDeploymentIdentity);
+            try {
+                if (refreshInternal(symbolicName, installArtifact)) {
+                    this.deploymentListener.refreshed(normalisedLocation);
+                } else {
+                    redeploymentOptions = this.deploymentOptionsMap.get(deploymentIdentity);
+                    if (redeploymentOptions == null) {
+                        redeploymentOptions = DeploymentOptions.DEFAULT_DEPLOYMENT_OPTIONS;
                     }
-                    this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_COMPLETED, symbolicName, originalDeploymentIdentity.getType(),
-                                         originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
-                } catch (RuntimeException e) {
-                    this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_FAILED, e, symbolicName, originalDeploymentIdentity.getType(),
-                                         originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
-                    throw e;
-                } catch (Exception e) {
-                    this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_FAILED, e, symbolicName, originalDeploymentIdentity.getType(),
-                                         originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
-                    throw new DeploymentException("refresh failed", e);
+                    undeployInternal(originalDeploymentIdentity, true, false);
                 }
+            } finally {
+                lock.release();
             }
+            
+            // Deploy without holding the locks of the original artifact as the new artifact may have a different identity.
+            if (redeploymentOptions != null) {
+                deploymentIdentity = deploy(normalisedLocation, redeploymentOptions);
+            }
+            this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_COMPLETED, symbolicName, originalDeploymentIdentity.getType(),
+                                 originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
+        } catch (RuntimeException e) {
+            this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_FAILED, e, symbolicName, originalDeploymentIdentity.getType(),
+                                 originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
+            throw e;
+        } catch (Exception e) {
+            this.eventLogger.log(DeployerLogEvents.REFRESH_REQUEST_FAILED, e, symbolicName, originalDeploymentIdentity.getType(),
+                                 originalDeploymentIdentity.getSymbolicName(), originalDeploymentIdentity.getVersion());
+            throw new DeploymentException("refresh failed", e);
         }
         return deploymentIdentity;
     }
@@ -489,22 +626,12 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
         }
     }
     
-    private DeploymentIdentity redeploy(DeploymentIdentity toUndeploy, URI toDeploy, DeploymentOptions deploymentOptions) throws DeploymentException {
-        synchronized (this.monitor) {
-            undeployInternal(toUndeploy, true, false);
-        }
-        return deploy(toDeploy, deploymentOptions);
-    }
-    
     /**
      * {@inheritDoc}
      */
     public void refreshBundle(String bundleSymbolicName, String bundleVersion) throws DeploymentException {
         DeploymentIdentity deploymentIdentity = new StandardDeploymentIdentity(BUNDLE_TYPE, bundleSymbolicName, bundleVersion);
-        InstallArtifact bundleInstallArtifact;
-        synchronized (this.monitor) {
-            bundleInstallArtifact = this.ram.get(deploymentIdentity);
-        }
+        InstallArtifact bundleInstallArtifact = this.ram.get(deploymentIdentity);
         if (bundleInstallArtifact == null) {
             this.eventLogger.log(DeployerLogEvents.REFRESH_ARTEFACT_NOT_FOUND, BUNDLE_TYPE, bundleSymbolicName, bundleVersion);
             throw new DeploymentException("Refresh not possible as no " + BUNDLE_TYPE + " with name " + bundleSymbolicName + " and version "
@@ -557,31 +684,34 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
      */
     public void undeploy(String type, String symbolicName, String version) throws DeploymentException {
         DeploymentIdentity deploymentIdentity = new StandardDeploymentIdentity(type, symbolicName, version);
-        synchronized (this.monitor) {
-            undeployInternal(deploymentIdentity, false, false);
-        }
+        lockAndUndeploy(deploymentIdentity, false);
     }
     
     /**
      * {@inheritDoc}
      */
     public void undeploy(DeploymentIdentity deploymentIdentity) throws DeploymentException {
-        synchronized (this.monitor) {
-            undeployInternal(deploymentIdentity, false, false);
-        }
+        lockAndUndeploy(deploymentIdentity, false);
     }
     
     /**
      * {@inheritDoc}
      */
     public void undeploy(DeploymentIdentity deploymentIdentity, boolean deleted) throws DeploymentException {
-        synchronized (this.monitor) {
-            undeployInternal(deploymentIdentity, false, true);
+        lockAndUndeploy(deploymentIdentity, true);
+    }
+    
+    private void lockAndUndeploy(DeploymentIdentity deploymentIdentity, boolean deleted) throws DeploymentException {
+        DeploymentLock lock = lockLocation(this.ram.getLocation(deploymentIdentity), deploymentIdentity.getType(), deploymentIdentity);
+        try {
+            undeployInternal(deploymentIdentity, false, deleted);
+        } finally {
+            lock.release();
         }
     }
     
     /**
-     * All the undeploy work goes on in here -- it is assumed that any required monitors are already held by the caller.
+     * All the undeploy work goes on in here -- it is assumed that any required locks are already held by the caller.
      * <p>
      * The deleted parameter indicates whether the undeployment is a consequence of the artifact having been deleted.
      * This affects the processing of "deployer owned" artifacts which undeploy would normally delete automatically. If
@@ -610,25 +740,28 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     }
     
     private URI doUndeploy(DeploymentIdentity deploymentIdentity) throws DeploymentException {
-        synchronized (this.monitor) {
-            InstallArtifact installArtifact = this.ram.get(deploymentIdentity);
-            if (installArtifact == null) {
-                String type = deploymentIdentity.getType();
-                String symbolicName = deploymentIdentity.getSymbolicName();
-                String version = deploymentIdentity.getVersion();
-                this.eventLogger.log(DeployerLogEvents.UNDEPLOY_ARTEFACT_NOT_FOUND, type, symbolicName, version);
-                throw new DeploymentException("Undeploy not possible as no " + type + " with name " + symbolicName + " and version " + version
-                                              + " is deployed");
-            } else {
-                URI location = this.ram.getLocation(deploymentIdentity);
-                
+        InstallArtifact installArtifact;
+        URI location;
+        synchronized (this.modelMonitor) {
+            installArtifact = this.ram.get(deploymentIdentity);
+            location = this.ram.getLocation(deploymentIdentity);
+            if (installArtifact != null) {
                 this.ram.delete(deploymentIdentity);
-                
-                stopArtifact(installArtifact);
-                uninstallArtifact(installArtifact);
-                return location;
             }
         }
+        
+        if (installArtifact == null) {
+            String type = deploymentIdentity.getType();
+            String symbolicName = deploymentIdentity.getSymbolicName();
+            String version = deploymentIdentity.getVersion();
+            this.eventLogger.log(DeployerLogEvents.UNDEPLOY_ARTEFACT_NOT_FOUND, type, symbolicName, version);
+            throw new DeploymentException("Undeploy not possible as no " + type + " with name " + symbolicName + " and version " + version
+                                          + " is deployed");
+        }
+        
+        stopArtifact(installArtifact);
+        uninstallArtifact(installArtifact);
+        return location;
     }
     
     private void stopArtifact(InstallArtifact installArtifact) throws DeploymentException {
@@ -642,32 +775,366 @@ final class PipelinedApplicationDeployer implements ApplicationDeployer, Applica
     }
     
     private void refreshWatchedRepositories() {
+        this.watchedRepositoryRefresher.refresh();
+    }
+    
+    private DeploymentLock lockLocation(URI location, String type, DeploymentIdentity deploymentIdentity) {
+        return lockLocation(location, type, deploymentIdentity, false);
+    }
+    
+    /**
+     * Acquires the locks needed to operate on the artifact at the given location with the given type and identity. The
+     * graph lock is held exclusively if this is required by the caller or unless both the given artifact and any
+     * artifact already deployed from the location are bundles.
+     * 
+     * @param location the location of the artifact or <code>null</code> if the artifact has no known location
+     * @param type the type of the artifact
+     * @param deploymentIdentity the identity of the artifact
+     * @param exclusiveRequired <code>true</code> if the graph lock must be held exclusively
+     * @return the acquired {@link DeploymentLock} which the caller must release
+     */
+    private DeploymentLock lockLocation(URI location, String type, DeploymentIdentity deploymentIdentity, boolean exclusiveRequired) {
+        while (true) {
+            boolean exclusive = exclusiveRequired || requiresExclusiveGraphLock(type, location);
+            DeploymentLock lock = new DeploymentLock(exclusive, location, deploymentIdentity);
+            // Another thread may have deployed a non-bundle artifact at the location before the locks were acquired.
+            if (exclusive || !requiresExclusiveGraphLock(type, location)) {
+                return lock;
+            }
+            lock.release();
+        }
+    }
+    
+    private boolean requiresExclusiveGraphLock(String type, URI location) {
+        if (!BUNDLE_TYPE.equals(type)) {
+            return true;
+        }
+        InstallArtifact existingArtifact = location == null ? null : this.ram.get(location);
+        return existingArtifact != null && !BUNDLE_TYPE.equals(existingArtifact.getType());
+    }
+    
+    /**
+     * {@link DeploymentLock} holds the locks acquired for a single deployer operation, always in the order graph lock,
+     * location, identity, so that operations on distinct artifacts cannot deadlock. While the graph lock is held
+     * shared, the install environments of the operation are tracked as {@link SharedDeployments} until the locks are
+     * released.
+     */
+    private final class DeploymentLock {
+        
+        private final Lock lock;
+        
+        private final boolean exclusive;
+        
+        private final URI location;
+        
+        private final DeploymentIdentity deploymentIdentity;
+        
+        private final List<SharedDeployments.SharedDeployment> sharedDeployments = new ArrayList<SharedDeployments.SharedDeployment>();
+        
+        private DeploymentLock(boolean exclusive, URI location, DeploymentIdentity deploymentIdentity) {
+            this.lock = exclusive ? PipelinedApplicationDeployer.this.graphLock.writeLock() : PipelinedApplicationDeployer.this.graphLock.readLock();
+            this.exclusive = exclusive;
+            this.location = location;
+            this.deploymentIdentity = deploymentIdentity;
+            
+            this.lock.lock();
+            if (this.location != null) {
+                PipelinedApplicationDeployer.this.artifactLocks.lock(this.location);
+            }
+            PipelinedApplicationDeployer.this.artifactLocks.lock(this.deploymentIdentity);
+        }
+        
+        private InstallEnvironment share(InstallEnvironment installEnvironment) {
+            if (this.exclusive) {
+                return installEnvironment;
+            }
+            SharedDeployments.SharedDeployment sharedDeployment = PipelinedApplicationDeployer.this.sharedDeployments.begin(installEnvironment);
+            this.sharedDeployments.add(sharedDeployment);
+            return sharedDeployment;
+        }
+        
+        private boolean isExclusiveRequired() {
+            for (SharedDeployments.SharedDeployment sharedDeployment : this.sharedDeployments) {
+                if (sharedDeployment.isExclusiveRequired()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void release() {
+            for (SharedDeployments.SharedDeployment sharedDeployment : this.sharedDeployments) {
+                sharedDeployment.end();
+            }
+            PipelinedApplicationDeployer.this.artifactLocks.unlock(this.deploymentIdentity);
+            if (this.location != null) {
+                PipelinedApplicationDeployer.this.artifactLocks.unlock(this.location);
+            }
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p />
+     * Artifacts which are not already deployed and do not share a node with a deployed artifact are installed together
+     * by the {@link BatchInstallPipeline}, so that the framework state is copied and resolved once for the whole batch.
+     * Any other artifacts, and every artifact of a batch which cannot be installed together, are deployed
+     * individually. The installed artifacts are started once the batch has been installed.
+     * 
+     * @return an array with an element for each of the given URIs, in order, which is the identity of the artifact
+     *         deployed from the URI or <code>null</code> if the artifact failed to deploy
+     */
+    @Override
+    public DeploymentIdentity[] bulkDeploy(List<URI> uris, DeploymentOptions deploymentOptions) throws DeploymentException {
+        DeploymentIdentity[] deploymentIdentities = new DeploymentIdentity[uris.size()];
+        List<BatchMember> batch = new ArrayList<BatchMember>();
+        List<Integer> individualDeployments = new ArrayList<Integer>();
+        
+        // Hold the graph lock exclusively so that no other operation sees the batch part way through.
+        Lock lock = this.graphLock.writeLock();
+        lock.lock();
         try {
-            Collection<ServiceReference<WatchableRepository>> references = this.bundleContext.getServiceReferences(WatchableRepository.class, null);
-            for (ServiceReference<WatchableRepository> reference : references) {
-                WatchableRepository watchableRepository = this.bundleContext.getService(reference);
+            Set<URI> batchLocations = new HashSet<URI>();
+            for (int index = 0; index < uris.size(); index++) {
+                BatchMember member = createBatchMember(index, uris.get(index), batchLocations);
+                if (member == null) {
+                    individualDeployments.add(index);
+                } else {
+                    batch.add(member);
+                }
+            }
+            
+            if (!batch.isEmpty() && !driveBatchInstallPipeline(batch, deploymentOptions)) {
+                for (BatchMember member : batch) {
+                    individualDeployments.add(member.index);
+                }
+                Collections.sort(individualDeployments);
+                batch.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        for (BatchMember member : batch) {
+            if (member.installed) {
                 try {
-                    watchableRepository.forceCheck();
-                } catch (Exception e) {
-                    String name;
-                    if (watchableRepository instanceof Repository) {
-                        name = ((Repository) watchableRepository).getName();
-                    } else {
-                        name = "unknown repository type";
-                    }
-                    this.eventLogger.log(DeployerLogEvents.WATCHED_REPOSITORY_REFRESH_FAILED, name);
+                    startInstalledArtifact(member.location, deploymentOptions);
+                    deploymentIdentities[member.index] = member.deploymentIdentity;
+                } catch (DeploymentException de) {
+                    this.logger.warn(String.format("Deployment of '%s' failed", member.location), de);
                 }
-                this.bundleContext.ungetService(reference);
             }
-        } catch (InvalidSyntaxException e) {
-            this.eventLogger.log(DeployerLogEvents.WATCHED_REPOSITORIES_REFRESH_FAILED);
         }
         
+        for (int index : individualDeployments) {
+            try {
+                deploymentIdentities[index] = deploy(uris.get(index), deploymentOptions);
+            } catch (DeploymentException de) {
+                this.logger.warn(String.format("Deployment of '%s' failed", uris.get(index)), de);
+            }
+        }
+        
+        return deploymentIdentities;
     }
     
-    @Override
-    public DeploymentIdentity[] bulkDeploy(List<URI> arg0, DeploymentOptions arg1) throws DeploymentException {
-        throw new UnsupportedOperationException();
+    /**
+     * Creates an install graph for the artifact at the given URI and adds it to the model, or returns <code>null</code>
+     * if the artifact must be deployed individually, either because it is already deployed, occurs earlier in the batch,
+     * or shares a node with a deployed artifact, or because creating the install graph failed and individual
+     * deployment will report the failure.
+     */
+    private BatchMember createBatchMember(int index, URI uri, Set<URI> batchLocations) {
+        URI normalisedUri;
+        ArtifactIdentity artifactIdentity;
+        try {
+            normalisedUri = normaliseDeploymentUri(uri);
+            artifactIdentity = determineIdentity(normalisedUri);
+        } catch (DeploymentException _) {
+            return null;
+        }
+        
+        if (!batchLocations.add(normalisedUri) || this.ram.get(normalisedUri) != null || findSharedNode(artifactIdentity) != null) {
+            return null;
+        }
+        
+        GraphNode<InstallArtifact> installGraph;
+        try {
+            installGraph = this.installArtifactGraphInclosure.constructGraphNode(artifactIdentity, new File(normalisedUri), null, null);
+        } catch (Exception _) {
+            return null;
+        }
+        
+        try {
+            return new BatchMember(index, normalisedUri, installGraph, addGraphToModel(normalisedUri, installGraph));
+        } catch (Exception _) {
+            destroyBatchInstallGraph(installGraph);
+            return null;
+        }
+    }
+    
+    /**
+     * Drives the given batch through the {@link BatchInstallPipeline} and returns <code>false</code> if the batch was
+     * abandoned, in which case every member of the batch has been removed from the model.
+     */
+    private boolean driveBatchInstallPipeline(List<BatchMember> batch, DeploymentOptions deploymentOptions) {
+        List<GraphNode<InstallArtifact>> installGraphs = new ArrayList<GraphNode<InstallArtifact>>(batch.size());
+        for (BatchMember member : batch) {
+            installGraphs.add(member.installGraph);
+        }
+        
+        refreshWatchedRepositories();
+        InstallEnvironment installEnvironment = this.installEnvironmentFactory.createInstallEnvironment(installGraphs.get(0).getValue());
+        
+        List<DeploymentException> failures = null;
+        try {
+            failures = this.batchInstallPipeline.process(installGraphs, installEnvironment);
+        } catch (DeploymentException _) {
+            // The members will be deployed individually, which reports the failure against the artifact at fault.
+        } finally {
+            installEnvironment.destroy();
+            if (failures == null) {
+                for (BatchMember member : batch) {
+                    discardBatchMember(member);
+                }
+            }
+        }
+        
+        if (failures == null) {
+            return false;
+        }
+        
+        for (int index = 0; index < batch.size(); index++) {
+            BatchMember member = batch.get(index);
+            DeploymentException failure = failures.get(index);
+            if (failure == null) {
+                this.nodeIndex.addGraph(member.installGraph);
+                this.deploymentOptionsMap.put(member.deploymentIdentity, deploymentOptions);
+                this.deploymentListener.deployed(member.location, deploymentOptions);
+                member.installed = true;
+            } else {
+                if (failure.getCause() instanceof UnableToSatisfyBundleDependenciesException) {
+                    logDependencySatisfactionException(member.location, (UnableToSatisfyBundleDependenciesException) failure.getCause());
+                }
+                this.logger.warn(String.format("Deployment of '%s' failed", member.location), failure);
+                discardBatchMember(member);
+            }
+        }
+        return true;
+    }
+    
+    private void discardBatchMember(BatchMember member) {
+        try {
+            removeFromModel(member.deploymentIdentity);
+        } catch (DeploymentException de) {
+            this.logger.warn(String.format("Failed to remove '%s' from the model", member.location), de);
+        }
+        destroyBatchInstallGraph(member.installGraph);
+    }
+    
+    private void destroyBatchInstallGraph(GraphNode<InstallArtifact> installGraph) {
+        try {
+            destroyInstallGraph(installGraph);
+        } catch (DeploymentException de) {
+            this.logger.warn(String.format("Failed to uninstall '%s'", installGraph.getValue()), de);
+        }
+    }
+    
+    /**
+     * {@link AsynchronousStartListener} completes an asynchronous deployment once the start of the deployed artifact is
+     * done, in the same way as {@link PipelinedApplicationDeployer#deploy(URI, DeploymentOptions)} completes a
+     * synchronous deployment. An artifact whose start failed is stopped and uninstalled at most once, on the deployer's
+     * cleanup thread, so that the listener does not block the thread which signals the failure.
+     */
+    private final class AsynchronousStartListener implements ProgressListener {
+        
+        private final URI location;
+        
+        private final InstallArtifact installArtifact;
+        
+        private final DeploymentOptions deploymentOptions;
+        
+        private final AtomicBoolean stoppedAndUninstalled = new AtomicBoolean(false);
+        
+        private AsynchronousStartListener(URI location, InstallArtifact installArtifact, DeploymentOptions deploymentOptions) {
+            this.location = location;
+            this.installArtifact = installArtifact;
+            this.deploymentOptions = deploymentOptions;
+        }
+        
+        public void progressed(DeploymentHandle deploymentHandle, Progress progress) {
+            if (progress == Progress.STARTED) {
+                PipelinedApplicationDeployer.this.deploymentListener.deployed(this.location, this.deploymentOptions);
+            } else if (progress == Progress.FAILED && !this.stoppedAndUninstalled.get()) {
+                try {
+                    PipelinedApplicationDeployer.this.failedStartCleanupExecutor.execute(new Runnable() {
+                        
+                        public void run() {
+                            stopAndUninstall();
+                        }
+                    });
+                } catch (RejectedExecutionException _) {
+                    PipelinedApplicationDeployer.this.logger.warn(
+                        "'{}' not stopped and uninstalled after its start failed as the deployer has stopped", this.location);
+                }
+            }
+        }
+        
+        private void stopAndUninstall() {
+            if (this.stoppedAndUninstalled.compareAndSet(false, true)) {
+                try {
+                    stopAndUninstallFailedArtifact(this.location, this.installArtifact);
+                } catch (DeploymentException de) {
+                    PipelinedApplicationDeployer.this.logger.warn(String.format("Failed to stop and uninstall '%s' after its start failed",
+                        this.location), de);
+                }
+            }
+        }
+    }
+    
+    private static final class CleanupThreadFactory implements ThreadFactory {
+        
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "deployer-failed-start-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+    
+    /**
+     * {@link ExclusiveDeploymentRequiredException} signals that a deployment holding the graph lock shared was rolled
+     * back before committing and must be retried holding the graph lock exclusively.
+     */
+    private static final class ExclusiveDeploymentRequiredException extends DeploymentException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private ExclusiveDeploymentRequiredException(DeploymentException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * {@link BatchMember} records the progress of an artifact deployed by {@link #bulkDeploy(List, DeploymentOptions)}.
+     */
+    private static final class BatchMember {
+        
+        private final int index;
+        
+        private final URI location;
+        
+        private final GraphNode<InstallArtifact> installGraph;
+        
+        private final DeploymentIdentity deploymentIdentity;
+        
+        private boolean installed = false;
+        
+        private BatchMember(int index, URI location, GraphNode<InstallArtifact> installGraph, DeploymentIdentity deploymentIdentity) {
+            this.index = index;
+            this.location = location;
+            this.installGraph = installGraph;
+            this.deploymentIdentity = deploymentIdentity;
+        }
     }
     
 }
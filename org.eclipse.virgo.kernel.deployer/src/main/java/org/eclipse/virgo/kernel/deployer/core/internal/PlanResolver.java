@@ -22,7 +22,6 @@ import org.eclipse.virgo.kernel.artifact.ArtifactSpecification;
 import org.eclipse.virgo.kernel.artifact.plan.PlanDescriptor.Provisioning;
 import org.eclipse.virgo.nano.deployer.api.core.DeployerLogEvents;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
-import org.eclipse.virgo.kernel.deployer.model.GCRoots;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentity;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentityDeterminer;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
@@ -57,7 +56,7 @@ public class PlanResolver implements Transformer {
 
     private final InstallArtifactGraphInclosure installArtifactGraphInclosure;
 
-    private final GCRoots gcRoots;
+    private final InstallArtifactNodeIndex nodeIndex;
 
     private final Repository repository;
 
@@ -65,10 +64,10 @@ public class PlanResolver implements Transformer {
 
     private final EventLogger eventLogger;
 
-    public PlanResolver(@NonNull InstallArtifactGraphInclosure installArtifactGraphInclosure, @NonNull GCRoots gcRoots,
+    public PlanResolver(@NonNull InstallArtifactGraphInclosure installArtifactGraphInclosure, @NonNull InstallArtifactNodeIndex nodeIndex,
         @NonNull Repository repository, @NonNull ArtifactIdentityDeterminer artifactIdentityDeterminer, @NonNull EventLogger eventLogger) {
         this.installArtifactGraphInclosure = installArtifactGraphInclosure;
-        this.gcRoots = gcRoots;
+        this.nodeIndex = nodeIndex;
         this.repository = repository;
         this.artifactIdentityDeterminer = artifactIdentityDeterminer;
         this.eventLogger = eventLogger;
@@ -104,6 +103,7 @@ public class PlanResolver implements Transformer {
                         boolean newNode = childInstallNode.getParents().isEmpty()
                             && !(((AbstractInstallArtifact) childInstallNode.getValue()).getTopLevelDeployed());
                         graph.addChild(childInstallNode);
+                        this.nodeIndex.addGraph(childInstallNode);
                         if (newNode) {
                             // Put child into the INSTALLING state as Transformers (like this) are after the
                             // "begin install"
@@ -226,11 +226,11 @@ public class PlanResolver implements Transformer {
     }
 
     private GraphNode<InstallArtifact> findSharedNode(ArtifactIdentity artifactIdentity) {
-        return ExistingNodeLocator.findSharedNode(this.gcRoots, artifactIdentity);
+        return this.nodeIndex.findSharedNode(artifactIdentity);
     }
 
     public GraphNode<InstallArtifact> findSharedNode(String type, String name, VersionRange versionRange, String scopeName) {
-        return ExistingNodeLocator.findSharedNode(this.gcRoots, type, name, versionRange, scopeName);
+        return this.nodeIndex.findSharedNode(type, name, versionRange, scopeName);
     }
 
 }
@@ -17,6 +17,7 @@ import org.eclipse.virgo.kernel.install.artifact.internal.AbstractInstallArtifac
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
 import org.eclipse.virgo.kernel.install.pipeline.Pipeline;
 import org.eclipse.virgo.kernel.install.pipeline.PipelineFactory;
+import org.eclipse.virgo.kernel.install.pipeline.internal.StandardPipelineStatistics;
 import org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal.CommitStage;
 import org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal.QuasiInstallStage;
 import org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal.QuasiResolveStage;
@@ -54,15 +55,48 @@ final class Plumber {
 
     private final QuasiFrameworkFactory quasiFrameworkFactory;
 
+    private final TransformationStage transformationStage;
+
+    private final VisitationStage beginInstallStage = createBeginInstallStage();
+
+    private final VisitationStage endInstallStage = createEndInstallStage();
+
+    private final VisitationStage failInstallStage = createFailInstallStage();
+
+    private final VisitationStage beginResolveStage = createBeginResolveStage();
+
+    private final VisitationStage endResolveStage = createEndResolveStage();
+
+    private final VisitationStage failResolveStage = createFailResolveStage();
+
+    private final QuasiInstallStage quasiInstallStage = new QuasiInstallStage();
+
+    private final QuasiResolveStage quasiResolveStage = new QuasiResolveStage();
+
+    private final CommitStage commitStage = new CommitStage();
+
+    private final ResolveStage resolveStage;
+
+    private final BatchInstallPipeline batchInstallPipeline;
+
     public Plumber(@NonNull PackageAdmin packageAdmin, @NonNull BundleContext bundleContext, @NonNull PipelineFactory pipelineFactory,
-        @NonNull QuasiFrameworkFactory quasiFrameworkFactory) {
+        @NonNull QuasiFrameworkFactory quasiFrameworkFactory, @NonNull StandardPipelineStatistics pipelineStatistics) {
         this.packageAdmin = packageAdmin;
         this.bundleContext = bundleContext;
         this.pipelineFactory = pipelineFactory;
         this.quasiFrameworkFactory = quasiFrameworkFactory;
         this.refreshSubpipeline = this.pipelineFactory.create();
         this.pipeline = this.pipelineFactory.create();
+        this.transformationStage = new TransformationStage(this.bundleContext);
+        this.resolveStage = new ResolveStage(this.packageAdmin, this.quasiFrameworkFactory);
         initialisePipelines();
+        this.batchInstallPipeline = new BatchInstallPipeline(this.beginInstallStage, this.transformationStage, this.quasiInstallStage,
+            this.quasiResolveStage, this.commitStage, this.endInstallStage, this.failInstallStage, this.beginResolveStage, this.resolveStage,
+            this.endResolveStage, this.failResolveStage, pipelineStatistics);
+    }
+
+    public void destroy() {
+        this.transformationStage.close();
     }
 
     public Pipeline getMainPipeline() {
@@ -73,15 +107,17 @@ final class Plumber {
         return this.refreshSubpipeline;
     }
 
+    public BatchInstallPipeline getBatchInstallPipeline() {
+        return this.batchInstallPipeline;
+    }
+
     private void initialisePipelines() {
         // new ManifestUpgrader(), new ImportExpander(this.bundleInstaller), new
         // PlanResolver(this.installArtifactTreeInclosure));
 
-        TransformationStage transformationStage = new TransformationStage(this.bundleContext);
-
-        plumbRefreshPipeline(transformationStage);
+        plumbRefreshPipeline(this.transformationStage);
 
-        plumbMainPipeline(transformationStage);
+        plumbMainPipeline(this.transformationStage);
     }
 
     /**
@@ -94,68 +130,80 @@ final class Plumber {
     }
 
     private void plumbMainPipelineInstallStages(TransformationStage transformationStage) {
-        VisitationStage beginInstallStage = new VisitationStage(new Visitor() {
+        Pipeline installStages = this.pipelineFactory.createCompensatingPipeline(this.failInstallStage);
+
+        installStages.appendStage(transformationStage).appendStage(this.quasiInstallStage).appendStage(this.quasiResolveStage).appendStage(
+            this.commitStage);
+
+        this.pipeline.appendStage(this.beginInstallStage).appendStage(installStages).appendStage(this.endInstallStage);
+    }
+
+    private void plumbMainPipelineResolveStages() {
+        Pipeline resolveStages = this.pipelineFactory.createCompensatingPipeline(this.failResolveStage);
+
+        resolveStages.appendStage(this.resolveStage);
+
+        this.pipeline.appendStage(this.beginResolveStage).appendStage(resolveStages).appendStage(this.endResolveStage);
+    }
+
+    private static VisitationStage createBeginInstallStage() {
+        return new VisitationStage("BeginInstallStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).beginInstall();
 
             }
         });
+    }
 
-        VisitationStage endInstallStage = new VisitationStage(new Visitor() {
+    private static VisitationStage createEndInstallStage() {
+        return new VisitationStage("EndInstallStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).endInstall();
 
             }
         }, false);
+    }
 
-        VisitationStage failInstallStage = new VisitationStage(new Visitor() {
+    private static VisitationStage createFailInstallStage() {
+        return new VisitationStage("FailInstallStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).failInstall();
 
             }
         }, false);
-
-        Pipeline installStages = this.pipelineFactory.createCompensatingPipeline(failInstallStage);
-
-        installStages.appendStage(transformationStage).appendStage(new QuasiInstallStage()).appendStage(new QuasiResolveStage()).appendStage(
-            new CommitStage());
-
-        this.pipeline.appendStage(beginInstallStage).appendStage(installStages).appendStage(endInstallStage);
     }
 
-    private void plumbMainPipelineResolveStages() {
-        VisitationStage beginResolveStage = new VisitationStage(new Visitor() {
+    private static VisitationStage createBeginResolveStage() {
+        return new VisitationStage("BeginResolveStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).beginResolve();
 
             }
         });
+    }
 
-        VisitationStage endResolveStage = new VisitationStage(new Visitor() {
+    private static VisitationStage createEndResolveStage() {
+        return new VisitationStage("EndResolveStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).endResolve();
 
             }
         });
+    }
 
-        VisitationStage failResolveStage = new VisitationStage(new Visitor() {
+    private static VisitationStage createFailResolveStage() {
+        return new VisitationStage("FailResolveStage", new Visitor() {
 
             public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) throws DeploymentException {
                 ((AbstractInstallArtifact) installArtifact).failResolve();
 
             }
         });
-
-        Pipeline resolveStages = this.pipelineFactory.createCompensatingPipeline(failResolveStage);
-
-        resolveStages.appendStage(new ResolveStage(this.packageAdmin, this.quasiFrameworkFactory));
-
-        this.pipeline.appendStage(beginResolveStage).appendStage(resolveStages).appendStage(endResolveStage);
     }
 
     private void plumbRefreshPipeline(TransformationStage transformationStage) {
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.environment.InstallLog;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiExportPackage;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiImportPackage;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiRequiredBundle;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
+import org.eclipse.virgo.medic.eventlog.LogEvent;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+/**
+ * {@link SharedDeployments} keeps track of the bundle deployments which run concurrently while holding the graph lock
+ * shared, and refuses the commit of any such deployment which could interfere with another.
+ * <p />
+ * A failed deployment uninstalls the bundles it committed, so a deployment holding the graph lock shared may only
+ * commit the bundles it installs itself and only if they are not wired to bundles committed by another shared
+ * deployment which is still in progress. A commit which would also install dependencies, for example from a
+ * repository, or which depends on another shared deployment's bundles is refused before anything is committed. The
+ * deployment then fails without logging the failure and must be retried holding the graph lock exclusively.
+ * <p />
+ * Commits of shared deployments are serialised so that checking the wiring of a deployment's bundles and committing
+ * them is atomic with respect to other shared deployments.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class SharedDeployments {
+
+    private final Object monitor = new Object();
+
+    private final Set<Long> inFlightBundleIds = new HashSet<Long>();
+
+    /**
+     * Returns a {@link SharedDeployment} which wraps the given <code>InstallEnvironment</code>. The caller must
+     * {@link SharedDeployment#end() end} the deployment once it has completed or been rolled back.
+     *
+     * @param installEnvironment the environment of the deployment
+     * @return the <code>SharedDeployment</code>
+     */
+    SharedDeployment begin(InstallEnvironment installEnvironment) {
+        return new SharedDeployment(installEnvironment);
+    }
+
+    /**
+     * A {@link SharedDeployment} is an {@link InstallEnvironment} whose {@link QuasiFramework} refuses commits which
+     * could interfere with other shared deployments.
+     */
+    final class SharedDeployment implements InstallEnvironment {
+
+        private final InstallEnvironment installEnvironment;
+
+        private final InstallLog installLog;
+
+        private final QuasiFramework quasiFramework;
+
+        private final List<QuasiBundle> ownedQuasiBundles = new CopyOnWriteArrayList<QuasiBundle>();
+
+        private final List<Long> committedBundleIds = new ArrayList<Long>();
+
+        private volatile boolean exclusiveRequired = false;
+
+        private SharedDeployment(InstallEnvironment installEnvironment) {
+            this.installEnvironment = installEnvironment;
+            this.installLog = new SharedInstallLog(installEnvironment.getInstallLog());
+            QuasiFramework quasiFramework = installEnvironment.getQuasiFramework();
+            this.quasiFramework = quasiFramework == null ? null : new SharedQuasiFramework(quasiFramework);
+        }
+
+        /**
+         * Returns whether or not a commit was refused because the deployment must hold the graph lock exclusively.
+         *
+         * @return <code>true</code> if and only if the deployment must be retried exclusively
+         */
+        boolean isExclusiveRequired() {
+            return this.exclusiveRequired;
+        }
+
+        /**
+         * Ends the deployment so that other shared deployments may depend on the bundles it committed.
+         */
+        void end() {
+            synchronized (SharedDeployments.this.monitor) {
+                SharedDeployments.this.inFlightBundleIds.removeAll(this.committedBundleIds);
+                this.committedBundleIds.clear();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Repository getRepository() {
+            return this.installEnvironment.getRepository();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public InstallLog getInstallLog() {
+            return this.installLog;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public QuasiFramework getQuasiFramework() {
+            return this.quasiFramework;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void destroy() {
+            this.installEnvironment.destroy();
+        }
+
+        private void commit(QuasiFramework delegate) throws BundleException {
+            synchronized (SharedDeployments.this.monitor) {
+                QuasiBundle conflict = findConflict();
+                if (conflict != null) {
+                    this.exclusiveRequired = true;
+                    throw new BundleException("Bundle '" + conflict.getSymbolicName() + "' version '" + conflict.getVersion()
+                        + "' is not owned by this deployment and cannot be committed while other deployments are in progress");
+                }
+                delegate.commit();
+                for (QuasiBundle quasiBundle : this.ownedQuasiBundles) {
+                    Bundle bundle = quasiBundle.getBundle();
+                    if (bundle != null) {
+                        this.committedBundleIds.add(bundle.getBundleId());
+                        SharedDeployments.this.inFlightBundleIds.add(bundle.getBundleId());
+                    }
+                }
+            }
+        }
+
+        /*
+         * Returns the first bundle wired to an owned bundle which the commit would install but the deployment does not
+         * own, which belongs to another shared deployment in progress, or which has been uninstalled. Bundles already in
+         * the framework are not followed further as their wiring cannot change until they are refreshed. Must be called
+         * holding the monitor.
+         */
+        private QuasiBundle findConflict() {
+            Set<Long> ownedBundleIds = new HashSet<Long>();
+            for (QuasiBundle quasiBundle : this.ownedQuasiBundles) {
+                ownedBundleIds.add(quasiBundle.getBundleId());
+            }
+            for (QuasiBundle quasiBundle : this.ownedQuasiBundles) {
+                for (QuasiBundle dependency : getDependencies(quasiBundle)) {
+                    if (!ownedBundleIds.contains(dependency.getBundleId())) {
+                        Bundle bundle = dependency.getBundle();
+                        if (bundle == null || bundle.getState() == Bundle.UNINSTALLED
+                            || SharedDeployments.this.inFlightBundleIds.contains(bundle.getBundleId())) {
+                            return dependency;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private List<QuasiBundle> getDependencies(QuasiBundle quasiBundle) {
+            List<QuasiBundle> dependencies = new ArrayList<QuasiBundle>(quasiBundle.getHosts());
+            for (QuasiImportPackage importPackage : quasiBundle.getImportPackages()) {
+                QuasiExportPackage provider = importPackage.getProvider();
+                if (provider != null) {
+                    dependencies.add(provider.getExportingBundle());
+                }
+            }
+            for (QuasiRequiredBundle requiredBundle : quasiBundle.getRequiredBundles()) {
+                QuasiBundle provider = requiredBundle.getProvider();
+                if (provider != null) {
+                    dependencies.add(provider);
+                }
+            }
+            return dependencies;
+        }
+
+        private final class SharedQuasiFramework implements QuasiFramework {
+
+            private final QuasiFramework delegate;
+
+            private SharedQuasiFramework(QuasiFramework delegate) {
+                this.delegate = delegate;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public QuasiBundle install(URI location, BundleManifest bundleManifest) throws BundleException {
+                QuasiBundle quasiBundle = this.delegate.install(location, bundleManifest);
+                SharedDeployment.this.ownedQuasiBundles.add(quasiBundle);
+                return quasiBundle;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public List<QuasiBundle> getBundles() {
+                return this.delegate.getBundles();
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public QuasiBundle getBundle(long bundleId) {
+                return this.delegate.getBundle(bundleId);
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public Set<Region> getRegions() {
+                return this.delegate.getRegions();
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public List<QuasiResolutionFailure> resolve() {
+                return this.delegate.resolve();
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public List<QuasiResolutionFailure> diagnose(long bundleId) {
+                return this.delegate.diagnose(bundleId);
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void commit() throws BundleException {
+                SharedDeployment.this.commit(this.delegate);
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void destroy() {
+                this.delegate.destroy();
+            }
+        }
+
+        private final class SharedInstallLog implements InstallLog {
+
+            private final InstallLog delegate;
+
+            private SharedInstallLog(InstallLog delegate) {
+                this.delegate = delegate;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void log(Object source, String message, String... arguments) {
+                this.delegate.log(source, message, arguments);
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void logFailure(LogEvent logEvent, Throwable cause, Object... insert) {
+                // A refused commit is not a failure as the deployment is retried.
+                if (!SharedDeployment.this.exclusiveRequired) {
+                    this.delegate.logFailure(logEvent, cause, insert);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle;
+import org.eclipse.virgo.nano.core.AbortableSignal;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentIdentity;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link StandardDeploymentHandle} is the {@link DeploymentHandle} implementation. It is also the
+ * {@link AbortableSignal} passed to the start of the deployed artifact, so the signal's callbacks drive the progress of
+ * the deployment. Only the first completion, failure, or abortion signalled has any effect.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe. Listeners are notified without holding a lock.
+ *
+ */
+final class StandardDeploymentHandle implements DeploymentHandle, AbortableSignal {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Object monitor = new Object();
+
+    private final DeploymentIdentity deploymentIdentity;
+
+    private final List<ProgressListener> progressListeners = new ArrayList<ProgressListener>();
+
+    private Progress progress = Progress.INSTALLED;
+
+    private Throwable failureCause;
+
+    StandardDeploymentHandle(@NonNull DeploymentIdentity deploymentIdentity) {
+        this.deploymentIdentity = deploymentIdentity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DeploymentIdentity getDeploymentIdentity() {
+        return this.deploymentIdentity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Progress getProgress() {
+        synchronized (this.monitor) {
+            return this.progress;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDone() {
+        synchronized (this.monitor) {
+            return isDone(this.progress);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Throwable getFailureCause() {
+        synchronized (this.monitor) {
+            return this.failureCause;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.monitor) {
+            while (!isDone(this.progress)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.monitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addProgressListener(ProgressListener progressListener) {
+        synchronized (this.monitor) {
+            this.progressListeners.add(progressListener);
+        }
+    }
+
+    /**
+     * Records that the start of the deployed artifact is about to begin.
+     */
+    void starting() {
+        progress(Progress.STARTING, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void signalSuccessfulCompletion() {
+        progress(Progress.STARTED, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void signalFailure(Throwable cause) {
+        progress(Progress.FAILED, cause);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void signalAborted() {
+        progress(Progress.ABORTED, null);
+    }
+
+    private void progress(Progress newProgress, Throwable cause) {
+        List<ProgressListener> listeners;
+        synchronized (this.monitor) {
+            if (isDone(this.progress)) {
+                return;
+            }
+            this.progress = newProgress;
+            this.failureCause = cause;
+            this.monitor.notifyAll();
+            listeners = new ArrayList<ProgressListener>(this.progressListeners);
+        }
+
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.progressed(this, newProgress);
+            } catch (RuntimeException e) {
+                this.logger.warn(String.format("Progress listener '%s' failed", listener), e);
+            }
+        }
+    }
+
+    private static boolean isDone(Progress progress) {
+        return progress == Progress.STARTED || progress == Progress.FAILED || progress == Progress.ABORTED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DeploymentHandle[" + this.deploymentIdentity + ", " + getProgress() + "]";
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import java.util.Collection;
+
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.nano.deployer.api.core.DeployerLogEvents;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.repository.WatchableRepository;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * {@link WatchedRepositoryRefresher} forces each {@link WatchableRepository} to check its watched directory for
+ * changes, coalescing concurrent requests so that callers which arrive while a check is in progress share the next
+ * check rather than each performing their own.
+ * <p />
+ * A caller of {@link #refresh()} is guaranteed that every watched repository has been checked at least once after the
+ * call began, so any change made to a watched directory before the call is visible when it returns. A check which was
+ * already in progress when the call began does not satisfy this guarantee, as it may have scanned the directory before
+ * the change was made, so such a caller waits for it to finish and then shares the following check with any other
+ * callers that arrived in the meantime.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class WatchedRepositoryRefresher {
+
+    private final Object monitor = new Object();
+
+    private final BundleContext bundleContext;
+
+    private final EventLogger eventLogger;
+
+    private long startedGeneration = 0;
+
+    private long completedGeneration = 0;
+
+    private boolean refreshing = false;
+
+    WatchedRepositoryRefresher(@NonNull BundleContext bundleContext, @NonNull EventLogger eventLogger) {
+        this.bundleContext = bundleContext;
+        this.eventLogger = eventLogger;
+    }
+
+    /**
+     * Ensures every watched repository has been checked for changes since this method was called.
+     */
+    void refresh() {
+        long generation = 0;
+        synchronized (this.monitor) {
+            long requiredGeneration = this.startedGeneration + 1;
+            while (this.refreshing) {
+                if (!waitForRefresh()) {
+                    // Interrupted, so check without waiting for the check in progress.
+                    generation = -1;
+                    break;
+                }
+            }
+            if (generation == 0) {
+                if (this.completedGeneration >= requiredGeneration) {
+                    return;
+                }
+                this.refreshing = true;
+                generation = ++this.startedGeneration;
+            }
+        }
+
+        if (generation == -1) {
+            forceCheckWatchedRepositories();
+            return;
+        }
+
+        try {
+            forceCheckWatchedRepositories();
+        } finally {
+            synchronized (this.monitor) {
+                this.completedGeneration = generation;
+                this.refreshing = false;
+                this.monitor.notifyAll();
+            }
+        }
+    }
+
+    private boolean waitForRefresh() {
+        try {
+            this.monitor.wait();
+            return true;
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void forceCheckWatchedRepositories() {
+        try {
+            Collection<ServiceReference<WatchableRepository>> references = this.bundleContext.getServiceReferences(WatchableRepository.class, null);
+            for (ServiceReference<WatchableRepository> reference : references) {
+                WatchableRepository watchableRepository = this.bundleContext.getService(reference);
+                if (watchableRepository == null) {
+                    continue;
+                }
+                try {
+                    watchableRepository.forceCheck();
+                } catch (Exception e) {
+                    String name;
+                    if (watchableRepository instanceof Repository) {
+                        name = ((Repository) watchableRepository).getName();
+                    } else {
+                        name = "unknown repository type";
+                    }
+                    this.eventLogger.log(DeployerLogEvents.WATCHED_REPOSITORY_REFRESH_FAILED, name);
+                } finally {
+                    this.bundleContext.ungetService(reference);
+                }
+            }
+        } catch (InvalidSyntaxException e) {
+            this.eventLogger.log(DeployerLogEvents.WATCHED_REPOSITORIES_REFRESH_FAILED);
+        }
+    }
+}
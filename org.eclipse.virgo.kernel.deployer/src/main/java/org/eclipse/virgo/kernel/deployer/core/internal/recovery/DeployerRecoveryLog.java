@@ -11,19 +11,27 @@
 
 package org.eclipse.virgo.kernel.deployer.core.internal.recovery;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.io.Writer;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,226 +43,540 @@ import org.eclipse.virgo.util.io.PathReference;
 /**
  * {@link DeployerRecoveryLog} maintains the deployer's recoverable state across restarts.
  * <p />
- * 
+ * The state is kept in a binary journal of length prefixed, checksummed records which is appended to through a single,
+ * long-lived file handle. When the durability mode is {@link Durability#SYNC}, {@link #add} and {@link #remove} do not
+ * return until their record has been synced to disk and concurrent callers share a single sync. When the durability
+ * mode is {@link Durability#ASYNC}, records are handed to the operating system and not synced.
+ * <p />
+ * The journal is replayed as a stream. A torn or corrupt record at the end of the journal, typically left by a crash
+ * part way through an append, ends the replay and is truncated. A text dataset written by earlier versions is migrated
+ * to the journal format when it is first replayed. A dataset which cannot be read is left untouched and recovery
+ * fails.
+ * <p />
+ *
  * <strong>Concurrent Semantics</strong><br />
- * 
+ *
  * This class is thread safe.
- * 
+ *
  */
 final class DeployerRecoveryLog {
 
+    /**
+     * The durability modes of the recovery log.
+     */
+    enum Durability {
+
+        /**
+         * Records are synced to disk before {@link DeployerRecoveryLog#add} or {@link DeployerRecoveryLog#remove}
+         * returns.
+         */
+        SYNC,
+
+        /**
+         * Records are written to the operating system but are not synced to disk.
+         */
+        ASYNC
+    }
+
     private static final String REDEPLOY_FILE_NAME = "deployed";
 
     private static final String REDEPLOY_COMPRESSION_FILE_NAME = "deployed.compress";
 
-    private static final int INITIAL_REDEPLOY_DATA_SIZE = 32 * 1024;
-
     private static final int COMPRESSION_THRESHOLD = 10;
 
-    private static final int COMMAND_LENGTH = 3;
+    private static final int JOURNAL_MAGIC = 0x56524C31;
+
+    private static final int JOURNAL_HEADER_LENGTH = 4;
+
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private static final int RECORD_PAYLOAD_HEADER_LENGTH = 2;
+
+    private static final int MAXIMUM_RECORD_PAYLOAD_LENGTH = 64 * 1024;
+
+    private static final byte DEPLOY_COMMAND = 1;
+
+    private static final byte UNDEPLOY_COMMAND = 2;
+
+    private static final int RECOVERABLE_FLAG = 0x01;
+
+    private static final int DEPLOYER_OWNED_FLAG = 0x02;
+
+    private static final int SYNCHRONOUS_FLAG = 0x04;
+
+    private static final String URI_ENCODING = "UTF-8";
+
+    private static final int LEGACY_INITIAL_REDEPLOY_DATA_SIZE = 32 * 1024;
+
+    private static final int LEGACY_COMMAND_LENGTH = 3;
 
-    private static final String UNDEPLOY_URI_COMMAND = "---";
+    private static final String LEGACY_UNDEPLOY_URI_COMMAND = "---";
 
-    private static final String URI_SEPARATOR = ";";
+    private static final String LEGACY_URI_SEPARATOR = ";";
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final Object monitor = new Object();
+
     private final PathReference redeployDataset;
 
     private final PathReference redeployCompressionDataset;
 
     private final long redeployFileLastModified;
 
+    private final Durability durability;
+
+    // The following fields are guarded by monitor.
+
+    private RandomAccessFile journal;
+
+    private long writeSequence = 0;
+
+    private long syncedSequence = 0;
+
+    private boolean syncInProgress = false;
+
+    private boolean closed = false;
+
     DeployerRecoveryLog(PathReference workArea) {
+        this(workArea, null);
+    }
+
+    DeployerRecoveryLog(PathReference workArea, String durabilityOption) {
         PathReference recoveryArea = workArea.newChild("recovery");
         recoveryArea.createDirectory();
 
         this.redeployDataset = recoveryArea.newChild(REDEPLOY_FILE_NAME);
         this.redeployFileLastModified = this.redeployDataset.toFile().lastModified();
         this.redeployCompressionDataset = recoveryArea.newChild(REDEPLOY_COMPRESSION_FILE_NAME);
+        this.durability = parseDurability(durabilityOption);
 
         // Recover from a crash during compression
         if (!this.redeployDataset.exists() && this.redeployCompressionDataset.exists()) {
             this.redeployCompressionDataset.copy(this.redeployDataset);
             if (!this.redeployCompressionDataset.delete()) {
-                logger.warn("Could not delete '%s' in recovery after compression failure.", this.redeployCompressionDataset);
+                logger.warn("Could not delete '{}' in recovery after compression failure.", this.redeployCompressionDataset);
             }
         }
     }
 
+    private Durability parseDurability(String durabilityOption) {
+        if (durabilityOption == null) {
+            return Durability.SYNC;
+        }
+        try {
+            return Durability.valueOf(durabilityOption.trim().toUpperCase());
+        } catch (IllegalArgumentException _) {
+            logger.warn("Unknown recovery log durability '{}', using '{}'", durabilityOption, Durability.SYNC);
+            return Durability.SYNC;
+        }
+    }
+
     /**
      * Get the URIs that need to be recovered along with their deployment options.
-     * 
+     *
      * @return a map of URI to deployment options
      */
     public Map<URI, DeploymentOptions> getRecoveryState() {
-        Map<URI, DeploymentOptions> redeploySet = new LinkedHashMap<URI, DeploymentOptions>(20);
+        synchronized (this.monitor) {
+            return openJournal(true);
+        }
+    }
 
-        String redeployData = readRedployData();
+    /**
+     * Replays the redeploy dataset, repairs or compresses it as necessary, and opens the journal for appending.
+     * <p/>
+     * Must be called while holding the monitor.
+     *
+     * @param compress <code>true</code> if the dataset should be rewritten when it contains a significant amount of
+     *        wasted space
+     * @return the recovery state
+     */
+    private Map<URI, DeploymentOptions> openJournal(boolean compress) {
+        awaitNoSyncInProgress();
+        closeJournal();
+
+        Replay replay = replay();
+
+        // If the dataset is in the legacy format or there is a significant amount of wasted space in it, rewrite it.
+        long validLength = replay.validLength;
+        if (replay.legacy || compress && COMPRESSION_THRESHOLD * replay.undeployCount > replay.recordCount) {
+            long rewrittenLength = rewriteRedeploySet(replay.redeploySet);
+            if (rewrittenLength != -1) {
+                validLength = rewrittenLength;
+            } else if (replay.legacy) {
+                throw new FatalDeploymentException("Failed to migrate redeploy dataset '" + this.redeployDataset + "'");
+            }
+        }
 
-        int recordCount = 0;
-        int undeployCount = 0;
+        try {
+            RandomAccessFile file = new RandomAccessFile(this.redeployDataset.toFile(), "rw");
+            try {
+                if (validLength < JOURNAL_HEADER_LENGTH) {
+                    file.setLength(0);
+                    file.writeInt(JOURNAL_MAGIC);
+                    validLength = JOURNAL_HEADER_LENGTH;
+                } else if (validLength < file.length()) {
+                    logger.warn("Truncating redeploy dataset '{}' from {} to {} bytes after a torn or corrupt record", new Object[] {
+                        this.redeployDataset, file.length(), validLength });
+                    file.setLength(validLength);
+                }
+                file.seek(validLength);
+                if (this.durability == Durability.SYNC) {
+                    file.getFD().sync();
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.journal = file;
+            this.syncedSequence = this.writeSequence;
+        } catch (IOException e) {
+            throw new FatalDeploymentException("Failed to open redeploy dataset '" + this.redeployDataset + "'", e);
+        }
+
+        return replay.redeploySet;
+    }
+
+    /**
+     * Closes the journal when the deployer stops. Any further attempt to record a deployment or undeployment fails.
+     */
+    public void close() {
+        synchronized (this.monitor) {
+            awaitNoSyncInProgress();
+            closeJournal();
+            this.closed = true;
+        }
+    }
+
+    private void closeJournal() {
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            } catch (IOException e) {
+                logger.warn("Problem closing redeploy dataset", e);
+            }
+            this.journal = null;
+        }
+    }
 
-        for (String uriCommandString : redeployData.split(URI_SEPARATOR)) {
-            recordCount++;
+    private void awaitNoSyncInProgress() {
+        while (this.syncInProgress) {
+            try {
+                this.monitor.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FatalDeploymentException("Interrupted while waiting for the redeploy dataset", e);
+            }
+        }
+    }
+
+    /**
+     * Replays the redeploy dataset. Reading stops at the end of the dataset or at the first torn or corrupt record, and
+     * {@link Replay#validLength} is the length of the dataset up to that point. Any other failure to read the dataset
+     * is fatal so that the dataset is neither truncated nor rewritten from a partial replay.
+     */
+    private Replay replay() {
+        Replay replay = new Replay();
+        File file = this.redeployDataset.toFile();
+        if (!file.exists()) {
+            // This is acceptable if there are no deployed applications.
+            return replay;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int magic;
+                try {
+                    magic = input.readInt();
+                } catch (EOFException _) {
+                    // An empty dataset, or a torn journal header.
+                    return replay;
+                }
+                if (magic != JOURNAL_MAGIC) {
+                    replay.legacy = true;
+                    replayLegacy(replay);
+                    return replay;
+                }
+                replay.validLength = JOURNAL_HEADER_LENGTH;
+                replayRecords(input, replay);
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    logger.error("Problem closing redeploy dataset", e);
+                }
+            }
+        } catch (IOException e) {
+            throw new FatalDeploymentException("Failed to read redeploy dataset '" + this.redeployDataset + "'", e);
+        }
+        return replay;
+    }
+
+    private void replayRecords(DataInputStream input, Replay replay) throws IOException {
+        CRC32 checksum = new CRC32();
+        try {
+            while (true) {
+                int length = input.readInt();
+                int expectedChecksum = input.readInt();
+                if (length < RECORD_PAYLOAD_HEADER_LENGTH || length > MAXIMUM_RECORD_PAYLOAD_LENGTH) {
+                    return;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                checksum.reset();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    return;
+                }
+                replayRecord(payload, replay);
+                replay.validLength += RECORD_HEADER_LENGTH + length;
+            }
+        } catch (EOFException _) {
+            // End of the journal, possibly part way through a torn record.
+        }
+    }
+
+    private void replayRecord(byte[] payload, Replay replay) throws UnsupportedEncodingException {
+        replay.recordCount++;
+        String uriString = new String(payload, RECORD_PAYLOAD_HEADER_LENGTH, payload.length - RECORD_PAYLOAD_HEADER_LENGTH, URI_ENCODING);
+        try {
+            URI uri = new URI(uriString);
+            if (payload[0] == UNDEPLOY_COMMAND) {
+                replay.undeployCount++;
+                replay.redeploySet.remove(uri);
+            } else {
+                int flags = payload[1];
+                replay.redeploySet.put(uri, new DeploymentOptions((flags & RECOVERABLE_FLAG) != 0, (flags & DEPLOYER_OWNED_FLAG) != 0,
+                    (flags & SYNCHRONOUS_FLAG) != 0));
+            }
+        } catch (URISyntaxException e) {
+            logger.error("Invalid URI '{}' read from redeploy dataset", uriString, e);
+            // skip and carry on
+        }
+    }
+
+    /**
+     * Replays a text redeploy dataset written by an earlier version of this class.
+     */
+    private void replayLegacy(Replay replay) throws IOException {
+        for (String uriCommandString : readLegacyRedeployData().split(LEGACY_URI_SEPARATOR)) {
             // Skip short command strings as there will typically be one
             // at the end of the dataset.
-            if (uriCommandString.length() >= COMMAND_LENGTH) {
-                String uriCommand = uriCommandString.substring(0, COMMAND_LENGTH);
-                String uriString = uriCommandString.substring(COMMAND_LENGTH);
+            if (uriCommandString.length() >= LEGACY_COMMAND_LENGTH) {
+                String uriCommand = uriCommandString.substring(0, LEGACY_COMMAND_LENGTH);
+                String uriString = uriCommandString.substring(LEGACY_COMMAND_LENGTH);
                 try {
                     URI uri = new URI(uriString);
-                    if (UNDEPLOY_URI_COMMAND.equals(uriCommand)) {
-                        undeployCount++;
-                        redeploySet.remove(uri);
+                    if (LEGACY_UNDEPLOY_URI_COMMAND.equals(uriCommand)) {
+                        replay.redeploySet.remove(uri);
                     } else {
                         char[] commands = uriCommand.toCharArray();
                         DeploymentOptions options = new DeploymentOptions(fromCommandOption(commands[0]), fromCommandOption(commands[1]),
                             fromCommandOption(commands[2]));
-
-                        redeploySet.put(uri, options);
+                        replay.redeploySet.put(uri, options);
                     }
                 } catch (URISyntaxException e) {
-                    logger.error("Invalid URI in command string '%s' read from redeploy dataset", e, uriCommandString);
+                    logger.error("Invalid URI in command string '{}' read from redeploy dataset", uriCommandString, e);
                     // skip and carry on
                 }
             }
         }
-
-        // If there is a significant amount of wasted space in the redeploy
-        // dataset, rewrite it.
-        if (COMPRESSION_THRESHOLD * undeployCount > recordCount) {
-            rewriteRedeploySet(redeploySet);
-        }
-
-        return redeploySet;
     }
 
-    private String readRedployData() {
-        StringBuffer redeployData = new StringBuffer(INITIAL_REDEPLOY_DATA_SIZE);
-        Reader redeployDataReader;
+    private String readLegacyRedeployData() throws IOException {
+        StringBuilder redeployData = new StringBuilder(LEGACY_INITIAL_REDEPLOY_DATA_SIZE);
+        Reader redeployDataReader = new BufferedReader(new FileReader(this.redeployDataset.toFile()));
         try {
-            redeployDataReader = new BufferedReader(new FileReader(redeployDataset.toFile()));
-            try {
-                char[] chars = new char[INITIAL_REDEPLOY_DATA_SIZE];
-                int numRead;
-                while (-1 != (numRead = redeployDataReader.read(chars))) {
-                    redeployData.append(String.valueOf(chars, 0, numRead));
-                }
-
-            } catch (IOException e) {
-                logger.error("Problem reading redeploy dataset", e);
-            } finally {
-                try {
-                    redeployDataReader.close();
-                } catch (IOException e) {
-                    logger.error("Problem closing redeploy dataset", e);
-                }
+            char[] chars = new char[LEGACY_INITIAL_REDEPLOY_DATA_SIZE];
+            int numRead;
+            while (-1 != (numRead = redeployDataReader.read(chars))) {
+                redeployData.append(chars, 0, numRead);
             }
-        } catch (FileNotFoundException e) {
-            // Ignore - this is acceptable if there are no deployed applications
+        } finally {
+            redeployDataReader.close();
         }
         return redeployData.toString();
     }
 
+    /**
+     * Converts from a legacy command option to a boolean deployment option flag
+     *
+     * @param commandOption
+     * @return
+     */
+    private static boolean fromCommandOption(char commandOption) {
+        return 'Y' == commandOption;
+    }
+
     /**
      * Write the given set of URIs to the redeploy dataset. To avoid corruption if a crash occurs, write to a redeploy
      * compression file and then switch this for the redeploy dataset.
-     * 
+     *
      * @param redeploySet the URIs to be written
+     * @return the length of the rewritten dataset or <code>-1</code> if the dataset was not rewritten
      */
-    private void rewriteRedeploySet(Map<URI, DeploymentOptions> redeploySet) {
+    private long rewriteRedeploySet(Map<URI, DeploymentOptions> redeploySet) {
         this.redeployCompressionDataset.delete();
-        Writer redeployDataWriter;
         try {
-            redeployDataWriter = new BufferedWriter(new FileWriter(this.redeployCompressionDataset.toFile()));
-            for (Entry<URI, DeploymentOptions> redeployEntry : redeploySet.entrySet()) {
-                recordUriCommand(redeployDataWriter, redeployEntry.getKey(), getCommandString(redeployEntry.getValue()));
+            FileOutputStream fileOutput = new FileOutputStream(this.redeployCompressionDataset.toFile());
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+                output.writeInt(JOURNAL_MAGIC);
+                for (Entry<URI, DeploymentOptions> redeployEntry : redeploySet.entrySet()) {
+                    output.write(createRecord(DEPLOY_COMMAND, redeployEntry.getKey(), redeployEntry.getValue()));
+                }
+                output.flush();
+                if (this.durability == Durability.SYNC) {
+                    fileOutput.getFD().sync();
+                }
+            } finally {
+                fileOutput.close();
             }
-            redeployDataWriter.close();
         } catch (IOException e) {
             logger.warn("Problem while rewriting redeploy dataset", e);
             // Return without replacing the redeploy dataset.
+            return -1;
         }
         // Now switch the files
         this.redeployDataset.delete();
         this.redeployCompressionDataset.moveTo(this.redeployDataset);
+        return this.redeployDataset.toFile().length();
     }
 
     /**
      * Add the given location and deployment options to the recovery state.
-     * 
+     *
      * @param location
      * @param deploymentOptions
      */
     void add(URI location, DeploymentOptions deploymentOptions) {
-        recordUriCommand(location, getCommandString(deploymentOptions));
-    }
-
-    /**
-     * Return the command string for tagging the type of a log record based on the given deployment options.
-     * 
-     * @param deploymentOptions
-     * @return the command string
-     */
-    private String getCommandString(DeploymentOptions deploymentOptions) {
-        //boolean recoverable, boolean deployerOwned, boolean synchronous
-        StringBuilder command = new StringBuilder().append(toCommandOption(deploymentOptions.getRecoverable())).append(
-            toCommandOption(deploymentOptions.getDeployerOwned())).append(toCommandOption(deploymentOptions.getSynchronous()));
-        return command.toString();
+        append(createRecord(DEPLOY_COMMAND, location, deploymentOptions));
     }
 
     /**
      * Remove the given location and associated deployment options from the recovery state.
-     * 
+     *
      * @param location
      */
     void remove(URI location) {
-        recordUriCommand(location, UNDEPLOY_URI_COMMAND);
+        append(createRecord(UNDEPLOY_COMMAND, location, null));
     }
 
-    private void recordUriCommand(URI uri, String command) {
-        Writer writer;
+    /**
+     * Creates a journal record: the payload length, the payload's CRC-32 checksum, and the payload, which is the
+     * command, the deployment option flags, and the UTF-8 encoded URI.
+     */
+    private static byte[] createRecord(byte command, URI uri, DeploymentOptions deploymentOptions) {
+        byte[] uriBytes;
         try {
-            writer = new FileWriter(this.redeployDataset.toFile(), true);
-            recordUriCommand(writer, uri, command);
-            writer.close();
-        } catch (IOException e) {
-            throw new FatalDeploymentException("Failed to record (un)deployment", e);
+            uriBytes = uri.toString().getBytes(URI_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new FatalDeploymentException("Failed to encode URI '" + uri + "'", e);
+        }
+        int payloadLength = RECORD_PAYLOAD_HEADER_LENGTH + uriBytes.length;
+        if (payloadLength > MAXIMUM_RECORD_PAYLOAD_LENGTH) {
+            throw new FatalDeploymentException("URI '" + uri + "' is too long to record");
         }
 
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength);
+        record.putInt(payloadLength);
+        record.putInt(0);
+        record.put(command);
+        record.put(toFlags(deploymentOptions));
+        record.put(uriBytes);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), RECORD_HEADER_LENGTH, payloadLength);
+        record.putInt(4, (int) checksum.getValue());
+        return record.array();
     }
 
-    private static void recordUriCommand(Writer writer, URI uri, String command) throws IOException {
-        writer.write(command);
-        writer.write(uri.toString());
-        writer.write(URI_SEPARATOR);
+    private static byte toFlags(DeploymentOptions deploymentOptions) {
+        int flags = 0;
+        if (deploymentOptions != null) {
+            //boolean recoverable, boolean deployerOwned, boolean synchronous
+            flags |= deploymentOptions.getRecoverable() ? RECOVERABLE_FLAG : 0;
+            flags |= deploymentOptions.getDeployerOwned() ? DEPLOYER_OWNED_FLAG : 0;
+            flags |= deploymentOptions.getSynchronous() ? SYNCHRONOUS_FLAG : 0;
+        }
+        return (byte) flags;
     }
 
-    /**
-     * Converts boolean deployment option flag to a string representation for the logged command option
-     * 
-     * @param deploymentOption
-     * @return
-     */
-    private static char toCommandOption(boolean deploymentOption) {
-        return deploymentOption ? 'Y' : 'N';
+    private void append(byte[] record) {
+        long sequence;
+        synchronized (this.monitor) {
+            if (this.closed) {
+                throw new FatalDeploymentException("Failed to record (un)deployment as the redeploy dataset was closed");
+            }
+            if (this.journal == null) {
+                openJournal(false);
+            }
+            try {
+                this.journal.write(record);
+            } catch (IOException e) {
+                // The journal may now end with a torn record, so replay and repair it before the next append.
+                awaitNoSyncInProgress();
+                closeJournal();
+                throw new FatalDeploymentException("Failed to record (un)deployment", e);
+            }
+            sequence = ++this.writeSequence;
+        }
+        if (this.durability == Durability.SYNC) {
+            awaitSynced(sequence);
+        }
     }
 
     /**
-     * Converts from a String command option to a boolean deployment option flag
-     * 
-     * @param commandOption
-     * @return
+     * Waits until the record with the given sequence number has been synced to disk. If no sync is in progress, the
+     * calling thread syncs every record written so far on behalf of all waiting threads.
      */
-    private static boolean fromCommandOption(char commandOption) {
-        return 'Y' == commandOption ? true : false;
+    private void awaitSynced(long sequence) {
+        while (true) {
+            RandomAccessFile file;
+            long target;
+            synchronized (this.monitor) {
+                while (this.syncInProgress && this.syncedSequence < sequence) {
+                    try {
+                        this.monitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new FatalDeploymentException("Interrupted while recording (un)deployment", e);
+                    }
+                }
+                if (this.syncedSequence >= sequence) {
+                    return;
+                }
+                if (this.journal == null) {
+                    throw new FatalDeploymentException("Failed to record (un)deployment as the redeploy dataset was closed");
+                }
+                this.syncInProgress = true;
+                file = this.journal;
+                target = this.writeSequence;
+            }
+
+            boolean synced = false;
+            try {
+                file.getFD().sync();
+                synced = true;
+            } catch (IOException e) {
+                throw new FatalDeploymentException("Failed to record (un)deployment", e);
+            } finally {
+                synchronized (this.monitor) {
+                    this.syncInProgress = false;
+                    if (synced && target > this.syncedSequence) {
+                        this.syncedSequence = target;
+                    }
+                    this.monitor.notifyAll();
+                }
+            }
+        }
     }
 
     /**
      * Get the last modified time of the deployer's recovery file. Any applications in the pickup directory with a later
      * last modified time will need to be redeployed.
-     * 
+     *
      * @return the last modified time of the deployer's recovery file
      */
     public long getRedeployFileLastModified() {
@@ -263,7 +585,7 @@ final class DeployerRecoveryLog {
 
     /**
      * Update the last modified time of the deployer's recovery file.
-     * 
+     *
      * @return <code>true</code> iff the operation succeeded
      */
     // TODO Make package private
@@ -271,4 +593,19 @@ final class DeployerRecoveryLog {
         return this.redeployDataset.touch();
     }
 
+    /**
+     * The result of replaying the redeploy dataset.
+     */
+    private static final class Replay {
+
+        private final Map<URI, DeploymentOptions> redeploySet = new LinkedHashMap<URI, DeploymentOptions>(20);
+
+        private int recordCount = 0;
+
+        private int undeployCount = 0;
+
+        private long validLength = 0;
+
+        private boolean legacy = false;
+    }
 }
@@ -12,13 +12,23 @@
 package org.eclipse.virgo.kernel.deployer.core.internal.recovery;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
 import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.eclipse.virgo.nano.deployer.api.core.DeployerLogEvents;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
@@ -31,6 +41,8 @@ import org.eclipse.virgo.medic.eventlog.EventLogger;
  * A <code>RecoveryAgent</code> is an {@link EventHandler} that waits for <code>systemartifacts/DEPLOYED</code> and, if
  * recovery is enabled, drives recovery on all redeploy entries in the recovery state.
  * The recovery is run in another thread.
+ * If the <code>org.eclipse.virgo.kernel.deployer.recoveryThreads</code> property is greater than one, independent
+ * artifacts are recovered in parallel using that many threads, see {@link RecoveryPlanner}.
  * When complete (or if not enabled), fires the <code>recovery/COMPLETED</code> event.
  * <p />
  *
@@ -43,6 +55,10 @@ final class RecoveryAgent implements EventHandler {
     private static final String TOPIC_SYSTEM_ARTIFACTS_DEPLOYED = "org/eclipse/virgo/kernel/userregion/systemartifacts/DEPLOYED";
     
     private static final String TOPIC_RECOVERY_COMPLETED = "org/eclipse/virgo/kernel/deployer/recovery/COMPLETED";
+
+    private static final String PROPERTY_RECOVERY_THREADS = "org.eclipse.virgo.kernel.deployer.recoveryThreads";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
     
     private final ApplicationRecoverer recoverer;
     
@@ -63,21 +79,11 @@ final class RecoveryAgent implements EventHandler {
         if (isRecoveryEnabled()) {
             Thread recoveryThread = new Thread(new Runnable() {
                 public void run() {
-                	try {	                    
-	                    for (Entry<URI, DeploymentOptions> redeployEntry : recoveryState.entrySet()) {
-	                        URI uri = redeployEntry.getKey();
-	                        DeploymentOptions deploymentOptions = redeployEntry.getValue();
-	                        try {
-	                            recoverer.recoverDeployment(uri, deploymentOptions);
-	                        } catch (DeploymentException e) {
-	                            eventLogger.log(DeployerLogEvents.RECOVERY_FAILED, e, uri);
-	                        } catch (FatalDeploymentException e) {
-	                            eventLogger.log(DeployerLogEvents.RECOVERY_FAILED, e, uri);
-	                        }
-	                    }
-                	} finally {
-                		recoveryComplete();
-                	}
+                    try {
+                        recover();
+                    } finally {
+                        recoveryComplete();
+                    }
                 }
             }, "deployer-recovery");
             recoveryThread.start();
@@ -86,6 +92,67 @@ final class RecoveryAgent implements EventHandler {
         }
     }
 
+    private void recover() {
+        long start = System.currentTimeMillis();
+        int recoveryThreads = getRecoveryThreads();
+        if (recoveryThreads > 1) {
+            recoverInParallel(recoveryThreads);
+        } else {
+            for (Entry<URI, DeploymentOptions> redeployEntry : this.recoveryState.entrySet()) {
+                recoverArtifact(redeployEntry.getKey(), redeployEntry.getValue());
+            }
+        }
+        logger.info("Recovered {} artifacts using {} thread(s) in {} ms", new Object[] { this.recoveryState.size(), recoveryThreads,
+            System.currentTimeMillis() - start });
+    }
+
+    /**
+     * Recovers the artifacts level by level, recovering the independent artifacts of each level in parallel.
+     */
+    private void recoverInParallel(int recoveryThreads) {
+        List<List<Entry<URI, DeploymentOptions>>> levels = new RecoveryPlanner().plan(this.recoveryState);
+        logger.info("Recovering {} artifacts in {} level(s)", this.recoveryState.size(), levels.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(recoveryThreads, new RecoveryThreadFactory());
+        try {
+            for (List<Entry<URI, DeploymentOptions>> level : levels) {
+                List<Future<?>> recoveries = new ArrayList<Future<?>>(level.size());
+                for (final Entry<URI, DeploymentOptions> redeployEntry : level) {
+                    recoveries.add(executor.submit(new Runnable() {
+
+                        public void run() {
+                            recoverArtifact(redeployEntry.getKey(), redeployEntry.getValue());
+                        }
+                    }));
+                }
+                for (Future<?> recovery : recoveries) {
+                    try {
+                        recovery.get();
+                    } catch (ExecutionException e) {
+                        logger.error("Unexpected failure during recovery", e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Recovery interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void recoverArtifact(URI uri, DeploymentOptions deploymentOptions) {
+        long start = System.currentTimeMillis();
+        try {
+            this.recoverer.recoverDeployment(uri, deploymentOptions);
+        } catch (DeploymentException e) {
+            this.eventLogger.log(DeployerLogEvents.RECOVERY_FAILED, e, uri);
+        } catch (FatalDeploymentException e) {
+            this.eventLogger.log(DeployerLogEvents.RECOVERY_FAILED, e, uri);
+        }
+        logger.info("Recovery of '{}' took {} ms", uri, System.currentTimeMillis() - start);
+    }
+
 	private void recoveryComplete() {
 		this.recoveryState.clear();
 		eventAdmin.postEvent(new Event(TOPIC_RECOVERY_COMPLETED, (Map<String, ?>)null));
@@ -95,6 +162,18 @@ final class RecoveryAgent implements EventHandler {
         return !Boolean.valueOf(FrameworkUtil.getBundle(getClass()).getBundleContext().getProperty("org.eclipse.virgo.kernel.deployer.disableRecovery"));
     }
 
+    private int getRecoveryThreads() {
+        String recoveryThreads = FrameworkUtil.getBundle(getClass()).getBundleContext().getProperty(PROPERTY_RECOVERY_THREADS);
+        if (recoveryThreads != null) {
+            try {
+                return Integer.parseInt(recoveryThreads.trim());
+            } catch (NumberFormatException _) {
+                logger.warn("Invalid value '{}' for property '{}', recovering serially", recoveryThreads, PROPERTY_RECOVERY_THREADS);
+            }
+        }
+        return 1;
+    }
+
     /** 
      * {@inheritDoc}
      */
@@ -103,4 +182,13 @@ final class RecoveryAgent implements EventHandler {
             performRecovery();
         }
     }
+
+    private static final class RecoveryThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "deployer-recovery-" + this.threadCount.incrementAndGet());
+        }
+    }
 }
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal.recovery;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentOptions;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.ImportedBundle;
+import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.RequiredBundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link RecoveryPlanner} divides the artifacts in the recovery state into levels such that the artifacts in a level
+ * are independent of each other and may be recovered in parallel once all the preceding levels have been recovered.
+ * <p />
+ * Two bundles are dependent if one imports a package the other exports, one requires, imports, or is a fragment of the
+ * other, or they have the same symbolic name. The recovery order of dependent bundles is preserved. Any other artifact,
+ * such as a plan, a PAR, a configuration, a JAR or WAR whose manifest has no <code>Bundle-SymbolicName</code>, or a
+ * bundle whose manifest cannot be read, may depend on or be depended on by anything and so is recovered on its own,
+ * after every artifact before it and before every artifact after it.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Thread safe.
+ *
+ */
+final class RecoveryPlanner {
+
+    private static final Set<String> BUNDLE_EXTENSIONS = new HashSet<String>(Arrays.asList("jar", "war"));
+
+    private static final String MANIFEST_ENCODING = "UTF-8";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Divides the given recovery state into levels of independent artifacts.
+     *
+     * @param recoveryState the recovery state in recovery order
+     * @return the levels in recovery order
+     */
+    List<List<Entry<URI, DeploymentOptions>>> plan(Map<URI, DeploymentOptions> recoveryState) {
+        List<List<Entry<URI, DeploymentOptions>>> levels = new ArrayList<List<Entry<URI, DeploymentOptions>>>();
+
+        Map<String, Integer> exporterLevels = new HashMap<String, Integer>();
+        Map<String, Integer> importerLevels = new HashMap<String, Integer>();
+        Map<String, Integer> symbolicNameLevels = new HashMap<String, Integer>();
+        Map<String, Integer> requirerLevels = new HashMap<String, Integer>();
+        int barrierLevel = -1;
+
+        for (Entry<URI, DeploymentOptions> entry : recoveryState.entrySet()) {
+            RecoveredBundle bundle = readBundle(entry.getKey());
+            int level;
+            if (bundle == null) {
+                level = levels.size();
+                barrierLevel = level;
+            } else {
+                level = barrierLevel + 1;
+                level = Math.max(level, nextLevel(exporterLevels, bundle.importedPackages));
+                level = Math.max(level, nextLevel(importerLevels, bundle.exportedPackages));
+                level = Math.max(level, nextLevel(symbolicNameLevels, bundle.requiredBundles));
+                level = Math.max(level, nextLevel(symbolicNameLevels, Collections.singleton(bundle.symbolicName)));
+                level = Math.max(level, nextLevel(requirerLevels, Collections.singleton(bundle.symbolicName)));
+                recordLevel(symbolicNameLevels, Collections.singleton(bundle.symbolicName), level);
+                recordLevel(exporterLevels, bundle.exportedPackages, level);
+                recordLevel(importerLevels, bundle.importedPackages, level);
+                recordLevel(requirerLevels, bundle.requiredBundles, level);
+            }
+
+            if (level == levels.size()) {
+                levels.add(new ArrayList<Entry<URI, DeploymentOptions>>());
+            }
+            levels.get(level).add(entry);
+        }
+        return levels;
+    }
+
+    private static int nextLevel(Map<String, Integer> levels, Set<String> keys) {
+        int nextLevel = 0;
+        for (String key : keys) {
+            Integer level = levels.get(key);
+            if (level != null) {
+                nextLevel = Math.max(nextLevel, level + 1);
+            }
+        }
+        return nextLevel;
+    }
+
+    private static void recordLevel(Map<String, Integer> levels, Set<String> keys, int level) {
+        for (String key : keys) {
+            Integer existingLevel = levels.get(key);
+            if (existingLevel == null || existingLevel < level) {
+                levels.put(key, level);
+            }
+        }
+    }
+
+    /**
+     * Reads the dependency information of the bundle at the given location.
+     *
+     * @return the bundle's dependency information, or <code>null</code> if the artifact is not a bundle, its manifest
+     *         cannot be read, or its manifest has no bundle symbolic name
+     */
+    private RecoveredBundle readBundle(URI uri) {
+        if (!"file".equals(uri.getScheme())) {
+            return null;
+        }
+        File file = new File(uri);
+        try {
+            BundleManifest bundleManifest;
+            if (file.isDirectory()) {
+                File manifestFile = new File(file, JarFile.MANIFEST_NAME);
+                if (!manifestFile.isFile()) {
+                    return null;
+                }
+                bundleManifest = readManifest(new FileInputStream(manifestFile));
+            } else if (file.isFile() && BUNDLE_EXTENSIONS.contains(getExtension(file))) {
+                JarFile jarFile = new JarFile(file);
+                try {
+                    ZipEntry manifestEntry = jarFile.getEntry(JarFile.MANIFEST_NAME);
+                    if (manifestEntry == null) {
+                        return null;
+                    }
+                    bundleManifest = readManifest(jarFile.getInputStream(manifestEntry));
+                } finally {
+                    jarFile.close();
+                }
+            } else {
+                return null;
+            }
+            if (bundleManifest.getBundleSymbolicName().getSymbolicName() == null) {
+                // An exploded PAR, a plain WAR, or a library JAR, any of which may depend on the artifacts around it.
+                return null;
+            }
+            return new RecoveredBundle(bundleManifest);
+        } catch (Exception e) {
+            logger.warn("Unable to read the manifest of '{}', it will be recovered on its own", uri, e);
+            return null;
+        }
+    }
+
+    private static BundleManifest readManifest(InputStream inputStream) throws IOException {
+        InputStreamReader reader = new InputStreamReader(inputStream, MANIFEST_ENCODING);
+        try {
+            return BundleManifestFactory.createBundleManifest(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    private static final class RecoveredBundle {
+
+        private final String symbolicName;
+
+        private final Set<String> exportedPackages = new HashSet<String>();
+
+        private final Set<String> importedPackages = new HashSet<String>();
+
+        private final Set<String> requiredBundles = new HashSet<String>();
+
+        private RecoveredBundle(BundleManifest bundleManifest) {
+            this.symbolicName = bundleManifest.getBundleSymbolicName().getSymbolicName();
+            for (ExportedPackage exportedPackage : bundleManifest.getExportPackage().getExportedPackages()) {
+                this.exportedPackages.add(exportedPackage.getPackageName());
+            }
+            for (ImportedPackage importedPackage : bundleManifest.getImportPackage().getImportedPackages()) {
+                this.importedPackages.add(importedPackage.getPackageName());
+            }
+            for (RequiredBundle requiredBundle : bundleManifest.getRequireBundle().getRequiredBundles()) {
+                this.requiredBundles.add(requiredBundle.getBundleSymbolicName());
+            }
+            for (ImportedBundle importedBundle : bundleManifest.getImportBundle().getImportedBundles()) {
+                this.requiredBundles.add(importedBundle.getBundleSymbolicName());
+            }
+            String fragmentHost = bundleManifest.getFragmentHost().getBundleSymbolicName();
+            if (fragmentHost != null) {
+                this.requiredBundles.add(fragmentHost);
+            }
+        }
+    }
+}
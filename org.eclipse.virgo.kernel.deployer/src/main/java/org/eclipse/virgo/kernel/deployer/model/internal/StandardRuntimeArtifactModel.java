@@ -58,6 +58,8 @@ final class StandardRuntimeArtifactModel implements RuntimeArtifactModel, GCRoot
 
     private final Map<String, URI> uriByFileName = new HashMap<String, URI>();
 
+    private final Set<InstallArtifact> gcRoots = new HashSet<InstallArtifact>();
+
     private final DeployUriNormaliser uriNormaliser;
 
     StandardRuntimeArtifactModel(DeployUriNormaliser uriNormaliser) {
@@ -194,10 +196,11 @@ final class StandardRuntimeArtifactModel implements RuntimeArtifactModel, GCRoot
         this.artifactByUri.put(getCanonicalFileLocation(location), installArtifact);
         this.uriByIdentity.put(deploymentIdentity, location);
         this.uriByFileName.put(fileName, location);
+        this.gcRoots.add(installArtifact);
     }
 
     private void removeState(DeploymentIdentity deploymentIdentity, URI location, String fileName) {
-        this.artifactByUri.remove(getCanonicalFileLocation(location));
+        this.gcRoots.remove(this.artifactByUri.remove(getCanonicalFileLocation(location)));
         this.uriByIdentity.remove(deploymentIdentity);
         this.uriByFileName.remove(fileName);
     }
@@ -224,7 +227,7 @@ final class StandardRuntimeArtifactModel implements RuntimeArtifactModel, GCRoot
      */
     public boolean isGCRoot(InstallArtifact installArtifact) {
         synchronized (this.monitor) {
-            return this.artifactByUri.containsValue(installArtifact);
+            return this.gcRoots.contains(installArtifact);
         }
     }
 
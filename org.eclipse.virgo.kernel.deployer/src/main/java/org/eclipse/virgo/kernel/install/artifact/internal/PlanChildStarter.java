@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.virgo.kernel.deployer.core.internal.AbortableSignalJunction;
+import org.eclipse.virgo.kernel.install.artifact.BundleInstallArtifact;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.nano.core.AbortableSignal;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PlanChildStarter} starts the children of a plan in parallel when none of the children is wired to another.
+ * <p />
+ * Each child is started with its own signal from the plan's {@link AbortableSignalJunction} so the outcome of the
+ * children's starts is aggregated exactly as it is when the children are started one after another. Once all the
+ * children have been asked to start, if the junction has failed or been aborted, any child which was started after the
+ * plan was stopped is stopped again so that the failure of an atomic plan continues to leave none of its children
+ * active.
+ * <p />
+ * The children are started by a pool of daemon threads owned by the starter, which is created by the plan install
+ * artifact graph factory and stopped by {@link #destroy()} when the deployer stops.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Thread safe.
+ *
+ */
+final class PlanChildStarter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlanChildStarter.class);
+
+    private static final int THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+
+    PlanChildStarter() {
+        this.executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new PlanStartThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops the starter's threads once any starts which have already been requested are complete.
+     */
+    void destroy() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Determines whether the given children are all installed bundles which are resolved and none of which is wired to
+     * another of the children.
+     *
+     * @param children the children of a plan
+     * @return <code>true</code> if and only if the children may be started in parallel
+     */
+    static boolean areIndependentBundles(List<GraphNode<InstallArtifact>> children) {
+        Set<Bundle> bundles = new HashSet<Bundle>();
+        for (GraphNode<InstallArtifact> child : children) {
+            InstallArtifact childArtifact = child.getValue();
+            if (!(childArtifact instanceof BundleInstallArtifact)) {
+                return false;
+            }
+            Bundle bundle = ((BundleInstallArtifact) childArtifact).getBundle();
+            if (bundle == null) {
+                return false;
+            }
+            bundles.add(bundle);
+        }
+
+        for (Bundle bundle : bundles) {
+            BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+            if (bundleWiring == null) {
+                return false;
+            }
+            List<BundleWire> requiredWires = bundleWiring.getRequiredWires(null);
+            if (requiredWires != null) {
+                for (BundleWire requiredWire : requiredWires) {
+                    Bundle provider = requiredWire.getProviderWiring().getBundle();
+                    if (provider != bundle && bundles.contains(provider)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the given children in parallel, each with the corresponding signal of the given junction, and waits until
+     * every child has been asked to start. If the calling thread is interrupted while waiting, the children which have
+     * not yet been asked to start are not started, their signals are failed, and the interruption is reported.
+     *
+     * @param children the children to start
+     * @param subSignals the junction's signals, one per child
+     * @param signalJunction the junction aggregating the outcome of the children's starts
+     * @throws DeploymentException the first exception thrown when asking a child to start, or if the calling thread is
+     *         interrupted
+     */
+    void startInParallel(List<GraphNode<InstallArtifact>> children, List<AbortableSignal> subSignals,
+        AbortableSignalJunction signalJunction) throws DeploymentException {
+        List<Future<Void>> starts = new ArrayList<Future<Void>>(children.size());
+        for (int childIndex = 0; childIndex < children.size(); childIndex++) {
+            InstallArtifact childArtifact = children.get(childIndex).getValue();
+            AbortableSignal subSignal = subSignals.get(childIndex);
+
+            LOGGER.debug("Starting {} with signal {} from {}", new Object[] { childArtifact, subSignal, signalJunction });
+
+            starts.add(this.executor.submit(new ChildStart(childArtifact, subSignal, signalJunction)));
+        }
+
+        DeploymentException firstFailure = null;
+        for (int startIndex = 0; startIndex < starts.size(); startIndex++) {
+            try {
+                starts.get(startIndex).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                DeploymentException interruption = new DeploymentException("Interrupted while starting the children of a plan", e);
+                abandonStarts(starts, subSignals, startIndex, interruption);
+                throw interruption;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DeploymentException) {
+                    if (firstFailure == null) {
+                        firstFailure = (DeploymentException) cause;
+                    }
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw (Error) cause;
+                }
+            }
+        }
+
+        if (signalJunction.failed() || signalJunction.aborted()) {
+            stopChildren(children);
+        }
+
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+    }
+
+    /**
+     * Cancels the starts, from the given index onwards, which have not begun and fails their signals so that the
+     * junction completes.
+     */
+    private static void abandonStarts(List<Future<Void>> starts, List<AbortableSignal> subSignals, int fromIndex, Throwable cause) {
+        for (int startIndex = fromIndex; startIndex < starts.size(); startIndex++) {
+            if (starts.get(startIndex).cancel(false)) {
+                subSignals.get(startIndex).signalFailure(cause);
+            }
+        }
+    }
+
+    private static void stopChildren(List<GraphNode<InstallArtifact>> children) {
+        for (GraphNode<InstallArtifact> child : children) {
+            InstallArtifact childArtifact = child.getValue();
+            try {
+                childArtifact.stop();
+            } catch (DeploymentException e) {
+                LOGGER.warn("Failed to stop {} after its plan failed to start", childArtifact, e);
+            }
+        }
+    }
+
+    private static final class ChildStart implements Callable<Void> {
+
+        private final InstallArtifact childArtifact;
+
+        private final AbortableSignal subSignal;
+
+        private final AbortableSignalJunction signalJunction;
+
+        private ChildStart(InstallArtifact childArtifact, AbortableSignal subSignal, AbortableSignalJunction signalJunction) {
+            this.childArtifact = childArtifact;
+            this.subSignal = subSignal;
+            this.signalJunction = signalJunction;
+        }
+
+        public Void call() throws DeploymentException {
+            if (!this.signalJunction.failed()) {
+                this.childArtifact.start(this.subSignal);
+            }
+            return null;
+        }
+    }
+
+    private static final class PlanStartThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "deployer-plan-start-" + this.threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -52,6 +52,8 @@ final class PlanInstallArtifactGraphFactory extends AbstractArtifactGraphFactory
 
     private static final String PROVISIONING_PROPERTY_NAME = "org.eclipse.virgo.kernel.provisioning";
 
+    private static final String PARALLEL_PLAN_START_PROPERTY_NAME = "org.eclipse.virgo.kernel.deployer.parallelPlanStart";
+
     private final BundleContext bundleContext;
 
     private final ScopeServiceRepository scopeServiceRepository;
@@ -64,6 +66,8 @@ final class PlanInstallArtifactGraphFactory extends AbstractArtifactGraphFactory
 
     private final ParPlanInstallArtifactFactory parFactory;
 
+    private final PlanChildStarter childStarter;
+
     public PlanInstallArtifactGraphFactory(@NonNull BundleContext bundleContext, @NonNull ScopeServiceRepository scopeServiceRepository,
         @NonNull ScopeFactory scopeFactory, @NonNull EventLogger eventLogger,
         @NonNull BundleInstallArtifactGraphFactory bundleInstallArtifactGraphFactory, @NonNull InstallArtifactRefreshHandler refreshHandler,
@@ -75,11 +79,21 @@ final class PlanInstallArtifactGraphFactory extends AbstractArtifactGraphFactory
         this.scopeFactory = scopeFactory;
         this.eventLogger = eventLogger;
         this.refreshHandler = refreshHandler;
+        this.childStarter = Boolean.valueOf(bundleContext.getProperty(PARALLEL_PLAN_START_PROPERTY_NAME)) ? new PlanChildStarter() : null;
 
         this.parFactory = new ParPlanInstallArtifactFactory(eventLogger, bundleContext, bundleInstallArtifactGraphFactory, scopeServiceRepository,
             scopeFactory, refreshHandler, configInstallArtifactGraphFactory, artifactStorageFactory, artifactIdentityDeterminer, this);
     }
 
+    /**
+     * Stops the threads which start the children of plans in parallel.
+     */
+    public void destroy() {
+        if (this.childStarter != null) {
+            this.childStarter.destroy();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -124,7 +138,7 @@ final class PlanInstallArtifactGraphFactory extends AbstractArtifactGraphFactory
         StandardPlanInstallArtifact planInstallArtifact = new StandardPlanInstallArtifact(artifactIdentity, planDescriptor.getAtomic(),
             planDescriptor.getScoped(), resultantProvisioning, artifactStorage, new StandardArtifactStateMonitor(this.bundleContext),
             this.scopeServiceRepository, this.scopeFactory, this.eventLogger, this.refreshHandler, repositoryName,
-            planDescriptor.getArtifactSpecifications());
+            planDescriptor.getArtifactSpecifications(), this.childStarter);
 
         return constructAssociatedGraphNode(planInstallArtifact);
     }
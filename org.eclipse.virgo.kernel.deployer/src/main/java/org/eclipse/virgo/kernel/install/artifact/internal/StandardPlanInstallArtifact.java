@@ -38,6 +38,10 @@ import org.slf4j.LoggerFactory;
 /**
  * {@link StandardPlanInstallArtifact} is the standard implementation of {@link PlanInstallArtifact}.
  * <p />
+ * Children are started one after another unless parallel start is enabled and the children are bundles none of which
+ * is wired to another, in which case the children are started in parallel. Either way, the outcome of the children's
+ * starts is aggregated by an {@link AbortableSignalJunction}.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -66,6 +70,8 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
 
     protected final EventLogger eventLogger;
 
+    private final PlanChildStarter childStarter;
+
     private Scope applicationScope;
 
     protected StandardPlanInstallArtifact(@NonNull ArtifactIdentity artifactIdentity, boolean atomic, boolean scoped,
@@ -73,6 +79,15 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
         @NonNull ScopeServiceRepository scopeServiceRepository, @NonNull ScopeFactory scopeFactory, @NonNull EventLogger eventLogger,
         @NonNull InstallArtifactRefreshHandler refreshHandler, String repositoryName, List<ArtifactSpecification> artifactSpecifications)
         throws DeploymentException {
+        this(artifactIdentity, atomic, scoped, provisioning, artifactStorage, artifactStateMonitor, scopeServiceRepository, scopeFactory,
+            eventLogger, refreshHandler, repositoryName, artifactSpecifications, null);
+    }
+
+    protected StandardPlanInstallArtifact(@NonNull ArtifactIdentity artifactIdentity, boolean atomic, boolean scoped,
+        @NonNull Provisioning provisioning, @NonNull ArtifactStorage artifactStorage, @NonNull ArtifactStateMonitor artifactStateMonitor,
+        @NonNull ScopeServiceRepository scopeServiceRepository, @NonNull ScopeFactory scopeFactory, @NonNull EventLogger eventLogger,
+        @NonNull InstallArtifactRefreshHandler refreshHandler, String repositoryName, List<ArtifactSpecification> artifactSpecifications,
+        PlanChildStarter childStarter) throws DeploymentException {
         super(artifactIdentity, artifactStorage, artifactStateMonitor, repositoryName, eventLogger);
 
         policeNestedScopes(artifactIdentity, scoped, eventLogger);
@@ -88,6 +103,7 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
         }
         this.provisioning = provisioning;
         this.artifactSpecifications = artifactSpecifications;
+        this.childStarter = childStarter;
     }
 
     private void policeNestedScopes(ArtifactIdentity artifactIdentity, boolean scoped, EventLogger eventLogger) throws DeploymentException {
@@ -121,6 +137,12 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
 
         List<AbortableSignal> subSignals = signalJunction.getSignals();
 
+        if (this.childStarter != null && numChildren > 1 && PlanChildStarter.areIndependentBundles(children)) {
+            LOGGER.debug("Starting the children of {} in parallel", this);
+            this.childStarter.startInParallel(children, subSignals, signalJunction);
+            return;
+        }
+
         for (int childIndex = 0; childIndex < numChildren && !signalJunction.failed(); childIndex++) {
             InstallArtifact childArtifact = children.get(childIndex).getValue();
             AbortableSignal subSignal = subSignals.get(childIndex);
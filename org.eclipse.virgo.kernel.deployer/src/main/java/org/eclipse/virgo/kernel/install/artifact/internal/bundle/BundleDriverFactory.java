@@ -43,6 +43,8 @@ final class BundleDriverFactory {
     
     private final PackageAdminUtil packageAdminUtil;
     
+    private final BundleEventDispatcher bundleEventDispatcher;
+    
     public BundleDriverFactory(OsgiFramework osgiFramework, BundleContext regionBundleContext, BundleStarter bundleStarter,
         TracingService tracingService, PackageAdminUtil packageAdminUtil) {
         this.osgiFramework = osgiFramework;
@@ -50,9 +52,10 @@ final class BundleDriverFactory {
         this.bundleStarter = bundleStarter;
         this.tracingService = tracingService;
         this.packageAdminUtil = packageAdminUtil;
+        this.bundleEventDispatcher = new BundleEventDispatcher(regionBundleContext);
     }
 
     StandardBundleDriver createBundleDriver(ArtifactIdentity identity, ArtifactStateMonitor artifactStateMonitor) {
-        return new StandardBundleDriver(this.osgiFramework, this.regionBundleContext, this.bundleStarter, this.tracingService, this.packageAdminUtil, identity.getScopeName(), artifactStateMonitor);
+        return new StandardBundleDriver(this.osgiFramework, this.bundleEventDispatcher, this.bundleStarter, this.tracingService, this.packageAdminUtil, identity.getScopeName(), artifactStateMonitor);
     }
 }
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * {@link BundleEventDispatcher} registers a single {@link SynchronousBundleListener} with the framework and routes each
+ * {@link BundleEvent} to the listener registered for the event's bundle id, if any. This avoids delivering every
+ * bundle event to a separate listener for each bundle install artifact.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class BundleEventDispatcher implements SynchronousBundleListener {
+
+    private final Object monitor = new Object();
+
+    private final BundleContext bundleContext;
+
+    private final ConcurrentMap<Long, BundleListener> listeners = new ConcurrentHashMap<Long, BundleListener>();
+
+    private boolean registered = false;
+
+    BundleEventDispatcher(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * Routes events for the bundle with the given id to the given listener, replacing any listener previously
+     * registered for the bundle.
+     *
+     * @param bundleId the id of the bundle
+     * @param bundleListener the listener for the bundle's events
+     */
+    void addBundleListener(long bundleId, BundleListener bundleListener) {
+        ensureRegistered();
+        this.listeners.put(bundleId, bundleListener);
+    }
+
+    /**
+     * Stops routing events for the bundle with the given id to the given listener. If a different listener is
+     * registered for the bundle, it is left in place.
+     *
+     * @param bundleId the id of the bundle
+     * @param bundleListener the listener to remove
+     */
+    void removeBundleListener(long bundleId, BundleListener bundleListener) {
+        this.listeners.remove(bundleId, bundleListener);
+    }
+
+    private void ensureRegistered() {
+        synchronized (this.monitor) {
+            if (!this.registered) {
+                this.bundleContext.addBundleListener(this);
+                this.registered = true;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        BundleListener bundleListener = this.listeners.get(event.getBundle().getBundleId());
+        if (bundleListener != null) {
+            bundleListener.bundleChanged(event);
+        }
+    }
+}
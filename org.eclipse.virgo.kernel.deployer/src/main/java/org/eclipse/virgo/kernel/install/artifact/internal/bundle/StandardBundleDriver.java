@@ -32,7 +32,6 @@ import org.eclipse.virgo.nano.shim.serviceability.TracingService;
 import org.eclipse.virgo.util.common.GraphNode;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
 import org.osgi.framework.Bundle;
-import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 
@@ -58,7 +57,7 @@ final class StandardBundleDriver implements BundleDriver {
 
     private final PackageAdminUtil packageAdminUtil;
 
-    private final BundleContext bundleContext;
+    private final BundleEventDispatcher bundleEventDispatcher;
 
     private final OsgiFramework osgi;
 
@@ -78,15 +77,15 @@ final class StandardBundleDriver implements BundleDriver {
      * Creates a {@link StandardBundleDriver} for the given {@link Bundle} and {@link ArtifactState}.
      * 
      * @param osgiFramework framework
-     * @param bundleContext context
+     * @param bundleEventDispatcher to route the bundle's events to this driver
      * @param bundleStarter to start bundles
      * @param tracingService to trace bundle operations
      * @param packageAdminUtil utilities for package administration
      */
-    StandardBundleDriver(OsgiFramework osgiFramework, BundleContext bundleContext, BundleStarter bundleStarter, TracingService tracingService,
+    StandardBundleDriver(OsgiFramework osgiFramework, BundleEventDispatcher bundleEventDispatcher, BundleStarter bundleStarter, TracingService tracingService,
         PackageAdminUtil packageAdminUtil, String scopeName, ArtifactStateMonitor artifactStateMonitor) {
         this.osgi = osgiFramework;
-        this.bundleContext = bundleContext;
+        this.bundleEventDispatcher = bundleEventDispatcher;
         this.tracingService = tracingService;
         this.packageAdminUtil = packageAdminUtil;
         this.bundleStarter = bundleStarter;
@@ -112,7 +111,7 @@ final class StandardBundleDriver implements BundleDriver {
         }
 
         if (bundleListener != null) {
-            this.bundleContext.addBundleListener(bundleListener);
+            this.bundleEventDispatcher.addBundleListener(bundle.getBundleId(), bundleListener);
         }
     }
 
@@ -305,7 +304,7 @@ final class StandardBundleDriver implements BundleDriver {
         this.bundleListener = null;
 
         if (localBundleListener != null) {
-            this.bundleContext.removeBundleListener(localBundleListener);
+            this.bundleEventDispatcher.removeBundleListener(bundle.getBundleId(), localBundleListener);
         }
 
         this.packageAdminUtil.synchronouslyRefreshPackages(new Bundle[] { bundle });
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline;
+
+import java.util.List;
+
+/**
+ * {@link PipelineStatisticsMXBean} is the management interface for the time spent in the stages of the deployer's
+ * {@link Pipeline Pipelines}.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations of this interface must be thread safe.
+ * 
+ */
+public interface PipelineStatisticsMXBean {
+
+    /**
+     * Returns a snapshot of the statistics of each pipeline stage which has processed an install graph.
+     * 
+     * @return the stage statistics
+     */
+    List<StageStatistics> getStageStatistics();
+
+    /**
+     * Discards all the statistics recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * {@link StageStatistics} is a snapshot of the time spent in a pipeline stage, aggregated over every install graph
+ * processed by the stage.
+ * <p />
+ * The latency histogram has one count per bucket. A bucket counts the executions whose wall clock time was at most
+ * the bucket's upper bound and greater than the previous bucket's upper bound. The last bucket has no upper bound.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * This class is immutable and therefore thread safe.
+ * 
+ */
+public final class StageStatistics {
+
+    private final String stageName;
+
+    private final long count;
+
+    private final long totalWallTimeMillis;
+
+    private final long totalCpuTimeMillis;
+
+    private final long maximumWallTimeMillis;
+
+    private final long[] bucketUpperBoundsMillis;
+
+    private final long[] bucketCounts;
+
+    @ConstructorProperties({ "stageName", "count", "totalWallTimeMillis", "totalCpuTimeMillis", "maximumWallTimeMillis",
+        "bucketUpperBoundsMillis", "bucketCounts" })
+    public StageStatistics(String stageName, long count, long totalWallTimeMillis, long totalCpuTimeMillis, long maximumWallTimeMillis,
+        long[] bucketUpperBoundsMillis, long[] bucketCounts) {
+        this.stageName = stageName;
+        this.count = count;
+        this.totalWallTimeMillis = totalWallTimeMillis;
+        this.totalCpuTimeMillis = totalCpuTimeMillis;
+        this.maximumWallTimeMillis = maximumWallTimeMillis;
+        this.bucketUpperBoundsMillis = bucketUpperBoundsMillis.clone();
+        this.bucketCounts = bucketCounts.clone();
+    }
+
+    /**
+     * @return the name of the stage
+     */
+    public String getStageName() {
+        return this.stageName;
+    }
+
+    /**
+     * @return the number of times the stage has processed an install graph
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the total wall clock time spent in the stage in milliseconds
+     */
+    public long getTotalWallTimeMillis() {
+        return this.totalWallTimeMillis;
+    }
+
+    /**
+     * @return the total CPU time spent in the stage in milliseconds, or <code>-1</code> if CPU time is not available
+     */
+    public long getTotalCpuTimeMillis() {
+        return this.totalCpuTimeMillis;
+    }
+
+    /**
+     * @return the longest wall clock time spent in a single execution of the stage in milliseconds
+     */
+    public long getMaximumWallTimeMillis() {
+        return this.maximumWallTimeMillis;
+    }
+
+    /**
+     * @return the upper bounds in milliseconds of every latency histogram bucket but the last
+     */
+    public long[] getBucketUpperBoundsMillis() {
+        return this.bucketUpperBoundsMillis.clone();
+    }
+
+    /**
+     * @return the counts of the latency histogram buckets
+     */
+    public long[] getBucketCounts() {
+        return this.bucketCounts.clone();
+    }
+}
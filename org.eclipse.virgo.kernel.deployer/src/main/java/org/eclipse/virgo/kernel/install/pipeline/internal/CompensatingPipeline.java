@@ -63,6 +63,17 @@ final class CompensatingPipeline extends StandardPipeline {
         this.compensation = compensation;
     }
 
+    /**
+     * Create a {@link CompensatingPipeline} with no pipeline stages and a given compensation stage which records its
+     * stage timings in the given statistics.
+     * @param compensation stage for compensation
+     * @param statistics for recording stage timings
+     */
+    CompensatingPipeline(PipelineStage compensation, StandardPipelineStatistics statistics) {
+        super(statistics);
+        this.compensation = compensation;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -18,6 +18,7 @@ import java.util.List;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.pipeline.internal.StandardPipelineStatistics.StageTimer;
 import org.eclipse.virgo.kernel.install.pipeline.Pipeline;
 import org.eclipse.virgo.kernel.install.pipeline.stage.AbstractPipelineStage;
 import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
@@ -27,6 +28,9 @@ import org.eclipse.virgo.util.common.GraphNode;
 /**
  * {@link StandardPipeline} is the default implementation of {@link Pipeline}.
  * <p />
+ * The time spent in each stage, other than a stage which is itself a pipeline, is recorded in the pipeline's
+ * {@link StandardPipelineStatistics}.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -39,6 +43,16 @@ class StandardPipeline extends AbstractPipelineStage implements Pipeline {
 
     private final List<PipelineStage> stageList = new ArrayList<PipelineStage>();
 
+    private final StandardPipelineStatistics statistics;
+
+    StandardPipeline() {
+        this(new StandardPipelineStatistics(null));
+    }
+
+    StandardPipeline(StandardPipelineStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -54,12 +68,31 @@ class StandardPipeline extends AbstractPipelineStage implements Pipeline {
      */
     protected void doProcessGraph(GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment) throws DeploymentException,
         UnableToSatisfyBundleDependenciesException {
-        for (int i = 0; i < numStages(); i++) {
-            PipelineStage nextStage;
-            synchronized (this.monitor) {
-                nextStage = this.stageList.get(i);
+        this.statistics.beginPipeline();
+        try {
+            for (int i = 0; i < numStages(); i++) {
+                PipelineStage nextStage;
+                synchronized (this.monitor) {
+                    nextStage = this.stageList.get(i);
+                }
+                processStage(nextStage, installGraph, installEnvironment);
+            }
+        } finally {
+            this.statistics.endPipeline(installGraph);
+        }
+    }
+
+    private void processStage(PipelineStage stage, GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment)
+        throws DeploymentException, UnableToSatisfyBundleDependenciesException {
+        if (stage instanceof Pipeline) {
+            stage.process(installGraph, installEnvironment);
+        } else {
+            StageTimer timer = this.statistics.startTimer();
+            try {
+                stage.process(installGraph, installEnvironment);
+            } finally {
+                this.statistics.record(stage, timer);
             }
-            nextStage.process(installGraph, installEnvironment);
         }
     }
 
@@ -16,7 +16,8 @@ import org.eclipse.virgo.kernel.install.pipeline.PipelineFactory;
 import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
 
 /**
- * {@link StandardPipelineFactory} is the default implementation of {@link PipelineFactory}.
+ * {@link StandardPipelineFactory} is the default implementation of {@link PipelineFactory}. The pipelines it creates
+ * record their stage timings in a shared {@link StandardPipelineStatistics}.
  * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
@@ -26,18 +27,28 @@ import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
  */
 public class StandardPipelineFactory implements PipelineFactory {
 
+    private final StandardPipelineStatistics statistics;
+
+    public StandardPipelineFactory() {
+        this(new StandardPipelineStatistics(null));
+    }
+
+    public StandardPipelineFactory(StandardPipelineStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * {@inheritDoc}
      */
     public Pipeline create() {
-        return new StandardPipeline();
+        return new StandardPipeline(this.statistics);
     }
 
     /** 
      * {@inheritDoc}
      */
     public Pipeline createCompensatingPipeline(PipelineStage compensation) {
-        return new CompensatingPipeline(compensation);
+        return new CompensatingPipeline(compensation, this.statistics);
     }
 
 }
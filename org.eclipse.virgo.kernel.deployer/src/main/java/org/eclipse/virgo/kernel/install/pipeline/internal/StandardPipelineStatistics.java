@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.pipeline.PipelineStatisticsMXBean;
+import org.eclipse.virgo.kernel.install.pipeline.StageStatistics;
+import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link StandardPipelineStatistics} records the wall clock and CPU time spent in each stage of the pipelines created
+ * by a {@link StandardPipelineFactory}, and in each stage run outside a pipeline by other drivers of pipeline stages.
+ * Times are aggregated per stage into latency histograms and, for each install graph processed by an outermost
+ * pipeline, a breakdown by stage is posted as a <code>org/eclipse/virgo/kernel/deployer/pipeline/PROCESSED</code>
+ * event.
+ * <p />
+ * A stage is identified by its <code>toString</code> value, if its class overrides <code>toString</code>, and
+ * otherwise by the simple name of its class, so stages of the same class which do different work can be told apart
+ * by giving them names.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+public final class StandardPipelineStatistics implements PipelineStatisticsMXBean {
+
+    static final String TOPIC_PIPELINE_PROCESSED = "org/eclipse/virgo/kernel/deployer/pipeline/PROCESSED";
+
+    static final String PROPERTY_TYPE = "type";
+
+    static final String PROPERTY_NAME = "name";
+
+    static final String PROPERTY_VERSION = "version";
+
+    static final String PROPERTY_STAGES = "stages";
+
+    static final String PROPERTY_WALL_TIMES = "wallTimeMillis";
+
+    static final String PROPERTY_CPU_TIMES = "cpuTimeMillis";
+
+    static final String PROPERTY_TOTAL_WALL_TIME = "totalWallTimeMillis";
+
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000 };
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTimeSupported;
+
+    private final EventAdmin eventAdmin;
+
+    private final ConcurrentMap<String, StageRecorder> stageRecorders = new ConcurrentHashMap<String, StageRecorder>();
+
+    private final ThreadLocal<Breakdown> breakdown = new ThreadLocal<Breakdown>();
+
+    /**
+     * Creates a {@link StandardPipelineStatistics} which posts breakdown events to the given {@link EventAdmin}.
+     *
+     * @param eventAdmin the <code>EventAdmin</code> or <code>null</code> if no events should be posted
+     */
+    public StandardPipelineStatistics(EventAdmin eventAdmin) {
+        this.eventAdmin = eventAdmin;
+        this.cpuTimeSupported = this.threadMXBean.isCurrentThreadCpuTimeSupported() && this.threadMXBean.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * Notes that a pipeline has begun processing on the current thread.
+     */
+    public void beginPipeline() {
+        Breakdown breakdown = this.breakdown.get();
+        if (breakdown == null) {
+            breakdown = new Breakdown();
+            this.breakdown.set(breakdown);
+        }
+        breakdown.depth++;
+    }
+
+    /**
+     * Notes that a pipeline has finished processing the given install graph on the current thread and, if the
+     * pipeline is the outermost one, posts the breakdown of the time spent in each stage.
+     *
+     * @param installGraph the install graph processed by the pipeline or <code>null</code> if the pipeline processed
+     *        more than one install graph
+     */
+    public void endPipeline(GraphNode<InstallArtifact> installGraph) {
+        Breakdown breakdown = this.breakdown.get();
+        if (--breakdown.depth == 0) {
+            this.breakdown.remove();
+            postBreakdown(installGraph, breakdown);
+        }
+    }
+
+    /**
+     * Returns a new {@link StageTimer} started now.
+     */
+    public StageTimer startTimer() {
+        return new StageTimer(System.nanoTime(), currentThreadCpuTime());
+    }
+
+    /**
+     * Records the time since the given timer was started against the given stage.
+     */
+    public void record(PipelineStage stage, StageTimer timer) {
+        long wallTime = System.nanoTime() - timer.wallStart;
+        long cpuTime = timer.cpuStart == -1 ? -1 : currentThreadCpuTime() - timer.cpuStart;
+        String stageName = getStageName(stage);
+
+        getStageRecorder(stageName).record(wallTime, cpuTime);
+
+        Breakdown breakdown = this.breakdown.get();
+        if (breakdown != null) {
+            breakdown.record(stageName, wallTime, cpuTime);
+        }
+    }
+
+    private long currentThreadCpuTime() {
+        return this.cpuTimeSupported ? this.threadMXBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static String getStageName(PipelineStage stage) {
+        String stageName = stage.toString();
+        if (stageName != null && !stageName.equals(stage.getClass().getName() + '@' + Integer.toHexString(stage.hashCode()))) {
+            return stageName;
+        }
+        stageName = stage.getClass().getSimpleName();
+        return stageName.length() == 0 ? stage.getClass().getName() : stageName;
+    }
+
+    private StageRecorder getStageRecorder(String stageName) {
+        StageRecorder stageRecorder = this.stageRecorders.get(stageName);
+        if (stageRecorder == null) {
+            StageRecorder newStageRecorder = new StageRecorder();
+            stageRecorder = this.stageRecorders.putIfAbsent(stageName, newStageRecorder);
+            if (stageRecorder == null) {
+                stageRecorder = newStageRecorder;
+            }
+        }
+        return stageRecorder;
+    }
+
+    private void postBreakdown(GraphNode<InstallArtifact> installGraph, Breakdown breakdown) {
+        int stageCount = breakdown.times.size();
+        String[] stages = new String[stageCount];
+        long[] wallTimes = new long[stageCount];
+        long[] cpuTimes = new long[stageCount];
+        long totalWallTime = 0;
+        int i = 0;
+        for (Entry<String, long[]> stage : breakdown.times.entrySet()) {
+            stages[i] = stage.getKey();
+            wallTimes[i] = stage.getValue()[0] / NANOS_PER_MILLI;
+            cpuTimes[i] = stage.getValue()[1] < 0 ? -1 : stage.getValue()[1] / NANOS_PER_MILLI;
+            totalWallTime += stage.getValue()[0];
+            i++;
+        }
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        InstallArtifact installArtifact = installGraph == null ? null : installGraph.getValue();
+        if (installArtifact != null) {
+            properties.put(PROPERTY_TYPE, installArtifact.getType());
+            properties.put(PROPERTY_NAME, installArtifact.getName());
+            properties.put(PROPERTY_VERSION, installArtifact.getVersion().toString());
+        }
+        properties.put(PROPERTY_STAGES, stages);
+        properties.put(PROPERTY_WALL_TIMES, wallTimes);
+        properties.put(PROPERTY_CPU_TIMES, cpuTimes);
+        properties.put(PROPERTY_TOTAL_WALL_TIME, totalWallTime / NANOS_PER_MILLI);
+
+        this.logger.debug("Pipeline processed {} in {} ms", installArtifact, totalWallTime / NANOS_PER_MILLI);
+
+        if (this.eventAdmin != null) {
+            this.eventAdmin.postEvent(new Event(TOPIC_PIPELINE_PROCESSED, properties));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<StageStatistics> getStageStatistics() {
+        List<StageStatistics> stageStatistics = new ArrayList<StageStatistics>();
+        for (Entry<String, StageRecorder> stageRecorder : this.stageRecorders.entrySet()) {
+            stageStatistics.add(stageRecorder.getValue().getStatistics(stageRecorder.getKey()));
+        }
+        return stageStatistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        this.stageRecorders.clear();
+    }
+
+    /**
+     * The start times of a stage execution.
+     */
+    public static final class StageTimer {
+
+        private final long wallStart;
+
+        private final long cpuStart;
+
+        private StageTimer(long wallStart, long cpuStart) {
+            this.wallStart = wallStart;
+            this.cpuStart = cpuStart;
+        }
+    }
+
+    /**
+     * The time spent in each stage by the outermost pipeline on a thread, together with the depth of pipeline nesting.
+     */
+    private static final class Breakdown {
+
+        private final Map<String, long[]> times = new LinkedHashMap<String, long[]>();
+
+        private int depth = 0;
+
+        private void record(String stageName, long wallTime, long cpuTime) {
+            long[] times = this.times.get(stageName);
+            if (times == null) {
+                times = new long[2];
+                this.times.put(stageName, times);
+            }
+            times[0] += wallTime;
+            times[1] = cpuTime < 0 || times[1] < 0 ? -1 : times[1] + cpuTime;
+        }
+    }
+
+    /**
+     * The aggregated times of a stage.
+     */
+    private static final class StageRecorder {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalWallTime = new AtomicLong();
+
+        private final AtomicLong totalCpuTime = new AtomicLong();
+
+        private final AtomicLong maximumWallTime = new AtomicLong();
+
+        private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_UPPER_BOUNDS_MILLIS.length + 1);
+
+        private void record(long wallTime, long cpuTime) {
+            this.count.incrementAndGet();
+            this.totalWallTime.addAndGet(wallTime);
+            if (cpuTime < 0) {
+                this.totalCpuTime.set(-1);
+            } else if (this.totalCpuTime.get() >= 0) {
+                this.totalCpuTime.addAndGet(cpuTime);
+            }
+
+            long maximum = this.maximumWallTime.get();
+            while (wallTime > maximum && !this.maximumWallTime.compareAndSet(maximum, wallTime)) {
+                maximum = this.maximumWallTime.get();
+            }
+
+            this.bucketCounts.incrementAndGet(getBucket(wallTime / NANOS_PER_MILLI));
+        }
+
+        private static int getBucket(long wallTimeMillis) {
+            for (int bucket = 0; bucket < BUCKET_UPPER_BOUNDS_MILLIS.length; bucket++) {
+                if (wallTimeMillis <= BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+                    return bucket;
+                }
+            }
+            return BUCKET_UPPER_BOUNDS_MILLIS.length;
+        }
+
+        private StageStatistics getStatistics(String stageName) {
+            long[] counts = new long[this.bucketCounts.length()];
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                counts[bucket] = this.bucketCounts.get(bucket);
+            }
+            long totalCpuTime = this.totalCpuTime.get();
+            return new StageStatistics(stageName, this.count.get(), this.totalWallTime.get() / NANOS_PER_MILLI, totalCpuTime < 0 ? -1
+                : totalCpuTime / NANOS_PER_MILLI, this.maximumWallTime.get() / NANOS_PER_MILLI, BUCKET_UPPER_BOUNDS_MILLIS, counts);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ResolutionFailureDiagnoser} diagnoses why bundles failed to resolve in the OSGi framework by copying the
+ * framework's state into a new {@link QuasiFramework}.
+ * <p />
+ * Copying the state is expensive and is needed precisely when the server is having trouble, so diagnoses are performed
+ * one at a time on a background thread, at most one further diagnosis may wait for that thread, and callers wait a
+ * bounded time for the outcome. A caller whose diagnosis cannot be queued, fails, or does not complete in time receives
+ * no diagnosis rather than adding to the load.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class ResolutionFailureDiagnoser {
+
+    private static final long DIAGNOSIS_TIMEOUT_SECONDS = 60;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final QuasiFrameworkFactory quasiFrameworkFactory;
+
+    private final ThreadPoolExecutor executor;
+
+    ResolutionFailureDiagnoser(@NonNull QuasiFrameworkFactory quasiFrameworkFactory) {
+        this.quasiFrameworkFactory = quasiFrameworkFactory;
+        this.executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1),
+            new DiagnosisThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Diagnoses the resolution failures of the first of the given bundles that is installed but not resolved and has
+     * failures.
+     *
+     * @param bundles the bundles which failed to resolve
+     * @return the failures, which are empty if none were found, or <code>null</code> if the diagnosis could not be
+     *         performed
+     */
+    List<QuasiResolutionFailure> diagnose(Bundle[] bundles) {
+        Future<List<QuasiResolutionFailure>> diagnosis;
+        try {
+            diagnosis = this.executor.submit(new Diagnosis(bundles));
+        } catch (RejectedExecutionException _) {
+            this.logger.warn("Resolution failure not diagnosed as other diagnoses are in progress");
+            return null;
+        }
+
+        try {
+            return diagnosis.get(DIAGNOSIS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException _) {
+            this.logger.warn("Resolution failure diagnosis did not complete within {} seconds", DIAGNOSIS_TIMEOUT_SECONDS);
+        } catch (ExecutionException e) {
+            this.logger.warn("Resolution failure diagnosis failed", e.getCause());
+        }
+        return null;
+    }
+
+    private final class Diagnosis implements Callable<List<QuasiResolutionFailure>> {
+
+        private final Bundle[] bundles;
+
+        private Diagnosis(Bundle[] bundles) {
+            this.bundles = bundles;
+        }
+
+        public List<QuasiResolutionFailure> call() {
+            QuasiFramework quasiFramework = ResolutionFailureDiagnoser.this.quasiFrameworkFactory.create();
+            try {
+                for (Bundle bundle : this.bundles) {
+                    if (bundle.getState() == Bundle.INSTALLED) {
+                        List<QuasiResolutionFailure> resolutionFailures = quasiFramework.diagnose(bundle.getBundleId());
+                        if (!resolutionFailures.isEmpty()) {
+                            return resolutionFailures;
+                        }
+                    }
+                }
+                return Collections.<QuasiResolutionFailure> emptyList();
+            } finally {
+                quasiFramework.destroy();
+            }
+        }
+    }
+
+    private static final class DiagnosisThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "deployer-resolution-diagnosis");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
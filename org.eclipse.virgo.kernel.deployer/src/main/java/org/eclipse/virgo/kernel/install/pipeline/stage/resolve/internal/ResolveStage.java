@@ -13,6 +13,7 @@
 package org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
@@ -21,7 +22,6 @@ import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
 import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
 import org.eclipse.virgo.nano.serviceability.NonNull;
@@ -34,6 +34,10 @@ import org.osgi.service.packageadmin.PackageAdmin;
  * {@link ResolveStage} is a {@link PipelineStage} which resolves the bundles committed from an install graph in the OSGi
  * framework.
  * <p />
+ * If the bundles fail to resolve, the failure is diagnosed in a copy of the framework's state. If the failure cannot be
+ * diagnosed, for example because too many diagnoses are in progress, a failure without a diagnosis is thrown so that
+ * the bundles are never treated as resolved.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -45,11 +49,11 @@ public final class ResolveStage implements PipelineStage {
 
     private final PackageAdmin packageAdmin;
 
-    private final QuasiFrameworkFactory quasiFrameworkFactory;
+    private final ResolutionFailureDiagnoser resolutionFailureDiagnoser;
 
     public ResolveStage(@NonNull PackageAdmin packageAdmin, @NonNull QuasiFrameworkFactory quasiFrameworkFactory) {
         this.packageAdmin = packageAdmin;
-        this.quasiFrameworkFactory = quasiFrameworkFactory;
+        this.resolutionFailureDiagnoser = new ResolutionFailureDiagnoser(quasiFrameworkFactory);
     }
 
     /**
@@ -66,6 +70,52 @@ public final class ResolveStage implements PipelineStage {
         }
     }
 
+    /**
+     * Resolves the bundles committed from all the given install graphs with a single call to the OSGi framework and
+     * diagnoses, for each install graph, why any of its bundles failed to resolve.
+     *
+     * @param installGraphs the install graphs whose bundles are to be resolved
+     * @param installEnvironment the install environment shared by the install graphs
+     * @return a list with an element for each install graph, in order, which is the graph's resolution failure or
+     *         <code>null</code> if the graph's bundles resolved
+     */
+    public List<UnableToSatisfyBundleDependenciesException> process(List<GraphNode<InstallArtifact>> installGraphs,
+        InstallEnvironment installEnvironment) {
+        List<Bundle[]> graphBundles = new ArrayList<Bundle[]>(installGraphs.size());
+        List<Bundle> allBundles = new ArrayList<Bundle>();
+        for (GraphNode<InstallArtifact> installGraph : installGraphs) {
+            BundleFinderVisitor visitor = new BundleFinderVisitor();
+            installGraph.visit(visitor);
+            Bundle[] bundles = visitor.getBundles();
+            graphBundles.add(bundles);
+            allBundles.addAll(Arrays.asList(bundles));
+        }
+
+        List<UnableToSatisfyBundleDependenciesException> failures = new ArrayList<UnableToSatisfyBundleDependenciesException>(installGraphs.size());
+        boolean resolved = this.packageAdmin.resolveBundles(allBundles.toArray(new Bundle[allBundles.size()]));
+        for (Bundle[] bundles : graphBundles) {
+            UnableToSatisfyBundleDependenciesException failure = null;
+            if (!resolved && hasUnresolvedBundle(bundles)) {
+                try {
+                    diagnoseResolutionFailure(bundles);
+                } catch (UnableToSatisfyBundleDependenciesException e) {
+                    failure = e;
+                }
+            }
+            failures.add(failure);
+        }
+        return failures;
+    }
+
+    private static boolean hasUnresolvedBundle(Bundle[] bundles) {
+        for (Bundle bundle : bundles) {
+            if (bundle.getState() == Bundle.INSTALLED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static class BundleFinderVisitor implements DirectedAcyclicGraphVisitor<InstallArtifact> {
 
         private final List<Bundle> bundles = new ArrayList<Bundle>();
@@ -87,16 +137,25 @@ public final class ResolveStage implements PipelineStage {
     }
 
     private void diagnoseResolutionFailure(Bundle[] bundles) throws UnableToSatisfyBundleDependenciesException {
-        QuasiFramework quasiFramework = this.quasiFrameworkFactory.create();
+        List<QuasiResolutionFailure> resolutionFailures = this.resolutionFailureDiagnoser.diagnose(bundles);
+        if (resolutionFailures == null) {
+            Bundle unresolvedBundle = getUnresolvedBundle(bundles);
+            throw new UnableToSatisfyBundleDependenciesException(unresolvedBundle.getSymbolicName(), unresolvedBundle.getVersion(),
+                "The bundle could not be resolved and the reason could not be diagnosed");
+        }
+        if (!resolutionFailures.isEmpty()) {
+            QuasiResolutionFailure failure = resolutionFailures.get(0);
+            throw new UnableToSatisfyBundleDependenciesException(failure.getUnresolvedQuasiBundle().getSymbolicName(),
+                failure.getUnresolvedQuasiBundle().getVersion(), failure.getDescription());
+        }
+    }
+
+    private static Bundle getUnresolvedBundle(Bundle[] bundles) {
         for (Bundle bundle : bundles) {
             if (bundle.getState() == Bundle.INSTALLED) {
-                List<QuasiResolutionFailure> resolutionFailures = quasiFramework.diagnose(bundle.getBundleId());
-                if (!resolutionFailures.isEmpty()) {
-                    QuasiResolutionFailure failure = resolutionFailures.get(0);
-                    throw new UnableToSatisfyBundleDependenciesException(failure.getUnresolvedQuasiBundle().getSymbolicName(),
-                        failure.getUnresolvedQuasiBundle().getVersion(), failure.getDescription());
-                }
+                return bundle;
             }
         }
+        return bundles[0];
     }
 }
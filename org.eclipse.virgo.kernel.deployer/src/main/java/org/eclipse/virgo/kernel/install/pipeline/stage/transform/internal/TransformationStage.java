@@ -12,23 +12,31 @@
 
 package org.eclipse.virgo.kernel.install.pipeline.stage.transform.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.environment.InstallLog;
 import org.eclipse.virgo.kernel.install.pipeline.stage.AbstractPipelineStage;
 import org.eclipse.virgo.kernel.install.pipeline.stage.transform.Transformer;
-import org.eclipse.virgo.kernel.osgi.framework.OsgiFrameworkUtils;
-import org.eclipse.virgo.kernel.osgi.framework.OsgiServiceHolder;
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
 import org.eclipse.virgo.util.common.GraphNode;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
 
 /**
  * A pipeline stage that drives {@link Transformer Transformers}. Transformers are retrieved from the OSGi service
  * registry and are driven in the order defined by their service ranking and service id.
  * <p />
+ * The transformers are tracked and a snapshot of them, in the order in which they are driven, is reused until a
+ * transformer service is registered, modified, or unregistered. The time taken by each transformer is recorded in the
+ * install log.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -37,10 +45,22 @@ import org.osgi.framework.BundleContext;
  */
 public final class TransformationStage extends AbstractPipelineStage {
 
-    private final BundleContext bundleContext;
+    private final Object monitor = new Object();
+
+    private final ServiceTracker<Transformer, Transformer> transformerTracker;
+
+    private volatile TransformerSnapshot transformerSnapshot = new TransformerSnapshot(-1, Collections.<Transformer> emptyList());
 
     public TransformationStage(BundleContext bundleContext) {
-        this.bundleContext = bundleContext;
+        this.transformerTracker = new ServiceTracker<Transformer, Transformer>(bundleContext, Transformer.class.getName(), null);
+        this.transformerTracker.open();
+    }
+
+    /**
+     * Stops tracking transformers.
+     */
+    public void close() {
+        this.transformerTracker.close();
     }
 
     /** 
@@ -49,10 +69,55 @@ public final class TransformationStage extends AbstractPipelineStage {
     @Override
     protected void doProcessGraph(GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment) throws DeploymentException,
         UnableToSatisfyBundleDependenciesException {
-        List<OsgiServiceHolder<Transformer>> services = OsgiFrameworkUtils.getServices(this.bundleContext, Transformer.class);
-        for (OsgiServiceHolder<Transformer> transformerHolder : services) {
-            transformerHolder.getService().transform(installGraph, installEnvironment);
-            this.bundleContext.ungetService(transformerHolder.getServiceReference());
+        InstallLog installLog = installEnvironment.getInstallLog();
+        for (Transformer transformer : getTransformers()) {
+            long start = System.currentTimeMillis();
+            transformer.transform(installGraph, installEnvironment);
+            installLog.log(this, "transformer '%s' took %s ms", transformer.toString(), Long.toString(System.currentTimeMillis() - start));
+        }
+    }
+
+    private List<Transformer> getTransformers() {
+        TransformerSnapshot snapshot = this.transformerSnapshot;
+        int trackingCount = this.transformerTracker.getTrackingCount();
+        if (snapshot.trackingCount == trackingCount) {
+            return snapshot.transformers;
+        }
+        synchronized (this.monitor) {
+            snapshot = this.transformerSnapshot;
+            trackingCount = this.transformerTracker.getTrackingCount();
+            if (snapshot.trackingCount != trackingCount) {
+                snapshot = new TransformerSnapshot(trackingCount, createTransformerList());
+                this.transformerSnapshot = snapshot;
+            }
+            return snapshot.transformers;
+        }
+    }
+
+    private List<Transformer> createTransformerList() {
+        List<Transformer> transformers = new ArrayList<Transformer>();
+        ServiceReference<Transformer>[] serviceReferences = this.transformerTracker.getServiceReferences();
+        if (serviceReferences != null) {
+            Arrays.sort(serviceReferences);
+            for (ServiceReference<Transformer> serviceReference : serviceReferences) {
+                Transformer transformer = this.transformerTracker.getService(serviceReference);
+                if (transformer != null) {
+                    transformers.add(transformer);
+                }
+            }
+        }
+        return Collections.unmodifiableList(transformers);
+    }
+
+    private static final class TransformerSnapshot {
+
+        private final int trackingCount;
+
+        private final List<Transformer> transformers;
+
+        private TransformerSnapshot(int trackingCount, List<Transformer> transformers) {
+            this.trackingCount = trackingCount;
+            this.transformers = transformers;
         }
     }
 }
@@ -35,11 +35,30 @@ public final class VisitationStage extends AbstractPipelineStage {
 
     private final boolean preOrder;
 
+    private final String name;
+
     public VisitationStage(Visitor visitation) {
         this(visitation, true);
     }
 
     public VisitationStage(Visitor visitation, boolean preOrder) {
+        this(null, visitation, preOrder);
+    }
+
+    public VisitationStage(String name, Visitor visitation) {
+        this(name, visitation, true);
+    }
+
+    /**
+     * Creates a {@link VisitationStage} with the given name, which is returned by <code>toString</code> and so
+     * distinguishes the stage from other visitation stages in logs and pipeline statistics.
+     * 
+     * @param name the name of the stage, or <code>null</code> if the stage is unnamed
+     * @param visitation the <code>Visitor</code> which operates on each install artifact
+     * @param preOrder <code>true</code> if the graph is traversed in preorder and <code>false</code> for postorder
+     */
+    public VisitationStage(String name, Visitor visitation, boolean preOrder) {
+        this.name = name;
         this.visitation = visitation;
         this.preOrder = preOrder;
     }
@@ -66,4 +85,12 @@ public final class VisitationStage extends AbstractPipelineStage {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.name == null ? super.toString() : this.name;
+    }
+
 }
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.environment.InstallLog;
+import org.eclipse.virgo.kernel.install.pipeline.StageStatistics;
+import org.eclipse.virgo.kernel.install.pipeline.internal.StandardPipelineStatistics;
+import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
+import org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal.ResolveStage;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.util.common.DirectedAcyclicGraph;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+@SuppressWarnings("deprecation")
+public class BatchInstallPipelineTests {
+
+    private final DirectedAcyclicGraph<InstallArtifact> dag = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>();
+
+    private final RecordingStage beginInstallStage = new RecordingStage("BeginInstallStage");
+
+    private final RecordingStage transformationStage = new RecordingStage("TransformationStage");
+
+    private final RecordingStage quasiInstallStage = new RecordingStage("QuasiInstallStage");
+
+    private final RecordingStage quasiResolveStage = new RecordingStage("QuasiResolveStage");
+
+    private final RecordingStage commitStage = new RecordingStage("CommitStage");
+
+    private final RecordingStage endInstallStage = new RecordingStage("EndInstallStage");
+
+    private final RecordingStage failInstallStage = new RecordingStage("FailInstallStage");
+
+    private final RecordingStage beginResolveStage = new RecordingStage("BeginResolveStage");
+
+    private final RecordingStage endResolveStage = new RecordingStage("EndResolveStage");
+
+    private final RecordingStage failResolveStage = new RecordingStage("FailResolveStage");
+
+    private final StandardPipelineStatistics statistics = new StandardPipelineStatistics(null);
+
+    private InstallEnvironment installEnvironment;
+
+    private BatchInstallPipeline batchInstallPipeline;
+
+    private List<GraphNode<InstallArtifact>> installGraphs;
+
+    @Before
+    public void setUp() {
+        PackageAdmin packageAdmin = createMock(PackageAdmin.class);
+        expect(packageAdmin.resolveBundles(aryEq(new Bundle[0]))).andReturn(true).once();
+        replay(packageAdmin);
+
+        this.installEnvironment = createMock(InstallEnvironment.class);
+        expect(this.installEnvironment.getInstallLog()).andReturn(createNiceMock(InstallLog.class)).anyTimes();
+        replay(this.installEnvironment);
+
+        this.batchInstallPipeline = new BatchInstallPipeline(this.beginInstallStage, this.transformationStage, this.quasiInstallStage,
+            this.quasiResolveStage, this.commitStage, this.endInstallStage, this.failInstallStage, this.beginResolveStage, new ResolveStage(
+                packageAdmin, createNiceMock(QuasiFrameworkFactory.class)), this.endResolveStage, this.failResolveStage, this.statistics);
+
+        this.installGraphs = Arrays.asList(createGraph(), createGraph(), createGraph());
+    }
+
+    @Test
+    public void batchIsResolvedAndCommittedOnce() throws DeploymentException {
+        List<DeploymentException> failures = this.batchInstallPipeline.process(this.installGraphs, this.installEnvironment);
+
+        assertEquals(Arrays.asList(null, null, null), failures);
+        assertEquals(this.installGraphs, this.quasiInstallStage.processed);
+        assertEquals(1, this.quasiResolveStage.processed.size());
+        assertEquals(1, this.commitStage.processed.size());
+        assertEquals(this.installGraphs, this.endResolveStage.processed);
+        assertEquals(0, this.failInstallStage.processed.size());
+    }
+
+    @Test
+    public void stagesOfBatchAreTimed() throws DeploymentException {
+        this.batchInstallPipeline.process(this.installGraphs, this.installEnvironment);
+
+        Map<String, StageStatistics> stageStatistics = new HashMap<String, StageStatistics>();
+        for (StageStatistics stage : this.statistics.getStageStatistics()) {
+            stageStatistics.put(stage.getStageName(), stage);
+        }
+        assertEquals(3, stageStatistics.get("QuasiInstallStage").getCount());
+        assertEquals(1, stageStatistics.get("CommitStage").getCount());
+        assertEquals(1, stageStatistics.get("ResolveStage").getCount());
+        assertEquals(3, stageStatistics.get("EndResolveStage").getCount());
+        assertNull(stageStatistics.get("FailInstallStage"));
+    }
+
+    @Test
+    public void transformationFailureFailsOnlyItsGraph() throws DeploymentException {
+        GraphNode<InstallArtifact> failingGraph = this.installGraphs.get(1);
+        this.transformationStage.failingGraph = failingGraph;
+
+        List<DeploymentException> failures = this.batchInstallPipeline.process(this.installGraphs, this.installEnvironment);
+
+        assertNull(failures.get(0));
+        assertNotNull(failures.get(1));
+        assertNull(failures.get(2));
+        assertEquals(Arrays.asList(failingGraph), this.failInstallStage.processed);
+        assertEquals(1, this.quasiResolveStage.processed.size());
+        assertEquals(1, this.commitStage.processed.size());
+        assertEquals(Arrays.asList(this.installGraphs.get(0), this.installGraphs.get(2)), this.endResolveStage.processed);
+    }
+
+    @Test
+    public void quasiResolveFailureAbandonsBatch() {
+        this.quasiResolveStage.failingGraph = this.installGraphs.get(0);
+
+        try {
+            this.batchInstallPipeline.process(this.installGraphs, this.installEnvironment);
+            fail("Batch should have been abandoned");
+        } catch (DeploymentException _) {
+        }
+
+        assertEquals(this.installGraphs, this.failInstallStage.processed);
+        assertEquals(0, this.commitStage.processed.size());
+        assertEquals(0, this.beginResolveStage.processed.size());
+    }
+
+    private GraphNode<InstallArtifact> createGraph() {
+        InstallArtifact installArtifact = createNiceMock(InstallArtifact.class);
+        replay(installArtifact);
+        return this.dag.createRootNode(installArtifact);
+    }
+
+    private static final class RecordingStage implements PipelineStage {
+
+        private final List<GraphNode<InstallArtifact>> processed = new ArrayList<GraphNode<InstallArtifact>>();
+
+        private final String name;
+
+        private GraphNode<InstallArtifact> failingGraph;
+
+        private RecordingStage(String name) {
+            this.name = name;
+        }
+
+        public void process(GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment) throws DeploymentException {
+            this.processed.add(installGraph);
+            if (installGraph == this.failingGraph) {
+                throw new DeploymentException("Stage failed");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+}
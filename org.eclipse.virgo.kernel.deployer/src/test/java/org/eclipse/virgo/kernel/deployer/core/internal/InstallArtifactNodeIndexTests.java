@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.eclipse.virgo.kernel.deployer.model.GCRoots;
+import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentity;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.util.common.DirectedAcyclicGraph;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class InstallArtifactNodeIndexTests {
+
+    private static final String TEST_TYPE = "type";
+
+    private static final String TEST_SCOPE_NAME = "scope";
+
+    private static final Version TEST_VERSION = new Version(1, 0, 0);
+
+    private final DirectedAcyclicGraph<InstallArtifact> dag = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>();
+
+    private final StubGCRoots gcRoots = new StubGCRoots();
+
+    private final InstallArtifactNodeIndex nodeIndex = new InstallArtifactNodeIndex(this.gcRoots);
+
+    @Test
+    public void descendantOfGCRootIsFound() {
+        GraphNode<InstallArtifact> plan = createNode("plan", null);
+        GraphNode<InstallArtifact> bundle = createNode("bundle", TEST_SCOPE_NAME);
+        plan.addChild(bundle);
+        this.gcRoots.roots.add(plan.getValue());
+        this.nodeIndex.addGraph(plan);
+
+        assertSame(plan, this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "plan", TEST_VERSION, null)));
+        assertSame(bundle, this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "bundle", TEST_VERSION, TEST_SCOPE_NAME)));
+        assertSame(bundle, this.nodeIndex.findSharedNode(TEST_TYPE, "bundle", new VersionRange("[1,2)"), TEST_SCOPE_NAME));
+    }
+
+    @Test
+    public void mismatchesAreNotFound() {
+        GraphNode<InstallArtifact> bundle = createNode("bundle", TEST_SCOPE_NAME);
+        this.gcRoots.roots.add(bundle.getValue());
+        this.nodeIndex.add(bundle);
+
+        assertNull(this.nodeIndex.findSharedNode(new ArtifactIdentity("other", "bundle", TEST_VERSION, TEST_SCOPE_NAME)));
+        assertNull(this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "other", TEST_VERSION, TEST_SCOPE_NAME)));
+        assertNull(this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "bundle", Version.emptyVersion, TEST_SCOPE_NAME)));
+        assertNull(this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "bundle", TEST_VERSION, "other")));
+        assertNull(this.nodeIndex.findSharedNode(new ArtifactIdentity(TEST_TYPE, "bundle", TEST_VERSION, null)));
+    }
+
+    @Test
+    public void unreachableNodeIsNotFound() {
+        GraphNode<InstallArtifact> plan = createNode("plan", null);
+        GraphNode<InstallArtifact> bundle = createNode("bundle", null);
+        plan.addChild(bundle);
+        this.nodeIndex.addGraph(plan);
+
+        ArtifactIdentity bundleIdentity = new ArtifactIdentity(TEST_TYPE, "bundle", TEST_VERSION, null);
+        assertNull(this.nodeIndex.findSharedNode(bundleIdentity));
+
+        this.gcRoots.roots.add(plan.getValue());
+        assertSame(bundle, this.nodeIndex.findSharedNode(bundleIdentity));
+
+        plan.removeChild(bundle);
+        assertNull(this.nodeIndex.findSharedNode(bundleIdentity));
+    }
+
+    private GraphNode<InstallArtifact> createNode(String name, String scopeName) {
+        InstallArtifact installArtifact = EasyMock.createMock(InstallArtifact.class);
+        EasyMock.expect(installArtifact.getType()).andReturn(TEST_TYPE).anyTimes();
+        EasyMock.expect(installArtifact.getName()).andReturn(name).anyTimes();
+        EasyMock.expect(installArtifact.getVersion()).andReturn(TEST_VERSION).anyTimes();
+        EasyMock.expect(installArtifact.getScopeName()).andReturn(scopeName).anyTimes();
+        EasyMock.replay(installArtifact);
+        return this.dag.createRootNode(installArtifact);
+    }
+
+    private static final class StubGCRoots implements GCRoots {
+
+        private final Set<InstallArtifact> roots = new HashSet<InstallArtifact>();
+
+        public Iterator<InstallArtifact> iterator() {
+            return this.roots.iterator();
+        }
+
+        public boolean isGCRoot(InstallArtifact installArtifact) {
+            return this.roots.contains(installArtifact);
+        }
+    }
+}
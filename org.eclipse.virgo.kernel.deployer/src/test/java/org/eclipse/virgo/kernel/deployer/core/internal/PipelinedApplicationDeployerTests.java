@@ -28,6 +28,7 @@ import org.eclipse.virgo.nano.deployer.api.core.DeployUriNormaliser;
 import org.eclipse.virgo.nano.deployer.api.core.DeployerConfiguration;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.kernel.deployer.core.internal.event.DeploymentListener;
+import org.eclipse.virgo.kernel.deployer.model.GCRoots;
 import org.eclipse.virgo.kernel.deployer.model.RuntimeArtifactModel;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentityDeterminer;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
@@ -91,7 +92,8 @@ public class PipelinedApplicationDeployerTests {
             this.normaliser, this.deployerConfiguration, this.installArtifact);
         this.pipelinedApplicationDeployer = new PipelinedApplicationDeployer(this.pipeline, this.installArtifactTreeInclosure,
             this.artifactIdentityDeterminer, this.installEnvironmentFactory, this.ram, this.deploymentListener, this.eventLogger, this.normaliser,
-            this.deployerConfiguration, this.stubBundleContext);
+            this.deployerConfiguration, this.stubBundleContext, new InstallArtifactNodeIndex(createMock(GCRoots.class)),
+            new BatchInstallPipeline(null, null, null, null, null, null, null, null, null, null, null, null));
     }
 
     private void verifyMocks() {
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle;
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle.Progress;
+import org.eclipse.virgo.kernel.deployer.core.DeploymentHandle.ProgressListener;
+import org.junit.Test;
+
+public class StandardDeploymentHandleTests {
+
+    private final StandardDeploymentHandle deploymentHandle = new StandardDeploymentHandle(new StandardDeploymentIdentity("bundle", "b", "1.0.0"));
+
+    private final List<Progress> notified = new ArrayList<Progress>();
+
+    private final ProgressListener progressListener = new ProgressListener() {
+
+        public void progressed(DeploymentHandle deploymentHandle, Progress progress) {
+            StandardDeploymentHandleTests.this.notified.add(progress);
+        }
+    };
+
+    @Test
+    public void successfulStart() throws InterruptedException {
+        this.deploymentHandle.addProgressListener(this.progressListener);
+        assertEquals(Progress.INSTALLED, this.deploymentHandle.getProgress());
+
+        this.deploymentHandle.starting();
+        assertFalse(this.deploymentHandle.isDone());
+        assertFalse(this.deploymentHandle.awaitCompletion(10, TimeUnit.MILLISECONDS));
+
+        this.deploymentHandle.signalSuccessfulCompletion();
+        assertTrue(this.deploymentHandle.awaitCompletion(0, TimeUnit.MILLISECONDS));
+        assertEquals(Progress.STARTED, this.deploymentHandle.getProgress());
+        assertNull(this.deploymentHandle.getFailureCause());
+        assertEquals(Arrays.asList(Progress.STARTING, Progress.STARTED), this.notified);
+    }
+
+    @Test
+    public void onlyFirstOutcomeCounts() {
+        this.deploymentHandle.addProgressListener(this.progressListener);
+        Exception cause = new Exception();
+
+        this.deploymentHandle.signalFailure(cause);
+        this.deploymentHandle.signalSuccessfulCompletion();
+        this.deploymentHandle.signalAborted();
+
+        assertTrue(this.deploymentHandle.isDone());
+        assertEquals(Progress.FAILED, this.deploymentHandle.getProgress());
+        assertSame(cause, this.deploymentHandle.getFailureCause());
+        assertEquals(Arrays.asList(Progress.FAILED), this.notified);
+    }
+
+    @Test
+    public void completionWakesWaiter() throws InterruptedException {
+        Thread completer = new Thread(new Runnable() {
+
+            public void run() {
+                StandardDeploymentHandleTests.this.deploymentHandle.signalAborted();
+            }
+        });
+        completer.start();
+
+        assertTrue(this.deploymentHandle.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(Progress.ABORTED, this.deploymentHandle.getProgress());
+        completer.join(10000);
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.IAnswer;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.repository.WatchableRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+public class WatchedRepositoryRefresherTests {
+
+    private final AtomicInteger checkCount = new AtomicInteger();
+
+    private final CountDownLatch checkStarted = new CountDownLatch(1);
+
+    private volatile CountDownLatch releaseCheck = new CountDownLatch(0);
+
+    private WatchedRepositoryRefresher refresher;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        WatchableRepository watchableRepository = createMock(WatchableRepository.class);
+        watchableRepository.forceCheck();
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            public Object answer() throws Throwable {
+                WatchedRepositoryRefresherTests.this.checkCount.incrementAndGet();
+                WatchedRepositoryRefresherTests.this.checkStarted.countDown();
+                WatchedRepositoryRefresherTests.this.releaseCheck.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).anyTimes();
+
+        ServiceReference<WatchableRepository> reference = createMock(ServiceReference.class);
+        BundleContext bundleContext = createNiceMock(BundleContext.class);
+        expect(bundleContext.getServiceReferences((Class<WatchableRepository>) anyObject(), (String) isNull())).andReturn(
+            Collections.singletonList(reference)).anyTimes();
+        expect(bundleContext.getService(reference)).andReturn(watchableRepository).anyTimes();
+        replay(watchableRepository, reference, bundleContext);
+
+        this.refresher = new WatchedRepositoryRefresher(bundleContext, createNiceMock(EventLogger.class));
+    }
+
+    @Test
+    public void consecutiveRefreshesEachCheck() {
+        this.refresher.refresh();
+        this.refresher.refresh();
+        assertEquals(2, this.checkCount.get());
+    }
+
+    @Test
+    public void concurrentRefreshesShareACheck() throws InterruptedException {
+        this.releaseCheck = new CountDownLatch(1);
+
+        Thread first = startRefresh();
+        assertTrue(this.checkStarted.await(10, TimeUnit.SECONDS));
+
+        List<Thread> waiting = new ArrayList<Thread>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(startRefresh());
+        }
+        for (Thread thread : waiting) {
+            awaitWaiting(thread);
+        }
+
+        this.releaseCheck.countDown();
+        first.join(10000);
+        for (Thread thread : waiting) {
+            thread.join(10000);
+        }
+
+        assertEquals(2, this.checkCount.get());
+    }
+
+    private Thread startRefresh() {
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                WatchedRepositoryRefresherTests.this.refresher.refresh();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -15,8 +15,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URI;
 import java.util.Map;
 
@@ -24,6 +28,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentOptions;
+import org.eclipse.virgo.nano.deployer.api.core.FatalDeploymentException;
 import org.eclipse.virgo.kernel.deployer.core.internal.recovery.DeployerRecoveryLog;
 import org.eclipse.virgo.util.io.PathReference;
 
@@ -106,4 +111,101 @@ public class DeployerRecoveryLogTests {
         }
         assertEquals(1, log.getRecoveryState().size());
     }
+
+    @Test
+    public void tornTrailingRecord() throws IOException {
+        DeployerRecoveryLog log = new DeployerRecoveryLog(deployArea);
+        URI app1 = new File("app/one").toURI();
+        URI app2 = new File("app/two").toURI();
+        log.add(app1, new DeploymentOptions(true, true, true));
+        log.add(app2, new DeploymentOptions(true, false, true));
+
+        File dataset = new File(deployArea.toFile(), "recovery/deployed");
+        RandomAccessFile file = new RandomAccessFile(dataset, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        log = new DeployerRecoveryLog(deployArea);
+        Map<URI, DeploymentOptions> recoveryState = log.getRecoveryState();
+        assertEquals(1, recoveryState.size());
+        assertTrue(recoveryState.containsKey(app1));
+
+        URI app3 = new File("app/three").toURI();
+        log.add(app3, new DeploymentOptions(false, false, false));
+
+        recoveryState = new DeployerRecoveryLog(deployArea).getRecoveryState();
+        assertEquals(2, recoveryState.size());
+        assertTrue(recoveryState.containsKey(app1));
+        assertTrue(recoveryState.containsKey(app3));
+    }
+
+    @Test
+    public void legacyDatasetMigration() throws IOException {
+        URI app1 = new File("app/one").toURI();
+        URI app2 = new File("app/two").toURI();
+        File recoveryArea = new File(deployArea.toFile(), "recovery");
+        recoveryArea.mkdirs();
+        FileWriter writer = new FileWriter(new File(recoveryArea, "deployed"));
+        try {
+            writer.write("YNY" + app1 + ";YYY" + app2 + ";---" + app2 + ";");
+        } finally {
+            writer.close();
+        }
+
+        DeployerRecoveryLog log = new DeployerRecoveryLog(deployArea);
+        Map<URI, DeploymentOptions> recoveryState = log.getRecoveryState();
+        assertEquals(1, recoveryState.size());
+        DeploymentOptions deploymentOptions = recoveryState.get(app1);
+        assertTrue(deploymentOptions.getRecoverable());
+        assertFalse(deploymentOptions.getDeployerOwned());
+        assertTrue(deploymentOptions.getSynchronous());
+
+        log.add(app2, new DeploymentOptions(false, false, false));
+        assertEquals(2, new DeployerRecoveryLog(deployArea).getRecoveryState().size());
+    }
+
+    @Test
+    public void unreadableDatasetIsLeftUntouched() throws IOException {
+        File dataset = new File(deployArea.toFile(), "recovery/deployed");
+        dataset.mkdirs();
+        File content = new File(dataset, "content");
+        assertTrue(content.createNewFile());
+
+        try {
+            new DeployerRecoveryLog(deployArea).getRecoveryState();
+            fail("FatalDeploymentException expected");
+        } catch (FatalDeploymentException _) {
+        }
+        assertTrue(content.exists());
+        assertFalse(new File(deployArea.toFile(), "recovery/deployed.compress").exists());
+    }
+
+    @Test
+    public void closedLogRecordsNothing() {
+        DeployerRecoveryLog log = new DeployerRecoveryLog(deployArea);
+        URI app1 = new File("app/one").toURI();
+        log.add(app1, new DeploymentOptions(true, true, true));
+        log.close();
+
+        try {
+            log.add(new File("app/two").toURI(), new DeploymentOptions(true, true, true));
+            fail("FatalDeploymentException expected");
+        } catch (FatalDeploymentException _) {
+        }
+
+        Map<URI, DeploymentOptions> recoveryState = new DeployerRecoveryLog(deployArea).getRecoveryState();
+        assertEquals(1, recoveryState.size());
+        assertTrue(recoveryState.containsKey(app1));
+    }
+
+    @Test
+    public void asynchronousDurability() {
+        DeployerRecoveryLog log = new DeployerRecoveryLog(deployArea, "async");
+        URI app1 = new File("app/one").toURI();
+        log.add(app1, new DeploymentOptions(true, true, true));
+        assertEquals(1, new DeployerRecoveryLog(deployArea, "async").getRecoveryState().size());
+    }
 }
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.deployer.core.internal.recovery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentOptions;
+import org.eclipse.virgo.util.io.PathReference;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecoveryPlannerTests {
+
+    private final PathReference bundleArea = new PathReference("target/recoveryPlanner");
+
+    private final Map<URI, DeploymentOptions> recoveryState = new LinkedHashMap<URI, DeploymentOptions>();
+
+    @Before
+    public void cleanup() {
+        this.bundleArea.delete(true);
+        this.bundleArea.createDirectory();
+    }
+
+    @Test
+    public void independentBundlesShareALevel() throws IOException {
+        URI a = createBundle("a", "p.a", null, null);
+        URI b = createBundle("b", "p.b", null, null);
+        URI c = createBundle("c", null, null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(1, levels.size());
+        assertEquals(list(a, b, c), levels.get(0));
+    }
+
+    @Test
+    public void dependentBundlesKeepTheirOrder() throws IOException {
+        URI exporter = createBundle("exporter", "p.a", null, null);
+        URI importer = createBundle("importer", null, "p.a", null);
+        URI requirer = createBundle("requirer", null, null, "importer");
+        URI independent = createBundle("independent", null, null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(3, levels.size());
+        assertEquals(list(exporter, independent), levels.get(0));
+        assertEquals(list(importer), levels.get(1));
+        assertEquals(list(requirer), levels.get(2));
+    }
+
+    @Test
+    public void importerRecoveredBeforeLaterExporter() throws IOException {
+        URI importer = createBundle("importer", null, "p.a", null);
+        URI exporter = createBundle("exporter", "p.a", null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(2, levels.size());
+        assertEquals(list(importer), levels.get(0));
+        assertEquals(list(exporter), levels.get(1));
+    }
+
+    @Test
+    public void nonBundleArtifactIsRecoveredOnItsOwn() throws IOException {
+        URI a = createBundle("a", null, null, null);
+        URI plan = new File(this.bundleArea.toFile(), "some.plan").toURI();
+        this.recoveryState.put(plan, new DeploymentOptions(true, true, true));
+        URI b = createBundle("b", null, null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(3, levels.size());
+        assertEquals(list(a), levels.get(0));
+        assertEquals(list(plan), levels.get(1));
+        assertEquals(list(b), levels.get(2));
+    }
+
+    @Test
+    public void explodedParIsRecoveredOnItsOwn() throws IOException {
+        URI a = createBundle("a", "p.a", null, null);
+        File par = new File(this.bundleArea.toFile(), "app.par");
+        File manifestFile = new File(par, JarFile.MANIFEST_NAME);
+        manifestFile.getParentFile().mkdirs();
+        Manifest manifest = createManifest();
+        manifest.getMainAttributes().putValue("Application-SymbolicName", "app");
+        FileOutputStream manifestStream = new FileOutputStream(manifestFile);
+        try {
+            manifest.write(manifestStream);
+        } finally {
+            manifestStream.close();
+        }
+        URI parUri = par.toURI();
+        this.recoveryState.put(parUri, new DeploymentOptions(true, true, true));
+        URI b = createBundle("b", null, null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(3, levels.size());
+        assertEquals(list(a), levels.get(0));
+        assertEquals(list(parUri), levels.get(1));
+        assertEquals(list(b), levels.get(2));
+    }
+
+    @Test
+    public void jarWithoutBundleSymbolicNameIsRecoveredOnItsOwn() throws IOException {
+        URI a = createBundle("a", null, null, null);
+        File library = new File(this.bundleArea.toFile(), "library.jar");
+        new JarOutputStream(new FileOutputStream(library), createManifest()).close();
+        URI libraryUri = library.toURI();
+        this.recoveryState.put(libraryUri, new DeploymentOptions(true, true, true));
+        URI b = createBundle("b", null, null, null);
+
+        List<List<URI>> levels = plan();
+        assertEquals(3, levels.size());
+        assertEquals(list(a), levels.get(0));
+        assertEquals(list(libraryUri), levels.get(1));
+        assertEquals(list(b), levels.get(2));
+    }
+
+    private List<List<URI>> plan() {
+        List<List<URI>> levels = new ArrayList<List<URI>>();
+        for (List<Entry<URI, DeploymentOptions>> level : new RecoveryPlanner().plan(this.recoveryState)) {
+            List<URI> uris = new ArrayList<URI>();
+            for (Entry<URI, DeploymentOptions> entry : level) {
+                uris.add(entry.getKey());
+            }
+            levels.add(uris);
+        }
+        return levels;
+    }
+
+    private static List<URI> list(URI... uris) {
+        List<URI> list = new ArrayList<URI>();
+        for (URI uri : uris) {
+            list.add(uri);
+        }
+        return list;
+    }
+
+    private URI createBundle(String symbolicName, String exportPackage, String importPackage, String requireBundle) throws IOException {
+        Manifest manifest = createManifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", symbolicName);
+        if (exportPackage != null) {
+            attributes.putValue("Export-Package", exportPackage);
+        }
+        if (importPackage != null) {
+            attributes.putValue("Import-Package", importPackage);
+        }
+        if (requireBundle != null) {
+            attributes.putValue("Require-Bundle", requireBundle);
+        }
+
+        File bundle = new File(this.bundleArea.toFile(), symbolicName + ".jar");
+        new JarOutputStream(new FileOutputStream(bundle), manifest).close();
+
+        URI uri = bundle.toURI();
+        this.recoveryState.put(uri, new DeploymentOptions(true, true, true));
+        return uri;
+    }
+
+    private static Manifest createManifest() {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        return manifest;
+    }
+}
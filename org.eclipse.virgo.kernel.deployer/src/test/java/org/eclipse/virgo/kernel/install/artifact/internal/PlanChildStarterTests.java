@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.IAnswer;
+import org.eclipse.virgo.kernel.deployer.core.internal.AbortableSignalJunction;
+import org.eclipse.virgo.kernel.install.artifact.BundleInstallArtifact;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.nano.core.AbortableSignal;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.util.common.DirectedAcyclicGraph;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class PlanChildStarterTests {
+
+    private final DirectedAcyclicGraph<InstallArtifact> dag = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>();
+
+    @Test
+    public void unwiredBundlesAreIndependent() {
+        Bundle a = createMock(Bundle.class);
+        Bundle b = createMock(Bundle.class);
+        Bundle framework = createMock(Bundle.class);
+        expectWiring(a, framework);
+        expectWiring(b, framework);
+
+        assertTrue(PlanChildStarter.areIndependentBundles(children(a, b)));
+    }
+
+    @Test
+    public void bundleWiredToASiblingIsDependent() {
+        Bundle a = createMock(Bundle.class);
+        Bundle b = createMock(Bundle.class);
+        expectWiring(a);
+        expectWiring(b, a);
+
+        assertFalse(PlanChildStarter.areIndependentBundles(children(a, b)));
+    }
+
+    @Test
+    public void unresolvedBundleIsDependent() {
+        Bundle a = createMock(Bundle.class);
+        Bundle b = createMock(Bundle.class);
+        expectWiring(a);
+        expect(b.adapt(BundleWiring.class)).andReturn(null).anyTimes();
+        replay(b);
+
+        assertFalse(PlanChildStarter.areIndependentBundles(children(a, b)));
+    }
+
+    @Test
+    public void nonBundleChildIsDependent() {
+        Bundle a = createMock(Bundle.class);
+        expectWiring(a);
+
+        List<GraphNode<InstallArtifact>> children = children(a);
+        children.add(this.dag.createRootNode(createNiceMock(InstallArtifact.class)));
+
+        assertFalse(PlanChildStarter.areIndependentBundles(children));
+    }
+
+    @Test
+    public void interruptionWhileWaitingForChildrenIsReported() throws DeploymentException {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        List<GraphNode<InstallArtifact>> children = new ArrayList<GraphNode<InstallArtifact>>();
+        for (int child = 0; child < 2; child++) {
+            InstallArtifact childArtifact = createNiceMock(InstallArtifact.class);
+            childArtifact.start(anyObject(AbortableSignal.class));
+            expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                public Object answer() throws Throwable {
+                    proceed.await(10, TimeUnit.SECONDS);
+                    return null;
+                }
+            }).anyTimes();
+            replay(childArtifact);
+            children.add(this.dag.createRootNode(childArtifact));
+        }
+        AbortableSignalJunction signalJunction = new AbortableSignalJunction(new StubAbortableSignal(), children.size());
+
+        PlanChildStarter childStarter = new PlanChildStarter();
+        try {
+            Thread.currentThread().interrupt();
+            childStarter.startInParallel(children, signalJunction.getSignals(), signalJunction);
+            fail("DeploymentException expected");
+        } catch (DeploymentException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+            assertTrue(Thread.interrupted());
+        } finally {
+            proceed.countDown();
+            childStarter.destroy();
+        }
+    }
+
+    private void expectWiring(Bundle bundle, Bundle... providers) {
+        List<BundleWire> requiredWires = new ArrayList<BundleWire>();
+        for (Bundle provider : providers) {
+            BundleWiring providerWiring = createMock(BundleWiring.class);
+            expect(providerWiring.getBundle()).andReturn(provider).anyTimes();
+            BundleWire requiredWire = createMock(BundleWire.class);
+            expect(requiredWire.getProviderWiring()).andReturn(providerWiring).anyTimes();
+            replay(providerWiring, requiredWire);
+            requiredWires.add(requiredWire);
+        }
+        BundleWiring bundleWiring = createMock(BundleWiring.class);
+        expect(bundleWiring.getRequiredWires(null)).andReturn(requiredWires).anyTimes();
+        expect(bundle.adapt(BundleWiring.class)).andReturn(bundleWiring).anyTimes();
+        replay(bundleWiring, bundle);
+    }
+
+    private List<GraphNode<InstallArtifact>> children(Bundle... bundles) {
+        List<GraphNode<InstallArtifact>> children = new ArrayList<GraphNode<InstallArtifact>>();
+        for (Bundle bundle : Arrays.asList(bundles)) {
+            BundleInstallArtifact bundleInstallArtifact = createMock(BundleInstallArtifact.class);
+            expect(bundleInstallArtifact.getBundle()).andReturn(bundle).anyTimes();
+            replay(bundleInstallArtifact);
+            children.add(this.dag.createRootNode(bundleInstallArtifact));
+        }
+        return children;
+    }
+}
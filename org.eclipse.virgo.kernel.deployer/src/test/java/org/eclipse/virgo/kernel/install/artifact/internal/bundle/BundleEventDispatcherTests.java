@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+import org.junit.Test;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Version;
+
+public class BundleEventDispatcherTests {
+
+    private final StubBundleContext bundleContext = new StubBundleContext();
+
+    private final BundleEventDispatcher dispatcher = new BundleEventDispatcher(this.bundleContext);
+
+    private final StubBundle bundleOne = new StubBundle(1L, "one", Version.emptyVersion, "one");
+
+    private final StubBundle bundleTwo = new StubBundle(2L, "two", Version.emptyVersion, "two");
+
+    @Test
+    public void singleFrameworkListener() {
+        this.dispatcher.addBundleListener(1L, new RecordingBundleListener());
+        this.dispatcher.addBundleListener(2L, new RecordingBundleListener());
+        assertEquals(1, this.bundleContext.getBundleListeners().size());
+    }
+
+    @Test
+    public void eventsRoutedByBundleId() {
+        RecordingBundleListener listenerOne = new RecordingBundleListener();
+        RecordingBundleListener listenerTwo = new RecordingBundleListener();
+        this.dispatcher.addBundleListener(1L, listenerOne);
+        this.dispatcher.addBundleListener(2L, listenerTwo);
+
+        BundleEvent event = new BundleEvent(BundleEvent.STARTED, this.bundleOne);
+        this.dispatcher.bundleChanged(event);
+
+        assertEquals(1, listenerOne.events.size());
+        assertSame(event, listenerOne.events.get(0));
+        assertEquals(0, listenerTwo.events.size());
+    }
+
+    @Test
+    public void removedListenerReceivesNoEvents() {
+        RecordingBundleListener listener = new RecordingBundleListener();
+        this.dispatcher.addBundleListener(2L, listener);
+        this.dispatcher.removeBundleListener(2L, listener);
+
+        this.dispatcher.bundleChanged(new BundleEvent(BundleEvent.STOPPED, this.bundleTwo));
+
+        assertEquals(0, listener.events.size());
+    }
+
+    @Test
+    public void removeOfReplacedListenerIsIgnored() {
+        RecordingBundleListener oldListener = new RecordingBundleListener();
+        RecordingBundleListener newListener = new RecordingBundleListener();
+        this.dispatcher.addBundleListener(1L, oldListener);
+        this.dispatcher.addBundleListener(1L, newListener);
+        this.dispatcher.removeBundleListener(1L, oldListener);
+
+        this.dispatcher.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, this.bundleOne));
+
+        assertEquals(0, oldListener.events.size());
+        assertEquals(1, newListener.events.size());
+    }
+
+    private static final class RecordingBundleListener implements BundleListener {
+
+        private final List<BundleEvent> events = new ArrayList<BundleEvent>();
+
+        public void bundleChanged(BundleEvent event) {
+            this.events.add(event);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline.internal;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.install.environment.InstallLog;
+import org.eclipse.virgo.kernel.install.pipeline.Pipeline;
+import org.eclipse.virgo.kernel.install.pipeline.StageStatistics;
+import org.eclipse.virgo.kernel.install.pipeline.stage.AbstractPipelineStage;
+import org.eclipse.virgo.kernel.install.pipeline.stage.visit.Visitor;
+import org.eclipse.virgo.kernel.install.pipeline.stage.visit.internal.VisitationStage;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+public class StandardPipelineStatisticsTests {
+
+    private final RecordingEventAdmin eventAdmin = new RecordingEventAdmin();
+
+    private final StandardPipelineStatistics statistics = new StandardPipelineStatistics(this.eventAdmin);
+
+    private final StandardPipelineFactory pipelineFactory = new StandardPipelineFactory(this.statistics);
+
+    private GraphNode<InstallArtifact> installGraph;
+
+    private InstallEnvironment installEnvironment;
+
+    @Before
+    public void setUp() {
+        this.installGraph = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>().createRootNode(null);
+        this.installEnvironment = createNiceMock(InstallEnvironment.class);
+        expect(this.installEnvironment.getInstallLog()).andReturn(createNiceMock(InstallLog.class)).anyTimes();
+        replay(this.installEnvironment);
+    }
+
+    @Test
+    public void stagesOfNestedPipelinesAreRecorded() throws Exception {
+        Pipeline nested = this.pipelineFactory.createCompensatingPipeline(new SecondStage());
+        nested.appendStage(new SecondStage());
+        Pipeline pipeline = this.pipelineFactory.create();
+        pipeline.appendStage(new FirstStage()).appendStage(nested).appendStage(new FirstStage());
+
+        pipeline.process(this.installGraph, this.installEnvironment);
+        pipeline.process(this.installGraph, this.installEnvironment);
+
+        Map<String, StageStatistics> stageStatistics = new HashMap<String, StageStatistics>();
+        for (StageStatistics stage : this.statistics.getStageStatistics()) {
+            stageStatistics.put(stage.getStageName(), stage);
+        }
+        assertEquals(2, stageStatistics.size());
+        assertEquals(4, stageStatistics.get("FirstStage").getCount());
+        assertEquals(2, stageStatistics.get("SecondStage").getCount());
+
+        long histogramCount = 0;
+        for (long bucketCount : stageStatistics.get("FirstStage").getBucketCounts()) {
+            histogramCount += bucketCount;
+        }
+        assertEquals(4, histogramCount);
+
+        this.statistics.reset();
+        assertEquals(0, this.statistics.getStageStatistics().size());
+    }
+
+    @Test
+    public void namedStagesOfTheSameClassAreRecordedSeparately() throws Exception {
+        Visitor visitor = new Visitor() {
+
+            public void operate(InstallArtifact installArtifact, InstallEnvironment installEnvironment) {
+            }
+        };
+        Pipeline pipeline = this.pipelineFactory.create();
+        pipeline.appendStage(new VisitationStage("BeginStage", visitor)).appendStage(new VisitationStage(visitor)).appendStage(
+            new VisitationStage("EndStage", visitor));
+
+        pipeline.process(this.installGraph, this.installEnvironment);
+
+        assertArrayEquals(new String[] { "BeginStage", "VisitationStage", "EndStage" },
+            (String[]) this.eventAdmin.events.get(0).getProperty(StandardPipelineStatistics.PROPERTY_STAGES));
+        assertEquals(3, this.statistics.getStageStatistics().size());
+    }
+
+    @Test
+    public void oneBreakdownEventPerOutermostPipeline() throws Exception {
+        Pipeline nested = this.pipelineFactory.create();
+        nested.appendStage(new SecondStage());
+        Pipeline pipeline = this.pipelineFactory.create();
+        pipeline.appendStage(new FirstStage()).appendStage(nested);
+
+        pipeline.process(this.installGraph, this.installEnvironment);
+
+        assertEquals(1, this.eventAdmin.events.size());
+        Event event = this.eventAdmin.events.get(0);
+        assertEquals(StandardPipelineStatistics.TOPIC_PIPELINE_PROCESSED, event.getTopic());
+        assertArrayEquals(new String[] { "FirstStage", "SecondStage" }, (String[]) event.getProperty(StandardPipelineStatistics.PROPERTY_STAGES));
+        assertEquals(2, ((long[]) event.getProperty(StandardPipelineStatistics.PROPERTY_WALL_TIMES)).length);
+    }
+
+    private static final class FirstStage extends AbstractPipelineStage {
+    }
+
+    private static final class SecondStage extends AbstractPipelineStage {
+    }
+
+    private static final class RecordingEventAdmin implements EventAdmin {
+
+        private final List<Event> events = new ArrayList<Event>();
+
+        public void postEvent(Event event) {
+            this.events.add(event);
+        }
+
+        public void sendEvent(Event event) {
+            this.events.add(event);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.pipeline.stage.resolve.internal;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.eclipse.virgo.kernel.install.artifact.BundleInstallArtifact;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
+import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
+import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
+import org.eclipse.virgo.util.common.GraphNode;
+import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+@SuppressWarnings("deprecation")
+public class ResolveStageTests {
+
+    private static final long BUNDLE_ID = 7;
+
+    private Bundle bundle;
+
+    private PackageAdmin packageAdmin;
+
+    private GraphNode<InstallArtifact> installGraph;
+
+    private InstallEnvironment installEnvironment;
+
+    @Before
+    public void setUp() {
+        this.bundle = createMock(Bundle.class);
+        expect(this.bundle.getBundleId()).andReturn(BUNDLE_ID).anyTimes();
+        expect(this.bundle.getState()).andReturn(Bundle.INSTALLED).anyTimes();
+        expect(this.bundle.getSymbolicName()).andReturn("bundle").anyTimes();
+        expect(this.bundle.getVersion()).andReturn(new Version("1.0.0")).anyTimes();
+        replay(this.bundle);
+
+        this.packageAdmin = createMock(PackageAdmin.class);
+        expect(this.packageAdmin.resolveBundles(aryEq(new Bundle[] { this.bundle }))).andReturn(false);
+        replay(this.packageAdmin);
+
+        BundleInstallArtifact installArtifact = createNiceMock(BundleInstallArtifact.class);
+        expect(installArtifact.getBundle()).andReturn(this.bundle).anyTimes();
+        replay(installArtifact);
+        this.installGraph = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>().createRootNode(installArtifact);
+
+        // The install environment's quasi framework must not be used to diagnose the failure.
+        this.installEnvironment = createMock(InstallEnvironment.class);
+        replay(this.installEnvironment);
+    }
+
+    @Test
+    public void resolutionFailureIsDiagnosedInACopyOfTheState() throws DeploymentException {
+        QuasiBundle quasiBundle = createMock(QuasiBundle.class);
+        expect(quasiBundle.getSymbolicName()).andReturn("bundle").anyTimes();
+        expect(quasiBundle.getVersion()).andReturn(new Version("1.0.0")).anyTimes();
+        QuasiResolutionFailure resolutionFailure = createMock(QuasiResolutionFailure.class);
+        expect(resolutionFailure.getUnresolvedQuasiBundle()).andReturn(quasiBundle).anyTimes();
+        expect(resolutionFailure.getDescription()).andReturn("Missing constraint").anyTimes();
+        QuasiFramework quasiFramework = createMock(QuasiFramework.class);
+        expect(quasiFramework.diagnose(BUNDLE_ID)).andReturn(Arrays.asList(resolutionFailure));
+        quasiFramework.destroy();
+        QuasiFrameworkFactory quasiFrameworkFactory = createMock(QuasiFrameworkFactory.class);
+        expect(quasiFrameworkFactory.create()).andReturn(quasiFramework);
+        replay(quasiBundle, resolutionFailure, quasiFramework, quasiFrameworkFactory);
+
+        ResolveStage resolveStage = new ResolveStage(this.packageAdmin, quasiFrameworkFactory);
+        try {
+            resolveStage.process(this.installGraph, this.installEnvironment);
+            fail("UnableToSatisfyBundleDependenciesException expected");
+        } catch (UnableToSatisfyBundleDependenciesException e) {
+            assertEquals("Missing constraint", e.getFailureDescription());
+        }
+        verify(this.packageAdmin, this.installEnvironment, quasiFramework, quasiFrameworkFactory);
+    }
+
+    @Test
+    public void resolutionFailureWhichCannotBeDiagnosedIsStillAFailure() throws DeploymentException {
+        QuasiFrameworkFactory quasiFrameworkFactory = createMock(QuasiFrameworkFactory.class);
+        expect(quasiFrameworkFactory.create()).andThrow(new IllegalStateException("Framework state unavailable"));
+        replay(quasiFrameworkFactory);
+
+        ResolveStage resolveStage = new ResolveStage(this.packageAdmin, quasiFrameworkFactory);
+        try {
+            resolveStage.process(this.installGraph, this.installEnvironment);
+            fail("UnableToSatisfyBundleDependenciesException expected");
+        } catch (UnableToSatisfyBundleDependenciesException e) {
+            assertEquals("bundle", e.getSymbolicName());
+            assertEquals(new Version("1.0.0"), e.getVersion());
+        }
+        verify(this.packageAdmin, this.installEnvironment, quasiFrameworkFactory);
+    }
+}
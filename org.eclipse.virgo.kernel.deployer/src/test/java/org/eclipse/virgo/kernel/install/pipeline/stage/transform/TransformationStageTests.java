@@ -27,6 +27,7 @@ import org.eclipse.virgo.kernel.install.pipeline.stage.PipelineStage;
 import org.eclipse.virgo.kernel.install.pipeline.stage.transform.internal.TransformationStage;
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
 import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+import org.eclipse.virgo.test.stubs.support.TrueFilter;
 import org.eclipse.virgo.util.common.GraphNode;
 import org.junit.Before;
 import org.junit.Test;
@@ -56,6 +57,10 @@ public class TransformationStageTests {
     private PipelineStage transformationStage;
 
     private StubBundleContext bundleContext = new StubBundleContext();
+    {
+        String filterString = "(objectClass=" + Transformer.class.getName() + ")";
+        this.bundleContext.addFilter(filterString, new TrueFilter(filterString));
+    }
 
     @SuppressWarnings("unchecked")
     @Before
@@ -70,6 +75,8 @@ public class TransformationStageTests {
         expect(this.installEnvironment.getInstallLog()).andReturn(this.installLog).anyTimes();
         this.installLog.log(isA(Object.class), isA(String.class), isA(String.class));
         expectLastCall().anyTimes();
+        this.installLog.log(isA(Object.class), isA(String.class), isA(String.class), isA(String.class));
+        expectLastCall().anyTimes();
     }
 
     @Test
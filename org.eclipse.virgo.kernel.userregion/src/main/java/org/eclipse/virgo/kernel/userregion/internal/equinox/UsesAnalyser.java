@@ -12,8 +12,12 @@
 package org.eclipse.virgo.kernel.userregion.internal.equinox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -26,11 +30,19 @@ import org.eclipse.osgi.service.resolver.ResolverError;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.osgi.service.resolver.VersionConstraint;
 import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
 
 import org.eclipse.virgo.util.math.Sets;
 
 /**
  * Utility class for analysing uses failures in a given bundle.
+ * <p/>
+ * The analyser remembers the wiring of the bundles in the most recently analysed {@link State} and the uses constraint
+ * closure of each export it has analysed. Bundles and exports are identified by bundle id, location, symbolic name, and
+ * version rather than by the state's objects, so what is remembered applies equally to copies of a state, such as the
+ * states used to diagnose resolution failures, and no state is retained once it has been analysed. When a state is
+ * analysed, only the closures which involve a bundle whose wiring differs from the previously analysed state, or which
+ * looked up a package exported by such a bundle, are discarded, so repeated diagnoses are incremental.
  * 
  * <strong>Concurrent Semantics</strong><br/>
  * thread-safe
@@ -38,6 +50,10 @@ import org.eclipse.virgo.util.math.Sets;
  */
 public final class UsesAnalyser {
 
+    private final Object monitor = new Object();
+
+    private final StateAnalysis stateAnalysis = new StateAnalysis();
+
     public AnalysedUsesConflict[] getUsesConflicts(State state, ResolverError usesError) {
         VersionConstraint constraint = usesError.getUnsatisfiedConstraint();
 
@@ -46,28 +62,36 @@ public final class UsesAnalyser {
         if (constraint instanceof ImportPackageSpecification) {
             ImportPackageSpecification rootImport = (ImportPackageSpecification) constraint;
 
-            /*
-             * Compute the exports visible from the failed bundle except via rootImport. This is the exports matching
-             * imports (except rootImport) of the failed bundle and the uses constraint closure of those exports. The
-             * uses constraint closure of an export is those packages which are visible through transitive uses starting
-             * with the export.
-             */
-            PackageSources visiblePackages = generateExportPackagesVisibleInFailedBundle(state, rootImport);
-
-            /*
-             * For each resolved export that satisfies rootImport, compute the uses constraint closure of the export and
-             * add any that conflict with visiblePackages to the resultant set of uses conflicts.
-             */
-            for (ExportPackageDescription exportPackage : getResolvedCandidateExports(state, rootImport)) {
-                PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(state, exportPackage);
-                analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
-            }
-
-            if (analysedUsesConflicts.isEmpty()) {
-                // Be more aggressive by exploring unresolved exports that satisfy rootImport.
-                for (ExportPackageDescription exportPackage : getUnresolvedCandidateExports(state, rootImport)) {
-                    PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(state, exportPackage);
-                    analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
+            synchronized (this.monitor) {
+                StateAnalysis analysis = this.stateAnalysis;
+                analysis.refresh(state);
+                try {
+                    /*
+                     * Compute the exports visible from the failed bundle except via rootImport. This is the exports
+                     * matching imports (except rootImport) of the failed bundle and the uses constraint closure of those
+                     * exports. The uses constraint closure of an export is those packages which are visible through
+                     * transitive uses starting with the export.
+                     */
+                    PackageSources visiblePackages = generateExportPackagesVisibleInFailedBundle(analysis, rootImport);
+
+                    /*
+                     * For each resolved export that satisfies rootImport, compute the uses constraint closure of the
+                     * export and add any that conflict with visiblePackages to the resultant set of uses conflicts.
+                     */
+                    for (ExportPackageDescription exportPackage : analysis.getResolvedCandidateExports(rootImport)) {
+                        PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(analysis, exportPackage);
+                        analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
+                    }
+
+                    if (analysedUsesConflicts.isEmpty()) {
+                        // Be more aggressive by exploring unresolved exports that satisfy rootImport.
+                        for (ExportPackageDescription exportPackage : analysis.getUnresolvedCandidateExports(rootImport)) {
+                            PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(analysis, exportPackage);
+                            analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
+                        }
+                    }
+                } finally {
+                    analysis.clearIndex();
                 }
             }
         }
@@ -88,6 +112,30 @@ public final class UsesAnalyser {
         return null;
     }
 
+    /**
+     * Brings what the analyser remembers up to date with the given state without analysing any conflicts.
+     * 
+     * @param state the state
+     */
+    void refresh(State state) {
+        synchronized (this.monitor) {
+            this.stateAnalysis.refresh(state);
+            this.stateAnalysis.clearIndex();
+        }
+    }
+
+    /**
+     * Returns whether or not the uses constraint closure of the given export is remembered.
+     * 
+     * @param exportPackage the export
+     * @return <code>true</code> if and only if the closure is remembered
+     */
+    boolean isUsesClosureRemembered(ExportPackageDescription exportPackage) {
+        synchronized (this.monitor) {
+            return this.stateAnalysis.usesClosures.containsKey(ExportKey.of(exportPackage));
+        }
+    }
+
     private List<AnalysedUsesConflict> findConflictingExports(PackageSources usedPackages, PackageSources directPackages) {
         List<AnalysedUsesConflict> usesConflicts = new ArrayList<AnalysedUsesConflict>();
         Set<String> packagesInCommon = Sets.<String> intersection(usedPackages.keySet(), directPackages.keySet());
@@ -115,18 +163,28 @@ public final class UsesAnalyser {
         return false;
     }
 
-    private PackageSources generateExportPackagesUsedViaExportPackage(State state, ExportPackageDescription exportPackage) {
-        PackageSources usedPackages = constructEmptyPackageSources();
+    private PackageSources generateExportPackagesUsedViaExportPackage(StateAnalysis analysis, ExportPackageDescription exportPackage) {
+        ExportKey exportKey = ExportKey.of(exportPackage);
+        RememberedUsesClosure rememberedUsesClosure = analysis.usesClosures.get(exportKey);
+        if (rememberedUsesClosure != null) {
+            PackageSources packages = rememberedUsesClosure.getPackages(analysis, exportPackage);
+            if (packages != null) {
+                return packages;
+            }
+        }
+
+        UsesClosure usesClosure = new UsesClosure();
         Set<String> knownPackages = new HashSet<String>();
 
-        addUsedImportedPackages(state, usedPackages, exportPackage, exportPackage, knownPackages);
-        return usedPackages;
+        addUsedImportedPackages(analysis, usesClosure, exportPackage, exportPackage, knownPackages);
+        analysis.usesClosures.put(exportKey, new RememberedUsesClosure(exportPackage, usesClosure));
+        return usesClosure.packages;
     }
 
-    private PackageSources generateExportPackagesVisibleInFailedBundle(State state, ImportPackageSpecification rootImport) {
-        PackageSources visiblePackages = getOtherImportedPackages(state, rootImport);
+    private PackageSources generateExportPackagesVisibleInFailedBundle(StateAnalysis analysis, ImportPackageSpecification rootImport) {
+        PackageSources visiblePackages = getOtherImportedPackages(analysis, rootImport);
 
-        visiblePackages.putAll(computeUsesClosure(state, visiblePackages));
+        visiblePackages.putAll(computeUsesClosure(analysis, visiblePackages));
 
         BundleDescription failedBundle = rootImport.getBundle();
         visiblePackages.putAll(getExportedPackages(failedBundle));
@@ -134,9 +192,9 @@ public final class UsesAnalyser {
         return visiblePackages;
     }
 
-    private PackageSources computeUsesClosure(State state, PackageSources packages) {
+    private PackageSources computeUsesClosure(StateAnalysis analysis, PackageSources packages) {
         // Compute all the exports visible through transitive uses from directPackages
-        PackageSources additionalPackages = constructEmptyPackageSources();
+        UsesClosure additionalPackages = new UsesClosure();
         Set<Entry<String, Set<SourcedPackage>>> keys = packages.entrySet();
 
         Set<String> knownPackages = new HashSet<String>();
@@ -144,66 +202,18 @@ public final class UsesAnalyser {
         for (Entry<String, Set<SourcedPackage>> key : keys) {
             for (SourcedPackage sp : key.getValue()) {
                 ExportPackageDescription source = sp.getSource();
-                addUsedImportedPackages(state, additionalPackages, source, source, knownPackages);
+                addUsedImportedPackages(analysis, additionalPackages, source, source, knownPackages);
             }
         }
-        return additionalPackages;
+        return additionalPackages.packages;
     }
 
-    private ExportPackageDescription[] getResolvedCandidateExports(State state, ImportPackageSpecification rootImport) {
-        List<ExportPackageDescription> exports = new ArrayList<ExportPackageDescription>();
-
-        BundleDescription[] bundles = state.getResolvedBundles();
-        if (bundles != null) {
-            for (BundleDescription bundle : bundles) {
-                for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
-                    if (rootImport.isSatisfiedBy(exportPackage)) {
-                        exports.add(exportPackage);
-                    }
-                }
-            }
-        }
-
-        return exports.toArray(new ExportPackageDescription[exports.size()]);
-    }
-
-    private ExportPackageDescription[] getUnresolvedCandidateExports(State state, ImportPackageSpecification rootImport) {
-        List<ExportPackageDescription> exports = new ArrayList<ExportPackageDescription>();
-
-        BundleDescription[] resolvedBundles = state.getResolvedBundles();
-
-        BundleDescription[] bundles = state.getBundles();
-        if (bundles != null) {
-            for (BundleDescription bundle : bundles) {
-                if (notInArray(bundle, resolvedBundles)) {
-                    for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
-                        if (rootImport.isSatisfiedBy(exportPackage)) {
-                            exports.add(exportPackage);
-                        }
-                    }
-                }
-            }
-        }
-
-        return exports.toArray(new ExportPackageDescription[exports.size()]);
-    }
-
-    private static final boolean notInArray(BundleDescription bundle, BundleDescription[] resolvedBundles) {
-        if (resolvedBundles == null)
-            return true;
-        for (BundleDescription b : resolvedBundles) {
-            if (b == bundle) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private void addUsedImportedPackages(State state, PackageSources packages, ExportPackageDescription exportPackage,
+    private void addUsedImportedPackages(StateAnalysis analysis, UsesClosure usesClosure, ExportPackageDescription exportPackage,
         ExportPackageDescription topDependency, Set<String> knownPackages) {
         String[] packageNames = (String[]) exportPackage.getDirective(Constants.USES_DIRECTIVE);
         if (packageNames != null) {
             BundleDescription bundle = exportPackage.getExporter();
+            usesClosure.bundles.add(bundle);
 
             ExportPackageDescription[] allExports = bundle.getExportPackages();
             ImportPackageSpecification[] allImports = bundle.getImportPackages();
@@ -212,24 +222,25 @@ public final class UsesAnalyser {
             for (String packageName : packageNames) {
                 ExportPackageDescription localExport = findExportPackageDescriptionInArray(allExports, packageName);
                 if (null != localExport) {
-                    packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localExport));
+                    usesClosure.packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localExport));
                 }
 
                 if (!knownPackages.contains(packageName)) {
                     ExportPackageDescription localResolvedImport = findExportPackageDescriptionInArray(allResolvedImports, packageName);
                     if (null != localResolvedImport) {
                         knownPackages.add(packageName);
-                        packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localResolvedImport));
-                        addUsedImportedPackages(state, packages, localResolvedImport, topDependency, knownPackages);
+                        usesClosure.packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localResolvedImport));
+                        addUsedImportedPackages(analysis, usesClosure, localResolvedImport, topDependency, knownPackages);
                     } else {
                         ImportPackageSpecification anImport = findImportPackageSpecificationInArray(allImports, packageName);
                         if (anImport != null) {
-                            ExportPackageDescription[] matchingExports = getCandidateExports(state, anImport);
+                            usesClosure.lookedUpPackages.add(anImport.getName());
+                            ExportPackageDescription[] matchingExports = analysis.getCandidateExports(anImport);
                             if (matchingExports.length != 0) {
                                 knownPackages.add(packageName);
                                 for (ExportPackageDescription matchingExport : matchingExports) {
-                                    packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, matchingExport));
-                                    addUsedImportedPackages(state, packages, matchingExport, topDependency, knownPackages);
+                                    usesClosure.packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, matchingExport));
+                                    addUsedImportedPackages(analysis, usesClosure, matchingExport, topDependency, knownPackages);
                                 }
                             }
                         }
@@ -257,7 +268,7 @@ public final class UsesAnalyser {
         return null;
     }
 
-    private PackageSources getOtherImportedPackages(State state, ImportPackageSpecification rootImport) {
+    private PackageSources getOtherImportedPackages(StateAnalysis analysis, ImportPackageSpecification rootImport) {
         BundleDescription bundle = rootImport.getBundle();
 
         PackageSources packages = constructEmptyPackageSources();
@@ -266,7 +277,7 @@ public final class UsesAnalyser {
         for (ImportPackageSpecification importSpecification : importSpecifications) {
             if (rootImport != importSpecification) {
                 if (!Constants.RESOLUTION_OPTIONAL.equals(importSpecification.getDirective(Constants.RESOLUTION_DIRECTIVE))) {
-                    ExportPackageDescription[] exportPackages = getCandidateExports(state, importSpecification);
+                    ExportPackageDescription[] exportPackages = analysis.getCandidateExports(importSpecification);
                     for (ExportPackageDescription exportPackage : exportPackages) {
                         packages.addPackageSource(exportPackage.getName(), new ImportedSourcedPackage(rootImport, exportPackage));
                     }
@@ -276,13 +287,6 @@ public final class UsesAnalyser {
         return packages;
     }
 
-    private ExportPackageDescription[] getCandidateExports(State state, ImportPackageSpecification importSpecification) {
-        ExportPackageDescription[] pkgs = getResolvedCandidateExports(state, importSpecification);
-        if (pkgs.length == 0)
-            pkgs = getUnresolvedCandidateExports(state, importSpecification);
-        return pkgs;
-    }
-
     private PackageSources getExportedPackages(BundleDescription bundle) {
         ExportPackageDescription[] packageArray = bundle.getExportPackages();
         PackageSources packages = constructEmptyPackageSources();
@@ -293,6 +297,375 @@ public final class UsesAnalyser {
         return packages;
     }
 
+    /**
+     * {@link StateAnalysis} holds what is remembered between analyses: the wiring of each bundle in the state last
+     * examined and the uses constraint closures computed so far. While a state is being analysed it also holds the
+     * state's exports indexed by package name and by {@link ExportKey}. These indexes are cleared once the analysis is
+     * complete so that the state is not retained.
+     */
+    private final class StateAnalysis {
+
+        private Map<BundleKey, BundleWiring> bundleWirings = new HashMap<BundleKey, BundleWiring>();
+
+        private final Map<String, List<ExportPackageDescription>> resolvedExports = new HashMap<String, List<ExportPackageDescription>>();
+
+        private final Map<String, List<ExportPackageDescription>> unresolvedExports = new HashMap<String, List<ExportPackageDescription>>();
+
+        private final List<ExportPackageDescription> allResolvedExports = new ArrayList<ExportPackageDescription>();
+
+        private final List<ExportPackageDescription> allUnresolvedExports = new ArrayList<ExportPackageDescription>();
+
+        private final Map<ExportKey, ExportPackageDescription> exportsByKey = new HashMap<ExportKey, ExportPackageDescription>();
+
+        private final Map<ExportKey, RememberedUsesClosure> usesClosures = new HashMap<ExportKey, RememberedUsesClosure>();
+
+        /**
+         * Brings the analysis up to date with the given state, discarding the closures which depend on bundles whose
+         * wiring differs from the state last examined, and indexes the state's exports.
+         * 
+         * @param state the state to be analysed
+         */
+        private void refresh(State state) {
+            BundleDescription[] resolvedBundles = state.getResolvedBundles();
+            Set<BundleDescription> resolved = Collections.newSetFromMap(new IdentityHashMap<BundleDescription, Boolean>());
+            if (resolvedBundles != null) {
+                resolved.addAll(Arrays.asList(resolvedBundles));
+            }
+            BundleDescription[] bundles = state.getBundles();
+
+            Set<BundleKey> changedBundles = new HashSet<BundleKey>();
+            Set<String> changedPackages = new HashSet<String>();
+            Map<BundleKey, BundleWiring> currentBundleWirings = new HashMap<BundleKey, BundleWiring>();
+            if (bundles != null) {
+                for (BundleDescription bundle : bundles) {
+                    BundleKey bundleKey = BundleKey.of(bundle);
+                    BundleWiring bundleWiring = new BundleWiring(resolved.contains(bundle), bundle);
+                    BundleWiring previousBundleWiring = this.bundleWirings.remove(bundleKey);
+                    if (previousBundleWiring == null || !previousBundleWiring.equals(bundleWiring)) {
+                        changedBundles.add(bundleKey);
+                        changedPackages.addAll(bundleWiring.exportedPackages);
+                        if (previousBundleWiring != null) {
+                            changedPackages.addAll(previousBundleWiring.exportedPackages);
+                        }
+                    }
+                    currentBundleWirings.put(bundleKey, bundleWiring);
+                }
+            }
+            // Bundles which are no longer in the state have changed too.
+            for (Entry<BundleKey, BundleWiring> removedBundle : this.bundleWirings.entrySet()) {
+                changedBundles.add(removedBundle.getKey());
+                changedPackages.addAll(removedBundle.getValue().exportedPackages);
+            }
+            this.bundleWirings = currentBundleWirings;
+
+            invalidateUsesClosures(changedBundles, changedPackages);
+            indexExports(resolvedBundles, bundles, resolved);
+        }
+
+        private void invalidateUsesClosures(Set<BundleKey> changedBundles, Set<String> changedPackages) {
+            if (changedBundles.isEmpty()) {
+                return;
+            }
+            Iterator<RememberedUsesClosure> iterator = this.usesClosures.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().dependsOn(changedBundles, changedPackages)) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private void indexExports(BundleDescription[] resolvedBundles, BundleDescription[] bundles, Set<BundleDescription> resolved) {
+            clearIndex();
+
+            if (resolvedBundles != null) {
+                for (BundleDescription bundle : resolvedBundles) {
+                    indexExports(bundle, this.resolvedExports, this.allResolvedExports);
+                }
+            }
+            if (bundles != null) {
+                for (BundleDescription bundle : bundles) {
+                    if (!resolved.contains(bundle)) {
+                        indexExports(bundle, this.unresolvedExports, this.allUnresolvedExports);
+                    }
+                }
+            }
+        }
+
+        private void indexExports(BundleDescription bundle, Map<String, List<ExportPackageDescription>> exportsByPackage,
+            List<ExportPackageDescription> allExports) {
+            for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
+                List<ExportPackageDescription> exports = exportsByPackage.get(exportPackage.getName());
+                if (exports == null) {
+                    exports = new ArrayList<ExportPackageDescription>();
+                    exportsByPackage.put(exportPackage.getName(), exports);
+                }
+                exports.add(exportPackage);
+                allExports.add(exportPackage);
+                ExportKey exportKey = ExportKey.of(exportPackage);
+                if (!this.exportsByKey.containsKey(exportKey)) {
+                    this.exportsByKey.put(exportKey, exportPackage);
+                }
+            }
+        }
+
+        /**
+         * Forgets the exports of the state being analysed.
+         */
+        private void clearIndex() {
+            this.resolvedExports.clear();
+            this.unresolvedExports.clear();
+            this.allResolvedExports.clear();
+            this.allUnresolvedExports.clear();
+            this.exportsByKey.clear();
+        }
+
+        private ExportPackageDescription[] getCandidateExports(ImportPackageSpecification importSpecification) {
+            ExportPackageDescription[] pkgs = getResolvedCandidateExports(importSpecification);
+            if (pkgs.length == 0)
+                pkgs = getUnresolvedCandidateExports(importSpecification);
+            return pkgs;
+        }
+
+        private ExportPackageDescription[] getResolvedCandidateExports(ImportPackageSpecification importSpecification) {
+            return findCandidateExports(importSpecification, this.resolvedExports, this.allResolvedExports);
+        }
+
+        private ExportPackageDescription[] getUnresolvedCandidateExports(ImportPackageSpecification importSpecification) {
+            return findCandidateExports(importSpecification, this.unresolvedExports, this.allUnresolvedExports);
+        }
+
+        private ExportPackageDescription[] findCandidateExports(ImportPackageSpecification importSpecification,
+            Map<String, List<ExportPackageDescription>> exportsByPackage, List<ExportPackageDescription> allExports) {
+            String packageName = importSpecification.getName();
+            // A dynamic import may name packages with a wildcard, so it is matched against every export.
+            List<ExportPackageDescription> possibleExports = packageName == null || packageName.endsWith("*") ? allExports
+                : exportsByPackage.get(packageName);
+
+            List<ExportPackageDescription> exports = new ArrayList<ExportPackageDescription>();
+            if (possibleExports != null) {
+                for (ExportPackageDescription exportPackage : possibleExports) {
+                    if (importSpecification.isSatisfiedBy(exportPackage)) {
+                        exports.add(exportPackage);
+                    }
+                }
+            }
+            return exports.toArray(new ExportPackageDescription[exports.size()]);
+        }
+    }
+
+    /**
+     * {@link BundleKey} identifies a bundle in any copy of a state by its bundle id, location, symbolic name, and
+     * version.
+     */
+    private static final class BundleKey {
+
+        private final long bundleId;
+
+        private final String location;
+
+        private final String symbolicName;
+
+        private final Version version;
+
+        private BundleKey(long bundleId, String location, String symbolicName, Version version) {
+            this.bundleId = bundleId;
+            this.location = location;
+            this.symbolicName = symbolicName;
+            this.version = version;
+        }
+
+        private static BundleKey of(BundleDescription bundle) {
+            return new BundleKey(bundle.getBundleId(), bundle.getLocation(), bundle.getSymbolicName(), bundle.getVersion());
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 + (int) (this.bundleId ^ (this.bundleId >>> 32));
+            result = 31 * result + (this.location == null ? 0 : this.location.hashCode());
+            result = 31 * result + (this.symbolicName == null ? 0 : this.symbolicName.hashCode());
+            return 31 * result + (this.version == null ? 0 : this.version.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BundleKey)) {
+                return false;
+            }
+            BundleKey other = (BundleKey) obj;
+            return this.bundleId == other.bundleId && equal(this.location, other.location) && equal(this.symbolicName, other.symbolicName)
+                && equal(this.version, other.version);
+        }
+    }
+
+    /**
+     * {@link ExportKey} identifies an export in any copy of a state by its exporting bundle, package name, and version.
+     */
+    private static final class ExportKey {
+
+        private final BundleKey exporter;
+
+        private final String packageName;
+
+        private final Version version;
+
+        private ExportKey(BundleKey exporter, String packageName, Version version) {
+            this.exporter = exporter;
+            this.packageName = packageName;
+            this.version = version;
+        }
+
+        private static ExportKey of(ExportPackageDescription exportPackage) {
+            return new ExportKey(BundleKey.of(exportPackage.getExporter()), exportPackage.getName(), exportPackage.getVersion());
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 + this.exporter.hashCode();
+            result = 31 * result + (this.packageName == null ? 0 : this.packageName.hashCode());
+            return 31 * result + (this.version == null ? 0 : this.version.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ExportKey)) {
+                return false;
+            }
+            ExportKey other = (ExportKey) obj;
+            return this.exporter.equals(other.exporter) && equal(this.packageName, other.packageName) && equal(this.version, other.version);
+        }
+    }
+
+    private static boolean equal(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * {@link BundleWiring} records whether a bundle was resolved, the exports its imports were wired to, and the names of
+     * the packages it exports.
+     */
+    private static final class BundleWiring {
+
+        private final boolean resolved;
+
+        private final List<ExportKey> resolvedImports = new ArrayList<ExportKey>();
+
+        private final Set<String> exportedPackages = new HashSet<String>();
+
+        private BundleWiring(boolean resolved, BundleDescription bundle) {
+            this.resolved = resolved;
+            ExportPackageDescription[] resolvedImports = bundle.getResolvedImports();
+            if (resolvedImports != null) {
+                for (ExportPackageDescription resolvedImport : resolvedImports) {
+                    this.resolvedImports.add(ExportKey.of(resolvedImport));
+                }
+            }
+            for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
+                this.exportedPackages.add(exportPackage.getName());
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * this.resolvedImports.hashCode() + this.exportedPackages.hashCode();
+            return 31 * result + (this.resolved ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BundleWiring)) {
+                return false;
+            }
+            BundleWiring other = (BundleWiring) obj;
+            return this.resolved == other.resolved && this.resolvedImports.equals(other.resolvedImports)
+                && this.exportedPackages.equals(other.exportedPackages);
+        }
+    }
+
+    /**
+     * {@link UsesClosure} holds the packages in the uses constraint closure of an export together with the bundles whose
+     * wiring was traversed and the packages whose candidate exports were looked up while computing it.
+     */
+    private final class UsesClosure {
+
+        private final PackageSources packages = constructEmptyPackageSources();
+
+        private final Set<BundleDescription> bundles = new HashSet<BundleDescription>();
+
+        private final Set<String> lookedUpPackages = new HashSet<String>();
+    }
+
+    /**
+     * {@link RememberedUsesClosure} is a {@link UsesClosure} in a form which refers to no state so that it can be
+     * remembered between analyses and used with any copy of a state in which the bundles it depends on are wired in the
+     * same way.
+     */
+    private final class RememberedUsesClosure {
+
+        private final Map<String, List<ExportKey>> packages = new HashMap<String, List<ExportKey>>();
+
+        private final Set<BundleKey> bundles = new HashSet<BundleKey>();
+
+        private final Set<String> lookedUpPackages;
+
+        private RememberedUsesClosure(ExportPackageDescription exportPackage, UsesClosure usesClosure) {
+            this.bundles.add(BundleKey.of(exportPackage.getExporter()));
+            for (BundleDescription bundle : usesClosure.bundles) {
+                this.bundles.add(BundleKey.of(bundle));
+            }
+            for (Entry<String, Set<SourcedPackage>> entry : usesClosure.packages.entrySet()) {
+                List<ExportKey> sources = new ArrayList<ExportKey>(entry.getValue().size());
+                for (SourcedPackage sourcedPackage : entry.getValue()) {
+                    ExportPackageDescription source = sourcedPackage.getSource();
+                    sources.add(ExportKey.of(source));
+                    this.bundles.add(BundleKey.of(source.getExporter()));
+                }
+                this.packages.put(entry.getKey(), sources);
+            }
+            this.lookedUpPackages = new HashSet<String>(usesClosure.lookedUpPackages);
+        }
+
+        /**
+         * Returns the packages of the closure of the given export in terms of the state being analysed or
+         * <code>null</code> if an export in the closure cannot be found in the state.
+         */
+        private PackageSources getPackages(StateAnalysis analysis, ExportPackageDescription exportPackage) {
+            PackageSources packageSources = constructEmptyPackageSources();
+            for (Entry<String, List<ExportKey>> entry : this.packages.entrySet()) {
+                for (ExportKey exportKey : entry.getValue()) {
+                    ExportPackageDescription source = analysis.exportsByKey.get(exportKey);
+                    if (source == null) {
+                        return null;
+                    }
+                    packageSources.addPackageSource(entry.getKey(), new UsedBySourcedPackage(exportPackage, source));
+                }
+            }
+            return packageSources;
+        }
+
+        private boolean dependsOn(Set<BundleKey> changedBundles, Set<String> changedPackages) {
+            for (BundleKey bundle : this.bundles) {
+                if (changedBundles.contains(bundle)) {
+                    return true;
+                }
+            }
+            for (String packageName : this.lookedUpPackages) {
+                if (changedPackages.contains(packageName) || (packageName.endsWith("*") && !changedPackages.isEmpty())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private final static String stringOf(ExportPackageDescription source) {
         BundleDescription bundle = source.getSupplier();
         StringBuilder sb = new StringBuilder("'");
@@ -20,7 +20,6 @@ import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.osgi.framework.internal.core.BundleRepository;
-import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Version;
 import org.slf4j.Logger;
@@ -77,7 +76,7 @@ public final class ImportExpansionHandler implements ImportExpander {
 
     private final TrackedPackageImportsFactory trackedPackageImportsFactory = new StandardTrackedPackageImportsFactory();
 
-    private final BundleContext bundleContext;
+    private final InstalledBundleManifestIndex installedBundleManifestIndex;
 
     private final Set<String> packagesExportedBySystemBundle;
 
@@ -90,7 +89,7 @@ public final class ImportExpansionHandler implements ImportExpander {
     public ImportExpansionHandler(Repository repository, BundleContext bundleContext, Set<String> packagesExportedBySystemBundle,
         EventLogger eventLogger) {
         this.repository = repository;
-        this.bundleContext = bundleContext;
+        this.installedBundleManifestIndex = bundleContext == null ? null : new InstalledBundleManifestIndex(bundleContext);
         this.packagesExportedBySystemBundle = packagesExportedBySystemBundle;
         this.eventLogger = eventLogger;
     }
@@ -488,16 +487,10 @@ public final class ImportExpansionHandler implements ImportExpander {
         // prefer bundles from the supplied list
         BundleManifest bundleManifest = findMatchingManifest(bundleSymbolicName, versionRange, additionalManifests);
 
-        if (bundleManifest == null && this.bundleContext != null) {
-            Bundle[] installedBundles = this.bundleContext.getBundles();
-            for (Bundle bundle : installedBundles) {
-                if (bundleSymbolicName.equals(bundle.getSymbolicName()) && versionRange.includes(bundle.getVersion())) {
-                    bundleManifest = getBundleManifest(bundle);
-                    if (bundleManifest != null) {
-                        diagnose = true;
-                        break;
-                    }
-                }
+        if (bundleManifest == null && this.installedBundleManifestIndex != null) {
+            bundleManifest = this.installedBundleManifestIndex.findBundleManifest(bundleSymbolicName, versionRange);
+            if (bundleManifest != null) {
+                diagnose = true;
             }
         }
 
@@ -550,15 +543,4 @@ public final class ImportExpansionHandler implements ImportExpander {
         return this.repository.get(LibraryDefinition.LIBRARY_TYPE, librarySymbolicName, versionRange);
     }
 
-    /**
-     * Get a {@link BundleDefinition} for the given {@link Bundle}. If a definition cannot be created, return
-     * <code>null</code>.
-     * 
-     * @param bundle the bundle whose definition is required
-     * @return the bundle definition or <code>null</code> if no definition can be created
-     */
-    private BundleManifest getBundleManifest(Bundle bundle) {
-        return BundleManifestFactory.createBundleManifest(bundle.getHeaders());
-    }
-
 }
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * {@link InstalledBundleManifestIndex} indexes the bundles installed in a framework by symbolic name so that the
+ * manifest of an installed bundle matching a symbolic name and version range can be found without scanning every
+ * installed bundle. The index is kept up to date by a {@link SynchronousBundleListener} which is registered when the
+ * index is first used. Each bundle's manifest is parsed when it is first needed and then remembered until the bundle
+ * is updated or uninstalled.
+ * <p />
+ * Manifests returned by the index are shared and must not be modified.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class InstalledBundleManifestIndex implements SynchronousBundleListener {
+
+    private final Object monitor = new Object();
+
+    private final BundleContext bundleContext;
+
+    private final ConcurrentMap<String, ConcurrentNavigableMap<Long, IndexedBundle>> bundlesBySymbolicName;
+
+    private final ConcurrentMap<Long, IndexedBundle> bundlesById = new ConcurrentHashMap<Long, IndexedBundle>();
+
+    private volatile boolean open = false;
+
+    InstalledBundleManifestIndex(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.bundlesBySymbolicName = new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, IndexedBundle>>();
+    }
+
+    /**
+     * Finds the manifest of the installed bundle with the lowest bundle id which has the given symbolic name, a version
+     * in the given range, and a manifest which can be parsed.
+     *
+     * @param bundleSymbolicName the symbolic name of the bundle
+     * @param versionRange the range of acceptable bundle versions
+     * @return the bundle's manifest or <code>null</code> if there is no such installed bundle
+     */
+    BundleManifest findBundleManifest(String bundleSymbolicName, VersionRange versionRange) {
+        ensureOpen();
+        ConcurrentNavigableMap<Long, IndexedBundle> bundles = this.bundlesBySymbolicName.get(bundleSymbolicName);
+        if (bundles != null) {
+            for (IndexedBundle indexedBundle : bundles.values()) {
+                if (versionRange.includes(indexedBundle.bundle.getVersion())) {
+                    BundleManifest bundleManifest = indexedBundle.getBundleManifest();
+                    if (bundleManifest != null) {
+                        return bundleManifest;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private void ensureOpen() {
+        if (!this.open) {
+            synchronized (this.monitor) {
+                if (!this.open) {
+                    // Register before taking the initial snapshot so that no installation can be missed.
+                    this.bundleContext.addBundleListener(this);
+                    for (Bundle bundle : this.bundleContext.getBundles()) {
+                        if (bundle.getState() != Bundle.UNINSTALLED && !this.bundlesById.containsKey(bundle.getBundleId())) {
+                            addBundle(bundle);
+                        }
+                    }
+                    this.open = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+            case BundleEvent.INSTALLED:
+                addBundle(bundle);
+                break;
+            case BundleEvent.UPDATED:
+                removeBundle(bundle);
+                addBundle(bundle);
+                break;
+            case BundleEvent.UNINSTALLED:
+                removeBundle(bundle);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addBundle(Bundle bundle) {
+        String symbolicName = bundle.getSymbolicName();
+        if (symbolicName == null) {
+            return;
+        }
+        IndexedBundle indexedBundle = new IndexedBundle(bundle, symbolicName);
+        ConcurrentNavigableMap<Long, IndexedBundle> bundles = this.bundlesBySymbolicName.get(symbolicName);
+        if (bundles == null) {
+            bundles = new ConcurrentSkipListMap<Long, IndexedBundle>();
+            ConcurrentNavigableMap<Long, IndexedBundle> existingBundles = this.bundlesBySymbolicName.putIfAbsent(symbolicName, bundles);
+            if (existingBundles != null) {
+                bundles = existingBundles;
+            }
+        }
+        bundles.put(bundle.getBundleId(), indexedBundle);
+        this.bundlesById.put(bundle.getBundleId(), indexedBundle);
+    }
+
+    private void removeBundle(Bundle bundle) {
+        IndexedBundle indexedBundle = this.bundlesById.remove(bundle.getBundleId());
+        if (indexedBundle != null) {
+            ConcurrentNavigableMap<Long, IndexedBundle> bundles = this.bundlesBySymbolicName.get(indexedBundle.symbolicName);
+            if (bundles != null) {
+                bundles.remove(bundle.getBundleId(), indexedBundle);
+            }
+        }
+    }
+
+    private static final class IndexedBundle {
+
+        private final Bundle bundle;
+
+        private final String symbolicName;
+
+        private volatile BundleManifest bundleManifest;
+
+        private IndexedBundle(Bundle bundle, String symbolicName) {
+            this.bundle = bundle;
+            this.symbolicName = symbolicName;
+        }
+
+        private BundleManifest getBundleManifest() {
+            BundleManifest bundleManifest = this.bundleManifest;
+            if (bundleManifest == null) {
+                bundleManifest = BundleManifestFactory.createBundleManifest(this.bundle.getHeaders());
+                this.bundleManifest = bundleManifest;
+            }
+            return bundleManifest;
+        }
+    }
+}
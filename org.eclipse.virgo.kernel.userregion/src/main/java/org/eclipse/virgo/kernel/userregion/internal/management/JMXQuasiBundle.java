@@ -26,12 +26,25 @@ public final class JMXQuasiBundle extends JMXQuasiMinimalBundle{
 
 	private final QuasiBundle quasiBundle;
 
+	private volatile JMXQuasiWire[] providedWires;
+
+	private volatile JMXQuasiWire[] requiredWires;
+
 	protected JMXQuasiBundle(QuasiBundle quasiBundle) {
 		super(quasiBundle);
 		this.quasiBundle = quasiBundle;
 	}
 	
 	public final JMXQuasiWire[] getProvidedWires() {
+		JMXQuasiWire[] providedWires = this.providedWires;
+		if(providedWires == null){
+			providedWires = createProvidedWires();
+			this.providedWires = providedWires;
+		}
+		return providedWires.clone();
+	}
+
+	private JMXQuasiWire[] createProvidedWires() {
 		List<QuasiExportPackage> exportPackages = this.quasiBundle.getExportPackages();
 		List<JMXQuasiWire> wires = new ArrayList<JMXQuasiWire>();
 		for (QuasiExportPackage quasiExportPackage : exportPackages) {
@@ -52,6 +65,15 @@ public final class JMXQuasiBundle extends JMXQuasiMinimalBundle{
 	}
 	
 	public final JMXQuasiWire[] getRequiredWires() {
+		JMXQuasiWire[] requiredWires = this.requiredWires;
+		if(requiredWires == null){
+			requiredWires = createRequiredWires();
+			this.requiredWires = requiredWires;
+		}
+		return requiredWires.clone();
+	}
+
+	private JMXQuasiWire[] createRequiredWires() {
 		List<QuasiImportPackage> importPackages = this.quasiBundle.getImportPackages();
 		List<JMXQuasiWire> wires = new ArrayList<JMXQuasiWire>();
 		for (QuasiImportPackage quasiImportPackage : importPackages) {
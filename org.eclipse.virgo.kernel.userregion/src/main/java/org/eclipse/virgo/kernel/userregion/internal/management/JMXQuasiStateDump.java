@@ -13,7 +13,12 @@ package org.eclipse.virgo.kernel.userregion.internal.management;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipException;
 
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
@@ -24,10 +29,21 @@ import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
 /**
  *   
  * MBean that allows for the exploration of state dumps using the QuasiFramework
+ * <p />
+ * Reading a dump is expensive, so the most recently used dumps are kept open, keyed by dump directory and last
+ * modified time, together with indexes of their bundles and resolution failures. The quasi framework of a dump which is
+ * no longer kept open, because it has been evicted or replaced by a newer version of the dump, or because another
+ * caller opened the same dump first, is destroyed once no caller is using it.
  */
 public class JMXQuasiStateDump implements StateDumpMXBean {
 	
+	private static final int MAXIMUM_OPEN_DUMPS = 4;
+	
 	private final QuasiFrameworkFactory quasiFrameworkFactory;
+	
+	private final Object monitor = new Object();
+	
+	private final Map<String, OpenDump> openDumps = new LinkedHashMap<String, OpenDump>(16, 0.75f, true);
 
 	public JMXQuasiStateDump(QuasiFrameworkFactory quasiFrameworkFactory) {
 		this.quasiFrameworkFactory = quasiFrameworkFactory;
@@ -37,35 +53,24 @@ public class JMXQuasiStateDump implements StateDumpMXBean {
 	 * {@inheritDoc}
 	 */
 	public JMXQuasiResolutionFailure[] getUnresolvedBundleFailures(String dumpFile) {
-		QuasiFramework quasiFramework = this.getQuasiFramework(dumpFile);
-		List<JMXQuasiResolutionFailure> fails = new ArrayList<JMXQuasiResolutionFailure>();
-		List<QuasiBundle> bundles = quasiFramework.getBundles();
-		for (QuasiBundle quasiBundle : bundles) {
-			if(!quasiBundle.isResolved()){
-				List<QuasiResolutionFailure> diagnoses = quasiFramework.diagnose(quasiBundle.getBundleId());
-				if(diagnoses != null){
-					for (QuasiResolutionFailure quasiResolutionFailure : diagnoses) {
-						if(quasiResolutionFailure != null){
-							fails.add(new JMXQuasiResolutionFailure(quasiResolutionFailure));
-						}
-					}
-				}
-			}
+		OpenDump openDump = this.getOpenDump(dumpFile);
+		try {
+			return openDump.getUnresolvedBundleFailures();
+		} finally {
+			this.release(openDump);
 		}
-		return fails.toArray(new JMXQuasiResolutionFailure[fails.size()]);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public JMXQuasiMinimalBundle[] listBundles(String dumpFile) {
-		QuasiFramework quasiFramework = this.getQuasiFramework(dumpFile);
-		List<QuasiBundle> bundles = quasiFramework.getBundles();
-		List<JMXQuasiMinimalBundle> jmxBundles = new ArrayList<JMXQuasiMinimalBundle>();
-		for (QuasiBundle minimalBundleMXBean : bundles) {
-			jmxBundles.add(new JMXQuasiMinimalBundle(minimalBundleMXBean));
+		OpenDump openDump = this.getOpenDump(dumpFile);
+		try {
+			return openDump.listBundles();
+		} finally {
+			this.release(openDump);
 		}
-		return jmxBundles.toArray(new JMXQuasiMinimalBundle[jmxBundles.size()]);
 	}
 
 	/**
@@ -75,22 +80,177 @@ public class JMXQuasiStateDump implements StateDumpMXBean {
 		if(bundleId < 0){
 			return null;
 		}
-		QuasiFramework quasiFramework = this.getQuasiFramework(dumpFile);
-		QuasiBundle quasiBundle = quasiFramework.getBundle(bundleId);
-		return new JMXQuasiBundle(quasiBundle);
+		OpenDump openDump = this.getOpenDump(dumpFile);
+		try {
+			return openDump.getBundle(bundleId);
+		} finally {
+			this.release(openDump);
+		}
 	}
 
-	private QuasiFramework getQuasiFramework(String dumpFile){
+	/**
+	 * Returns the open dump in the given directory, reading the dump if necessary. The caller must {@link #release} the
+	 * returned dump when it has finished using it.
+	 */
+	private OpenDump getOpenDump(String dumpFile){
 		File dumpDir = new File(dumpFile);
 		if(dumpDir.exists() && dumpDir.isDirectory()){
-			try {
-				return this.quasiFrameworkFactory.create(dumpDir);
-			} catch (ZipException e) {
-				throw new RuntimeException("Unable to extract the state dump: " + e.getMessage(), e);
-			} catch (IOException e) {
-				throw new RuntimeException("Error reading the state dump: " + e.getMessage(), e);
+			String key = dumpDir.getAbsolutePath();
+			long lastModified = dumpDir.lastModified();
+			synchronized (this.monitor) {
+				OpenDump openDump = this.openDumps.get(key);
+				if(openDump != null && openDump.lastModified == lastModified){
+					openDump.users++;
+					return openDump;
+				}
 			}
+			// Read the dump outside the monitor so that browsing other open dumps is not held up.
+			OpenDump openDump = new OpenDump(lastModified, this.getQuasiFramework(dumpDir));
+			List<OpenDump> closedDumps = new ArrayList<OpenDump>();
+			synchronized (this.monitor) {
+				OpenDump existingDump = this.openDumps.get(key);
+				if(existingDump != null && existingDump.lastModified == lastModified){
+					// Another caller opened the same dump first.
+					existingDump.users++;
+					closedDumps.add(openDump);
+					openDump = existingDump;
+				} else {
+					openDump.users++;
+					this.openDumps.put(key, openDump);
+					if(existingDump != null){
+						closedDumps.add(existingDump);
+					}
+					Iterator<OpenDump> eldestDumps = this.openDumps.values().iterator();
+					while(this.openDumps.size() > MAXIMUM_OPEN_DUMPS){
+						closedDumps.add(eldestDumps.next());
+						eldestDumps.remove();
+					}
+				}
+				for (Iterator<OpenDump> iterator = closedDumps.iterator(); iterator.hasNext();) {
+					if(!iterator.next().close()){
+						iterator.remove();
+					}
+				}
+			}
+			destroy(closedDumps);
+			return openDump;
 		}
 		throw new RuntimeException("Not a valid dump directory: " + dumpFile);
 	}
+
+	private void release(OpenDump openDump){
+		boolean destroy;
+		synchronized (this.monitor) {
+			openDump.users--;
+			destroy = openDump.closed && openDump.users == 0;
+		}
+		if(destroy){
+			openDump.quasiFramework.destroy();
+		}
+	}
+
+	private static void destroy(List<OpenDump> openDumps){
+		for (OpenDump openDump : openDumps) {
+			openDump.quasiFramework.destroy();
+		}
+	}
+
+	private QuasiFramework getQuasiFramework(File dumpDir){
+		try {
+			return this.quasiFrameworkFactory.create(dumpDir);
+		} catch (ZipException e) {
+			throw new RuntimeException("Unable to extract the state dump: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading the state dump: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * An open dump with indexes of its bundles and resolution failures, each built when first needed.
+	 */
+	private static final class OpenDump {
+
+		private final long lastModified;
+
+		private final QuasiFramework quasiFramework;
+
+		private final ConcurrentMap<Long, JMXQuasiBundle> bundles = new ConcurrentHashMap<Long, JMXQuasiBundle>();
+
+		private volatile JMXQuasiMinimalBundle[] minimalBundles;
+
+		private volatile JMXQuasiResolutionFailure[] unresolvedBundleFailures;
+
+		// The following fields are guarded by the monitor of the JMXQuasiStateDump.
+
+		private int users = 0;
+
+		private boolean closed = false;
+
+		private OpenDump(long lastModified, QuasiFramework quasiFramework) {
+			this.lastModified = lastModified;
+			this.quasiFramework = quasiFramework;
+		}
+
+		/**
+		 * Marks the dump as no longer kept open and returns whether or not its quasi framework can be destroyed
+		 * immediately, that is, whether or not the dump is unused.
+		 */
+		private boolean close() {
+			this.closed = true;
+			return this.users == 0;
+		}
+
+		private JMXQuasiMinimalBundle[] listBundles() {
+			JMXQuasiMinimalBundle[] minimalBundles = this.minimalBundles;
+			if(minimalBundles == null){
+				List<QuasiBundle> bundles = this.quasiFramework.getBundles();
+				List<JMXQuasiMinimalBundle> jmxBundles = new ArrayList<JMXQuasiMinimalBundle>();
+				for (QuasiBundle minimalBundleMXBean : bundles) {
+					jmxBundles.add(new JMXQuasiMinimalBundle(minimalBundleMXBean));
+				}
+				minimalBundles = jmxBundles.toArray(new JMXQuasiMinimalBundle[jmxBundles.size()]);
+				this.minimalBundles = minimalBundles;
+			}
+			return minimalBundles.clone();
+		}
+
+		private JMXQuasiBundle getBundle(long bundleId) {
+			JMXQuasiBundle bundle = this.bundles.get(bundleId);
+			if(bundle == null){
+				QuasiBundle quasiBundle = this.quasiFramework.getBundle(bundleId);
+				if(quasiBundle == null){
+					return null;
+				}
+				bundle = new JMXQuasiBundle(quasiBundle);
+				JMXQuasiBundle existing = this.bundles.putIfAbsent(bundleId, bundle);
+				if(existing != null){
+					bundle = existing;
+				}
+			}
+			return bundle;
+		}
+
+		private JMXQuasiResolutionFailure[] getUnresolvedBundleFailures() {
+			JMXQuasiResolutionFailure[] unresolvedBundleFailures = this.unresolvedBundleFailures;
+			if(unresolvedBundleFailures == null){
+				List<JMXQuasiResolutionFailure> fails = new ArrayList<JMXQuasiResolutionFailure>();
+				List<QuasiBundle> bundles = this.quasiFramework.getBundles();
+				for (QuasiBundle quasiBundle : bundles) {
+					if(!quasiBundle.isResolved()){
+						List<QuasiResolutionFailure> diagnoses = this.quasiFramework.diagnose(quasiBundle.getBundleId());
+						if(diagnoses != null){
+							for (QuasiResolutionFailure quasiResolutionFailure : diagnoses) {
+								if(quasiResolutionFailure != null){
+									fails.add(new JMXQuasiResolutionFailure(quasiResolutionFailure));
+								}
+							}
+						}
+					}
+				}
+				unresolvedBundleFailures = fails.toArray(new JMXQuasiResolutionFailure[fails.size()]);
+				this.unresolvedBundleFailures = unresolvedBundleFailures;
+			}
+			return unresolvedBundleFailures.clone();
+		}
+	}
 }
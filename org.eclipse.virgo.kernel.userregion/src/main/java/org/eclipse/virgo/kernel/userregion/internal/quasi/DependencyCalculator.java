@@ -15,16 +15,17 @@ import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.equinox.region.Region;
 import org.eclipse.equinox.region.RegionDigraph.FilteredRegion;
@@ -41,16 +42,12 @@ import org.eclipse.osgi.service.resolver.StateDelta;
 import org.eclipse.osgi.service.resolver.StateObjectFactory;
 import org.eclipse.osgi.service.resolver.VersionConstraint;
 import org.eclipse.osgi.service.resolver.VersionRange;
-import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyBundleDependenciesException;
 import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyDependenciesException;
 import org.eclipse.virgo.kernel.userregion.internal.quasi.ResolutionFailureDetective.ResolverErrorsHolder;
-import org.eclipse.virgo.medic.dump.DumpGenerator;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.repository.Attribute;
-import org.eclipse.virgo.repository.Query;
 import org.eclipse.virgo.repository.Repository;
-import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
 import org.slf4j.Logger;
@@ -62,14 +59,12 @@ import org.slf4j.LoggerFactory;
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
- * Threadsafe.
+ * Threadsafe. Calculations are not serialised, so calculations against distinct {@link State States} run concurrently.
+ * The <code>State</code> and coregion of a calculation must not be used by any other calculation while it runs.
  * 
  */
 public final class DependencyCalculator {
 
-    // The following literal must match ResolutionDumpContributor.RESOLUTION_STATE_KEY from kernel core.
-    private static final String RESOLUTION_STATE_KEY = "resolution.state";
-
     private static final String REGION_LOCATION_DELIMITER = "@";
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -80,20 +75,28 @@ public final class DependencyCalculator {
 
     private final Repository repository;
 
-    private final Object monitor = new Object();
-
     private final StateObjectFactory stateObjectFactory;
 
-    private final DumpGenerator dumpGenerator;
+    private final ResolutionFailureDumper resolutionFailureDumper;
 
-    private Region coregion;
+    private final Lock stateLock;
 
-    public DependencyCalculator(StateObjectFactory stateObjectFactory, ResolutionFailureDetective detective, Repository repository,
-        BundleContext bundleContext) {
+    /**
+     * Creates a <code>DependencyCalculator</code>.
+     * 
+     * @param stateObjectFactory the factory for bundle descriptions added to states
+     * @param detective the detective which describes resolution failures
+     * @param repository the repository from which dependencies are provisioned
+     * @param resolutionFailureDumper the dumper of states in which calculations fail
+     * @param stateLock a lock which, while held, prevents the states of calculations from being modified
+     */
+    DependencyCalculator(StateObjectFactory stateObjectFactory, ResolutionFailureDetective detective, Repository repository,
+        ResolutionFailureDumper resolutionFailureDumper, Lock stateLock) {
         this.repository = repository;
         this.detective = detective;
         this.stateObjectFactory = stateObjectFactory;
-        this.dumpGenerator = bundleContext.getService(bundleContext.getServiceReference(DumpGenerator.class));
+        this.resolutionFailureDumper = resolutionFailureDumper;
+        this.stateLock = stateLock;
     }
 
     /**
@@ -126,223 +129,194 @@ public final class DependencyCalculator {
     public BundleDescription[] calculateDependencies(State state, Region coregion, BundleDescription[] bundles,
         BundleDescription[] disabledProvisioningBundles) throws BundleException, UnableToSatisfyDependenciesException {
         this.logger.info("Calculating missing dependencies of bundle(s) '{}'", bundles);
-        synchronized (this.monitor) {
-            this.coregion = coregion;
-            try {
-                doSatisfyConstraints(bundles, state, disabledProvisioningBundles);
-
-                StateDelta delta = state.resolve(bundles);
-
-                for (BundleDescription description : bundles) {
-                    if (!description.isResolved()) {
-                        generateDump(state);
-
-                        ResolverErrorsHolder reh = new ResolverErrorsHolder();
-                        String failure = this.detective.generateFailureDescription(state, description, reh);
-
-                        ResolverError[] resolverErrors = reh.getResolverErrors();
-                        if (resolverErrors != null) {
-                            for (ResolverError resolverError : resolverErrors) {
-                                if (resolverError.getType() == ResolverError.IMPORT_PACKAGE_USES_CONFLICT) {
-                                    VersionConstraint unsatisfiedConstraint = resolverError.getUnsatisfiedConstraint();
-                                    if (unsatisfiedConstraint instanceof ImportPackageSpecification) {
-                                        ImportPackageSpecification importPackageSpecification = (ImportPackageSpecification) unsatisfiedConstraint;
-                                        this.logger.debug("Uses conflict: package '{}' version '{}' bundle '{}' version '{}'", new Object[] {
-                                            importPackageSpecification.getName(), importPackageSpecification.getVersionRange(),
-                                            importPackageSpecification.getBundleSymbolicName(), importPackageSpecification.getBundleVersionRange() });
-                                    }
-                                }
-                            }
-                        }
+        doSatisfyConstraints(bundles, new Calculation(state, coregion, new RepositoryQueryMemo(this.repository), disabledProvisioningBundles));
 
-                        throw new UnableToSatisfyBundleDependenciesException(description.getSymbolicName(), description.getVersion(), failure, state,
-                            reh.getResolverErrors());
-                    }
-                }
+        StateDelta delta = state.resolve(bundles);
 
-                BundleDelta[] deltas = delta.getChanges(BundleDelta.ADDED, false);
-                Set<BundleDescription> newBundles = new HashSet<BundleDescription>();
+        for (BundleDescription description : bundles) {
+            if (!description.isResolved()) {
+                String dumpReference = generateDump(state);
 
-                for (BundleDelta bundleDelta : deltas) {
-                    newBundles.add(bundleDelta.getBundle());
+                ResolverErrorsHolder reh = new ResolverErrorsHolder();
+                String failure = this.detective.generateFailureDescription(state, description, reh);
+                if (dumpReference != null) {
+                    failure = (failure == null ? "" : failure + " ") + "See resolution failure dump '" + dumpReference + "'.";
                 }
 
-                Set<BundleDescription> dependenciesSet = getNewTransitiveDependencies(new HashSet<BundleDescription>(Arrays.asList(bundles)),
-                    newBundles);
-
-                List<BundleDescription> dependencies = new ArrayList<BundleDescription>(dependenciesSet);
-                this.logger.info("The dependencies of '{}' are '{}'", Arrays.toString(bundles), dependencies);
-
-                Collections.sort(dependencies, new BundleDescriptionComparator());
+                ResolverError[] resolverErrors = reh.getResolverErrors();
+                if (resolverErrors != null) {
+                    for (ResolverError resolverError : resolverErrors) {
+                        if (resolverError.getType() == ResolverError.IMPORT_PACKAGE_USES_CONFLICT) {
+                            VersionConstraint unsatisfiedConstraint = resolverError.getUnsatisfiedConstraint();
+                            if (unsatisfiedConstraint instanceof ImportPackageSpecification) {
+                                ImportPackageSpecification importPackageSpecification = (ImportPackageSpecification) unsatisfiedConstraint;
+                                this.logger.debug("Uses conflict: package '{}' version '{}' bundle '{}' version '{}'", new Object[] {
+                                    importPackageSpecification.getName(), importPackageSpecification.getVersionRange(),
+                                    importPackageSpecification.getBundleSymbolicName(), importPackageSpecification.getBundleVersionRange() });
+                            }
+                        }
+                    }
+                }
 
-                BundleDescription[] dependencyDescriptions = dependencies.toArray(new BundleDescription[dependencies.size()]);
-                return dependencyDescriptions;
-            } finally {
-                this.coregion = null;
+                throw new UnableToSatisfyBundleDependenciesException(description.getSymbolicName(), description.getVersion(), failure, state,
+                    reh.getResolverErrors());
             }
         }
-    }
 
-    private Set<BundleDescription> getNewTransitiveDependencies(Set<BundleDescription> dependingBundles, Collection<BundleDescription> newBundles) {
-        Set<BundleDescription> transitiveDependencies = new HashSet<BundleDescription>();
+        BundleDelta[] deltas = delta.getChanges(BundleDelta.ADDED, false);
+        Set<BundleDescription> newBundles = new HashSet<BundleDescription>();
 
-        while (!dependingBundles.isEmpty()) {
-            Set<BundleDescription> newDependencies = new HashSet<BundleDescription>();
-            for (BundleDescription bundle : dependingBundles) {
-                newDependencies.addAll(getNewImmediateDependencies(bundle, newBundles));
-            }
+        for (BundleDelta bundleDelta : deltas) {
+            newBundles.add(bundleDelta.getBundle());
+        }
 
-            // Next time round the loop, check new dependencies that we haven't already processed
-            newDependencies.removeAll(transitiveDependencies);
-            dependingBundles = newDependencies;
+        List<BundleDescription> dependencies = getNewTransitiveDependencies(bundles, newBundles);
+        this.logger.info("The dependencies of '{}' are '{}'", Arrays.toString(bundles), dependencies);
 
-            transitiveDependencies.addAll(newDependencies);
-        }
-        return transitiveDependencies;
-    }
+        Collections.sort(dependencies, new BundleDescriptionComparator());
 
-    private Set<BundleDescription> getNewImmediateDependencies(BundleDescription bundle, Collection<BundleDescription> newBundles) {
-        Set<BundleDescription> immediateDependencies = new HashSet<BundleDescription>();
-        immediateDependencies.addAll(Arrays.asList(bundle.getFragments()));
-        immediateDependencies.addAll(Arrays.asList(bundle.getResolvedRequires()));
-        immediateDependencies.addAll(getPackageProviders(bundle));
+        BundleDescription[] dependencyDescriptions = dependencies.toArray(new BundleDescription[dependencies.size()]);
+        return dependencyDescriptions;
+    }
 
-        HostSpecification hostSpecification = bundle.getHost();
-        if (hostSpecification != null) {
-            for (BundleDescription host : hostSpecification.getHosts()) {
-                immediateDependencies.add(host);
+    /**
+     * Returns the bundles in <code>newBundles</code> on which the given bundles depend, directly or transitively. The
+     * dependency graph is walked once using a worklist, so each new bundle is visited at most once.
+     */
+    private List<BundleDescription> getNewTransitiveDependencies(BundleDescription[] dependingBundles, Set<BundleDescription> newBundles) {
+        Set<BundleDescription> visited = new HashSet<BundleDescription>();
+        List<BundleDescription> transitiveDependencies = new ArrayList<BundleDescription>();
+        List<BundleDescription> worklist = new ArrayList<BundleDescription>(Arrays.asList(dependingBundles));
+
+        while (!worklist.isEmpty()) {
+            BundleDescription bundle = worklist.remove(worklist.size() - 1);
+            for (BundleDescription fragment : bundle.getFragments()) {
+                addNewDependency(fragment, newBundles, visited, transitiveDependencies, worklist);
+            }
+            for (BundleDescription requiredBundle : bundle.getResolvedRequires()) {
+                addNewDependency(requiredBundle, newBundles, visited, transitiveDependencies, worklist);
+            }
+            for (ExportPackageDescription resolvedImport : bundle.getResolvedImports()) {
+                addNewDependency(resolvedImport.getExporter(), newBundles, visited, transitiveDependencies, worklist);
+            }
+            HostSpecification hostSpecification = bundle.getHost();
+            if (hostSpecification != null) {
+                for (BundleDescription host : hostSpecification.getHosts()) {
+                    addNewDependency(host, newBundles, visited, transitiveDependencies, worklist);
+                }
             }
         }
-        immediateDependencies.retainAll(newBundles);
-        return immediateDependencies;
+        return transitiveDependencies;
     }
 
-    private Set<BundleDescription> getPackageProviders(BundleDescription bundleDescription) {
-        Set<BundleDescription> packageProviders = new HashSet<BundleDescription>();
-        ExportPackageDescription[] resolvedImports = bundleDescription.getResolvedImports();
-        for (ExportPackageDescription resolvedImport : resolvedImports) {
-            packageProviders.add(resolvedImport.getExporter());
+    private static void addNewDependency(BundleDescription dependency, Set<BundleDescription> newBundles, Set<BundleDescription> visited,
+        List<BundleDescription> transitiveDependencies, List<BundleDescription> worklist) {
+        if (newBundles.contains(dependency) && visited.add(dependency)) {
+            transitiveDependencies.add(dependency);
+            worklist.add(dependency);
         }
-        return packageProviders;
     }
 
-    private void doSatisfyConstraints(BundleDescription description, State state, BundleDescription[] disabledProvisioningDescriptions)
-        throws BundleException {
-        doSatisfyConstraints(new BundleDescription[] { description }, state, disabledProvisioningDescriptions);
+    private void doSatisfyConstraints(BundleDescription description, Calculation calculation) throws BundleException {
+        doSatisfyConstraints(new BundleDescription[] { description }, calculation);
     }
 
-    private void doSatisfyConstraints(BundleDescription[] descriptions, State state, BundleDescription[] disabledProvisioningDescriptions)
-        throws BundleException {
+    private void doSatisfyConstraints(BundleDescription[] descriptions, Calculation calculation) throws BundleException {
 
-        VersionConstraint[] unsatisfiedConstraints = findUnsatisfiedConstraints(descriptions, state);
+        VersionConstraint[] unsatisfiedConstraints = findUnsatisfiedConstraints(descriptions, calculation);
 
         List<BundleDescription> constraintsSatisfiers = new ArrayList<BundleDescription>();
 
+        Set<BundleDescription> satisfying = newIdentitySet(descriptions);
         for (VersionConstraint versionConstraint : unsatisfiedConstraints) {
             BundleDescription unsatisfiedBundle = versionConstraint.getBundle();
-            boolean found = false;
-            for (BundleDescription description : descriptions) {
-                if (description == unsatisfiedBundle) {
-                    found = true;
-                }
-            }
-            if (found) {
-                if (provision(unsatisfiedBundle, disabledProvisioningDescriptions)) {
+            if (satisfying.contains(unsatisfiedBundle)) {
+                if (calculation.provision(unsatisfiedBundle)) {
                     if (versionConstraint instanceof ImportPackageSpecification) {
-                        satisfyImportPackage((ImportPackageSpecification) versionConstraint, state, constraintsSatisfiers);
+                        satisfyImportPackage((ImportPackageSpecification) versionConstraint, calculation, constraintsSatisfiers);
                     } else if (versionConstraint instanceof BundleSpecification) {
-                        satisfyRequireBundle(versionConstraint, state, constraintsSatisfiers);
+                        satisfyRequireBundle(versionConstraint, calculation, constraintsSatisfiers);
                     } else if (versionConstraint instanceof HostSpecification) {
-                        satisfyFragmentHost(versionConstraint, state, constraintsSatisfiers);
+                        satisfyFragmentHost(versionConstraint, calculation, constraintsSatisfiers);
                     }
                 }
             }
         }
 
         for (BundleDescription description : descriptions) {
-            if (provision(description, disabledProvisioningDescriptions)) {
-                satisfyFragments(description, state, constraintsSatisfiers);
+            if (calculation.provision(description)) {
+                satisfyFragments(description, calculation, constraintsSatisfiers);
             }
         }
 
         Collections.sort(constraintsSatisfiers, new BundleDescriptionComparator());
 
         for (BundleDescription constraintSatisfier : constraintsSatisfiers) {
-            if (!isBundlePresentInState(constraintSatisfier.getName(), constraintSatisfier.getVersion(), state)) {
-                state.addBundle(constraintSatisfier);
-                this.coregion.addBundle(constraintSatisfier.getBundleId());
-                doSatisfyConstraints(constraintSatisfier, state, disabledProvisioningDescriptions);
+            if (!isBundlePresentInState(constraintSatisfier.getName(), constraintSatisfier.getVersion(), calculation)) {
+                calculation.state.addBundle(constraintSatisfier);
+                calculation.coregion.addBundle(constraintSatisfier.getBundleId());
+                doSatisfyConstraints(constraintSatisfier, calculation);
             }
         }
     }
 
-    private boolean provision(BundleDescription bundleDescription, BundleDescription[] disabledProvisioningDescriptions) {
-        boolean provision = true;
-        for (BundleDescription disabledProvisioningDescription : disabledProvisioningDescriptions) {
-            if (disabledProvisioningDescription == bundleDescription) {
-                provision = false;
-            }
-        }
-        return provision;
+    private static Set<BundleDescription> newIdentitySet(BundleDescription[] descriptions) {
+        Set<BundleDescription> identitySet = Collections.newSetFromMap(new IdentityHashMap<BundleDescription, Boolean>());
+        identitySet.addAll(Arrays.asList(descriptions));
+        return identitySet;
     }
 
-    private void satisfyFragments(BundleDescription description, State state, List<BundleDescription> constraintSatisfiers) throws BundleException {
-        Set<? extends ArtifactDescriptor> fragmentArtefacts = this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE).addFilter(
-            "Fragment-Host", description.getSymbolicName()).run();
+    private void satisfyFragments(BundleDescription description, Calculation calculation, List<BundleDescription> constraintSatisfiers)
+        throws BundleException {
+        Set<? extends ArtifactDescriptor> fragmentArtefacts = calculation.queryMemo.findFragments(description.getSymbolicName());
         for (ArtifactDescriptor fragmentArtefact : fragmentArtefacts) {
-            addBundle(fragmentArtefact, state, constraintSatisfiers);
+            addBundle(fragmentArtefact, calculation, constraintSatisfiers);
         }
     }
 
-    private void satisfyFragmentHost(VersionConstraint constraint, State state, List<BundleDescription> constraintSatisfiers) throws BundleException {
-        Set<? extends ArtifactDescriptor> hostArtefacts = this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE).addFilter(
-            "Bundle-SymbolicName", constraint.getName()).run();
+    private void satisfyFragmentHost(VersionConstraint constraint, Calculation calculation, List<BundleDescription> constraintSatisfiers)
+        throws BundleException {
+        Set<? extends ArtifactDescriptor> hostArtefacts = calculation.queryMemo.findBundles(constraint.getName());
         for (ArtifactDescriptor hostArtefact : hostArtefacts) {
-            addBundle(hostArtefact, state, constraintSatisfiers);
+            addBundle(hostArtefact, calculation, constraintSatisfiers);
         }
     }
 
-    private void satisfyRequireBundle(VersionConstraint constraint, State state, List<BundleDescription> constraintSatisfiers) throws BundleException {
-        Set<? extends ArtifactDescriptor> requiredBundleArtefacts = this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE).addFilter(
-            "Bundle-SymbolicName", constraint.getName()).run();
+    private void satisfyRequireBundle(VersionConstraint constraint, Calculation calculation, List<BundleDescription> constraintSatisfiers)
+        throws BundleException {
+        Set<? extends ArtifactDescriptor> requiredBundleArtefacts = calculation.queryMemo.findBundles(constraint.getName());
         for (ArtifactDescriptor requiredBundleArtefact : requiredBundleArtefacts) {
-            addBundle(requiredBundleArtefact, state, constraintSatisfiers);
+            addBundle(requiredBundleArtefact, calculation, constraintSatisfiers);
         }
     }
 
-    private void satisfyImportPackage(ImportPackageSpecification constraint, State state, List<BundleDescription> constraintSatisfiers)
+    private void satisfyImportPackage(ImportPackageSpecification constraint, Calculation calculation, List<BundleDescription> constraintSatisfiers)
         throws BundleException {
         VersionRange packageVersionRange = constraint.getVersionRange();
-        Query query = this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE);
+        String exactPackageVersion = null;
         boolean loosePackageVersionRange = false;
         if (packageVersionRange != null && packageVersionRange.getMaximum().equals(packageVersionRange.getMinimum())) {
-            Map<String, Set<String>> properties = new HashMap<String, Set<String>>();
-            properties.put("version", new HashSet<String>(Arrays.asList(packageVersionRange.getMaximum().toString())));
-            query.addFilter("Export-Package", constraint.getName(), properties);
+            exactPackageVersion = packageVersionRange.getMaximum().toString();
         } else {
-            query.addFilter("Export-Package", constraint.getName());
             loosePackageVersionRange = packageVersionRange != null;
         }
 
-        String bundleSymbolicName = constraint.getBundleSymbolicName();
-        if (bundleSymbolicName != null) {
-            query.addFilter("Bundle-SymbolicName", bundleSymbolicName);
-        }
-
         VersionRange bundleVersionRange = constraint.getBundleVersionRange();
+        String exactBundleVersion = null;
         boolean looseBundleVersionRange = false;
         if (bundleVersionRange != null && bundleVersionRange.getMaximum().equals(bundleVersionRange.getMinimum())) {
-            query.addFilter("Bundle-Version", bundleVersionRange.getMaximum().toString());
+            exactBundleVersion = bundleVersionRange.getMaximum().toString();
         } else {
             looseBundleVersionRange = bundleVersionRange != null;
         }
 
-        Set<? extends ArtifactDescriptor> packageExportingArtefacts = query.run();
+        Set<? extends ArtifactDescriptor> packageExportingArtefacts = calculation.queryMemo.findPackageExporters(constraint.getName(),
+            exactPackageVersion, constraint.getBundleSymbolicName(), exactBundleVersion);
 
         for (ArtifactDescriptor packageExportingArtefact : packageExportingArtefacts) {
             if ((!loosePackageVersionRange || packageVersionInRange(packageExportingArtefact, packageVersionRange, constraint.getName()))
                 && (!looseBundleVersionRange || bundleVersionInRange(packageExportingArtefact, bundleVersionRange))) {
-                addBundle(packageExportingArtefact, state, constraintSatisfiers);
+                addBundle(packageExportingArtefact, calculation, constraintSatisfiers);
             }
         }
     }
@@ -364,23 +338,28 @@ public final class DependencyCalculator {
         return bundleVersionRange.isIncluded(packageExportingArtefact.getVersion());
     }
 
-    private void addBundle(ArtifactDescriptor artefact, State state, List<BundleDescription> constraintSatisfiers) throws BundleException {
-        if (!isBundlePresentInState(artefact.getName(), artefact.getVersion(), state)) {
-            BundleDescription description = createBundleDescription(artefact, state);
+    private void addBundle(ArtifactDescriptor artefact, Calculation calculation, List<BundleDescription> constraintSatisfiers)
+        throws BundleException {
+        if (!isBundlePresentInState(artefact.getName(), artefact.getVersion(), calculation)) {
+            BundleDescription description = calculation.getCandidate(artefact.getName(), artefact.getVersion());
+            if (description == null) {
+                description = createBundleDescription(artefact, calculation);
+                calculation.addCandidate(artefact.getName(), artefact.getVersion(), description);
+            }
             constraintSatisfiers.add(description);
         }
     }
 
-    private boolean isBundlePresentInState(String bundleSymbolicName, Version version, State state) {
-        BundleDescription[] bundleDescriptions = state.getBundles(bundleSymbolicName);
+    private boolean isBundlePresentInState(String bundleSymbolicName, Version version, Calculation calculation) {
+        BundleDescription[] bundleDescriptions = calculation.state.getBundles(bundleSymbolicName);
         for (BundleDescription bundleDescription : bundleDescriptions) {
             if (bundleDescription.getVersion().equals(version)) {
                 long bundleId = bundleDescription.getBundleId();
-                if (bundleId == 0L || this.coregion.contains(bundleId)) {
+                if (bundleId == 0L || calculation.coregion.contains(bundleId)) {
                     return true;
                 }
                 // XXX Refactoring required here. This temporary code only traverses the coregion and user region.
-                Set<FilteredRegion> edges = this.coregion.getEdges();
+                Set<FilteredRegion> edges = calculation.coregion.getEdges();
                 Iterator<FilteredRegion> iterator = edges.iterator();
                 // Bug 377392: cope with the unexpected case of a coregion with no edges.
                 if (iterator.hasNext()) {
@@ -397,14 +376,14 @@ public final class DependencyCalculator {
         return false;
     }
 
-    private BundleDescription createBundleDescription(ArtifactDescriptor artifact, State state) throws BundleException {
-        Dictionary<String, String> manifest = BundleBridge.convertToDictionary(artifact);
+    private BundleDescription createBundleDescription(ArtifactDescriptor artifact, Calculation calculation) throws BundleException {
+        Dictionary<String, String> manifest = calculation.queryMemo.getManifest(artifact);
         try {
             URI uri = artifact.getUri();
             String installLocation = "file".equals(uri.getScheme()) ? new File(uri).getAbsolutePath() : uri.toString();
-            BundleDescription bundleDescription = this.stateObjectFactory.createBundleDescription(state, manifest, this.coregion.getName()
-                + REGION_LOCATION_DELIMITER + installLocation, this.nextBundleId.getAndIncrement());
-            this.coregion.addBundle(bundleDescription.getBundleId());
+            BundleDescription bundleDescription = this.stateObjectFactory.createBundleDescription(calculation.state, manifest,
+                calculation.coregion.getName() + REGION_LOCATION_DELIMITER + installLocation, this.nextBundleId.getAndIncrement());
+            calculation.coregion.addBundle(bundleDescription.getBundleId());
             return bundleDescription;
         } catch (RuntimeException e) {
             throw new BundleException("Unable to read bundle at '" + artifact.getUri() + "'", e);
@@ -413,17 +392,60 @@ public final class DependencyCalculator {
         }
     }
 
-    private VersionConstraint[] findUnsatisfiedConstraints(BundleDescription[] bundles, State state) {
-        return state.getStateHelper().getUnsatisfiedLeaves(bundles);
+    private VersionConstraint[] findUnsatisfiedConstraints(BundleDescription[] bundles, Calculation calculation) {
+        return calculation.state.getStateHelper().getUnsatisfiedLeaves(bundles);
     }
 
-    private void generateDump(State state) {
-        Map<String, Object> context = new HashMap<String, Object>();
-        context.put(RESOLUTION_STATE_KEY, state);
-        this.dumpGenerator.generateDump("resolutionFailure", context);
+    private String generateDump(State state) {
+        return this.resolutionFailureDumper.dump(state, this.stateLock);
     }
 
     public long getNextBundleId() {
         return this.nextBundleId.getAndIncrement();
     }
+
+    /**
+     * {@link Calculation} holds the state of a single dependency calculation so that calculations against independent
+     * {@link State States} may run concurrently.
+     * <p />
+     * The candidate bundle descriptions created from the repository during the calculation are indexed by symbolic
+     * name and version so that a bundle which satisfies constraints of several bundles is described only once.
+     */
+    private static final class Calculation {
+
+        private final State state;
+
+        private final Region coregion;
+
+        private final RepositoryQueryMemo queryMemo;
+
+        private final Set<BundleDescription> disabledProvisioningBundles;
+
+        private final Map<String, Map<Version, BundleDescription>> candidates = new HashMap<String, Map<Version, BundleDescription>>();
+
+        private Calculation(State state, Region coregion, RepositoryQueryMemo queryMemo, BundleDescription[] disabledProvisioningBundles) {
+            this.state = state;
+            this.coregion = coregion;
+            this.queryMemo = queryMemo;
+            this.disabledProvisioningBundles = newIdentitySet(disabledProvisioningBundles);
+        }
+
+        private boolean provision(BundleDescription bundleDescription) {
+            return !this.disabledProvisioningBundles.contains(bundleDescription);
+        }
+
+        private BundleDescription getCandidate(String symbolicName, Version version) {
+            Map<Version, BundleDescription> versions = this.candidates.get(symbolicName);
+            return versions == null ? null : versions.get(version);
+        }
+
+        private void addCandidate(String symbolicName, Version version, BundleDescription candidate) {
+            Map<Version, BundleDescription> versions = this.candidates.get(symbolicName);
+            if (versions == null) {
+                versions = new HashMap<Version, BundleDescription>();
+                this.candidates.put(symbolicName, versions);
+            }
+            versions.put(version, candidate);
+        }
+    }
 }
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ParallelBundleInstaller} installs a group of bundles which are independent of each other until they are
+ * resolved, so that either all of the bundles are installed or none of them are.
+ * <p />
+ * By default the bundles are installed one at a time, in order, on the calling thread so that the framework assigns
+ * them bundle ids in a predictable order. If more than one installation thread is configured, the bundles of a group
+ * are installed concurrently by a pool of daemon threads shared by all quasi frameworks created by the same factory.
+ * The framework then assigns bundle ids in the order in which installations complete.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class ParallelBundleInstaller {
+
+    /**
+     * The framework property which sets the number of threads used to install bundles.
+     */
+    static final String INSTALL_THREADS_PROPERTY = "org.eclipse.virgo.kernel.userregion.bundleInstallThreads";
+
+    static final int DEFAULT_INSTALL_THREADS = 1;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ThreadPoolExecutor executor;
+
+    ParallelBundleInstaller(int threads) {
+        if (threads > 1) {
+            this.executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new InstallerThreadFactory());
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Installs a bundle using each of the given installers. If any installer fails, or the calling thread is
+     * interrupted, no further installers are started, the installers already started are allowed to finish, and every
+     * bundle which was installed is uninstalled.
+     *
+     * @param installers the installers, each of which installs and returns a single bundle
+     * @return the installed bundles in the order of their installers
+     * @throws BundleException if any installer failed or the calling thread was interrupted
+     */
+    List<Bundle> install(List<? extends Callable<Bundle>> installers) throws BundleException {
+        if (this.executor == null || installers.size() < 2) {
+            return installInline(installers);
+        }
+
+        AtomicBoolean abandoned = new AtomicBoolean(false);
+        List<Future<Bundle>> installations = new ArrayList<Future<Bundle>>(installers.size());
+        for (Callable<Bundle> installer : installers) {
+            installations.add(this.executor.submit(new Installation(installer, abandoned)));
+        }
+
+        List<Bundle> installedBundles = new ArrayList<Bundle>(installers.size());
+        BundleException failure = null;
+        boolean interrupted = false;
+        for (Future<Bundle> installation : installations) {
+            while (true) {
+                try {
+                    installedBundles.add(installation.get());
+                    break;
+                } catch (ExecutionException e) {
+                    abandoned.set(true);
+                    installedBundles.add(null);
+                    if (failure == null) {
+                        failure = asBundleException(e.getCause());
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep waiting as an installation which is in progress cannot be stopped.
+                    abandoned.set(true);
+                    interrupted = true;
+                    if (failure == null) {
+                        failure = new BundleException("Interrupted while installing bundles", e);
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            uninstall(installedBundles);
+            throw failure;
+        }
+        return installedBundles;
+    }
+
+    private List<Bundle> installInline(List<? extends Callable<Bundle>> installers) throws BundleException {
+        List<Bundle> installedBundles = new ArrayList<Bundle>(installers.size());
+        for (Callable<Bundle> installer : installers) {
+            try {
+                installedBundles.add(installer.call());
+            } catch (Exception e) {
+                uninstall(installedBundles);
+                throw asBundleException(e);
+            }
+        }
+        return installedBundles;
+    }
+
+    private void uninstall(List<Bundle> bundles) {
+        for (Bundle bundle : bundles) {
+            if (bundle != null) {
+                try {
+                    bundle.uninstall();
+                } catch (BundleException be) {
+                    this.logger.error("Uninstall of '{}' failed", be, bundle);
+                }
+            }
+        }
+    }
+
+    private static BundleException asBundleException(Throwable throwable) {
+        return throwable instanceof BundleException ? (BundleException) throwable : new BundleException("Bundle installation failed",
+            throwable);
+    }
+
+    private static final class Installation implements Callable<Bundle> {
+
+        private final Callable<Bundle> installer;
+
+        private final AtomicBoolean abandoned;
+
+        private Installation(Callable<Bundle> installer, AtomicBoolean abandoned) {
+            this.installer = installer;
+            this.abandoned = abandoned;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Bundle call() throws Exception {
+            return this.abandoned.get() ? null : this.installer.call();
+        }
+    }
+
+    private static final class InstallerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bundle-installer-" + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
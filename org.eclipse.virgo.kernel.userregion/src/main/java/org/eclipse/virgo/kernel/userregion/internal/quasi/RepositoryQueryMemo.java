@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.Query;
+import org.eclipse.virgo.repository.Repository;
+
+/**
+ * {@link RepositoryQueryMemo} remembers the results of the repository queries issued during a single dependency
+ * calculation so that a package, bundle, or fragment host which is needed by several of the bundles being provisioned
+ * is looked up in the repository only once.
+ * <p />
+ * The repository may change between calculations, so a memo must not outlive the calculation it was created for.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is <strong>not</strong> thread safe.
+ *
+ */
+final class RepositoryQueryMemo {
+
+    private static final String TYPE_ATTRIBUTE = "type";
+
+    private static final String EXPORT_PACKAGE_ATTRIBUTE = "Export-Package";
+
+    private static final String BUNDLE_SYMBOLIC_NAME_ATTRIBUTE = "Bundle-SymbolicName";
+
+    private static final String BUNDLE_VERSION_ATTRIBUTE = "Bundle-Version";
+
+    private static final String FRAGMENT_HOST_ATTRIBUTE = "Fragment-Host";
+
+    private static final String VERSION_PROPERTY = "version";
+
+    private final Repository repository;
+
+    private final Map<QueryKey, Set<? extends ArtifactDescriptor>> queryResults = new HashMap<QueryKey, Set<? extends ArtifactDescriptor>>();
+
+    RepositoryQueryMemo(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Returns the bundles in the repository with the given symbolic name.
+     */
+    Set<? extends ArtifactDescriptor> findBundles(String symbolicName) {
+        QueryKey key = new QueryKey(BUNDLE_SYMBOLIC_NAME_ATTRIBUTE, symbolicName, null, null, null);
+        Set<? extends ArtifactDescriptor> result = this.queryResults.get(key);
+        if (result == null) {
+            result = createBundleQuery().addFilter(BUNDLE_SYMBOLIC_NAME_ATTRIBUTE, symbolicName).run();
+            this.queryResults.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the fragments in the repository whose host has the given symbolic name.
+     */
+    Set<? extends ArtifactDescriptor> findFragments(String hostSymbolicName) {
+        QueryKey key = new QueryKey(FRAGMENT_HOST_ATTRIBUTE, hostSymbolicName, null, null, null);
+        Set<? extends ArtifactDescriptor> result = this.queryResults.get(key);
+        if (result == null) {
+            result = createBundleQuery().addFilter(FRAGMENT_HOST_ATTRIBUTE, hostSymbolicName).run();
+            this.queryResults.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bundles in the repository which export the given package.
+     *
+     * @param packageName the name of the package
+     * @param packageVersion the exact version of the package or <code>null</code> to match any version
+     * @param bundleSymbolicName the symbolic name of the exporting bundle or <code>null</code> to match any bundle
+     * @param bundleVersion the exact version of the exporting bundle or <code>null</code> to match any version
+     */
+    Set<? extends ArtifactDescriptor> findPackageExporters(String packageName, String packageVersion, String bundleSymbolicName,
+        String bundleVersion) {
+        QueryKey key = new QueryKey(EXPORT_PACKAGE_ATTRIBUTE, packageName, packageVersion, bundleSymbolicName, bundleVersion);
+        Set<? extends ArtifactDescriptor> result = this.queryResults.get(key);
+        if (result == null) {
+            Query query = createBundleQuery();
+            if (packageVersion != null) {
+                Map<String, Set<String>> properties = new HashMap<String, Set<String>>();
+                properties.put(VERSION_PROPERTY, new HashSet<String>(Arrays.asList(packageVersion)));
+                query.addFilter(EXPORT_PACKAGE_ATTRIBUTE, packageName, properties);
+            } else {
+                query.addFilter(EXPORT_PACKAGE_ATTRIBUTE, packageName);
+            }
+            if (bundleSymbolicName != null) {
+                query.addFilter(BUNDLE_SYMBOLIC_NAME_ATTRIBUTE, bundleSymbolicName);
+            }
+            if (bundleVersion != null) {
+                query.addFilter(BUNDLE_VERSION_ATTRIBUTE, bundleVersion);
+            }
+            result = query.run();
+            this.queryResults.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the manifest of the given bundle artifact as converted by
+     * {@link BundleBridge#convertToDictionary(ArtifactDescriptor)}. The dictionary is shared and immutable.
+     */
+    Dictionary<String, String> getManifest(ArtifactDescriptor artifactDescriptor) {
+        return BundleBridge.convertToDictionary(artifactDescriptor);
+    }
+
+    private Query createBundleQuery() {
+        return this.repository.createQuery(TYPE_ATTRIBUTE, BundleBridge.BRIDGE_TYPE);
+    }
+
+    private static final class QueryKey {
+
+        private final String[] filters;
+
+        private QueryKey(String... filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.filters);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof QueryKey)) {
+                return false;
+            }
+            return Arrays.equals(this.filters, ((QueryKey) obj).filters);
+        }
+    }
+}
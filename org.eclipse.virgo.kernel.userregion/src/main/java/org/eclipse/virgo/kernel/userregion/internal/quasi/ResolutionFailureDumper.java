@@ -0,0 +1,427 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.BundleSpecification;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
+import org.eclipse.osgi.service.resolver.HostSpecification;
+import org.eclipse.osgi.service.resolver.ImportPackageSpecification;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.virgo.medic.dump.Dump;
+import org.eclipse.virgo.medic.dump.DumpContributor;
+import org.eclipse.virgo.medic.dump.DumpGenerator;
+import org.eclipse.virgo.util.io.PathReference;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ResolutionFailureDumper} generates a dump of the {@link State} in which a dependency calculation failed.
+ * <p />
+ * Failures are frequently repeated, for example when a deployment is retried, and writing a dump is slow, so the
+ * failing thread only records the failure and the state is copied and dumped on a low priority background thread. The
+ * copy is taken while holding the lock which guards the state, so it is taken once the failing thread has released the
+ * lock. A failure against a state which has the same fingerprint as a recently dumped state is not dumped again and at
+ * most the configured number of dumps are generated in any hour. The dumps generated by the dumper are kept within a
+ * configured total size on disk by deleting the oldest dumps, other than the newest, once the size is exceeded. The
+ * state itself is written compressed by the kernel's resolution dump contributor.
+ * <p />
+ * The {@link DumpGenerator} is looked up when a dump is generated. The identity of each dump, that is the name of the
+ * dump's directory, is learned from a {@link DumpContributor} which the dumper registers when it generates its first
+ * dump. As the identity is not known until the dump has been generated, the failing thread is given the fingerprint of
+ * the state as a reference to the dump and the dump is logged against the fingerprint once it has been generated.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * This class is thread safe.
+ *
+ */
+final class ResolutionFailureDumper {
+
+    /**
+     * The framework property which sets the maximum number of resolution failure dumps generated in any hour.
+     */
+    static final String DUMP_RATE_PROPERTY = "org.eclipse.virgo.kernel.userregion.resolutionFailureDumpsPerHour";
+
+    static final int DEFAULT_DUMPS_PER_HOUR = 10;
+
+    /**
+     * The framework property which sets the maximum total size, in megabytes, of the resolution failure dumps kept on
+     * disk.
+     */
+    static final String DUMP_BUDGET_PROPERTY = "org.eclipse.virgo.kernel.userregion.resolutionFailureDumpMegabytes";
+
+    static final int DEFAULT_DUMP_MEGABYTES = 100;
+
+    // The following literal must match ResolutionDumpContributor.RESOLUTION_STATE_KEY from kernel core.
+    private static final String RESOLUTION_STATE_KEY = "resolution.state";
+
+    private static final String FAILURE_DUMP_KEY = ResolutionFailureDumper.class.getName() + ".failureDump";
+
+    private static final String DUMP_CAUSE = "resolutionFailure";
+
+    private static final long RATE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int MAXIMUM_QUEUED_DUMPS = 4;
+
+    private static final int REMEMBERED_FINGERPRINTS = 64;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final BundleContext bundleContext;
+
+    private final StateObjectFactory stateObjectFactory;
+
+    private final int dumpsPerHour;
+
+    private final long dumpBudgetBytes;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Object monitor = new Object();
+
+    private final Map<String, FailureDump> failureDumps = new LinkedHashMap<String, FailureDump>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FailureDump> eldest) {
+            return size() > REMEMBERED_FINGERPRINTS;
+        }
+    };
+
+    private final LinkedList<Long> recentDumpTimes = new LinkedList<Long>();
+
+    private boolean dumpIdentifierRegistered = false;
+
+    // The following fields are only accessed by the dump thread.
+
+    private final LinkedList<FailureDump> keptDumps = new LinkedList<FailureDump>();
+
+    private long keptDumpBytes = 0;
+
+    ResolutionFailureDumper(BundleContext bundleContext, StateObjectFactory stateObjectFactory, int dumpsPerHour, int dumpMegabytes) {
+        this.bundleContext = bundleContext;
+        this.stateObjectFactory = stateObjectFactory;
+        this.dumpsPerHour = dumpsPerHour;
+        this.dumpBudgetBytes = dumpMegabytes * 1024L * 1024L;
+        this.executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+            MAXIMUM_QUEUED_DUMPS), new DumpThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Arranges for the given failed <code>State</code> to be dumped, unless an identical state was dumped recently or
+     * the dump rate has been exceeded, and returns without waiting for the dump to be generated.
+     *
+     * @param state the <code>State</code> in which resolution failed
+     * @param stateLock a lock which, while held, prevents the state from being modified
+     * @return a reference to the dump of the state, which is either the identity of the dump or, if the dump has not
+     *         yet been generated, the fingerprint against which the dump will be logged, or <code>null</code> if the
+     *         state will not be dumped
+     */
+    String dump(State state, Lock stateLock) {
+        String fingerprint = fingerprint(state);
+        FailureDump failureDump;
+        synchronized (this.monitor) {
+            FailureDump dumpedFailure = this.failureDumps.get(fingerprint);
+            if (dumpedFailure != null) {
+                this.logger.info("Resolution failure state '{}' is identical to the state dumped as '{}'", fingerprint,
+                    dumpedFailure.dumpId == null ? "<pending>" : dumpedFailure.dumpId);
+                return dumpedFailure.dumpId == null ? fingerprint : dumpedFailure.dumpId;
+            }
+            long now = System.currentTimeMillis();
+            while (!this.recentDumpTimes.isEmpty() && this.recentDumpTimes.getFirst() <= now - RATE_PERIOD_MILLIS) {
+                this.recentDumpTimes.removeFirst();
+            }
+            if (this.recentDumpTimes.size() >= this.dumpsPerHour) {
+                this.logger.warn("Resolution failure state '{}' not dumped as {} dumps have been generated in the last hour", fingerprint,
+                    this.dumpsPerHour);
+                return null;
+            }
+            this.recentDumpTimes.addLast(now);
+            failureDump = new FailureDump(fingerprint, state, stateLock, now);
+            this.failureDumps.put(fingerprint, failureDump);
+        }
+
+        try {
+            this.executor.execute(failureDump);
+        } catch (RejectedExecutionException _) {
+            this.logger.warn("Resolution failure state '{}' not dumped as other dumps are in progress", fingerprint);
+            forget(failureDump);
+            return null;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the identity of the dump generated for a state identical to the given state, or <code>null</code> if
+     * there is no such dump.
+     */
+    String getDumpId(State state) {
+        synchronized (this.monitor) {
+            FailureDump failureDump = this.failureDumps.get(fingerprint(state));
+            return failureDump == null ? null : failureDump.dumpId;
+        }
+    }
+
+    private void forget(FailureDump failureDump) {
+        synchronized (this.monitor) {
+            if (this.failureDumps.get(failureDump.fingerprint) == failureDump) {
+                this.failureDumps.remove(failureDump.fingerprint);
+            }
+            this.recentDumpTimes.remove(failureDump.time);
+        }
+    }
+
+    /**
+     * Keeps the given newly generated dump and deletes the oldest kept dumps, other than the given dump, while the kept
+     * dumps exceed the budget.
+     */
+    private void keep(FailureDump failureDump) {
+        failureDump.dumpBytes = sizeOf(failureDump.dumpDirectory);
+        this.keptDumps.addLast(failureDump);
+        this.keptDumpBytes += failureDump.dumpBytes;
+
+        while (this.keptDumpBytes > this.dumpBudgetBytes && this.keptDumps.size() > 1) {
+            FailureDump oldestDump = this.keptDumps.removeFirst();
+            this.keptDumpBytes -= oldestDump.dumpBytes;
+            synchronized (this.monitor) {
+                if (this.failureDumps.get(oldestDump.fingerprint) == oldestDump) {
+                    this.failureDumps.remove(oldestDump.fingerprint);
+                }
+            }
+            if (new PathReference(oldestDump.dumpDirectory).delete(true)) {
+                this.logger.info("Deleted resolution failure dump '{}' to keep resolution failure dumps within {} bytes", oldestDump.dumpId,
+                    this.dumpBudgetBytes);
+            } else {
+                this.logger.warn("Unable to delete resolution failure dump '{}'", oldestDump.dumpDirectory);
+            }
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isDirectory()) {
+            long size = 0;
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    size += sizeOf(child);
+                }
+            }
+            return size;
+        }
+        return file.length();
+    }
+
+    private void registerDumpIdentifier() {
+        synchronized (this.monitor) {
+            if (!this.dumpIdentifierRegistered) {
+                this.bundleContext.registerService(DumpContributor.class, new DumpIdentifier(), null);
+                this.dumpIdentifierRegistered = true;
+            }
+        }
+    }
+
+    /**
+     * Returns a fingerprint of the bundles in the given state, the headers which affect their resolution, and their
+     * resolution status. Bundle ids are ignored as the ids of bundles added to a side state differ each time the same
+     * dependencies are calculated.
+     */
+    private static String fingerprint(State state) {
+        BundleDescription[] bundles = state.getBundles();
+        long fingerprint = 0;
+        for (BundleDescription bundle : bundles) {
+            long hash = hashCode(bundle.getSymbolicName());
+            hash = 31 * hash + hashCode(bundle.getVersion());
+            hash = 31 * hash + hashCode(bundle.getLocation());
+            hash = 31 * hash + (bundle.isResolved() ? 1 : 0);
+            hash = 31 * hash + hashHeaders(bundle);
+            // Mix each bundle's hash so that the sum does not depend on the order of the bundles.
+            hash *= 0x9E3779B97F4A7C15L;
+            fingerprint += hash ^ (hash >>> 29);
+        }
+        return Integer.toHexString(bundles.length) + Long.toHexString(fingerprint);
+    }
+
+    private static int hashHeaders(BundleDescription bundle) {
+        int hash = 0;
+        for (ImportPackageSpecification importPackage : bundle.getImportPackages()) {
+            hash = 31 * hash + hashCode(importPackage.getName());
+            hash = 31 * hash + hashCode(importPackage.getVersionRange());
+            hash = 31 * hash + hashCode(importPackage.getBundleSymbolicName());
+            hash = 31 * hash + hashCode(importPackage.getBundleVersionRange());
+            hash = 31 * hash + hashCode(importPackage.getDirectives());
+            hash = 31 * hash + hashCode(importPackage.getAttributes());
+        }
+        for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
+            hash = 31 * hash + hashCode(exportPackage.getName());
+            hash = 31 * hash + hashCode(exportPackage.getVersion());
+            hash = 31 * hash + hashCode(exportPackage.getDirectives());
+            hash = 31 * hash + hashCode(exportPackage.getAttributes());
+        }
+        for (BundleSpecification requiredBundle : bundle.getRequiredBundles()) {
+            hash = 31 * hash + hashCode(requiredBundle.getName());
+            hash = 31 * hash + hashCode(requiredBundle.getVersionRange());
+            hash = 31 * hash + (requiredBundle.isOptional() ? 1 : 0);
+        }
+        HostSpecification host = bundle.getHost();
+        if (host != null) {
+            hash = 31 * hash + hashCode(host.getName());
+            hash = 31 * hash + hashCode(host.getVersionRange());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a hash code of the given object which, unlike {@link Object#hashCode()}, depends on the contents of any
+     * arrays, such as the values of <code>uses</code> directives, which the object contains.
+     */
+    private static int hashCode(Object object) {
+        if (object == null) {
+            return 0;
+        }
+        if (object instanceof Object[]) {
+            return Arrays.deepHashCode((Object[]) object);
+        }
+        if (object instanceof Map<?, ?>) {
+            int hash = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                hash += hashCode(entry.getKey()) ^ hashCode(entry.getValue());
+            }
+            return hash;
+        }
+        return object.hashCode();
+    }
+
+    @SuppressWarnings("deprecation")
+    private State copyState(State state, Lock stateLock) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        stateLock.lock();
+        try {
+            this.stateObjectFactory.writeState(state, baos);
+        } finally {
+            stateLock.unlock();
+        }
+        return this.stateObjectFactory.readState(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    private final class FailureDump implements Runnable {
+
+        private final String fingerprint;
+
+        private final Long time;
+
+        private State state;
+
+        private final Lock stateLock;
+
+        private volatile String dumpId;
+
+        private volatile File dumpDirectory;
+
+        private long dumpBytes;
+
+        private FailureDump(String fingerprint, State state, Lock stateLock, long time) {
+            this.fingerprint = fingerprint;
+            this.state = state;
+            this.stateLock = stateLock;
+            this.time = time;
+        }
+
+        public void run() {
+            State failedState = this.state;
+            // Do not keep the state reachable once it has been dumped.
+            this.state = null;
+
+            BundleContext bundleContext = ResolutionFailureDumper.this.bundleContext;
+            ServiceReference<DumpGenerator> dumpGeneratorReference = bundleContext.getServiceReference(DumpGenerator.class);
+            DumpGenerator dumpGenerator = dumpGeneratorReference == null ? null : bundleContext.getService(dumpGeneratorReference);
+            if (dumpGenerator == null) {
+                ResolutionFailureDumper.this.logger.warn("Resolution failure state '{}' not dumped as no dump generator is available",
+                    this.fingerprint);
+                forget(this);
+                return;
+            }
+
+            try {
+                registerDumpIdentifier();
+                Map<String, Object> context = new HashMap<String, Object>();
+                context.put(RESOLUTION_STATE_KEY, copyState(failedState, this.stateLock));
+                context.put(FAILURE_DUMP_KEY, this);
+                dumpGenerator.generateDump(DUMP_CAUSE, context);
+                ResolutionFailureDumper.this.logger.info("Resolution failure state '{}' dumped as '{}'", this.fingerprint, this.dumpId);
+                if (this.dumpDirectory != null) {
+                    keep(this);
+                }
+            } catch (Exception e) {
+                ResolutionFailureDumper.this.logger.warn("Resolution failure state '" + this.fingerprint + "' could not be dumped", e);
+                forget(this);
+            } finally {
+                bundleContext.ungetService(dumpGeneratorReference);
+            }
+        }
+    }
+
+    /**
+     * {@link DumpIdentifier} is a {@link DumpContributor} which contributes nothing to a dump but records the identity
+     * of the dumps generated for resolution failures.
+     */
+    private static final class DumpIdentifier implements DumpContributor {
+
+        public void contribute(Dump dump) {
+            Object failureDump = dump.getContext().get(FAILURE_DUMP_KEY);
+            if (failureDump instanceof FailureDump) {
+                // A dump is identified by the name of the directory containing its files.
+                File dumpDirectory = dump.createFile(RESOLUTION_STATE_KEY).getParentFile();
+                ((FailureDump) failureDump).dumpDirectory = dumpDirectory;
+                ((FailureDump) failureDump).dumpId = dumpDirectory.getName();
+            }
+        }
+
+        public String getName() {
+            return "resolution.failure.identifier";
+        }
+    }
+
+    private static final class DumpThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "resolution-failure-dump");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.eclipse.osgi.service.resolver.BundleSpecification;
 import org.eclipse.osgi.service.resolver.ExportPackageDescription;
 import org.eclipse.osgi.service.resolver.HostSpecification;
 import org.eclipse.osgi.service.resolver.ImportPackageSpecification;
+import org.eclipse.osgi.service.resolver.State;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
@@ -41,6 +42,9 @@ import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
 /**
  * {@link StandardQuasiBundle} is the default implementation of {@link QuasiBundle}.
  * <p />
+ * The views of the bundle's wiring, such as its fragments, exports, imports, and dependents, are computed when they are
+ * first asked for and remembered until the {@link State} containing the bundle changes.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -65,6 +69,8 @@ final class StandardQuasiBundle implements QuasiBundle {
 
     private volatile Provisioning provisioning = Provisioning.AUTO;
 
+    private volatile Wiring wiring;
+
     /**
      * Constructs an unresolved, uncommitted {@link QuasiBundle} with the given {@link BundleDescription}.
      * 
@@ -169,8 +175,13 @@ final class StandardQuasiBundle implements QuasiBundle {
      * {@inheritDoc}
      */
     public List<QuasiBundle> getFragments() {
-        BundleDescription[] fragments = this.bundleDescription.getFragments();
-        return this.wrapBundleDescriptions(fragments);
+        Wiring currentWiring = getWiring();
+        List<QuasiBundle> fragments = currentWiring.fragments;
+        if (fragments == null) {
+            fragments = this.wrapBundleDescriptions(this.bundleDescription.getFragments());
+            currentWiring.fragments = fragments;
+        }
+        return fragments;
     }
 
     /**
@@ -178,37 +189,83 @@ final class StandardQuasiBundle implements QuasiBundle {
      */
     public List<QuasiBundle> getHosts() {
         HostSpecification hostSpecification = this.bundleDescription.getHost();
-        return hostSpecification == null ? null : this.wrapBundleDescriptions(hostSpecification.getHosts());
+        if (hostSpecification == null) {
+            return null;
+        }
+        Wiring currentWiring = getWiring();
+        List<QuasiBundle> hosts = currentWiring.hosts;
+        if (hosts == null) {
+            hosts = this.wrapBundleDescriptions(hostSpecification.getHosts());
+            currentWiring.hosts = hosts;
+        }
+        return hosts;
     }
 
     /**
      * {@inheritDoc}
      */
     public List<QuasiExportPackage> getExportPackages() {
-        ExportPackageDescription[] exportPackages = this.bundleDescription.getExportPackages();
-        return this.wrapExportPackageDescriptions(exportPackages);
+        Wiring currentWiring = getWiring();
+        List<QuasiExportPackage> exportPackages = currentWiring.exportPackages;
+        if (exportPackages == null) {
+            exportPackages = this.wrapExportPackageDescriptions(this.bundleDescription.getExportPackages());
+            currentWiring.exportPackages = exportPackages;
+        }
+        return exportPackages;
     }
 
     /**
      * {@inheritDoc}
      */
     public List<QuasiImportPackage> getImportPackages() {
-        return this.wrapImportPackageSpecifications(this.bundleDescription.getImportPackages());
+        Wiring currentWiring = getWiring();
+        List<QuasiImportPackage> importPackages = currentWiring.importPackages;
+        if (importPackages == null) {
+            importPackages = this.wrapImportPackageSpecifications(this.bundleDescription.getImportPackages());
+            currentWiring.importPackages = importPackages;
+        }
+        return importPackages;
     }
 
     /**
      * {@inheritDoc}
      */
     public List<QuasiRequiredBundle> getRequiredBundles() {
-        return this.wrapBundleSpecificationsAsRequiredBundles(this.bundleDescription.getRequiredBundles());
+        Wiring currentWiring = getWiring();
+        List<QuasiRequiredBundle> requiredBundles = currentWiring.requiredBundles;
+        if (requiredBundles == null) {
+            requiredBundles = this.wrapBundleSpecificationsAsRequiredBundles(this.bundleDescription.getRequiredBundles());
+            currentWiring.requiredBundles = requiredBundles;
+        }
+        return requiredBundles;
     }
 
     /**
      * {@inheritDoc}
      */
     public List<QuasiBundle> getDependents() {
-        BundleDescription[] dependents = this.bundleDescription.getDependents();
-        return this.wrapBundleDescriptions(dependents);
+        Wiring currentWiring = getWiring();
+        List<QuasiBundle> dependents = currentWiring.dependents;
+        if (dependents == null) {
+            dependents = this.wrapBundleDescriptions(this.bundleDescription.getDependents());
+            currentWiring.dependents = dependents;
+        }
+        return dependents;
+    }
+
+    /**
+     * Returns the remembered wiring views, discarding them first if the containing {@link State} has changed since they
+     * were computed.
+     */
+    private Wiring getWiring() {
+        State state = this.bundleDescription.getContainingState();
+        long generation = state == null ? -1 : state.getTimeStamp();
+        Wiring currentWiring = this.wiring;
+        if (currentWiring == null || currentWiring.generation != generation) {
+            currentWiring = new Wiring(generation);
+            this.wiring = currentWiring;
+        }
+        return currentWiring;
     }
 
     /**
@@ -269,6 +326,32 @@ final class StandardQuasiBundle implements QuasiBundle {
         return Collections.unmodifiableList(quasiImportPackages);
     }
 
+    /**
+     * {@link Wiring} holds the wiring views of a bundle computed against one generation of its containing {@link State}.
+     * A view which has not been asked for is <code>null</code>. Views are immutable, so a view computed twice by racing
+     * threads is harmless.
+     */
+    private static final class Wiring {
+
+        private final long generation;
+
+        private volatile List<QuasiBundle> fragments;
+
+        private volatile List<QuasiBundle> hosts;
+
+        private volatile List<QuasiExportPackage> exportPackages;
+
+        private volatile List<QuasiImportPackage> importPackages;
+
+        private volatile List<QuasiRequiredBundle> requiredBundles;
+
+        private volatile List<QuasiBundle> dependents;
+
+        private Wiring(long generation) {
+            this.generation = generation;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -23,6 +23,11 @@ import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.eclipse.equinox.region.Region;
 import org.eclipse.equinox.region.RegionDigraph;
@@ -52,6 +57,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +67,8 @@ import org.slf4j.LoggerFactory;
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
- * This class is thread safe.
+ * This class is thread safe. Installation, resolution, commit, and destruction are serialised with respect to each
+ * other and to inspection, but inspections of the framework's bundles may run concurrently.
  * 
  */
 final class StandardQuasiFramework implements QuasiFramework {
@@ -80,7 +87,13 @@ final class StandardQuasiFramework implements QuasiFramework {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final Object monitor = new Object();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /*
+     * The QuasiBundles returned by inspection, cached so that repeated inspection does not wrap each BundleDescription
+     * again. The cache is discarded when the coregion is destroyed as the wrappers hold the bundles' regions.
+     */
+    private final ConcurrentMap<BundleDescription, StandardQuasiBundle> inspectedQuasiBundles = new ConcurrentHashMap<BundleDescription, StandardQuasiBundle>();
 
     private final State state;
 
@@ -103,12 +116,15 @@ final class StandardQuasiFramework implements QuasiFramework {
 
     private final RegionDigraph regionDigraph;
 
+    private final ParallelBundleInstaller bundleInstaller;
+
     private Region coregion;
 
     private final Region userRegion;
 
     StandardQuasiFramework(BundleContext bundleContext, State state, PlatformAdmin platformAdmin, ResolutionFailureDetective detective,
-        Repository repository, TransformedManifestProvidingBundleFileWrapper bundleTransformationHandler, RegionDigraph regionDigraph) {
+        Repository repository, TransformedManifestProvidingBundleFileWrapper bundleTransformationHandler, RegionDigraph regionDigraph,
+        ResolutionFailureDumper resolutionFailureDumper, ParallelBundleInstaller bundleInstaller) {
         TOP = regionDigraph.createRegionFilterBuilder().allowAll(RegionFilter.VISIBLE_ALL_NAMESPACE).build();
         this.bundleContext = bundleContext;
         this.state = state;
@@ -116,11 +132,13 @@ final class StandardQuasiFramework implements QuasiFramework {
         this.detective = detective;
         this.bundleTransformationHandler = bundleTransformationHandler;
         this.regionDigraph = regionDigraph;
+        this.bundleInstaller = bundleInstaller;
         this.userRegion = regionDigraph.getRegion("org.eclipse.virgo.region.user");
         this.coregion = regionDigraph.getRegion(this.userRegion.getName() + COREGION_SUFFIX);
         setResolverHookFactory();
 
-        this.dependencyCalculator = new DependencyCalculator(platformAdmin.getFactory(), this.detective, repository, this.bundleContext);
+        this.dependencyCalculator = new DependencyCalculator(platformAdmin.getFactory(), this.detective, repository, resolutionFailureDumper,
+            this.lock.readLock());
     }
 
     private void setResolverHookFactory() {
@@ -137,25 +155,29 @@ final class StandardQuasiFramework implements QuasiFramework {
      * {@inheritDoc}
      */
     public QuasiBundle install(URI location, BundleManifest bundleManifest) throws BundleException {
-        synchronized (this.monitor) {
+        this.lock.writeLock().lock();
+        try {
             createCoregionIfNecessary();
             StandardQuasiBundle qb = doInstall(location, bundleManifest);
             this.installedQuasiBundles.add(qb);
             return qb;
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
+    /*
+     * Must be called with the write lock held.
+     */
     private void createCoregionIfNecessary() {
-        synchronized (this.monitor) {
-            if (this.coregion == null) {
-                try {
-                    this.coregion = this.regionDigraph.createRegion(this.userRegion.getName() + COREGION_SUFFIX);
-                    this.userRegion.connectRegion(this.coregion, TOP);
-                    this.coregion.connectRegion(this.userRegion, TOP);
-                } catch (BundleException e) {
-                    // should never happen
-                    throw new FatalKernelException("Failed to create coregion", e);
-                }
+        if (this.coregion == null) {
+            try {
+                this.coregion = this.regionDigraph.createRegion(this.userRegion.getName() + COREGION_SUFFIX);
+                this.userRegion.connectRegion(this.coregion, TOP);
+                this.coregion.connectRegion(this.userRegion, TOP);
+            } catch (BundleException e) {
+                // should never happen
+                throw new FatalKernelException("Failed to create coregion", e);
             }
         }
     }
@@ -184,24 +206,45 @@ final class StandardQuasiFramework implements QuasiFramework {
      * {@inheritDoc}
      */
     public List<QuasiBundle> getBundles() {
-        BundleDescription[] bundleDescriptions = this.state.getBundles();
-        List<QuasiBundle> result = new ArrayList<QuasiBundle>();
-        QuasiBundle quasiBundle;
-        for (BundleDescription bundleDescription : bundleDescriptions) {
-            quasiBundle = new StandardQuasiBundle(bundleDescription, null, this.regionDigraph.getRegion(bundleDescription.getBundleId()));
-            result.add(quasiBundle);
+        this.lock.readLock().lock();
+        try {
+            BundleDescription[] bundleDescriptions = this.state.getBundles();
+            List<QuasiBundle> result = new ArrayList<QuasiBundle>(bundleDescriptions.length);
+            for (BundleDescription bundleDescription : bundleDescriptions) {
+                result.add(getInspectedQuasiBundle(bundleDescription));
+            }
+            return Collections.unmodifiableList(result);
+        } finally {
+            this.lock.readLock().unlock();
         }
-        return Collections.unmodifiableList(result);
     }
 
     /**
      * {@inheritDoc}
      */
     public QuasiBundle getBundle(long bundleId) {
-        QuasiBundle quasiBundle = null;
-        BundleDescription bundleDescription = this.state.getBundle(bundleId);
-        if (bundleDescription != null) {
-            quasiBundle = new StandardQuasiBundle(bundleDescription, null, this.regionDigraph.getRegion(bundleId));
+        this.lock.readLock().lock();
+        try {
+            QuasiBundle quasiBundle = null;
+            BundleDescription bundleDescription = this.state.getBundle(bundleId);
+            if (bundleDescription != null) {
+                quasiBundle = getInspectedQuasiBundle(bundleDescription);
+            }
+            return quasiBundle;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private StandardQuasiBundle getInspectedQuasiBundle(BundleDescription bundleDescription) {
+        StandardQuasiBundle quasiBundle = this.inspectedQuasiBundles.get(bundleDescription);
+        if (quasiBundle == null) {
+            StandardQuasiBundle newQuasiBundle = new StandardQuasiBundle(bundleDescription, null,
+                this.regionDigraph.getRegion(bundleDescription.getBundleId()));
+            quasiBundle = this.inspectedQuasiBundles.putIfAbsent(bundleDescription, newQuasiBundle);
+            if (quasiBundle == null) {
+                quasiBundle = newQuasiBundle;
+            }
         }
         return quasiBundle;
     }
@@ -217,7 +260,8 @@ final class StandardQuasiFramework implements QuasiFramework {
      * {@inheritDoc}
      */
     public List<QuasiResolutionFailure> resolve() {
-        synchronized (this.monitor) {
+        this.lock.writeLock().lock();
+        try {
             BundleDescription[] bundles = getBundleDescriptionArray();
             BundleDescription[] disabledProvisioningBundles = getDisabledProvisioningBundleDescriptionArray();
             BundleDescription[] dependencies = getDependencies(bundles, disabledProvisioningBundles);
@@ -230,6 +274,8 @@ final class StandardQuasiFramework implements QuasiFramework {
             }
 
             return failures;
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -237,10 +283,15 @@ final class StandardQuasiFramework implements QuasiFramework {
      * {@inheritDoc}
      */
     public List<QuasiResolutionFailure> diagnose(long bundleId) {
-        BundleDescription bundleDescription = this.state.getBundle(bundleId);
-        ResolverErrorsHolder reh = new ResolverErrorsHolder();
-        String failureDescription = this.detective.generateFailureDescription(this.state, bundleDescription, reh);
-        return this.processResolverErrors(reh.getResolverErrors(), new StandardQuasiBundle(bundleDescription, null, this.regionDigraph.getRegion(bundleId)), failureDescription);
+        this.lock.readLock().lock();
+        try {
+            BundleDescription bundleDescription = this.state.getBundle(bundleId);
+            ResolverErrorsHolder reh = new ResolverErrorsHolder();
+            String failureDescription = this.detective.generateFailureDescription(this.state, bundleDescription, reh);
+            return this.processResolverErrors(reh.getResolverErrors(), getInspectedQuasiBundle(bundleDescription), failureDescription);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     private BundleDescription[] getDependencies(BundleDescription[] bundles, BundleDescription[] disabledProvisioningBundles) {
@@ -352,7 +403,8 @@ final class StandardQuasiFramework implements QuasiFramework {
      */
     @Override
     public void commit() throws BundleException {
-        synchronized (this.monitor) {
+        this.lock.writeLock().lock();
+        try {
             if (this.otherBundles == null) {
                 List<QuasiResolutionFailure> failures = resolve();
                 if (!failures.isEmpty()) {
@@ -360,23 +412,38 @@ final class StandardQuasiFramework implements QuasiFramework {
                 }
             } else {
                 try {
-                    Set<Long> installedQuasiBundles = installQuasiBundles();
-                    List<Bundle> installedDependencies = installOtherBundles(installedQuasiBundles);
+                    List<Bundle> installedDependencies = installBundles();
                     startBundles(installedDependencies);
                 } catch (BundleException e) {
                     uninstallQuasiBundles();
                     throw e;
                 }
             }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     private void startBundles(List<Bundle> bundles) throws BundleException {
+        resolveBundles(bundles);
         for (Bundle bundle : bundles) {
             startBundle(bundle);
         }
     }
 
+    /*
+     * Resolve the bundles together so that starting each of them does not trigger a separate resolution.
+     */
+    private void resolveBundles(List<Bundle> bundles) {
+        if (!bundles.isEmpty()) {
+            Bundle systemBundle = this.bundleContext.getBundle(0);
+            FrameworkWiring frameworkWiring = systemBundle == null ? null : systemBundle.adapt(FrameworkWiring.class);
+            if (frameworkWiring != null) {
+                frameworkWiring.resolveBundles(bundles);
+            }
+        }
+    }
+
     private void startBundle(Bundle bundle) throws BundleException {
         String fragmentHostHeader = (String) bundle.getHeaders().get(Constants.FRAGMENT_HOST);
         if (!StringUtils.hasText(fragmentHostHeader)) {
@@ -388,47 +455,74 @@ final class StandardQuasiFramework implements QuasiFramework {
         }
     }
 
-    private List<Bundle> installOtherBundles(Set<Long> installedQuasiBundles) throws BundleException {
-        List<Bundle> installedBundles = new ArrayList<Bundle>();
-        for (BundleDescription otherBundle : otherBundles) {
-            if (!installedQuasiBundles.contains(otherBundle.getBundleId())) {
-                try {
-                    Bundle bundle = installBundleDescription(otherBundle);
-                    installedBundles.add(bundle);
-                } catch (BundleException e) {
-                    for (Bundle bundle : installedBundles) {
-                        try {
-                            bundle.uninstall();
-                        } catch (BundleException be) {
-                            this.logger.error("Uninstall of '{}' failed", be, bundle);
-                        }
-                    }
-                    throw e;
-                }
+    /**
+     * Installs the quasi bundles and the other bundles needed to satisfy their dependencies. If any bundle fails to
+     * install, all the bundles which were installed are uninstalled.
+     * 
+     * @return the other bundles which were installed
+     * @throws BundleException if any bundle failed to install
+     */
+    private List<Bundle> installBundles() throws BundleException {
+        List<Callable<Bundle>> installers = new ArrayList<Callable<Bundle>>();
+        Set<Long> quasiBundleIds = new HashSet<Long>();
+        for (StandardQuasiBundle quasiBundle : this.installedQuasiBundles) {
+            quasiBundleIds.add(quasiBundle.getBundleId());
+            installers.add(new QuasiBundleInstaller(quasiBundle));
+        }
+        int quasiBundleCount = installers.size();
+        for (BundleDescription otherBundle : this.otherBundles) {
+            if (!quasiBundleIds.contains(otherBundle.getBundleId())) {
+                installers.add(new BundleDescriptionInstaller(otherBundle));
             }
         }
-        return installedBundles;
+
+        List<Bundle> bundles = this.bundleInstaller.install(installers);
+        for (int i = 0; i < quasiBundleCount; i++) {
+            this.installedQuasiBundles.get(i).setBundle(bundles.get(i));
+        }
+        return new ArrayList<Bundle>(bundles.subList(quasiBundleCount, bundles.size()));
     }
 
-    private Set<Long> installQuasiBundles() throws BundleException {
-        Set<Long> installed = new HashSet<Long>();
-        for (StandardQuasiBundle quasiBundle : this.installedQuasiBundles) {
-            BundleDescription description = quasiBundle.getBundleDescription();
-            String location = description.getLocation();
-            ManifestTransformer manifestTransformer = new QuasiManifestTransformer(quasiBundle.getBundleManifest());
-            this.bundleTransformationHandler.pushManifestTransformer(manifestTransformer);
+    private final class QuasiBundleInstaller implements Callable<Bundle> {
+
+        private final StandardQuasiBundle quasiBundle;
+
+        private QuasiBundleInstaller(StandardQuasiBundle quasiBundle) {
+            this.quasiBundle = quasiBundle;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Bundle call() throws BundleException {
+            String location = this.quasiBundle.getBundleDescription().getLocation();
+            ManifestTransformer manifestTransformer = new QuasiManifestTransformer(this.quasiBundle.getBundleManifest());
+            // The transformer stack is thread local, so it is pushed on the installing thread.
+            StandardQuasiFramework.this.bundleTransformationHandler.pushManifestTransformer(manifestTransformer);
 
             try {
                 URI locationUri = new File(stripRegionTag(location)).toURI();
-                Bundle bundle = doInstallBundleInternal(locationUri.toString());
-                quasiBundle.setBundle(bundle);
-                installed.add(description.getBundleId());
+                return doInstallBundleInternal(locationUri.toString());
             } finally {
-                this.bundleTransformationHandler.popManifestTransformer();
+                StandardQuasiFramework.this.bundleTransformationHandler.popManifestTransformer();
             }
+        }
+    }
+
+    private final class BundleDescriptionInstaller implements Callable<Bundle> {
 
+        private final BundleDescription bundleDescription;
+
+        private BundleDescriptionInstaller(BundleDescription bundleDescription) {
+            this.bundleDescription = bundleDescription;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Bundle call() throws BundleException {
+            return installBundleDescription(this.bundleDescription);
         }
-        return installed;
     }
 
     private String stripRegionTag(String location) {
@@ -469,7 +563,8 @@ final class StandardQuasiFramework implements QuasiFramework {
         String absoluteBundleUriString = getAbsoluteUriString(location);
 
         try {
-            // Use the reference: scheme to obtain an InputStream for either a file or a directory.
+            // Use the reference: scheme to obtain an InputStream for either a file or a directory. The framework
+            // recognises the stream and installs the file or directory in place without reading its content.
             return new URL(REFERENCE_SCHEME + absoluteBundleUriString).openStream();
 
         } catch (MalformedURLException e) {
@@ -499,9 +594,13 @@ final class StandardQuasiFramework implements QuasiFramework {
     @Override
     public void destroy() {
         Region coregionCopy;
-        synchronized (this.monitor) {
+        this.lock.writeLock().lock();
+        try {
             coregionCopy = this.coregion;
             this.coregion = null;
+            this.inspectedQuasiBundles.clear();
+        } finally {
+            this.lock.writeLock().unlock();
         }
         if (coregionCopy != null) {
             this.regionDigraph.removeRegion(coregionCopy);
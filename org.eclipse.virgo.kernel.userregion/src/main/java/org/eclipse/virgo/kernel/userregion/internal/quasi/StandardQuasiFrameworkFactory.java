@@ -67,6 +67,14 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
 
     private final DumpExtractor dumpExtractor;
 
+    private final ResolutionFailureDumper resolutionFailureDumper;
+
+    private final ParallelBundleInstaller bundleInstaller;
+
+    private final Object monitor = new Object();
+
+    private StateSnapshot stateSnapshot;
+
     public StandardQuasiFrameworkFactory(BundleContext bundleContext, ResolutionFailureDetective detective, Repository repository,
         TransformedManifestProvidingBundleFileWrapper bundleTransformationHandler, RegionDigraph regionDigraph, DumpExtractor dumpExtractor) {
         this.bundleContext = bundleContext;
@@ -78,6 +86,31 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
         this.bundleTransformationHandler = bundleTransformationHandler;
         this.regionDigraph = regionDigraph;
         this.dumpExtractor = dumpExtractor;
+        this.resolutionFailureDumper = createResolutionFailureDumper(bundleContext);
+        this.bundleInstaller = createBundleInstaller(bundleContext);
+    }
+
+    private ParallelBundleInstaller createBundleInstaller(BundleContext bundleContext) {
+        return new ParallelBundleInstaller(getIntProperty(bundleContext, ParallelBundleInstaller.INSTALL_THREADS_PROPERTY,
+            ParallelBundleInstaller.DEFAULT_INSTALL_THREADS));
+    }
+
+    private ResolutionFailureDumper createResolutionFailureDumper(BundleContext bundleContext) {
+        return new ResolutionFailureDumper(bundleContext, this.platformAdmin.getFactory(), getIntProperty(bundleContext,
+            ResolutionFailureDumper.DUMP_RATE_PROPERTY, ResolutionFailureDumper.DEFAULT_DUMPS_PER_HOUR), getIntProperty(bundleContext,
+            ResolutionFailureDumper.DUMP_BUDGET_PROPERTY, ResolutionFailureDumper.DEFAULT_DUMP_MEGABYTES));
+    }
+
+    private int getIntProperty(BundleContext bundleContext, String name, int defaultValue) {
+        String value = bundleContext.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException _) {
+                this.logger.warn("Ignoring invalid value '{}' of property '{}'", value, name);
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -85,7 +118,7 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
      */
     public QuasiFramework create() {
         return new StandardQuasiFramework(this.bundleContext, createState(), this.platformAdmin, this.detective, this.repository,
-            this.bundleTransformationHandler, this.regionDigraph);
+            this.bundleTransformationHandler, this.regionDigraph, this.resolutionFailureDumper, this.bundleInstaller);
     }
     
     /** 
@@ -98,7 +131,7 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
 
     private QuasiFramework create(File stateDump, File regionDigraphDump) {
         return new StandardQuasiFramework(this.bundleContext, readStateDump(stateDump), this.platformAdmin, this.detective, this.repository,
-            this.bundleTransformationHandler, readRegionDigraphDump(regionDigraphDump));
+            this.bundleTransformationHandler, readRegionDigraphDump(regionDigraphDump), this.resolutionFailureDumper, this.bundleInstaller);
     }
 
     private RegionDigraph readRegionDigraphDump(File regionDigraphDump) {
@@ -117,15 +150,11 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
         return digraph;
     }
 
-    @SuppressWarnings("deprecation")
     private State createState() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
         State state;
 
         try {
-            this.platformAdmin.getFactory().writeState(this.stateManager.getSystemState(), baos);
-            state = this.platformAdmin.getFactory().readState(new ByteArrayInputStream(baos.toByteArray()));
+            state = readState(getStateSnapshot());
         } catch (IOException ioe) {
             throw new RuntimeException("Failed to create a copy of the OSGi state", ioe);
         }
@@ -141,6 +170,59 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
         return state;
     }
 
+    /**
+     * Returns a resolved, serialised snapshot of the system state. The snapshot is shared by all quasi frameworks
+     * created from the same system state and is only rebuilt when the system state's timestamp changes, that is, when
+     * bundles are installed, uninstalled, or resolved in the real framework.
+     */
+    byte[] getStateSnapshot() throws IOException {
+        State systemState = this.stateManager.getSystemState();
+        long timeStamp = systemState.getTimeStamp();
+        synchronized (this.monitor) {
+            if (this.stateSnapshot == null || this.stateSnapshot.timeStamp != timeStamp) {
+                this.stateSnapshot = new StateSnapshot(timeStamp, createResolvedSnapshot(systemState));
+            }
+            return this.stateSnapshot.bytes;
+        }
+    }
+
+    private byte[] createResolvedSnapshot(State systemState) throws IOException {
+        byte[] bytes = writeState(systemState);
+        State copy = readState(bytes);
+        if (copy.isResolved()) {
+            return bytes;
+        }
+
+        // Resolve once and capture the result so that each quasi framework starts from a resolved copy.
+        copy.setResolver(this.platformAdmin.createResolver());
+        copy.resolve(true);
+        return writeState(copy);
+    }
+
+    @SuppressWarnings("deprecation")
+    private byte[] writeState(State state) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.platformAdmin.getFactory().writeState(state, baos);
+        return baos.toByteArray();
+    }
+
+    @SuppressWarnings("deprecation")
+    private State readState(byte[] bytes) throws IOException {
+        return this.platformAdmin.getFactory().readState(new ByteArrayInputStream(bytes));
+    }
+
+    private static final class StateSnapshot {
+
+        private final long timeStamp;
+
+        private final byte[] bytes;
+
+        private StateSnapshot(long timeStamp, byte[] bytes) {
+            this.timeStamp = timeStamp;
+            this.bytes = bytes;
+        }
+    }
+
     private State readStateDump(File outdir) {
         State state = null;
 
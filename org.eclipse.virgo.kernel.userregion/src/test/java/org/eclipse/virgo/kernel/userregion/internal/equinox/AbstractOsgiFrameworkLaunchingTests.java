@@ -81,6 +81,8 @@ public abstract class AbstractOsgiFrameworkLaunchingTests {
 
     private Equinox equinox;
 
+    protected StandardQuasiFrameworkFactory quasiFrameworkFactory;
+
     protected QuasiFramework quasiFramework;
 
     private ThreadLocal<Region> threadLocal;
@@ -176,7 +178,9 @@ public abstract class AbstractOsgiFrameworkLaunchingTests {
             }
         };
         DumpExtractor dumpExtractor = new StandardDumpExtractor(workArea);
-        this.quasiFramework = new StandardQuasiFrameworkFactory(bundleContext, detective, repository, bundleFileWrapper, regionDigraph, dumpExtractor).create();
+        this.quasiFrameworkFactory = new StandardQuasiFrameworkFactory(bundleContext, detective, repository, bundleFileWrapper, regionDigraph,
+            dumpExtractor);
+        this.quasiFramework = this.quasiFrameworkFactory.create();
     }
 
     private ImportExpander createImportExpander(PackageAdmin packageAdmin) {
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.easymock.IAnswer;
+import org.eclipse.osgi.service.resolver.BaseDescription;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
+import org.eclipse.osgi.service.resolver.ImportPackageSpecification;
+import org.eclipse.osgi.service.resolver.ResolverError;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser.AnalysedUsesConflict;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+/**
+ * Tests repeated analysis of a uses conflict in a lattice of bundles in which every package uses every package of the
+ * next level.
+ */
+public class UsesAnalyserLatticeTests {
+
+    private static final int LEVELS = 5;
+
+    private static final int WIDTH = 5;
+
+    private final List<Object> mocks = new ArrayList<Object>();
+
+    private ExportPackageDescription[][] exports;
+
+    private State state;
+
+    private ResolverError usesError;
+
+    @Before
+    public void setUp() {
+        BundleDescription[][] bundles = new BundleDescription[LEVELS][WIDTH];
+        this.exports = new ExportPackageDescription[LEVELS][WIDTH];
+        for (int l = 0; l < LEVELS; l++) {
+            for (int w = 0; w < WIDTH; w++) {
+                bundles[l][w] = mock(BundleDescription.class);
+                this.exports[l][w] = mock(ExportPackageDescription.class);
+            }
+        }
+
+        List<BundleDescription> allBundles = new ArrayList<BundleDescription>();
+        for (int l = 0; l < LEVELS; l++) {
+            boolean leaf = l == LEVELS - 1;
+            for (int w = 0; w < WIDTH; w++) {
+                BundleDescription bundle = bundles[l][w];
+                ExportPackageDescription export = this.exports[l][w];
+                ImportPackageSpecification[] imports = leaf ? new ImportPackageSpecification[0] : createImports(l + 1, bundle);
+                expect(export.getName()).andReturn(packageName(l, w)).anyTimes();
+                expect(export.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+                expect(export.getExporter()).andReturn(bundle).anyTimes();
+                expect(export.getSupplier()).andReturn(bundle).anyTimes();
+                expect(export.getDirective(Constants.USES_DIRECTIVE)).andReturn(leaf ? null : packageNames(l + 1)).anyTimes();
+
+                expect(bundle.getSymbolicName()).andReturn("bundle." + l + "." + w).anyTimes();
+                expect(bundle.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+                expect(bundle.getExportPackages()).andReturn(new ExportPackageDescription[] { export }).anyTimes();
+                expect(bundle.getImportPackages()).andReturn(imports).anyTimes();
+                expect(bundle.getResolvedImports()).andReturn(leaf ? new ExportPackageDescription[0] : this.exports[l + 1]).anyTimes();
+                allBundles.add(bundle);
+            }
+        }
+        BundleDescription[] resolvedBundles = allBundles.toArray(new BundleDescription[allBundles.size()]);
+
+        BundleDescription failedBundle = mock(BundleDescription.class);
+        ImportPackageSpecification rootImport = createImport(packageName(0, 0), failedBundle);
+        List<ImportPackageSpecification> failedImports = new ArrayList<ImportPackageSpecification>();
+        failedImports.add(rootImport);
+        for (int w = 0; w < WIDTH; w++) {
+            failedImports.add(createImport(packageName(1, w), failedBundle));
+        }
+        ImportPackageSpecification[] failedImportArray = failedImports.toArray(new ImportPackageSpecification[failedImports.size()]);
+        expect(failedBundle.getImportPackages()).andReturn(failedImportArray).anyTimes();
+        expect(failedBundle.getExportPackages()).andReturn(new ExportPackageDescription[0]).anyTimes();
+        expect(failedBundle.getResolvedImports()).andReturn(new ExportPackageDescription[0]).anyTimes();
+        allBundles.add(failedBundle);
+
+        this.state = mock(State.class);
+        expect(this.state.getTimeStamp()).andReturn(1L).anyTimes();
+        expect(this.state.getResolvedBundles()).andReturn(resolvedBundles).anyTimes();
+        expect(this.state.getBundles()).andReturn(allBundles.toArray(new BundleDescription[allBundles.size()])).anyTimes();
+
+        this.usesError = mock(ResolverError.class);
+        expect(this.usesError.getUnsatisfiedConstraint()).andReturn(rootImport).anyTimes();
+
+        replay(this.mocks.toArray());
+    }
+
+    private <T> T mock(Class<T> type) {
+        T mock = createNiceMock(type);
+        this.mocks.add(mock);
+        return mock;
+    }
+
+    private static String packageName(int level, int index) {
+        return "p." + level + "." + index;
+    }
+
+    private static String[] packageNames(int level) {
+        String[] packageNames = new String[WIDTH];
+        for (int w = 0; w < WIDTH; w++) {
+            packageNames[w] = packageName(level, w);
+        }
+        return packageNames;
+    }
+
+    private ImportPackageSpecification[] createImports(int level, BundleDescription importer) {
+        ImportPackageSpecification[] imports = new ImportPackageSpecification[WIDTH];
+        for (int w = 0; w < WIDTH; w++) {
+            imports[w] = createImport(packageName(level, w), importer);
+        }
+        return imports;
+    }
+
+    private ImportPackageSpecification createImport(final String packageName, BundleDescription importer) {
+        ImportPackageSpecification importPackage = mock(ImportPackageSpecification.class);
+        expect(importPackage.getName()).andReturn(packageName).anyTimes();
+        expect(importPackage.getBundle()).andReturn(importer).anyTimes();
+        expect(importPackage.isSatisfiedBy(anyObject(BaseDescription.class))).andAnswer(new IAnswer<Boolean>() {
+
+            public Boolean answer() throws Throwable {
+                return packageName.equals(((BaseDescription) getCurrentArguments()[0]).getName());
+            }
+        }).anyTimes();
+        return importPackage;
+    }
+
+    @Test
+    public void repeatedAnalysisOfUnchangedStateReusesTheUsesClosure() {
+        UsesAnalyser usesAnalyser = new UsesAnalyser();
+        assertFalse(usesAnalyser.isUsesClosureRemembered(this.exports[0][0]));
+
+        AnalysedUsesConflict[] firstConflicts = usesAnalyser.getUsesConflicts(this.state, this.usesError);
+        assertTrue(usesAnalyser.isUsesClosureRemembered(this.exports[0][0]));
+
+        AnalysedUsesConflict[] repeatedConflicts = usesAnalyser.getUsesConflicts(this.state, this.usesError);
+        assertTrue(usesAnalyser.isUsesClosureRemembered(this.exports[0][0]));
+        assertEquals(firstConflicts.length, repeatedConflicts.length);
+        assertEquals(getConflictingPackages(firstConflicts), getConflictingPackages(repeatedConflicts));
+    }
+
+    private static Set<ExportPackageDescription> getConflictingPackages(AnalysedUsesConflict[] conflicts) {
+        Set<ExportPackageDescription> conflictingPackages = new HashSet<ExportPackageDescription>();
+        for (AnalysedUsesConflict conflict : conflicts) {
+            conflictingPackages.add(conflict.getConflictingPackage());
+        }
+        return conflictingPackages;
+    }
+}
@@ -12,11 +12,17 @@
 package org.eclipse.virgo.kernel.userregion.internal.equinox;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 
 import org.eclipse.osgi.internal.baseadaptor.StateManager;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
 import org.eclipse.osgi.service.resolver.ResolverError;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser;
@@ -73,6 +79,44 @@ public class UsesAnalyserTests extends AbstractOsgiFrameworkLaunchingTests {
         assertEquals(new Version("1.0.0"), usesConflicts[0].getConflictingPackage().getVersion());
     }
     
+    @Test
+    public void usesClosuresAreRememberedAcrossStateCopiesUntilTheirWiringChanges() throws Exception {
+        Bundle p = install("dependent/bundles/p");
+        install("dependent/bundles/q");
+        Bundle r1 = install("dependent/bundles/r1");
+        Bundle r2 = install("dependent/bundles/r2");
+        install("dependent/bundles/s1");
+        install("dependent/bundles/s2");
+
+        try {
+            p.start();
+        } catch (BundleException _) {
+        }
+
+        State systemState = ((StateManager) this.platformAdmin).getSystemState();
+        UsesAnalyser analyser = new UsesAnalyser();
+
+        ResolverError[] resolverErrors = analyser.getUsesResolverErrors(systemState, systemState.getBundle(p.getBundleId()));
+        assertNotNull("No uses errors found for bundle '" + p + "'.", resolverErrors);
+        AnalysedUsesConflict[] usesConflicts = analyser.getUsesConflicts(systemState, resolverErrors[0]);
+        assertEquals("No, or more than one conflict discovered.", 1, usesConflicts.length);
+
+        ExportPackageDescription q = usesConflicts[0].getUsesRootPackage();
+        assertTrue(analyser.isUsesClosureRemembered(q));
+
+        State copy = copyState(systemState);
+        analyser.refresh(copy);
+        assertTrue("Closure of q forgotten for an identical copy of the state", analyser.isUsesClosureRemembered(q));
+
+        copy.removeBundle(r2.getBundleId());
+        analyser.refresh(copy);
+        assertTrue("Closure of q forgotten when a bundle outside it was removed", analyser.isUsesClosureRemembered(q));
+
+        copy.removeBundle(r1.getBundleId());
+        analyser.refresh(copy);
+        assertFalse("Closure of q remembered when a bundle it is wired to was removed", analyser.isUsesClosureRemembered(q));
+    }
+
     @Test
     public void testInstallOrder() throws Exception {
         install("install/bundles/s1");
@@ -144,6 +188,16 @@ public class UsesAnalyserTests extends AbstractOsgiFrameworkLaunchingTests {
         assertEquals(new Version("0.0.0"), usesConflicts[0].getConflictingPackage().getVersion());
     }
 
+    /**
+     * Copies the given state, including its resolution, in the same way as the states of quasi frameworks are copied.
+     */
+    @SuppressWarnings("deprecation")
+    private State copyState(State state) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.platformAdmin.getFactory().writeState(state, baos);
+        return this.platformAdmin.getFactory().readState(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
     private static final void printUsesConflicts(AnalysedUsesConflict[] usesConflicts) {
         int count = 0;
         for (AnalysedUsesConflict a : usesConflicts) {
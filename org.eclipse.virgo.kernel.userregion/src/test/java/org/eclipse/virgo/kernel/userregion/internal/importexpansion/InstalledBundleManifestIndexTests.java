@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+public class InstalledBundleManifestIndexTests {
+
+    @Test
+    public void manifestOfInstalledBundleIsParsedOnce() {
+        Bundle bundle = createBundle(1, "a", "1.0.0");
+        InstalledBundleManifestIndex index = new InstalledBundleManifestIndex(createBundleContext(bundle));
+
+        BundleManifest bundleManifest = index.findBundleManifest("a", new VersionRange("[1.0.0,2.0.0)"));
+        assertEquals("a", bundleManifest.getBundleSymbolicName().getSymbolicName());
+        assertSame(bundleManifest, index.findBundleManifest("a", new VersionRange("[1.0.0,2.0.0)")));
+        verify(bundle);
+    }
+
+    @Test
+    public void lowestBundleIdInRangeIsFound() {
+        InstalledBundleManifestIndex index = new InstalledBundleManifestIndex(createBundleContext(createBundle(1, "a", "1.0.0"),
+            createBundle(2, "a", "2.0.0"), createBundle(3, "a", "2.1.0"), createBundle(4, "b", "2.0.0")));
+
+        assertEquals(new Version("1.0.0"), index.findBundleManifest("a", new VersionRange("[1.0.0,3.0.0)")).getBundleVersion());
+        assertEquals(new Version("2.0.0"), index.findBundleManifest("a", new VersionRange("[2.0.0,3.0.0)")).getBundleVersion());
+        assertNull(index.findBundleManifest("a", new VersionRange("[3.0.0,4.0.0)")));
+        assertNull(index.findBundleManifest("c", new VersionRange("[1.0.0,2.0.0)")));
+    }
+
+    @Test
+    public void indexFollowsBundleEvents() {
+        Bundle first = createBundle(1, "a", "1.0.0");
+        InstalledBundleManifestIndex index = new InstalledBundleManifestIndex(createBundleContext(first));
+        VersionRange versionRange = new VersionRange("[1.0.0,2.0.0)");
+        assertEquals(new Version("1.0.0"), index.findBundleManifest("a", versionRange).getBundleVersion());
+
+        Bundle second = createBundle(2, "a", "1.1.0");
+        index.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, second));
+        index.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, first));
+        assertEquals(new Version("1.1.0"), index.findBundleManifest("a", versionRange).getBundleVersion());
+
+        index.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, second));
+        assertNull(index.findBundleManifest("a", versionRange));
+    }
+
+    private static BundleContext createBundleContext(Bundle... bundles) {
+        BundleContext bundleContext = createNiceMock(BundleContext.class);
+        expect(bundleContext.getBundles()).andReturn(bundles).anyTimes();
+        replay(bundleContext);
+        return bundleContext;
+    }
+
+    private static Bundle createBundle(long bundleId, String symbolicName, String version) {
+        Dictionary<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        headers.put(Constants.BUNDLE_VERSION, version);
+
+        Bundle bundle = createNiceMock(Bundle.class);
+        expect(bundle.getBundleId()).andReturn(bundleId).anyTimes();
+        expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        expect(bundle.getVersion()).andReturn(new Version(version)).anyTimes();
+        expect(bundle.getState()).andReturn(Bundle.INSTALLED).anyTimes();
+        expect(bundle.getHeaders()).andReturn(headers).once();
+        replay(bundle);
+        return bundle;
+    }
+}
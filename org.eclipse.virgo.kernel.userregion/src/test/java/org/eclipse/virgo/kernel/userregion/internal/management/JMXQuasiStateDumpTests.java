@@ -12,10 +12,14 @@ package org.eclipse.virgo.kernel.userregion.internal.management;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipException;
 
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.util.io.PathReference;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -29,12 +33,15 @@ public class JMXQuasiStateDumpTests {
 	
 	private final JMXQuasiStateDump quasiStateDumpMBean;
 	
+	private final AtomicInteger dumpsRead = new AtomicInteger();
+	
 	public JMXQuasiStateDumpTests() {
 		quasiStateDumpMBean = new JMXQuasiStateDump(new QuasiFrameworkFactory() {
 			
 			@Override
 			public QuasiFramework create(File stateDump) throws ZipException, IOException {
 				assertEquals(TEST_DUMP, stateDump.getPath());
+				dumpsRead.incrementAndGet();
 				return new StubQuasiFramework();
 			}
 			
@@ -68,4 +75,64 @@ public class JMXQuasiStateDumpTests {
 		assertEquals(5l, bundle.getIdentifier());
 	}
 	
+	@Test
+	public void testDumpReadOnce(){
+		JMXQuasiMinimalBundle[] listBundles = this.quasiStateDumpMBean.listBundles(TEST_DUMP);
+		JMXQuasiBundle bundle = this.quasiStateDumpMBean.getBundle(TEST_DUMP, 5l);
+		this.quasiStateDumpMBean.getUnresolvedBundleFailures(TEST_DUMP);
+		assertEquals(listBundles.length, this.quasiStateDumpMBean.listBundles(TEST_DUMP).length);
+		assertSame(bundle, this.quasiStateDumpMBean.getBundle(TEST_DUMP, 5l));
+		assertEquals(1, this.dumpsRead.get());
+	}
+	
+	@Test
+	public void testEvictedDumpIsDestroyed(){
+		List<StubQuasiFramework> frameworks = new ArrayList<StubQuasiFramework>();
+		JMXQuasiStateDump stateDump = createStateDump(frameworks);
+		for (int dump = 0; dump < 5; dump++) {
+			stateDump.listBundles(createDumpDirectory("dump" + dump).getPath());
+		}
+		assertEquals(5, frameworks.size());
+		assertTrue(frameworks.get(0).isDestroyed());
+		for (int dump = 1; dump < 5; dump++) {
+			assertFalse(frameworks.get(dump).isDestroyed());
+		}
+	}
+	
+	@Test
+	public void testReplacedDumpIsDestroyed(){
+		List<StubQuasiFramework> frameworks = new ArrayList<StubQuasiFramework>();
+		JMXQuasiStateDump stateDump = createStateDump(frameworks);
+		File dumpDirectory = createDumpDirectory("dump");
+		stateDump.listBundles(dumpDirectory.getPath());
+		assertTrue(dumpDirectory.setLastModified(dumpDirectory.lastModified() - 10000));
+		stateDump.listBundles(dumpDirectory.getPath());
+		assertEquals(2, frameworks.size());
+		assertTrue(frameworks.get(0).isDestroyed());
+		assertFalse(frameworks.get(1).isDestroyed());
+	}
+	
+	private static JMXQuasiStateDump createStateDump(final List<StubQuasiFramework> frameworks) {
+		return new JMXQuasiStateDump(new QuasiFrameworkFactory() {
+			
+			@Override
+			public QuasiFramework create(File stateDump) throws ZipException, IOException {
+				StubQuasiFramework framework = new StubQuasiFramework();
+				frameworks.add(framework);
+				return framework;
+			}
+			
+			@Override
+			public QuasiFramework create() {
+				return new StubQuasiFramework();
+			}
+		});
+	}
+	
+	private static File createDumpDirectory(String name) {
+		PathReference dumpDirectory = new PathReference("target/jmx-quasi-state-dumps/" + name);
+		dumpDirectory.delete(true);
+		return dumpDirectory.createDirectory().toFile();
+	}
+	
 }
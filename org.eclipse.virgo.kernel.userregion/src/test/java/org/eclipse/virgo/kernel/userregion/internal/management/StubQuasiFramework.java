@@ -30,6 +30,8 @@ public class StubQuasiFramework implements QuasiFramework {
 
 	public static final String TEST_BUNDLE_NAME = "foo";
 	
+	private volatile boolean destroyed = false;
+	
 	@Override
 	public QuasiBundle install(URI location, BundleManifest bundleManifest) throws BundleException {
 		return null;
@@ -65,6 +67,11 @@ public class StubQuasiFramework implements QuasiFramework {
 
 	@Override
 	public void destroy() {
+		this.destroyed = true;
+	}
+
+	public boolean isDestroyed() {
+		return this.destroyed;
 	}
 
 	@Override
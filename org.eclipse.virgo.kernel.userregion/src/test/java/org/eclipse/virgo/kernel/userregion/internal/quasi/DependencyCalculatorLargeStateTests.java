@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.osgi.service.resolver.BundleDelta;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateDelta;
+import org.eclipse.osgi.service.resolver.StateHelper;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.osgi.service.resolver.VersionConstraint;
+import org.eclipse.virgo.kernel.osgi.framework.UnableToSatisfyDependenciesException;
+import org.eclipse.virgo.repository.Query;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.repository.RepositoryAwareArtifactDescriptor;
+import org.eclipse.virgo.test.stubs.region.StubRegionDigraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
+
+/**
+ * Tests a dependency calculation for many bundles, each with an unsatisfied import, whose resolution adds a large tree
+ * of new bundles to the state.
+ */
+public class DependencyCalculatorLargeStateTests {
+
+    private static final int ROOT_COUNT = 100;
+
+    private static final int DEPENDENCY_COUNT = 500;
+
+    private BundleDescription[] dependencies;
+
+    private DependencyCalculator dependencyCalculator;
+
+    private BundleDescription[] roots;
+
+    private BundleDescription[] disabledProvisioningRoots;
+
+    private State state;
+
+    @Before
+    public void setUp() {
+        Query query = createNiceMock(Query.class);
+        expect(query.addFilter(anyObject(String.class), anyObject(String.class))).andReturn(query).anyTimes();
+        expect(query.run()).andReturn(Collections.<RepositoryAwareArtifactDescriptor> emptySet()).anyTimes();
+        Repository repository = createMock(Repository.class);
+        expect(repository.createQuery(anyObject(String.class), anyObject(String.class))).andReturn(query).anyTimes();
+        replay(query, repository);
+
+        this.dependencyCalculator = new DependencyCalculator(createNiceMock(StateObjectFactory.class),
+            createNiceMock(ResolutionFailureDetective.class), repository,
+            new ResolutionFailureDumper(createNiceMock(BundleContext.class), createNiceMock(StateObjectFactory.class), 0, 0),
+            new ReentrantReadWriteLock().readLock());
+
+        this.dependencies = createDependencyTree();
+        this.roots = new BundleDescription[ROOT_COUNT];
+        this.disabledProvisioningRoots = new BundleDescription[ROOT_COUNT / 2];
+        VersionConstraint[] unsatisfiedImports = new VersionConstraint[ROOT_COUNT];
+        for (int r = 0; r < ROOT_COUNT; r++) {
+            this.roots[r] = createBundle("root" + r, this.dependencies[r]);
+            if (r % 2 == 1) {
+                this.disabledProvisioningRoots[r / 2] = this.roots[r];
+            }
+            StubImportPackageSpecification importPackage = new StubImportPackageSpecification("p" + r);
+            importPackage.setBundle(this.roots[r]);
+            unsatisfiedImports[r] = importPackage;
+        }
+        this.state = createState(unsatisfiedImports, this.dependencies);
+    }
+
+    /**
+     * Creates a binary tree of bundles in which each bundle imports a package from each of its children.
+     */
+    private static BundleDescription[] createDependencyTree() {
+        BundleDescription[] dependencies = new BundleDescription[DEPENDENCY_COUNT];
+        for (int d = DEPENDENCY_COUNT - 1; d >= 0; d--) {
+            int left = 2 * d + 1;
+            int right = 2 * d + 2;
+            dependencies[d] = createBundle("dependency" + d, left < DEPENDENCY_COUNT ? dependencies[left] : null,
+                right < DEPENDENCY_COUNT ? dependencies[right] : null);
+        }
+        return dependencies;
+    }
+
+    private static BundleDescription createBundle(String symbolicName, BundleDescription... exporters) {
+        int exporterCount = 0;
+        ExportPackageDescription[] resolvedImports = new ExportPackageDescription[exporters.length];
+        for (BundleDescription exporter : exporters) {
+            if (exporter != null) {
+                ExportPackageDescription resolvedImport = createNiceMock(ExportPackageDescription.class);
+                expect(resolvedImport.getExporter()).andReturn(exporter).anyTimes();
+                replay(resolvedImport);
+                resolvedImports[exporterCount++] = resolvedImport;
+            }
+        }
+        ExportPackageDescription[] wiredImports = new ExportPackageDescription[exporterCount];
+        System.arraycopy(resolvedImports, 0, wiredImports, 0, exporterCount);
+
+        BundleDescription bundle = createNiceMock(BundleDescription.class);
+        expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        expect(bundle.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+        expect(bundle.isResolved()).andReturn(true).anyTimes();
+        expect(bundle.getFragments()).andReturn(new BundleDescription[0]).anyTimes();
+        expect(bundle.getResolvedRequires()).andReturn(new BundleDescription[0]).anyTimes();
+        expect(bundle.getResolvedImports()).andReturn(wiredImports).anyTimes();
+        replay(bundle);
+        return bundle;
+    }
+
+    private static State createState(VersionConstraint[] unsatisfiedImports, BundleDescription[] addedBundles) {
+        StateHelper stateHelper = createNiceMock(StateHelper.class);
+        expect(stateHelper.getUnsatisfiedLeaves(anyObject(BundleDescription[].class))).andReturn(unsatisfiedImports).anyTimes();
+
+        BundleDelta[] bundleDeltas = new BundleDelta[addedBundles.length];
+        for (int b = 0; b < addedBundles.length; b++) {
+            bundleDeltas[b] = createNiceMock(BundleDelta.class);
+            expect(bundleDeltas[b].getBundle()).andReturn(addedBundles[b]).anyTimes();
+            replay(bundleDeltas[b]);
+        }
+        StateDelta stateDelta = createNiceMock(StateDelta.class);
+        expect(stateDelta.getChanges(BundleDelta.ADDED, false)).andReturn(bundleDeltas).anyTimes();
+
+        State state = createNiceMock(State.class);
+        expect(state.getStateHelper()).andReturn(stateHelper).anyTimes();
+        expect(state.resolve(anyObject(BundleDescription[].class))).andReturn(stateDelta).anyTimes();
+        replay(stateHelper, stateDelta, state);
+        return state;
+    }
+
+    @Test
+    public void everyAddedBundleIsADependencyExactlyOnce() throws BundleException, UnableToSatisfyDependenciesException {
+        BundleDescription[] calculatedDependencies = this.dependencyCalculator.calculateDependencies(this.state,
+            new StubRegionDigraph().createRegion("coregion"), this.roots, this.disabledProvisioningRoots);
+
+        assertEquals(DEPENDENCY_COUNT, calculatedDependencies.length);
+        Set<BundleDescription> distinctDependencies = Collections.newSetFromMap(new IdentityHashMap<BundleDescription, Boolean>());
+        Collections.addAll(distinctDependencies, calculatedDependencies);
+        for (BundleDescription dependency : this.dependencies) {
+            assertTrue(dependency.getSymbolicName(), distinctDependencies.contains(dependency));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.easymock.IAnswer;
+import org.eclipse.equinox.region.Region;
+import org.eclipse.osgi.service.resolver.BundleDelta;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateDelta;
+import org.eclipse.osgi.service.resolver.StateHelper;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.osgi.service.resolver.VersionConstraint;
+import org.eclipse.virgo.repository.Query;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.repository.RepositoryAwareArtifactDescriptor;
+import org.eclipse.virgo.test.stubs.region.StubRegionDigraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+public class DependencyCalculatorTests {
+
+    private final CountDownLatch bothQuerying = new CountDownLatch(2);
+
+    private final Set<Thread> queryingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    private final List<Boolean> overlaps = new CopyOnWriteArrayList<Boolean>();
+
+    private final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+    private DependencyCalculator dependencyCalculator;
+
+    private Region coregion;
+
+    @Before
+    public void setUp() throws BundleException {
+        Repository repository = createMock(Repository.class);
+        expect(repository.createQuery(anyObject(String.class), anyObject(String.class))).andAnswer(new IAnswer<Query>() {
+
+            public Query answer() throws Throwable {
+                return createBlockingQuery();
+            }
+        }).anyTimes();
+        replay(repository);
+
+        this.dependencyCalculator = new DependencyCalculator(createNiceMock(StateObjectFactory.class),
+            createNiceMock(ResolutionFailureDetective.class), repository,
+            new ResolutionFailureDumper(createNiceMock(BundleContext.class), createNiceMock(StateObjectFactory.class), 0, 0),
+            new ReentrantReadWriteLock().readLock());
+        this.coregion = new StubRegionDigraph().createRegion("coregion");
+    }
+
+    @Test
+    public void calculationsAgainstIndependentStatesOverlap() throws InterruptedException {
+        Thread first = startCalculation("a");
+        Thread second = startCalculation("b");
+        first.join(20000);
+        second.join(20000);
+
+        assertEquals(Collections.<Throwable> emptyList(), this.failures);
+        assertEquals(2, this.overlaps.size());
+        for (Boolean overlap : this.overlaps) {
+            assertTrue("Calculations did not overlap", overlap);
+        }
+    }
+
+    private Thread startCalculation(final String packageName) {
+        final BundleDescription bundle = createBundle();
+        final State state = createState(bundle, packageName);
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    DependencyCalculatorTests.this.dependencyCalculator.calculateDependencies(state, DependencyCalculatorTests.this.coregion,
+                        new BundleDescription[] { bundle }, new BundleDescription[0]);
+                } catch (Throwable e) {
+                    DependencyCalculatorTests.this.failures.add(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates a query whose first run on each thread waits, for a bounded time, until the other calculation is also
+     * querying and records whether it did so.
+     */
+    private Query createBlockingQuery() {
+        Query query = createNiceMock(Query.class);
+        expect(query.addFilter(anyObject(String.class), anyObject(String.class))).andReturn(query).anyTimes();
+        expect(query.run()).andAnswer(new IAnswer<Set<RepositoryAwareArtifactDescriptor>>() {
+
+            public Set<RepositoryAwareArtifactDescriptor> answer() throws Throwable {
+                if (DependencyCalculatorTests.this.queryingThreads.add(Thread.currentThread())) {
+                    DependencyCalculatorTests.this.bothQuerying.countDown();
+                    DependencyCalculatorTests.this.overlaps.add(DependencyCalculatorTests.this.bothQuerying.await(5, TimeUnit.SECONDS));
+                }
+                return Collections.<RepositoryAwareArtifactDescriptor> emptySet();
+            }
+        }).anyTimes();
+        replay(query);
+        return query;
+    }
+
+    private static BundleDescription createBundle() {
+        BundleDescription bundle = createNiceMock(BundleDescription.class);
+        expect(bundle.isResolved()).andReturn(true).anyTimes();
+        expect(bundle.getFragments()).andReturn(new BundleDescription[0]).anyTimes();
+        expect(bundle.getResolvedRequires()).andReturn(new BundleDescription[0]).anyTimes();
+        expect(bundle.getResolvedImports()).andReturn(new ExportPackageDescription[0]).anyTimes();
+        replay(bundle);
+        return bundle;
+    }
+
+    private static State createState(BundleDescription bundle, String packageName) {
+        StubImportPackageSpecification importPackage = new StubImportPackageSpecification(packageName);
+        importPackage.setBundle(bundle);
+
+        StateHelper stateHelper = createNiceMock(StateHelper.class);
+        expect(stateHelper.getUnsatisfiedLeaves(anyObject(BundleDescription[].class))).andReturn(new VersionConstraint[] { importPackage }).anyTimes();
+
+        StateDelta stateDelta = createNiceMock(StateDelta.class);
+        expect(stateDelta.getChanges(BundleDelta.ADDED, false)).andReturn(new BundleDelta[0]).anyTimes();
+
+        State state = createNiceMock(State.class);
+        expect(state.getStateHelper()).andReturn(stateHelper).anyTimes();
+        expect(state.resolve(anyObject(BundleDescription[].class))).andReturn(stateDelta).anyTimes();
+        replay(stateHelper, stateDelta, state);
+        return state;
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+public class ParallelBundleInstallerTests {
+
+    @Test
+    public void bundlesAreReturnedInInstallerOrder() throws BundleException {
+        Bundle first = createMock(Bundle.class);
+        Bundle second = createMock(Bundle.class);
+        Bundle third = createMock(Bundle.class);
+        replay(first, second, third);
+
+        List<Callable<Bundle>> installers = new ArrayList<Callable<Bundle>>();
+        installers.add(new StubInstaller(first, null));
+        installers.add(new StubInstaller(second, null));
+        installers.add(new StubInstaller(third, null));
+
+        List<Bundle> bundles = new ParallelBundleInstaller(4).install(installers);
+        assertEquals(3, bundles.size());
+        assertSame(first, bundles.get(0));
+        assertSame(second, bundles.get(1));
+        assertSame(third, bundles.get(2));
+        verify(first, second, third);
+    }
+
+    @Test
+    public void failedQuasiBundleInstallUninstallsInstalledDependencies() throws Exception {
+        checkFailedQuasiBundleInstallUninstallsInstalledDependencies(1);
+        checkFailedQuasiBundleInstallUninstallsInstalledDependencies(4);
+    }
+
+    private void checkFailedQuasiBundleInstallUninstallsInstalledDependencies(int threads) throws Exception {
+        Bundle firstDependency = createMock(Bundle.class);
+        firstDependency.uninstall();
+        Bundle secondDependency = createMock(Bundle.class);
+        secondDependency.uninstall();
+        replay(firstDependency, secondDependency);
+
+        // The quasi bundle fails only once both dependencies have been installed.
+        CountDownLatch dependenciesInstalled = new CountDownLatch(2);
+        BundleException failure = new BundleException("quasi bundle install failed");
+        List<Callable<Bundle>> installers = new ArrayList<Callable<Bundle>>();
+        installers.add(new StubInstaller(null, dependenciesInstalled, failure));
+        installers.add(new StubInstaller(firstDependency, dependenciesInstalled));
+        installers.add(new StubInstaller(secondDependency, dependenciesInstalled));
+        if (threads == 1) {
+            // Installing inline, the dependencies must be installed before the quasi bundle.
+            installers.add(installers.remove(0));
+        }
+
+        try {
+            new ParallelBundleInstaller(threads).install(installers);
+            fail("BundleException expected");
+        } catch (BundleException e) {
+            assertSame(failure, e);
+        }
+        verify(firstDependency, secondDependency);
+    }
+
+    @Test
+    public void interruptedInstallUninstallsInstalledBundles() throws Exception {
+        Bundle first = createMock(Bundle.class);
+        first.uninstall();
+        Bundle second = createMock(Bundle.class);
+        second.uninstall();
+        replay(first, second);
+
+        CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final List<Callable<Bundle>> installers = new ArrayList<Callable<Bundle>>();
+        installers.add(new BlockingInstaller(first, started, proceed));
+        installers.add(new BlockingInstaller(second, started, proceed));
+
+        final ParallelBundleInstaller bundleInstaller = new ParallelBundleInstaller(2);
+        final AtomicReference<BundleException> failure = new AtomicReference<BundleException>();
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        Thread installingThread = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    bundleInstaller.install(installers);
+                } catch (BundleException e) {
+                    failure.set(e);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        installingThread.start();
+
+        assertTrue("Installers not started", started.await(10, TimeUnit.SECONDS));
+        installingThread.interrupt();
+        proceed.countDown();
+        installingThread.join(10000);
+
+        assertNotNull(failure.get());
+        assertTrue(interrupted.get());
+        verify(first, second);
+    }
+
+    private static final class StubInstaller implements Callable<Bundle> {
+
+        private final Bundle bundle;
+
+        private final CountDownLatch dependenciesInstalled;
+
+        private final BundleException failure;
+
+        private StubInstaller(Bundle bundle, CountDownLatch dependenciesInstalled) {
+            this(bundle, dependenciesInstalled, null);
+        }
+
+        private StubInstaller(Bundle bundle, CountDownLatch dependenciesInstalled, BundleException failure) {
+            this.bundle = bundle;
+            this.dependenciesInstalled = dependenciesInstalled;
+            this.failure = failure;
+        }
+
+        public Bundle call() throws Exception {
+            if (this.failure != null) {
+                this.dependenciesInstalled.await(10, TimeUnit.SECONDS);
+                throw this.failure;
+            }
+            if (this.dependenciesInstalled != null) {
+                this.dependenciesInstalled.countDown();
+            }
+            return this.bundle;
+        }
+    }
+
+    private static final class BlockingInstaller implements Callable<Bundle> {
+
+        private final Bundle bundle;
+
+        private final CountDownLatch started;
+
+        private final CountDownLatch proceed;
+
+        private BlockingInstaller(Bundle bundle, CountDownLatch started, CountDownLatch proceed) {
+            this.bundle = bundle;
+            this.started = started;
+            this.proceed = proceed;
+        }
+
+        public Bundle call() throws Exception {
+            this.started.countDown();
+            this.proceed.await(10, TimeUnit.SECONDS);
+            return this.bundle;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.repository.Query;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.repository.RepositoryAwareArtifactDescriptor;
+import org.junit.Test;
+
+public class RepositoryQueryMemoTests {
+
+    private final Repository repository = createMock(Repository.class);
+
+    private final RepositoryQueryMemo queryMemo = new RepositoryQueryMemo(this.repository);
+
+    @Test
+    public void repeatedPackageQueryRunsOnce() {
+        Set<RepositoryAwareArtifactDescriptor> exporters = Collections.singleton(createMock(RepositoryAwareArtifactDescriptor.class));
+        Query query = createMock(Query.class);
+        expect(this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE)).andReturn(query).once();
+        expect(query.addFilter("Export-Package", "p")).andReturn(query).once();
+        expect(query.addFilter("Bundle-SymbolicName", "b")).andReturn(query).once();
+        expect(query.run()).andReturn(exporters).once();
+        replay(this.repository, query);
+
+        assertSame(exporters, this.queryMemo.findPackageExporters("p", null, "b", null));
+        assertSame(exporters, this.queryMemo.findPackageExporters("p", null, "b", null));
+
+        verify(this.repository, query);
+    }
+
+    @Test
+    public void bundleAndFragmentQueriesAreDistinct() {
+        Set<RepositoryAwareArtifactDescriptor> bundles = Collections.singleton(createMock(RepositoryAwareArtifactDescriptor.class));
+        Set<RepositoryAwareArtifactDescriptor> fragments = Collections.singleton(createMock(RepositoryAwareArtifactDescriptor.class));
+        Query bundleQuery = createMock(Query.class);
+        Query fragmentQuery = createMock(Query.class);
+        expect(this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE)).andReturn(bundleQuery).once();
+        expect(this.repository.createQuery("type", BundleBridge.BRIDGE_TYPE)).andReturn(fragmentQuery).once();
+        expect(bundleQuery.addFilter("Bundle-SymbolicName", "b")).andReturn(bundleQuery).once();
+        expect(bundleQuery.run()).andReturn(bundles).once();
+        expect(fragmentQuery.addFilter("Fragment-Host", "b")).andReturn(fragmentQuery).once();
+        expect(fragmentQuery.run()).andReturn(fragments).once();
+        replay(this.repository, bundleQuery, fragmentQuery);
+
+        assertSame(bundles, this.queryMemo.findBundles("b"));
+        assertSame(fragments, this.queryMemo.findFragments("b"));
+        assertSame(bundles, this.queryMemo.findBundles("b"));
+        assertSame(fragments, this.queryMemo.findFragments("b"));
+
+        verify(this.repository, bundleQuery, fragmentQuery);
+    }
+}
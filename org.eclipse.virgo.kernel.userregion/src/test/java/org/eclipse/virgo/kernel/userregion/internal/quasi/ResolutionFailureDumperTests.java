@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.easymock.IAnswer;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.virgo.medic.dump.Dump;
+import org.eclipse.virgo.medic.dump.DumpContributor;
+import org.eclipse.virgo.medic.dump.DumpGenerator;
+import org.eclipse.virgo.util.io.PathReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+public class ResolutionFailureDumperTests {
+
+    private static final String DUMP_ID_PREFIX = "2013-02-04-10-15-30-12";
+
+    private static final int DUMP_FILE_BYTES = 600 * 1024;
+
+    private final PathReference dumpArea = new PathReference("./target/resolution-failure-dumps");
+
+    private final Lock stateLock = new ReentrantReadWriteLock().readLock();
+
+    private final AtomicInteger dumpCount = new AtomicInteger();
+
+    private volatile DumpContributor dumpContributor;
+
+    @Before
+    public void setUp() {
+        this.dumpArea.delete(true);
+        this.dumpArea.createDirectory();
+    }
+
+    @Test
+    public void identicalFailuresAreDumpedOnce() throws InterruptedException {
+        CountDownLatch dumped = new CountDownLatch(1);
+        DumpGenerator dumpGenerator = createDumpGenerator(dumped, 1);
+
+        ResolutionFailureDumper dumper = createDumper(createBundleContext(dumpGenerator), ResolutionFailureDumper.DEFAULT_DUMPS_PER_HOUR);
+        assertNotNull(dumper.dump(createState("a", "p"), this.stateLock));
+        dumper.dump(createState("a", "p"), this.stateLock);
+
+        assertTrue("Dump not generated", dumped.await(10, TimeUnit.SECONDS));
+        assertEquals(dumpId(0), dumper.getDumpId(createState("a", "p")));
+        assertEquals(dumpId(0), dumper.dump(createState("a", "p"), this.stateLock));
+        verify(dumpGenerator);
+    }
+
+    @Test
+    public void failuresWithDifferentHeadersAreDumpedSeparately() throws InterruptedException {
+        CountDownLatch dumped = new CountDownLatch(2);
+        DumpGenerator dumpGenerator = createDumpGenerator(dumped, 2);
+
+        ResolutionFailureDumper dumper = createDumper(createBundleContext(dumpGenerator), ResolutionFailureDumper.DEFAULT_DUMPS_PER_HOUR);
+        dumper.dump(createState("a", "p"), this.stateLock);
+        dumper.dump(createState("a", "q"), this.stateLock);
+
+        assertTrue("Dumps not generated", dumped.await(10, TimeUnit.SECONDS));
+        verify(dumpGenerator);
+    }
+
+    @Test
+    public void failuresBeyondRateAreNotDumped() throws InterruptedException {
+        CountDownLatch dumped = new CountDownLatch(1);
+        DumpGenerator dumpGenerator = createDumpGenerator(dumped, 1);
+
+        ResolutionFailureDumper dumper = createDumper(createBundleContext(dumpGenerator), 1);
+        dumper.dump(createState("a", "p"), this.stateLock);
+        assertNull(dumper.dump(createState("b", "p"), this.stateLock));
+
+        assertTrue("Dump not generated", dumped.await(10, TimeUnit.SECONDS));
+        assertNull(dumper.getDumpId(createState("b", "p")));
+        verify(dumpGenerator);
+    }
+
+    @Test
+    public void failureIsNotDumpedWithoutDumpGenerator() throws InterruptedException {
+        final CountDownLatch lookedUp = new CountDownLatch(1);
+        BundleContext bundleContext = createMock(BundleContext.class);
+        expect(bundleContext.getServiceReference(DumpGenerator.class)).andAnswer(new IAnswer<ServiceReference<DumpGenerator>>() {
+
+            public ServiceReference<DumpGenerator> answer() throws Throwable {
+                lookedUp.countDown();
+                return null;
+            }
+        });
+        replay(bundleContext);
+
+        ResolutionFailureDumper dumper = createDumper(bundleContext, ResolutionFailureDumper.DEFAULT_DUMPS_PER_HOUR);
+        dumper.dump(createState("a", "p"), this.stateLock);
+
+        assertTrue("Dump generator not looked up", lookedUp.await(10, TimeUnit.SECONDS));
+        assertNull(dumper.getDumpId(createState("a", "p")));
+        verify(bundleContext);
+    }
+
+    @Test
+    public void oldestDumpsBeyondBudgetAreDeleted() throws InterruptedException {
+        CountDownLatch dumped = new CountDownLatch(3);
+        DumpGenerator dumpGenerator = createDumpGenerator(dumped, 3);
+
+        // Each dump is a little over half of the one megabyte budget.
+        ResolutionFailureDumper dumper = new ResolutionFailureDumper(createBundleContext(dumpGenerator),
+            createNiceMock(StateObjectFactory.class), ResolutionFailureDumper.DEFAULT_DUMPS_PER_HOUR, 1);
+        dumper.dump(createState("a", "p"), this.stateLock);
+        dumper.dump(createState("b", "p"), this.stateLock);
+        dumper.dump(createState("c", "p"), this.stateLock);
+
+        assertTrue("Dumps not generated", dumped.await(10, TimeUnit.SECONDS));
+        assertDeleted(dumpDirectory(1));
+        assertFalse(dumpDirectory(0).exists());
+        assertTrue(dumpDirectory(2).exists());
+        assertNull(dumper.getDumpId(createState("a", "p")));
+        assertEquals(dumpId(2), dumper.getDumpId(createState("c", "p")));
+        verify(dumpGenerator);
+    }
+
+    private static void assertDeleted(File file) throws InterruptedException {
+        // The dumps are deleted on the dump thread once the next dump has been generated.
+        for (int attempt = 0; attempt < 100 && file.exists(); attempt++) {
+            Thread.sleep(100);
+        }
+        assertFalse("'" + file + "' not deleted", file.exists());
+    }
+
+    private ResolutionFailureDumper createDumper(BundleContext bundleContext, int dumpsPerHour) {
+        return new ResolutionFailureDumper(bundleContext, createNiceMock(StateObjectFactory.class), dumpsPerHour,
+            ResolutionFailureDumper.DEFAULT_DUMP_MEGABYTES);
+    }
+
+    private static String dumpId(int dump) {
+        return DUMP_ID_PREFIX + dump;
+    }
+
+    private File dumpDirectory(int dump) {
+        return new File(this.dumpArea.toFile(), dumpId(dump));
+    }
+
+    @SuppressWarnings("unchecked")
+    private DumpGenerator createDumpGenerator(final CountDownLatch dumped, int dumps) {
+        DumpGenerator dumpGenerator = createMock(DumpGenerator.class);
+        dumpGenerator.generateDump(eq("resolutionFailure"), anyObject(Map.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            public Object answer() throws Throwable {
+                // Contribute to the dump as medic would, so that the dumper learns the dump's identity.
+                File dumpFile = new File(dumpDirectory(ResolutionFailureDumperTests.this.dumpCount.getAndIncrement()), "resolution.state");
+                writeDumpFile(dumpFile);
+                Dump dump = createNiceMock(Dump.class);
+                expect(dump.getContext()).andReturn((Map<String, Object>) getCurrentArguments()[1]).anyTimes();
+                expect(dump.createFile(anyObject(String.class))).andReturn(dumpFile).anyTimes();
+                replay(dump);
+                ResolutionFailureDumperTests.this.dumpContributor.contribute(dump);
+                dumped.countDown();
+                return null;
+            }
+        }).times(dumps);
+        replay(dumpGenerator);
+        return dumpGenerator;
+    }
+
+    private static void writeDumpFile(File dumpFile) throws IOException {
+        dumpFile.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(dumpFile);
+        try {
+            outputStream.write(new byte[DUMP_FILE_BYTES]);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BundleContext createBundleContext(DumpGenerator dumpGenerator) {
+        ServiceReference<DumpGenerator> dumpGeneratorReference = createNiceMock(ServiceReference.class);
+        BundleContext bundleContext = createNiceMock(BundleContext.class);
+        expect(bundleContext.getServiceReference(DumpGenerator.class)).andReturn(dumpGeneratorReference).anyTimes();
+        expect(bundleContext.getService(dumpGeneratorReference)).andReturn(dumpGenerator).anyTimes();
+        expect(bundleContext.registerService(eq(DumpContributor.class), anyObject(DumpContributor.class), (Dictionary<String, ?>) isNull())).andAnswer(new IAnswer<ServiceRegistration<DumpContributor>>() {
+
+            public ServiceRegistration<DumpContributor> answer() throws Throwable {
+                ResolutionFailureDumperTests.this.dumpContributor = (DumpContributor) getCurrentArguments()[1];
+                return null;
+            }
+        });
+        replay(dumpGeneratorReference, bundleContext);
+        return bundleContext;
+    }
+
+    private static State createState(String symbolicName, String importedPackage) {
+        StubBundleDescription bundle = new StubBundleDescription(symbolicName);
+        bundle.addImportPackage(new StubImportPackageSpecification(importedPackage));
+        State state = createNiceMock(State.class);
+        expect(state.getBundles()).andReturn(new BundleDescription[] { bundle }).anyTimes();
+        replay(state);
+        return state;
+    }
+}
@@ -13,7 +13,9 @@ package org.eclipse.virgo.kernel.userregion.internal.quasi;
 
 import java.util.List;
 
+import org.easymock.EasyMock;
 import org.eclipse.equinox.region.Region;
+import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiExportPackage;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiImportPackage;
@@ -91,6 +93,21 @@ public class StandardQuasiBundleTests {
         Assert.assertEquals(0, fragments.size());
     }
     
+    @Test
+    public void testWiringRememberedUntilStateChanges() {
+        State state = EasyMock.createMock(State.class);
+        EasyMock.expect(state.getTimeStamp()).andReturn(1L).times(2);
+        EasyMock.expect(state.getTimeStamp()).andReturn(2L);
+        EasyMock.replay(state);
+        bundleDescription.setContainingState(state);
+        bundleDescription.addFragment(new StubBundleDescription("f1"));
+        QuasiBundle qb = new StandardQuasiBundle(bundleDescription, null, this.stubRegion);
+        List<QuasiBundle> fragments = qb.getFragments();
+        Assert.assertSame(fragments, qb.getFragments());
+        Assert.assertNotSame(fragments, qb.getFragments());
+        EasyMock.verify(state);
+    }
+
     @Test
     public void testHosts() {
         bundleDescription.addHost(new StubBundleDescription("h1"));
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.AbstractOsgiFrameworkLaunchingTests;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+public class StandardQuasiFrameworkFactoryTests extends AbstractOsgiFrameworkLaunchingTests {
+
+    @Override
+    protected String getRepositoryConfigDirectory() {
+        return new File("src/test/resources/config/UsesAnalyserTests").getAbsolutePath();
+    }
+
+    @Test
+    public void consecutiveCreatesReuseTheStateSnapshot() throws Exception {
+        QuasiFramework first = this.quasiFrameworkFactory.create();
+        byte[] snapshot = this.quasiFrameworkFactory.getStateSnapshot();
+
+        QuasiFramework second = this.quasiFrameworkFactory.create();
+        assertNotSame(first, second);
+        assertSame(snapshot, this.quasiFrameworkFactory.getStateSnapshot());
+    }
+
+    @Test
+    public void installingABundleInvalidatesTheStateSnapshot() throws Exception {
+        this.quasiFrameworkFactory.create();
+        byte[] snapshot = this.quasiFrameworkFactory.getStateSnapshot();
+
+        install("dependent/bundles/q");
+
+        this.quasiFrameworkFactory.create();
+        assertNotSame(snapshot, this.quasiFrameworkFactory.getStateSnapshot());
+    }
+
+    @Test
+    public void uninstallingABundleInvalidatesTheStateSnapshot() throws Exception {
+        Bundle bundle = install("dependent/bundles/q");
+        this.quasiFrameworkFactory.create();
+        byte[] snapshot = this.quasiFrameworkFactory.getStateSnapshot();
+
+        bundle.uninstall();
+
+        this.quasiFrameworkFactory.create();
+        assertNotSame(snapshot, this.quasiFrameworkFactory.getStateSnapshot());
+    }
+
+    private Bundle install(String subPath) throws BundleException {
+        String fullPath = "src/test/resources/uat/" + subPath;
+        String location = "reference:file:/" + new File(fullPath).getAbsolutePath();
+        return this.framework.getBundleContext().installBundle(location);
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2013 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.equinox.region.RegionDigraph;
+import org.eclipse.equinox.region.RegionFilter;
+import org.eclipse.equinox.region.RegionFilterBuilder;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.PlatformAdmin;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
+import org.eclipse.virgo.repository.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+public class StandardQuasiFrameworkTests {
+
+    private static final String USER_REGION_NAME = "org.eclipse.virgo.region.user";
+
+    private StandardQuasiFramework quasiFramework;
+
+    @Before
+    public void setUp() {
+        StubBundleDescription first = new StubBundleDescription("first");
+        first.setBundleId(1);
+        StubBundleDescription second = new StubBundleDescription("second");
+        second.setBundleId(2);
+
+        State state = createNiceMock(State.class);
+        expect(state.getBundles()).andReturn(new BundleDescription[] { first, second }).anyTimes();
+        expect(state.getBundle(1)).andReturn(first).anyTimes();
+
+        RegionFilterBuilder regionFilterBuilder = createNiceMock(RegionFilterBuilder.class);
+        expect(regionFilterBuilder.allowAll(anyObject(String.class))).andReturn(regionFilterBuilder).anyTimes();
+        expect(regionFilterBuilder.build()).andReturn(createNiceMock(RegionFilter.class)).anyTimes();
+
+        Region userRegion = createNiceMock(Region.class);
+        expect(userRegion.getName()).andReturn(USER_REGION_NAME).anyTimes();
+
+        RegionDigraph regionDigraph = createNiceMock(RegionDigraph.class);
+        expect(regionDigraph.createRegionFilterBuilder()).andReturn(regionFilterBuilder).anyTimes();
+        expect(regionDigraph.getRegion(USER_REGION_NAME)).andReturn(userRegion).anyTimes();
+        replay(state, regionFilterBuilder, userRegion, regionDigraph);
+
+        this.quasiFramework = new StandardQuasiFramework(createNiceMock(BundleContext.class), state, createNiceMock(PlatformAdmin.class),
+            createNiceMock(ResolutionFailureDetective.class), createNiceMock(Repository.class), null, regionDigraph, new ResolutionFailureDumper(
+                createNiceMock(BundleContext.class), createNiceMock(StateObjectFactory.class), 0, 0), new ParallelBundleInstaller(1));
+    }
+
+    @Test
+    public void inspectionReusesQuasiBundles() {
+        List<QuasiBundle> bundles = this.quasiFramework.getBundles();
+        assertEquals(2, bundles.size());
+        assertEquals("first", bundles.get(0).getSymbolicName());
+        assertEquals("second", bundles.get(1).getSymbolicName());
+
+        List<QuasiBundle> bundlesAgain = this.quasiFramework.getBundles();
+        assertSame(bundles.get(0), bundlesAgain.get(0));
+        assertSame(bundles.get(1), bundlesAgain.get(1));
+        assertSame(bundles.get(0), this.quasiFramework.getBundle(1));
+    }
+}
@@ -44,6 +44,8 @@ public class StubBundleDescription implements BundleDescription {
 
     private long bid;
 
+    private String location;
+
     private List<BundleDescription> fragments = new ArrayList<BundleDescription>();
 
     private List<BundleDescription> hosts = null;
@@ -56,6 +58,8 @@ public class StubBundleDescription implements BundleDescription {
 
     private List<BundleDescription> dependents = new ArrayList<BundleDescription>();
 
+    private State containingState;
+
     public StubBundleDescription() {
     }
 
@@ -92,7 +96,7 @@ public class StubBundleDescription implements BundleDescription {
      */
     @Override
     public State getContainingState() {
-        throw new UnsupportedOperationException();
+        return this.containingState;
     }
 
     /**
@@ -213,7 +217,7 @@ public class StubBundleDescription implements BundleDescription {
      */
     @Override
     public String getLocation() {
-        throw new UnsupportedOperationException();
+        return this.location;
     }
 
     /**
@@ -368,6 +372,14 @@ public class StubBundleDescription implements BundleDescription {
         this.bid = bid;
     }
 
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public void setContainingState(State containingState) {
+        this.containingState = containingState;
+    }
+
     public void addFragment(BundleDescription f) {
         this.fragments.add(f);
     }